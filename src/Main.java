@@ -1,6 +1,17 @@
 import models.*;
+import network.ChatServer;
+import network.CommandProcessor;
+import network.NioGateway;
+import search.SearchMode;
 import services.*;
+import storage.ChannelLogManager;
+import storage.Checkpointer;
+import storage.DirectMessageStore;
+import storage.StorageConfig;
 import utils.ConsoleUtil;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Paths;
 import java.util.*;
 
 /**
@@ -11,24 +22,67 @@ public class Main {
     private static AuthService authService;
     private static ServerService serverService;
     private static ChannelService channelService;
+    private static Session session; // the console's login, null when logged out
     private static Scanner scanner = new Scanner(System.in);
+    private static final int USERNAME_SUGGESTIONS = 10;
+    private static final int DEFAULT_PORT = 7070;
+    private static final int DEFAULT_GATEWAY_PORT = 7071;
     
     public static void main(String[] args) {
+        long startNanos = System.nanoTime();
+        
+        // Open durable channel logs, direct messages and the user/server checkpoints; all are flushed on exit
+        ChannelLogManager logManager = null;
+        Checkpointer checkpointer = null;
+        DirectMessageStore directMessages = new DirectMessageStore();
+        if (StorageConfig.isPersistenceEnabled()) {
+            logManager = ChannelLogManager.fromConfig();
+            checkpointer = Checkpointer.fromConfig();
+            directMessages = DirectMessageStore.fromConfig();
+            ChannelLogManager logs = logManager;
+            Checkpointer checkpoints = checkpointer;
+            DirectMessageStore dms = directMessages;
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                checkpoints.close();
+                logs.close();
+                dms.close();
+            }));
+        }
+        
         // Initialize services
-        authService = new AuthService();
-        serverService = new ServerService(authService);
-        channelService = new ChannelService(authService, serverService);
+        authService = new AuthService(checkpointer);
+        serverService = new ServerService(authService, logManager, checkpointer);
+        channelService = new ChannelService(authService, serverService, directMessages);
+        long startupMillis = (System.nanoTime() - startNanos) / 1_000_000;
+        
+        // Serve network clients instead of the console when asked: --serve [port] [host]
+        if (args.length > 0 && args[0].equals("--serve")) {
+            int port = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_PORT;
+            String host = args.length > 2 ? args[2] : "127.0.0.1";
+            serve(new InetSocketAddress(host, port), startupMillis);
+            return;
+        }
+        
+        // Or the binary NIO gateway: --gateway [port] [host]
+        if (args.length > 0 && args[0].equals("--gateway")) {
+            int port = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_GATEWAY_PORT;
+            String host = args.length > 2 ? args[2] : "127.0.0.1";
+            gateway(new InetSocketAddress(host, port), startupMillis);
+            return;
+        }
         
         // Display welcome banner
         ConsoleUtil.clearScreen();
         ConsoleUtil.printBanner();
         ConsoleUtil.printInfo("Welcome to Discord Clone - Java Console Edition");
+        ConsoleUtil.printInfo("Started in " + startupMillis + " ms with " + serverService.getAllServers().size()
+            + " servers; channel history is loaded on first use.");
                
         ConsoleUtil.waitForEnter();
         
         // Main application loop
         while (true) {
-            if (!authService.isLoggedIn()) {
+            if (!authService.isLoggedIn(session)) {
                 showAuthMenu();
             } else {
                 showMainMenu();
@@ -36,6 +90,44 @@ public class Main {
         }
     }
     
+    /**
+     * Run the TCP front-end until the process is stopped
+     */
+    private static void serve(InetSocketAddress address, long startupMillis) {
+        ChatServer chatServer = new ChatServer(new CommandProcessor(authService, serverService, channelService), address);
+        try {
+            chatServer.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(chatServer::close));
+            ConsoleUtil.printInfo("Started in " + startupMillis + " ms; serving clients on " + address.getHostString()
+                + ":" + chatServer.getPort() + " using " + (ChatServer.hasVirtualThreads() ? "virtual" : "platform")
+                + " threads. Send HELP for the commands.");
+            chatServer.awaitTermination();
+        } catch (IOException e) {
+            ConsoleUtil.printError("Could not listen on " + address + ": " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    /**
+     * Run the NIO gateway, one event loop per processor, until the process is stopped
+     */
+    private static void gateway(InetSocketAddress address, long startupMillis) {
+        NioGateway gateway = new NioGateway(authService, serverService, channelService, address,
+            Runtime.getRuntime().availableProcessors());
+        try {
+            gateway.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(gateway::close));
+            ConsoleUtil.printInfo("Started in " + startupMillis + " ms; gateway on " + address.getHostString()
+                + ":" + gateway.getPort() + " with " + gateway.getThreadCount() + " event loop(s).");
+            gateway.awaitTermination();
+        } catch (IOException e) {
+            ConsoleUtil.printError("Could not listen on " + address + ": " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
     private static void showAuthMenu() {
         ConsoleUtil.clearScreen();
         String[] options = {
@@ -72,7 +164,7 @@ public class Main {
     
     private static void showMainMenu() {
         ConsoleUtil.clearScreen();
-        User currentUser = authService.getCurrentUser();
+        User currentUser = session.getUser();
         ConsoleUtil.printHeader("Welcome, " + currentUser.getUsername() + "!");
         
         String[] options = {
@@ -80,6 +172,7 @@ public class Main {
             "Channel & Messaging",
             "Friends & Direct Messages",
             "User Profile",
+            "Search All My Servers",
             "Logout"
         };
         
@@ -101,7 +194,11 @@ public class Main {
                 showUserProfile();
                 break;
             case 5:
-                authService.logoutUser();
+                searchAllServers();
+                break;
+            case 6:
+                authService.logoutUser(session);
+                session = null;
                 break;
             case 0:
                 exitApplication();
@@ -116,11 +213,8 @@ public class Main {
         String username = ConsoleUtil.getInput("Username");
         String password = ConsoleUtil.getPassword("Password");
         
-        if (authService.loginUser(username, password)) {
-            ConsoleUtil.waitForEnter();
-        } else {
-            ConsoleUtil.waitForEnter();
-        }
+        session = authService.loginUser(username, password);
+        ConsoleUtil.waitForEnter();
     }
     
     private static void handleRegister() {
@@ -151,7 +245,8 @@ public class Main {
     }
     
     private static void handleDemoLogin() {
-        if (authService.loginUser("admin", "admin123")) {
+        session = authService.loginUser("admin", "admin123");
+        if (session != null) {
             ConsoleUtil.printInfo("Logged in as demo admin user.");
             ConsoleUtil.waitForEnter();
         }
@@ -176,7 +271,8 @@ public class Main {
                 "Create New Server",
                 "Join Server (Invite Code)",
                 "Server Management",
-                "Leave Server"
+                "Leave Server",
+                "Import Server"
             };
             
             ConsoleUtil.printMenu("Server Management", options);
@@ -199,6 +295,9 @@ public class Main {
                 case 5:
                     leaveServer();
                     break;
+                case 6:
+                    importServer();
+                    break;
                 case 0:
                     return;
                 default:
@@ -209,7 +308,7 @@ public class Main {
     
     private static void showChannelMenu() {
         // First, let user select a server
-        List<Server> userServers = serverService.getCurrentUserServers();
+        List<Server> userServers = serverService.getJoinedServers(session);
         if (userServers.isEmpty()) {
             ConsoleUtil.printError("You are not a member of any servers. Join a server first.");
             ConsoleUtil.waitForEnter();
@@ -235,7 +334,12 @@ public class Main {
                 "Join Voice Channel",
                 "Leave Voice Channel",
                 "Voice Actions",
-                "Manage Channel Users"
+                "Manage Channel Users",
+                "Browse Older Messages",
+                "History Storage Settings",
+                "Search All Channels",
+                "Jump to Message or Date",
+                "Messages Between Dates"
             };
             
             ConsoleUtil.printMenu("Channel & Messaging", options);
@@ -279,6 +383,21 @@ public class Main {
                 case 12:
                     manageChannelUsers(selectedServer);
                     break;
+                case 13:
+                    browseOlderMessages(selectedServer);
+                    break;
+                case 14:
+                    manageHistoryStorage(selectedServer);
+                    break;
+                case 15:
+                    searchServer(selectedServer);
+                    break;
+                case 16:
+                    jumpToHistory(selectedServer);
+                    break;
+                case 17:
+                    viewMessagesBetween(selectedServer);
+                    break;
                 case 0:
                     return;
                 default:
@@ -327,13 +446,13 @@ public class Main {
     }
     
     private static void showUserProfile() {
-        authService.displayUserStats();
+        authService.displayUserStats(session);
         ConsoleUtil.waitForEnter();
     }
     
     // Server Management Methods
     private static void viewMyServers() {
-        List<Server> userServers = serverService.getCurrentUserServers();
+        List<Server> userServers = serverService.getJoinedServers(session);
         
         if (userServers.isEmpty()) {
             ConsoleUtil.printInfo("You are not a member of any servers.");
@@ -352,7 +471,7 @@ public class Main {
         String serverName = ConsoleUtil.getInput("Server Name");
         String description = ConsoleUtil.getInput("Description (optional)");
         
-        if (serverService.createServer(serverName, description)) {
+        if (serverService.createServer(session, serverName, description)) {
             ConsoleUtil.printInfo("Server created successfully!");
         }
         ConsoleUtil.waitForEnter();
@@ -362,14 +481,14 @@ public class Main {
         ConsoleUtil.printHeader("Join Server");
         String inviteCode = ConsoleUtil.getInput("Invite Code");
         
-        if (serverService.joinServerByInvite(inviteCode)) {
+        if (serverService.joinServerByInvite(session, inviteCode)) {
             ConsoleUtil.printInfo("Successfully joined server!");
         }
         ConsoleUtil.waitForEnter();
     }
     
     private static void manageServer() {
-        List<Server> userServers = serverService.getCurrentUserServers();
+        List<Server> userServers = serverService.getJoinedServers(session);
         if (userServers.isEmpty()) {
             ConsoleUtil.printError("You are not a member of any servers.");
             ConsoleUtil.waitForEnter();
@@ -387,7 +506,10 @@ public class Main {
             "Ban User",
             "Set User Role",
             "Regenerate Invite Code",
-            "Delete Server"
+            "Delete Server",
+            "Export Server",
+            "View User Activity",
+            "Delete User's Messages"
         };
         
         for (int i = 0; i < options.length; i++) {
@@ -399,24 +521,46 @@ public class Main {
         switch (choice) {
             case 1:
                 String kickUser = ConsoleUtil.getInput("Username to kick");
-                serverService.kickUser(selectedServer.getServerId(), kickUser);
+                serverService.kickUser(session, selectedServer.getServerId(), kickUser);
                 break;
             case 2:
                 String banUser = ConsoleUtil.getInput("Username to ban");
-                serverService.banUser(selectedServer.getServerId(), banUser);
+                boolean deleteMessages = ConsoleUtil.getConfirmation("Also delete their messages in this server?");
+                serverService.banUser(session, selectedServer.getServerId(), banUser, deleteMessages);
                 break;
             case 3:
                 String roleUser = ConsoleUtil.getInput("Username");
                 String role = ConsoleUtil.getInput("New role (ADMIN/MODERATOR/MEMBER)");
-                serverService.setUserRole(selectedServer.getServerId(), roleUser, role);
+                serverService.setUserRole(session, selectedServer.getServerId(), roleUser, role);
                 break;
             case 4:
-                selectedServer.regenerateInviteCode();
-                ConsoleUtil.printSuccess("New invite code: " + selectedServer.getInviteCode());
+                String newCode = serverService.regenerateInviteCode(selectedServer.getServerId());
+                if (newCode != null) {
+                    ConsoleUtil.printSuccess("New invite code: " + newCode);
+                }
                 break;
             case 5:
                 if (ConsoleUtil.getConfirmation("Are you sure you want to delete this server?")) {
-                    serverService.deleteServer(selectedServer.getServerId());
+                    serverService.deleteServer(session, selectedServer.getServerId());
+                }
+                break;
+            case 6:
+                String exportPath = ConsoleUtil.getInput("Archive file to write");
+                serverService.exportServer(session, selectedServer.getServerId(), Paths.get(exportPath));
+                break;
+            case 7:
+                String activityUser = ConsoleUtil.getInput("Username");
+                List<Message> page = serverService.displayUserActivity(session, selectedServer.getServerId(),
+                    activityUser, null);
+                while (!page.isEmpty() && ConsoleUtil.getConfirmation("Show older messages?")) {
+                    page = serverService.displayUserActivity(session, selectedServer.getServerId(), activityUser,
+                        page.get(page.size() - 1));
+                }
+                break;
+            case 8:
+                String purgeUser = ConsoleUtil.getInput("Username whose messages to delete");
+                if (ConsoleUtil.getConfirmation("Delete every message " + purgeUser + " sent in this server?")) {
+                    serverService.deleteUserMessages(session, selectedServer.getServerId(), purgeUser);
                 }
                 break;
         }
@@ -424,8 +568,15 @@ public class Main {
         ConsoleUtil.waitForEnter();
     }
     
+    private static void importServer() {
+        ConsoleUtil.printHeader("Import Server");
+        String path = ConsoleUtil.getInput("Archive file to import");
+        serverService.importServer(session, Paths.get(path));
+        ConsoleUtil.waitForEnter();
+    }
+    
     private static void leaveServer() {
-        List<Server> userServers = serverService.getCurrentUserServers();
+        List<Server> userServers = serverService.getJoinedServers(session);
         if (userServers.isEmpty()) {
             ConsoleUtil.printError("You are not a member of any servers.");
             ConsoleUtil.waitForEnter();
@@ -436,7 +587,7 @@ public class Main {
         if (selectedServer == null) return;
         
         if (ConsoleUtil.getConfirmation("Are you sure you want to leave '" + selectedServer.getServerName() + "'?")) {
-            serverService.leaveServer(selectedServer.getServerId());
+            serverService.leaveServer(session, selectedServer.getServerId());
         }
         ConsoleUtil.waitForEnter();
     }
@@ -469,13 +620,13 @@ public class Main {
     
     private static void createTextChannel(Server server) {
         String channelName = ConsoleUtil.getInput("Text Channel Name");
-        channelService.createTextChannel(server.getServerId(), channelName);
+        channelService.createTextChannel(session, server.getServerId(), channelName);
         ConsoleUtil.waitForEnter();
     }
     
     private static void createVoiceChannel(Server server) {
         String channelName = ConsoleUtil.getInput("Voice Channel Name");
-        channelService.createVoiceChannel(server.getServerId(), channelName);
+        channelService.createVoiceChannel(session, server.getServerId(), channelName);
         ConsoleUtil.waitForEnter();
     }
     
@@ -484,7 +635,7 @@ public class Main {
         if (selectedChannel == null) return;
         
         String message = ConsoleUtil.getInput("Message");
-        channelService.sendMessageToChannel(server.getServerId(), selectedChannel.getChannelId(), message);
+        channelService.sendMessageToChannel(session, server.getServerId(), selectedChannel.getChannelId(), message);
         ConsoleUtil.waitForEnter();
     }
     
@@ -492,7 +643,7 @@ public class Main {
         Channel selectedChannel = selectChannel(server);
         if (selectedChannel == null) return;
         
-        channelService.displayChannelMessages(server.getServerId(), selectedChannel.getChannelId());
+        channelService.displayChannelMessages(session, server.getServerId(), selectedChannel.getChannelId());
         ConsoleUtil.waitForEnter();
     }
     
@@ -501,12 +652,13 @@ public class Main {
         if (selectedChannel == null) return;
         
         // First show messages to see IDs
-        channelService.displayChannelMessages(server.getServerId(), selectedChannel.getChannelId());
+        channelService.displayChannelMessages(session, server.getServerId(), selectedChannel.getChannelId());
         
         String messageId = ConsoleUtil.getInput("Message ID to edit");
         String newContent = ConsoleUtil.getInput("New message content");
         
-        channelService.editMessage(server.getServerId(), selectedChannel.getChannelId(), messageId, newContent);
+        channelService.editMessage(session, server.getServerId(), selectedChannel.getChannelId(), messageId,
+            newContent);
         ConsoleUtil.waitForEnter();
     }
     
@@ -515,11 +667,11 @@ public class Main {
         if (selectedChannel == null) return;
         
         // First show messages to see IDs
-        channelService.displayChannelMessages(server.getServerId(), selectedChannel.getChannelId());
+        channelService.displayChannelMessages(session, server.getServerId(), selectedChannel.getChannelId());
         
         String messageId = ConsoleUtil.getInput("Message ID to delete");
         
-        channelService.deleteMessage(server.getServerId(), selectedChannel.getChannelId(), messageId);
+        channelService.deleteMessage(session, server.getServerId(), selectedChannel.getChannelId(), messageId);
         ConsoleUtil.waitForEnter();
     }
     
@@ -527,11 +679,34 @@ public class Main {
         Channel selectedChannel = selectChannel(server);
         if (selectedChannel == null) return;
         
-        String keyword = ConsoleUtil.getInput("Search keyword");
-        channelService.searchMessages(server.getServerId(), selectedChannel.getChannelId(), keyword);
+        String keyword = askSearchQuery();
+        channelService.searchMessages(session, server.getServerId(), selectedChannel.getChannelId(), keyword,
+            askSearchMode());
+        ConsoleUtil.waitForEnter();
+    }
+    
+    private static void searchServer(Server server) {
+        String keyword = askSearchQuery();
+        channelService.searchServer(session, server.getServerId(), keyword, askSearchMode());
         ConsoleUtil.waitForEnter();
     }
     
+    private static void searchAllServers() {
+        String keyword = askSearchQuery();
+        channelService.searchAllServers(session, keyword, askSearchMode());
+        ConsoleUtil.waitForEnter();
+    }
+    
+    private static String askSearchQuery() {
+        ConsoleUtil.printInfo("All words must match; use OR between alternatives and \"quotes\" for phrases.");
+        return ConsoleUtil.getInput("Search keyword");
+    }
+    
+    private static SearchMode askSearchMode() {
+        return ConsoleUtil.getConfirmation("Match partial words (slower unless the channel indexes them)?")
+            ? SearchMode.SUBSTRING : SearchMode.TOKEN;
+    }
+    
     private static void joinVoiceChannel(Server server) {
         List<VoiceChannel> voiceChannels = server.getVoiceChannels();
         if (voiceChannels.isEmpty()) {
@@ -543,7 +718,7 @@ public class Main {
         VoiceChannel selectedChannel = (VoiceChannel) selectVoiceChannel(server);
         if (selectedChannel == null) return;
         
-        channelService.joinVoiceChannel(server.getServerId(), selectedChannel.getChannelId());
+        channelService.joinVoiceChannel(session, server.getServerId(), selectedChannel.getChannelId());
         ConsoleUtil.waitForEnter();
     }
     
@@ -558,7 +733,7 @@ public class Main {
         VoiceChannel selectedChannel = (VoiceChannel) selectVoiceChannel(server);
         if (selectedChannel == null) return;
         
-        channelService.leaveVoiceChannel(server.getServerId(), selectedChannel.getChannelId());
+        channelService.leaveVoiceChannel(session, server.getServerId(), selectedChannel.getChannelId());
         ConsoleUtil.waitForEnter();
     }
     
@@ -580,7 +755,8 @@ public class Main {
         }
         
         int choice = ConsoleUtil.getIntInput("Select action", 1, actions.length);
-        channelService.simulateVoiceAction(server.getServerId(), selectedChannel.getChannelId(), actions[choice - 1]);
+        channelService.simulateVoiceAction(session, server.getServerId(), selectedChannel.getChannelId(),
+            actions[choice - 1]);
         ConsoleUtil.waitForEnter();
     }
     
@@ -599,19 +775,81 @@ public class Main {
         
         switch (choice) {
             case 1:
-                channelService.muteUser(server.getServerId(), selectedChannel.getChannelId(), username);
+                channelService.muteUser(session, server.getServerId(), selectedChannel.getChannelId(), username);
                 break;
             case 2:
-                channelService.unmuteUser(server.getServerId(), selectedChannel.getChannelId(), username);
+                channelService.unmuteUser(session, server.getServerId(), selectedChannel.getChannelId(), username);
                 break;
         }
         
         ConsoleUtil.waitForEnter();
     }
     
+    private static void browseOlderMessages(Server server) {
+        Channel selectedChannel = selectChannel(server);
+        if (selectedChannel == null) return;
+        
+        int page = 1;
+        do {
+            channelService.displayMessagePage(session, server.getServerId(), selectedChannel.getChannelId(), page);
+            page = ConsoleUtil.getIntInput("Page to view (0 to stop)", 0, Integer.MAX_VALUE);
+        } while (page > 0);
+    }
+    
+    private static void jumpToHistory(Server server) {
+        Channel selectedChannel = selectChannel(server);
+        if (selectedChannel == null) return;
+        
+        String anchor = ConsoleUtil.getInput("Message ID or date (yyyy-MM-dd HH:mm)");
+        Date instant = ConsoleUtil.parseDate(anchor);
+        HistoryCursor cursor = instant != null ? HistoryCursor.around(instant) : HistoryCursor.around(anchor);
+        while (true) {
+            List<Message> page = channelService.displayMessagePage(session, server.getServerId(),
+                selectedChannel.getChannelId(), cursor);
+            if (page.isEmpty()) {
+                ConsoleUtil.waitForEnter();
+                return;
+            }
+            String move = ConsoleUtil.getInput("[o]lder, [n]ewer, or Enter to stop").toLowerCase();
+            if (move.equals("o")) {
+                cursor = HistoryCursor.before(page.get(0).getMessageId());
+            } else if (move.equals("n")) {
+                cursor = HistoryCursor.after(page.get(page.size() - 1).getMessageId());
+            } else {
+                return;
+            }
+        }
+    }
+    
+    private static void viewMessagesBetween(Server server) {
+        Channel selectedChannel = selectChannel(server);
+        if (selectedChannel == null) return;
+        
+        Date from = ConsoleUtil.getDateInput("From");
+        Date to = ConsoleUtil.getDateInput("To");
+        channelService.displayMessagesBetween(session, server.getServerId(), selectedChannel.getChannelId(), from, to);
+        ConsoleUtil.waitForEnter();
+    }
+    
+    private static void manageHistoryStorage(Server server) {
+        Channel selectedChannel = selectChannel(server);
+        if (selectedChannel == null) return;
+        
+        channelService.displayStorageStats(server.getServerId(), selectedChannel.getChannelId());
+        if (ConsoleUtil.getConfirmation("Change how many messages stay in memory?")) {
+            int size = ConsoleUtil.getIntInput("Messages to keep in memory (-1 for default)", -1, 100000);
+            channelService.setHistoryCacheSize(session, server.getServerId(), selectedChannel.getChannelId(), size);
+        }
+        boolean indexed = selectedChannel.isSubstringIndexed();
+        if (ConsoleUtil.getConfirmation((indexed ? "Turn off" : "Turn on") + " the partial-word search index?")) {
+            channelService.setSubstringIndexed(session, server.getServerId(), selectedChannel.getChannelId(), !indexed);
+        }
+        ConsoleUtil.waitForEnter();
+    }
+    
     // Friends Methods
     private static void viewFriendsList() {
-        List<User> friends = authService.getCurrentUserFriends();
+        List<User> friends = authService.getFriends(session);
         
         if (friends.isEmpty()) {
             ConsoleUtil.printInfo("You have no friends yet. Add some friends to start chatting!");
@@ -627,31 +865,56 @@ public class Main {
     }
     
     private static void addFriend() {
-        String friendUsername = ConsoleUtil.getInput("Friend's Username");
-        authService.addFriend(friendUsername);
+        String friendUsername = askUsername("Friend's Username");
+        authService.addFriend(session, friendUsername);
         ConsoleUtil.waitForEnter();
     }
     
     private static void removeFriend() {
         String friendUsername = ConsoleUtil.getInput("Friend's Username to Remove");
-        authService.removeFriend(friendUsername);
+        authService.removeFriend(session, friendUsername);
         ConsoleUtil.waitForEnter();
     }
     
     private static void sendDirectMessage() {
-        String recipientUsername = ConsoleUtil.getInput("Recipient Username");
+        String recipientUsername = askUsername("Recipient Username");
         String message = ConsoleUtil.getInput("Message");
-        channelService.sendDirectMessage(recipientUsername, message);
+        channelService.sendDirectMessage(session, recipientUsername, message);
         ConsoleUtil.waitForEnter();
     }
     
     private static void viewDirectMessages() {
-        String otherUsername = ConsoleUtil.getInput("View conversation with");
-        channelService.displayDirectMessages(otherUsername);
+        String otherUsername = askUsername("View conversation with");
+        channelService.displayDirectMessages(session, otherUsername);
         ConsoleUtil.waitForEnter();
     }
     
     // Helper Methods
+    /**
+     * Read a username, completing a partial one from the registered users
+     * An exact name is kept; otherwise up to ten names starting with the input are offered
+     */
+    private static String askUsername(String prompt) {
+        String input = ConsoleUtil.getInput(prompt);
+        if (input.isEmpty() || authService.findUserByUsername(input) != null) {
+            return input;
+        }
+        List<User> matches = authService.findUsersByPrefix(input, USERNAME_SUGGESTIONS);
+        if (matches.isEmpty()) {
+            return input;
+        }
+        if (matches.size() == 1) {
+            String name = matches.get(0).getUsername();
+            return ConsoleUtil.getConfirmation("Did you mean " + name + "?") ? name : input;
+        }
+        ConsoleUtil.printInfo("Users starting with '" + input + "':");
+        for (int i = 0; i < matches.size(); i++) {
+            System.out.println((i + 1) + ". " + matches.get(i).getUsername());
+        }
+        int choice = ConsoleUtil.getIntInput("Select user (0 to keep what you typed)", 0, matches.size());
+        return choice == 0 ? input : matches.get(choice - 1).getUsername();
+    }
+    
     private static Server selectServer(List<Server> servers) {
         if (servers.isEmpty()) {
             ConsoleUtil.printError("No servers available.");
@@ -0,0 +1,79 @@
+package benchmarks;
+
+import models.*;
+import services.AuthService;
+import services.ServerService;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * DeleteServerBenchmark measuring the deletion of a server with many members
+ * Registers the members as users of an in-memory AuthService and joins them all to one
+ * server, then times the member lookups deleteServer makes: first the way they used to
+ * be done, by scanning every user for each member (timed on a sample and scaled up, as
+ * the whole loop takes too long to run), then through the userId index, and finally
+ * the whole deleteServer call
+ *
+ * Usage: java -cp bin benchmarks.DeleteServerBenchmark [members]
+ */
+public class DeleteServerBenchmark {
+    private static final int SCAN_SAMPLE = 1_000;
+    
+    public static void main(String[] args) {
+        int memberCount = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream())); // services report every step
+        
+        long start = System.nanoTime();
+        AuthService authService = new AuthService();
+        ServerService serverService = new ServerService(authService);
+        for (int i = 0; i < memberCount; i++) {
+            authService.registerUser("member" + i, "password", "user");
+        }
+        Session session = authService.loginUser("admin", "admin123");
+        serverService.createServer(session, "Benchmark Server", null);
+        User owner = session.getUser();
+        List<String> joined = owner.getJoinedServers();
+        Server server = serverService.getServer(joined.get(joined.size() - 1));
+        for (User user : authService.getAllUsers()) {
+            if (server.addMember(user.getUserId(), user.getUsername())) {
+                user.joinServer(server.getServerId());
+            }
+        }
+        double setupMillis = (System.nanoTime() - start) / 1e6;
+        
+        List<String> memberIds = new ArrayList<>(server.getMembers().keySet());
+        Collection<User> users = authService.getAllUsers();
+        start = System.nanoTime();
+        int found = 0;
+        for (int i = 0; i < SCAN_SAMPLE; i++) {
+            String memberId = memberIds.get(i * (memberIds.size() / SCAN_SAMPLE));
+            User member = users.stream()
+                    .filter(user -> user.getUserId().equals(memberId))
+                    .findFirst()
+                    .orElse(null);
+            if (member != null) {
+                found++;
+            }
+        }
+        double scanMillis = (System.nanoTime() - start) / 1e6 * memberIds.size() / SCAN_SAMPLE;
+        
+        start = System.nanoTime();
+        found = authService.findUsersByIds(memberIds).size();
+        double indexMillis = (System.nanoTime() - start) / 1e6;
+        
+        start = System.nanoTime();
+        boolean deleted = serverService.deleteServer(session, server.getServerId());
+        double deleteMillis = (System.nanoTime() - start) / 1e6;
+        System.setOut(out);
+        
+        System.out.printf("%d members joined in %.0f ms%n", server.getMemberCount(), setupMillis);
+        System.out.printf("Member lookups, scanning all users: %.0f ms (scaled from %d)%n", scanMillis, SCAN_SAMPLE);
+        System.out.printf("Member lookups, userId index:      %.1f ms (%d found)%n", indexMillis, found);
+        System.out.printf("deleteServer:                      %.1f ms (%s)%n", deleteMillis,
+            deleted ? "deleted" : "failed");
+    }
+}
@@ -0,0 +1,124 @@
+package benchmarks;
+
+import delivery.FanoutDispatcher;
+import delivery.MessageEvent;
+import delivery.Subscriber;
+import models.*;
+import services.AuthService;
+import services.ChannelService;
+import services.ServerService;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * FanoutBenchmark measuring push delivery to a channel with many subscribers
+ * Joins every member to one server and subscribes a session of each to #general, then
+ * sends messages there and reports what each send costs the sending thread, against the
+ * same sends to a channel nobody follows and against calling every subscriber inline,
+ * followed by how long the fan-out threads take to deliver everything.
+ *
+ * Usage: java -cp bin benchmarks.FanoutBenchmark [members] [messages]
+ */
+public class FanoutBenchmark {
+    private static final LongAdder RECEIVED = new LongAdder();
+    
+    public static void main(String[] args) throws InterruptedException {
+        int memberCount = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int messages = args.length > 1 ? Integer.parseInt(args[1]) : 1_000;
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream())); // services report every step
+        
+        long start = System.nanoTime();
+        AuthService authService = new AuthService();
+        ServerService serverService = new ServerService(authService);
+        ChannelService channelService = new ChannelService(authService, serverService);
+        for (int i = 0; i < memberCount; i++) {
+            authService.registerUser("member" + i, "password", "user");
+        }
+        Session owner = authService.loginUser("admin", "admin123");
+        serverService.createServer(owner, "Benchmark Server", null);
+        List<String> joined = owner.getUser().getJoinedServers();
+        Server server = serverService.getServer(joined.get(joined.size() - 1));
+        String general = server.findChannelByName("general").getChannelId();
+        channelService.createTextChannel(owner, server.getServerId(), "quiet");
+        String quiet = server.findChannelByName("quiet").getChannelId();
+        List<Session> sessions = new ArrayList<>(memberCount);
+        for (int i = 0; i < memberCount; i++) {
+            User user = authService.findUserByUsername("member" + i);
+            server.addMember(user.getUserId(), user.getUsername());
+            user.joinServer(server.getServerId());
+            sessions.add(authService.loginUser(user.getUsername(), "password"));
+        }
+        double setupMillis = (System.nanoTime() - start) / 1e6;
+        
+        List<Subscriber> subscribers = new ArrayList<>(memberCount);
+        start = System.nanoTime();
+        for (Session session : sessions) {
+            Subscriber subscriber = new CountingSubscriber();
+            subscribers.add(subscriber);
+            channelService.subscribeToChannel(session, server.getServerId(), general, subscriber);
+        }
+        double subscribeMillis = (System.nanoTime() - start) / 1e6;
+        
+        long[] quietSends = send(channelService, owner, server.getServerId(), quiet, messages);
+        FanoutDispatcher fanout = channelService.getFanoutDispatcher();
+        long batchesBefore = fanout.getBatchCount();
+        long fanoutStart = System.nanoTime();
+        long[] followedSends = send(channelService, owner, server.getServerId(), general, messages);
+        long expected = (long) messages * memberCount;
+        while (RECEIVED.sum() < expected) {
+            Thread.sleep(1);
+        }
+        double fanoutMillis = (System.nanoTime() - fanoutStart) / 1e6;
+        long batches = fanout.getBatchCount() - batchesBefore;
+        
+        // What each send would cost if it called every subscriber itself
+        List<MessageEvent> one = Collections.singletonList(MessageEvent.deleted(server.getServerId(), general, "x"));
+        start = System.nanoTime();
+        for (Subscriber subscriber : subscribers) {
+            subscriber.deliver(one);
+        }
+        double inlineMillis = (System.nanoTime() - start) / 1e6;
+        System.setOut(out);
+        
+        System.out.printf("%d members joined and logged in in %.0f ms; subscribed in %.0f ms (%.2f us each)%n",
+            memberCount, setupMillis, subscribeMillis, subscribeMillis * 1e3 / memberCount);
+        System.out.printf("Send to a channel nobody follows:      median %6.1f us, p99 %7.1f us%n",
+            quietSends[messages / 2] / 1e3, quietSends[(int) (messages * 0.99)] / 1e3);
+        System.out.printf("Send to #general with %d subscribers: median %6.1f us, p99 %7.1f us%n", memberCount,
+            followedSends[messages / 2] / 1e3, followedSends[(int) (messages * 0.99)] / 1e3);
+        System.out.printf("Calling every subscriber inline instead: %.1f ms per send%n", inlineMillis);
+        System.out.printf("Delivered %d events in %.0f ms (%.1f M/s) in %d batches of %.1f events on average%n",
+            expected, fanoutMillis, expected / fanoutMillis / 1e3, batches, (double) messages / batches);
+    }
+    
+    /**
+     * Counts what it receives; a class rather than a lambda, as each must be its own object
+     */
+    private static class CountingSubscriber implements Subscriber {
+        @Override
+        public void deliver(List<MessageEvent> events) {
+            RECEIVED.add(events.size());
+        }
+    }
+    
+    /**
+     * Send messages one after another, returning each send's time in nanoseconds, sorted
+     */
+    private static long[] send(ChannelService channelService, Session session, String serverId, String channelId,
+                               int messages) {
+        long[] times = new long[messages];
+        for (int i = 0; i < messages; i++) {
+            long start = System.nanoTime();
+            channelService.sendMessageToChannel(session, serverId, channelId, "fan-out message " + i);
+            times[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(times);
+        return times;
+    }
+}
@@ -0,0 +1,399 @@
+package benchmarks;
+
+import models.Server;
+import models.Session;
+import network.ChatServer;
+import network.CommandProcessor;
+import network.GatewayProtocol;
+import network.NioGateway;
+import network.OutputCapture;
+import services.AuthService;
+import services.ChannelService;
+import services.ServerService;
+import storage.BinaryFormat;
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * GatewayLoadBenchmark comparing the NIO gateway with the thread-per-connection server
+ * Both front-ends serve the same services on loopback. Each simulated client logs in and
+ * runs a closed loop of requests against its own front-end's channel: mostly SEND, with
+ * every tenth a 20-message HISTORY page and every tenth a SEARCH. Gateway clients also
+ * join the voice channel while warming up, the line protocol having no voice command.
+ * Reports throughput and the median and p99 round trip, and for the gateway the heap
+ * its event loops allocate per PING, which covers just framing, reading and writing.
+ *
+ * Usage: java -cp bin benchmarks.GatewayLoadBenchmark [clients] [requests per client] [loops]
+ */
+public class GatewayLoadBenchmark {
+    private static final String PASSWORD = "secret123";
+    private static final int PINGS = 20_000;
+    private static final int VOICE_USERS = 99; // a voice channel's default capacity
+    
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+        int requests = args.length > 1 ? Integer.parseInt(args[1]) : 2_000;
+        int loops = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        
+        AuthService authService = new AuthService();
+        ServerService serverService = new ServerService(authService);
+        ChannelService channelService = new ChannelService(authService, serverService);
+        Target target = new Target();
+        OutputCapture.install();
+        OutputCapture.capture(() -> setUp(authService, serverService, channelService, target, clients));
+        
+        ChatServer chatServer = new ChatServer(new CommandProcessor(authService, serverService, channelService),
+            new InetSocketAddress("127.0.0.1", 0));
+        NioGateway gateway = new NioGateway(authService, serverService, channelService,
+            new InetSocketAddress("127.0.0.1", 0), loops);
+        chatServer.start();
+        gateway.start();
+        System.out.printf("%d clients x %d requests; thread per connection (%s threads) vs %d event loop(s)%n",
+            clients, requests, ChatServer.hasVirtualThreads() ? "virtual" : "platform", gateway.getThreadCount());
+        try {
+            // Warm both up, then measure each
+            run("lines", chatServer.getPort(), false, true, target, target.lineChannelId, clients, requests / 5);
+            run("frames", gateway.getPort(), true, true, target, target.frameChannelId, clients, requests / 5);
+            report("Thread per connection", run("lines", chatServer.getPort(), false, false, target,
+                target.lineChannelId, clients, requests));
+            report("NIO gateway", run("frames", gateway.getPort(), true, false, target,
+                target.frameChannelId, clients, requests));
+            reportPingAllocation(gateway.getPort(), target);
+        } finally {
+            chatServer.close();
+            gateway.close();
+        }
+    }
+    
+    /**
+     * Register the clients' users, all members of one server with a channel per front-end
+     */
+    private static void setUp(AuthService authService, ServerService serverService, ChannelService channelService,
+                              Target target, int clients) {
+        for (int i = 0; i < clients; i++) {
+            authService.registerUser("load" + i, PASSWORD, "user");
+        }
+        Session owner = authService.loginUser("load0", PASSWORD);
+        serverService.createServer(owner, "Load Test", null);
+        Server server = serverService.getJoinedServers(owner).get(0);
+        target.serverId = server.getServerId();
+        channelService.createTextChannel(owner, target.serverId, "lines");
+        channelService.createTextChannel(owner, target.serverId, "frames");
+        target.lineChannelId = server.findChannelByName("lines").getChannelId();
+        target.frameChannelId = server.findChannelByName("frames").getChannelId();
+        target.voiceChannelId = server.getVoiceChannels().get(0).getChannelId();
+        for (int i = 1; i < clients; i++) {
+            Session session = authService.loginUser("load" + i, PASSWORD);
+            serverService.joinServerByInvite(session, server.getInviteCode());
+            authService.logoutUser(session);
+        }
+        authService.logoutUser(owner);
+    }
+    
+    /**
+     * Run every client's loop at once, returning all round trips in nanoseconds
+     * and the wall time as the last element
+     */
+    private static long[] run(String name, int port, boolean frames, boolean warmUp, Target target,
+                              String channelId, int clients, int requests) throws Exception {
+        long[] latencies = new long[clients * requests + 1];
+        CountDownLatch ready = new CountDownLatch(clients);
+        CountDownLatch go = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        Exception[] failure = new Exception[1];
+        for (int c = 0; c < clients; c++) {
+            int client = c;
+            Thread thread = new Thread(() -> {
+                try (Client connection = frames ? new FrameClient(port) : new LineClient(port)) {
+                    connection.login("load" + client, PASSWORD);
+                    if (frames && warmUp && client < VOICE_USERS) {
+                        ((FrameClient) connection).joinVoice(target.serverId, target.voiceChannelId);
+                    }
+                    ready.countDown();
+                    go.await();
+                    int offset = client * requests;
+                    for (int i = 0; i < requests; i++) {
+                        long start = System.nanoTime();
+                        if (i % 10 == 8) {
+                            connection.history(target.serverId, channelId, 20);
+                        } else if (i % 10 == 9) {
+                            connection.search(target.serverId, channelId, "load " + (i % 100));
+                        } else {
+                            connection.send(target.serverId, channelId, "load " + (i % 100) + " from " + name
+                                + " client " + client);
+                        }
+                        latencies[offset + i] = System.nanoTime() - start;
+                    }
+                } catch (Exception e) {
+                    synchronized (failure) {
+                        failure[0] = e;
+                    }
+                    ready.countDown();
+                }
+            }, name + "-client-" + c);
+            threads.add(thread);
+            thread.start();
+        }
+        ready.await();
+        long start = System.nanoTime();
+        go.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        latencies[latencies.length - 1] = System.nanoTime() - start;
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+        return latencies;
+    }
+    
+    private static void report(String name, long[] result) {
+        long wall = result[result.length - 1];
+        long[] latencies = Arrays.copyOf(result, result.length - 1);
+        Arrays.sort(latencies);
+        System.out.printf("%-22s %8.0f requests/s, median %7.1f us, p99 %8.1f us%n", name,
+            latencies.length / (wall / 1e9), latencies[latencies.length / 2] / 1e3,
+            latencies[(int) (latencies.length * 0.99)] / 1e3);
+    }
+    
+    /**
+     * Heap allocated by the gateway's event loops per PING round trip
+     */
+    private static void reportPingAllocation(int port, Target target) throws IOException {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        List<Long> loopIds = new ArrayList<>();
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith("gateway-loop-")) {
+                loopIds.add(thread.getId());
+            }
+        }
+        try (FrameClient client = new FrameClient(port)) {
+            for (int i = 0; i < PINGS; i++) {
+                client.ping(); // warm up
+            }
+            long before = allocatedBytes(threads, loopIds);
+            for (int i = 0; i < PINGS; i++) {
+                client.ping();
+            }
+            long allocated = allocatedBytes(threads, loopIds) - before;
+            System.out.printf("Gateway event loops allocated %.2f bytes per PING%n", (double) allocated / PINGS);
+        }
+    }
+    
+    private static long allocatedBytes(com.sun.management.ThreadMXBean threads, List<Long> ids) {
+        long total = 0;
+        for (long id : ids) {
+            total += threads.getThreadAllocatedBytes(id);
+        }
+        return total;
+    }
+    
+    private static class Target {
+        private String serverId;
+        private String lineChannelId;
+        private String frameChannelId;
+        private String voiceChannelId;
+    }
+    
+    private interface Client extends Closeable {
+        void login(String username, String password) throws IOException;
+        void send(String serverId, String channelId, String content) throws IOException;
+        void history(String serverId, String channelId, int count) throws IOException;
+        void search(String serverId, String channelId, String query) throws IOException;
+    }
+    
+    /**
+     * Client of the CommandProcessor line protocol
+     */
+    private static class LineClient implements Client {
+        private final Socket socket;
+        private final OutputStream out;
+        private final InputStream in;
+        private final StringBuilder line = new StringBuilder();
+        
+        private LineClient(int port) throws IOException {
+            socket = new Socket("127.0.0.1", port);
+            socket.setTcpNoDelay(true);
+            out = socket.getOutputStream();
+            in = new BufferedInputStream(socket.getInputStream());
+        }
+        
+        @Override
+        public void login(String username, String password) throws IOException {
+            request("LOGIN " + username + " " + password);
+        }
+        
+        @Override
+        public void send(String serverId, String channelId, String content) throws IOException {
+            request("SEND " + serverId + " " + channelId + " " + content);
+        }
+        
+        @Override
+        public void history(String serverId, String channelId, int count) throws IOException {
+            request("HISTORY " + serverId + " " + channelId); // the console's page size
+        }
+        
+        @Override
+        public void search(String serverId, String channelId, String query) throws IOException {
+            request("SEARCH " + serverId + " " + channelId + " " + query);
+        }
+        
+        private void request(String request) throws IOException {
+            out.write((request + "\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            String status = readLine();
+            int lines = Integer.parseInt(status.substring(status.indexOf(' ') + 1));
+            for (int i = 0; i < lines; i++) {
+                readLine();
+            }
+            if (!status.startsWith("OK")) {
+                throw new IOException(request + " failed");
+            }
+        }
+        
+        private String readLine() throws IOException {
+            line.setLength(0);
+            int b;
+            while ((b = in.read()) != '\n') {
+                if (b == -1) {
+                    throw new IOException("Server closed the connection");
+                }
+                line.append((char) b);
+            }
+            return line.toString();
+        }
+        
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+    
+    /**
+     * Client of the gateway's binary frames, one request in flight at a time
+     */
+    private static class FrameClient implements Client {
+        private final SocketChannel channel;
+        private final ByteBuffer out = ByteBuffer.allocateDirect(GatewayProtocol.HEADER_BYTES
+            + GatewayProtocol.MAX_FRAME_BYTES);
+        private final ByteBuffer in = ByteBuffer.allocateDirect(GatewayProtocol.HEADER_BYTES
+            + GatewayProtocol.MAX_FRAME_BYTES);
+        
+        private FrameClient(int port) throws IOException {
+            channel = SocketChannel.open(new InetSocketAddress("127.0.0.1", port));
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        }
+        
+        private void ping() throws IOException {
+            int start = begin(GatewayProtocol.PING);
+            call(start);
+        }
+        
+        @Override
+        public void login(String username, String password) throws IOException {
+            int start = begin(GatewayProtocol.LOGIN);
+            BinaryFormat.putString(out, username);
+            BinaryFormat.putString(out, password);
+            call(start);
+        }
+        
+        @Override
+        public void send(String serverId, String channelId, String content) throws IOException {
+            int start = begin(GatewayProtocol.SEND);
+            BinaryFormat.putId(out, serverId);
+            BinaryFormat.putId(out, channelId);
+            BinaryFormat.putString(out, content);
+            call(start);
+        }
+        
+        @Override
+        public void history(String serverId, String channelId, int count) throws IOException {
+            int start = begin(GatewayProtocol.HISTORY);
+            BinaryFormat.putId(out, serverId);
+            BinaryFormat.putId(out, channelId);
+            BinaryFormat.putString(out, "");
+            BinaryFormat.putVarInt(out, count);
+            call(start);
+            for (int i = BinaryFormat.getVarInt(in); i > 0; i--) {
+                GatewayProtocol.skipMessage(in);
+            }
+        }
+        
+        @Override
+        public void search(String serverId, String channelId, String query) throws IOException {
+            int start = begin(GatewayProtocol.SEARCH);
+            BinaryFormat.putId(out, serverId);
+            BinaryFormat.putId(out, channelId);
+            BinaryFormat.putString(out, query);
+            BinaryFormat.putVarInt(out, 20);
+            call(start);
+            for (int i = BinaryFormat.getVarInt(in); i > 0; i--) {
+                in.getFloat();
+                GatewayProtocol.skipMessage(in);
+            }
+        }
+        
+        private void joinVoice(String serverId, String channelId) throws IOException {
+            int start = begin(GatewayProtocol.VOICE_JOIN);
+            BinaryFormat.putId(out, serverId);
+            BinaryFormat.putId(out, channelId);
+            call(start);
+        }
+        
+        private int begin(byte opcode) {
+            out.clear();
+            int start = GatewayProtocol.beginFrame(out);
+            out.put(opcode);
+            return start;
+        }
+        
+        /**
+         * Send the request and read its reply, leaving the buffer at the reply's body
+         */
+        private void call(int start) throws IOException {
+            GatewayProtocol.endFrame(out, start);
+            out.flip();
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+            in.clear().limit(GatewayProtocol.HEADER_BYTES);
+            fill();
+            int length = in.getInt(0);
+            in.limit(GatewayProtocol.HEADER_BYTES + length);
+            fill();
+            in.position(GatewayProtocol.HEADER_BYTES);
+            byte status = in.get();
+            byte opcode = in.get();
+            if (status != GatewayProtocol.OK) {
+                throw new IOException("Request " + opcode + " failed: " + BinaryFormat.getString(in));
+            }
+        }
+        
+        private void fill() throws IOException {
+            while (in.hasRemaining()) {
+                if (channel.read(in) < 0) {
+                    throw new IOException("Server closed the connection");
+                }
+            }
+        }
+        
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
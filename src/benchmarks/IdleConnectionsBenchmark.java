@@ -0,0 +1,110 @@
+package benchmarks;
+
+import network.ChatServer;
+import network.CommandProcessor;
+import services.AuthService;
+import services.ChannelService;
+import services.ServerService;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * IdleConnectionsBenchmark measuring what idle clients cost the TCP front-end
+ * Starts a ChatServer on loopback, opens many connections that each send one PING and
+ * then stay idle, and reports the heap and threads they take, followed by the PING
+ * round trip of one active client while all the others stay connected. Client and
+ * server share the process, so the heap figure covers both ends of every connection,
+ * and each connection uses two file descriptors (see ulimit -n).
+ *
+ * Usage: java -cp bin benchmarks.IdleConnectionsBenchmark [connections] [pings]
+ */
+public class IdleConnectionsBenchmark {
+    private static final byte[] PING = "PING\n".getBytes(StandardCharsets.US_ASCII);
+    
+    public static void main(String[] args) throws IOException {
+        int connections = args.length > 0 ? Integer.parseInt(args[0]) : 5_000;
+        int pings = args.length > 1 ? Integer.parseInt(args[1]) : 20_000;
+        
+        AuthService authService = new AuthService();
+        ServerService serverService = new ServerService(authService);
+        ChannelService channelService = new ChannelService(authService, serverService);
+        ChatServer server = new ChatServer(new CommandProcessor(authService, serverService, channelService),
+            new InetSocketAddress("127.0.0.1", 0));
+        server.start();
+        InetSocketAddress address = new InetSocketAddress("127.0.0.1", server.getPort());
+        System.out.printf("Connection threads: %s%n", ChatServer.hasVirtualThreads() ? "virtual" : "platform");
+        
+        long heapBefore = usedHeap();
+        int threadsBefore = ManagementFactory.getThreadMXBean().getThreadCount();
+        List<Socket> clients = new ArrayList<>(connections);
+        long start = System.nanoTime();
+        try {
+            for (int i = 0; i < connections; i++) {
+                Socket socket = new Socket();
+                socket.connect(address);
+                socket.setTcpNoDelay(true);
+                clients.add(socket);
+                ping(socket);
+            }
+            double openMillis = (System.nanoTime() - start) / 1e6;
+            long heapBytes = usedHeap() - heapBefore;
+            int threads = ManagementFactory.getThreadMXBean().getThreadCount() - threadsBefore;
+            System.out.printf("%d connections open in %.0f ms (%d on the server)%n", clients.size(), openMillis,
+                server.getConnectionCount());
+            System.out.printf("Heap: %.1f MB, %.0f bytes per connection; platform threads: +%d%n",
+                heapBytes / (1024.0 * 1024), (double) heapBytes / clients.size(), threads);
+            
+            long[] latencies = new long[pings];
+            Socket active = clients.get(0);
+            for (int i = 0; i < pings; i++) {
+                long sent = System.nanoTime();
+                ping(active);
+                latencies[i] = System.nanoTime() - sent;
+            }
+            Arrays.sort(latencies);
+            System.out.printf("PING round trip with %d idle: median %.1f us, p99 %.1f us%n", clients.size() - 1,
+                latencies[pings / 2] / 1e3, latencies[(int) (pings * 0.99)] / 1e3);
+        } finally {
+            for (Socket socket : clients) {
+                socket.close();
+            }
+            server.close();
+        }
+    }
+    
+    /**
+     * Send PING and read the two-line reply
+     */
+    private static void ping(Socket socket) throws IOException {
+        OutputStream out = socket.getOutputStream();
+        out.write(PING);
+        out.flush();
+        InputStream in = socket.getInputStream();
+        int lines = 0;
+        while (lines < 2) {
+            int b = in.read();
+            if (b == -1) {
+                throw new IOException("Server closed the connection");
+            }
+            if (b == '\n') {
+                lines++;
+            }
+        }
+    }
+    
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
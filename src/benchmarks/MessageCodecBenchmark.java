@@ -0,0 +1,193 @@
+package benchmarks;
+
+import models.Message;
+import storage.MessageCodec;
+import storage.SymbolTable;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * MessageCodecBenchmark checking that messages survive a round trip through MessageCodec
+ * and measuring its size and speed against a plain DataOutputStream encoding
+ *
+ * Usage: java -cp bin benchmarks.MessageCodecBenchmark [messages] [rounds]
+ */
+public class MessageCodecBenchmark {
+    private static final String[] WORDS = {
+        "hello", "anyone", "around", "tonight", "ship", "it", "the", "build", "is", "green",
+        "café", "naïve", "über", "👍", "🎮", "lgtm", "merge", "review", "later", "thanks"
+    };
+    
+    public static void main(String[] args) throws IOException {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        List<Message> messages = generate(count, new Random(42));
+        
+        verifyRoundTrip(messages, new SymbolTable());
+        verifyRoundTrip(messages, null);
+        System.out.println("Round trip: " + count + " messages verified (interned and inline)");
+        System.out.println();
+        
+        ByteBuffer buffer = ByteBuffer.allocate(count * 1024);
+        SymbolTable symbols = new SymbolTable();
+        System.out.printf("%-22s %12s %14s %14s%n", "Encoding", "bytes/msg", "encode ns/msg", "decode ns/msg");
+        report("MessageCodec", count, rounds,
+            () -> encodeAll(messages, buffer, symbols),
+            () -> decodeAll(buffer, count, symbols));
+        report("MessageCodec inline", count, rounds,
+            () -> encodeAll(messages, buffer, null),
+            () -> decodeAll(buffer, count, null));
+        
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(count * 512);
+        report("DataOutputStream", count, rounds,
+            () -> encodeBaseline(messages, bytes),
+            () -> decodeBaseline(bytes.toByteArray(), count));
+    }
+    
+    private interface Encoder {
+        int run() throws IOException;
+    }
+    
+    private interface Decoder {
+        void run() throws IOException;
+    }
+    
+    private static void report(String name, int count, int rounds, Encoder encoder, Decoder decoder)
+            throws IOException {
+        int size = 0;
+        long encodeNanos = Long.MAX_VALUE;
+        long decodeNanos = Long.MAX_VALUE;
+        // The first rounds warm up the JIT; the best round is reported
+        for (int round = 0; round < rounds; round++) {
+            long start = System.nanoTime();
+            size = encoder.run();
+            long encoded = System.nanoTime();
+            decoder.run();
+            long decoded = System.nanoTime();
+            encodeNanos = Math.min(encodeNanos, encoded - start);
+            decodeNanos = Math.min(decodeNanos, decoded - encoded);
+        }
+        System.out.printf("%-22s %12.1f %14.1f %14.1f%n", name, (double) size / count,
+            (double) encodeNanos / count, (double) decodeNanos / count);
+    }
+    
+    private static int encodeAll(List<Message> messages, ByteBuffer buffer, SymbolTable symbols) {
+        buffer.clear();
+        for (Message message : messages) {
+            MessageCodec.encode(buffer, message, symbols);
+        }
+        buffer.flip();
+        return buffer.remaining();
+    }
+    
+    private static void decodeAll(ByteBuffer buffer, int count, SymbolTable symbols) {
+        ByteBuffer in = buffer.duplicate();
+        long checksum = 0;
+        for (int i = 0; i < count; i++) {
+            checksum += MessageCodec.decode(in, symbols).getContent().length();
+        }
+        if (checksum == 0) {
+            throw new IllegalStateException("Nothing decoded");
+        }
+    }
+    
+    private static int encodeBaseline(List<Message> messages, ByteArrayOutputStream bytes) throws IOException {
+        bytes.reset();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (Message message : messages) {
+            out.writeUTF(message.getMessageId());
+            out.writeUTF(message.getContent());
+            out.writeUTF(message.getSenderId());
+            out.writeUTF(message.getSenderUsername());
+            out.writeUTF(message.getChannelId());
+            out.writeLong(message.getTimestamp().getTime());
+            out.writeBoolean(message.isEdited());
+            out.writeLong(message.isEdited() ? message.getEditedTimestamp().getTime() : -1L);
+        }
+        out.flush();
+        return bytes.size();
+    }
+    
+    private static void decodeBaseline(byte[] data, int count) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        long checksum = 0;
+        for (int i = 0; i < count; i++) {
+            String messageId = in.readUTF();
+            String content = in.readUTF();
+            String senderId = in.readUTF();
+            String senderUsername = in.readUTF();
+            String channelId = in.readUTF();
+            Date timestamp = new Date(in.readLong());
+            boolean edited = in.readBoolean();
+            long editedAt = in.readLong();
+            Message message = new Message(messageId, content, senderId, senderUsername, channelId,
+                timestamp, edited, edited ? new Date(editedAt) : null);
+            checksum += message.getContent().length();
+        }
+        if (checksum == 0) {
+            throw new IllegalStateException("Nothing decoded");
+        }
+    }
+    
+    private static void verifyRoundTrip(List<Message> messages, SymbolTable symbols) {
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        for (Message message : messages) {
+            buffer.clear();
+            MessageCodec.encode(buffer, message, symbols);
+            if (buffer.position() > MessageCodec.maxEncodedSize(message)) {
+                throw new IllegalStateException("Encoded size exceeds maxEncodedSize for " + message.getMessageId());
+            }
+            buffer.flip();
+            Message decoded = MessageCodec.decode(buffer, symbols);
+            if (buffer.hasRemaining() || !same(message, decoded)) {
+                throw new IllegalStateException("Round trip mismatch for " + message.getMessageId());
+            }
+        }
+    }
+    
+    private static boolean same(Message a, Message b) {
+        return a.getMessageId().equals(b.getMessageId())
+            && a.getContent().equals(b.getContent())
+            && a.getSenderId().equals(b.getSenderId())
+            && a.getSenderUsername().equals(b.getSenderUsername())
+            && a.getChannelId().equals(b.getChannelId())
+            && a.getTimestamp().equals(b.getTimestamp())
+            && a.isEdited() == b.isEdited()
+            && Objects.equals(a.getEditedTimestamp(), b.getEditedTimestamp());
+    }
+    
+    /**
+     * A few channels and a few dozen senders, short chat lines, some edited
+     */
+    private static List<Message> generate(int count, Random random) {
+        String[] channels = new String[4];
+        for (int i = 0; i < channels.length; i++) {
+            channels[i] = UUID.randomUUID().toString();
+        }
+        String[] senders = new String[40];
+        for (int i = 0; i < senders.length; i++) {
+            senders[i] = UUID.randomUUID().toString();
+        }
+        
+        List<Message> messages = new ArrayList<>(count);
+        long time = System.currentTimeMillis() - count * 1000L;
+        for (int i = 0; i < count; i++) {
+            int sender = random.nextInt(senders.length);
+            StringBuilder content = new StringBuilder();
+            int words = 1 + random.nextInt(25);
+            for (int w = 0; w < words; w++) {
+                if (w > 0) {
+                    content.append(' ');
+                }
+                content.append(WORDS[random.nextInt(WORDS.length)]);
+            }
+            time += random.nextInt(2000);
+            boolean edited = random.nextInt(10) == 0;
+            messages.add(new Message(UUID.randomUUID().toString(), content.toString(), senders[sender],
+                "user" + sender, channels[random.nextInt(channels.length)], new Date(time),
+                edited, edited ? new Date(time + random.nextInt(60_000)) : null));
+        }
+        return messages;
+    }
+}
@@ -0,0 +1,106 @@
+package benchmarks;
+
+import models.*;
+import search.ParallelSearch;
+import search.SearchMode;
+import storage.ChannelLogManager;
+import storage.FsyncPolicy;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * ParallelSearchBenchmark measuring server-wide search as fork-join parallelism grows
+ * Fills one server with many log-backed channels, then times whole-word and substring
+ * searches across all of them on pools of 1, 2, 4... threads up to the core count
+ *
+ * Usage: java -cp bin benchmarks.ParallelSearchBenchmark [channels] [messagesPerChannel] [limit]
+ */
+public class ParallelSearchBenchmark {
+    private static final String[] WORDS = {
+        "deploy", "build", "review", "merge", "release", "standup", "coffee", "lunch",
+        "incident", "rollback", "ticket", "design", "meeting", "bug", "fix", "ship"
+    };
+    private static final int ROUNDS = 5;
+    
+    public static void main(String[] args) throws IOException {
+        int channelCount = args.length > 0 ? Integer.parseInt(args[0]) : 300;
+        int messages = args.length > 1 ? Integer.parseInt(args[1]) : 2_000;
+        int limit = args.length > 2 ? Integer.parseInt(args[2]) : Integer.MAX_VALUE;
+        int cores = Runtime.getRuntime().availableProcessors();
+        
+        Path directory = Files.createTempDirectory("search-bench");
+        ChannelLogManager logs = new ChannelLogManager(directory, FsyncPolicy.INTERVAL, 60_000,
+            8 * 1024 * 1024, Integer.MAX_VALUE, 0);
+        try {
+            Server server = populate(logs, channelCount, messages);
+            System.out.printf("%d channels x %d messages, limit %s, %d cores%n", channelCount, messages,
+                limit == Integer.MAX_VALUE ? "none" : String.valueOf(limit), cores);
+            System.out.printf("%-8s %-10s %12s %10s %10s%n", "Threads", "Mode", "Query ms", "Speedup", "Results");
+            for (SearchMode mode : SearchMode.values()) {
+                double baseline = 0;
+                for (int threads = 1; threads <= cores; threads *= 2) {
+                    ForkJoinPool pool = new ForkJoinPool(threads);
+                    try {
+                        ParallelSearch search = new ParallelSearch(pool);
+                        // Warm up: hydrates channels and builds their indexes
+                        List<Message> results = search.search(server.getChannels(), "deploy review", mode, limit);
+                        long start = System.nanoTime();
+                        for (int round = 0; round < ROUNDS; round++) {
+                            results = search.search(server.getChannels(), "deploy review", mode, limit);
+                        }
+                        double millis = (System.nanoTime() - start) / 1e6 / ROUNDS;
+                        if (threads == 1) {
+                            baseline = millis;
+                        }
+                        System.out.printf("%-8d %-10s %12.2f %9.2fx %10d%n", threads, mode, millis,
+                            baseline / millis, results.size());
+                    } finally {
+                        pool.shutdown();
+                    }
+                }
+            }
+        } finally {
+            logs.close();
+            deleteRecursively(directory);
+        }
+    }
+    
+    private static Server populate(ChannelLogManager logs, int channelCount, int messages) {
+        Server server = new Server("search-bench", "bench-user", "bench");
+        Random random = new Random(42);
+        for (int c = 0; c < channelCount; c++) {
+            TextChannel channel = new TextChannel("channel-" + c, server.getServerId());
+            server.addChannel(channel);
+            channel.attachLog(logs.openLog(channel.getChannelId()));
+            for (int m = 0; m < messages; m++) {
+                StringBuilder content = new StringBuilder();
+                for (int w = 0; w < 8; w++) {
+                    content.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+                }
+                channel.getLog().appendSend(new Message(content.append(m).toString(),
+                    "bench-user", "bench", channel.getChannelId()));
+            }
+        }
+        return server;
+    }
+    
+    private static void deleteRecursively(Path directory) throws IOException {
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+            
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
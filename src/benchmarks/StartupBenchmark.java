@@ -0,0 +1,103 @@
+package benchmarks;
+
+import models.*;
+import services.AuthService;
+import services.ServerService;
+import storage.ChannelLogManager;
+import storage.Checkpointer;
+import storage.FsyncPolicy;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * StartupBenchmark measuring how long restoring servers takes as history grows
+ * Each round writes servers, channels and messages into a scratch data directory, then
+ * times a restart: the users/servers restore, and separately the cost of hydrating
+ * every channel, which startup no longer pays
+ *
+ * Usage: java -cp bin benchmarks.StartupBenchmark [servers] [channelsPerServer] [maxMessagesPerChannel]
+ */
+public class StartupBenchmark {
+    public static void main(String[] args) throws IOException {
+        int serverCount = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        int channelsPerServer = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int maxMessages = args.length > 2 ? Integer.parseInt(args[2]) : 20_000;
+        
+        System.out.printf("%-14s %14s %14s %18s%n", "Messages/chan", "Total msgs", "Startup ms", "Hydrate all ms");
+        for (int messages = maxMessages / 100; messages <= maxMessages; messages *= 10) {
+            Path directory = Files.createTempDirectory("startup-bench");
+            try {
+                populate(directory, serverCount, channelsPerServer, messages);
+                measure(directory, (long) serverCount * channelsPerServer * messages, messages);
+            } finally {
+                deleteRecursively(directory);
+            }
+        }
+    }
+    
+    private static void populate(Path directory, int serverCount, int channelsPerServer, int messages) {
+        ChannelLogManager logs = openLogs(directory);
+        Checkpointer checkpointer = new Checkpointer(directory.resolve("state"), 60_000, 20);
+        AuthService authService = new AuthService(checkpointer);
+        ServerService serverService = new ServerService(authService, logs, checkpointer);
+        User admin = authService.findUserByUsername("admin");
+        
+        for (int s = 0; s < serverCount; s++) {
+            Server server = new Server("bench-" + s, admin.getUserId(), admin.getUsername());
+            for (int c = 0; c < channelsPerServer; c++) {
+                TextChannel channel = new TextChannel("channel-" + c, server.getServerId());
+                server.addChannel(channel);
+                channel.attachLog(logs.openLog(channel.getChannelId()));
+                for (int m = 0; m < messages; m++) {
+                    channel.getLog().appendSend(new Message("benchmark message " + m,
+                        admin.getUserId(), admin.getUsername(), channel.getChannelId()));
+                }
+            }
+            serverService.serverChanged(server);
+        }
+        checkpointer.close();
+        logs.close();
+    }
+    
+    private static void measure(Path directory, long totalMessages, int messages) {
+        long start = System.nanoTime();
+        ChannelLogManager logs = openLogs(directory);
+        Checkpointer checkpointer = new Checkpointer(directory.resolve("state"), 60_000, 20);
+        AuthService authService = new AuthService(checkpointer);
+        ServerService serverService = new ServerService(authService, logs, checkpointer);
+        long started = System.nanoTime();
+        
+        for (Server server : serverService.getAllServers()) {
+            for (Channel channel : server.getChannels()) {
+                channel.getMessageCount();
+            }
+        }
+        long hydrated = System.nanoTime();
+        System.out.printf("%-14d %14d %14.1f %18.1f%n", messages, totalMessages,
+            (started - start) / 1e6, (hydrated - started) / 1e6);
+        checkpointer.close();
+        logs.close();
+    }
+    
+    private static ChannelLogManager openLogs(Path directory) {
+        return new ChannelLogManager(directory.resolve("channels"), FsyncPolicy.INTERVAL, 60_000,
+            8 * 1024 * 1024, Integer.MAX_VALUE, 0);
+    }
+    
+    private static void deleteRecursively(Path directory) throws IOException {
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+            
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
@@ -0,0 +1,107 @@
+package benchmarks;
+
+import models.*;
+import search.SearchMode;
+import search.TrigramIndex;
+import storage.ChannelLogManager;
+import storage.FsyncPolicy;
+import storage.StorageConfig;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Random;
+
+/**
+ * SubstringSearchBenchmark comparing partial-word search with and without a trigram index
+ * Fills one log-backed channel, builds its trigram index, then times each query both
+ * by scanning the history and from the index
+ *
+ * Usage: java -cp bin benchmarks.SubstringSearchBenchmark [messages] [limit] [budgetMB]
+ */
+public class SubstringSearchBenchmark {
+    private static final String[] WORDS = {
+        "deploy", "build", "review", "merge", "release", "standup", "coffee", "lunch",
+        "incident", "rollback", "ticket", "design", "meeting", "bug", "fix", "ship"
+    };
+    private static final String[] QUERIES = { "ploy", "coffee lun", "ncid", "back, tic", "merged", "4242" };
+    private static final int ROUNDS = 5;
+    
+    public static void main(String[] args) throws IOException {
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int limit = args.length > 1 ? Integer.parseInt(args[1]) : Integer.MAX_VALUE;
+        long budgetMegabytes = args.length > 2 ? Long.parseLong(args[2]) : 256;
+        StorageConfig.setSubstringIndexBytes(budgetMegabytes * 1024 * 1024);
+        
+        Path directory = Files.createTempDirectory("substring-bench");
+        ChannelLogManager logs = new ChannelLogManager(directory, FsyncPolicy.INTERVAL, 60_000,
+            8 * 1024 * 1024, Integer.MAX_VALUE, 0);
+        try {
+            TextChannel channel = populate(logs, messages);
+            channel.setSubstringIndexed(true);
+            long start = System.nanoTime();
+            TrigramIndex index = channel.getSubstringIndex();
+            if (index.isOverBudget()) {
+                System.out.println("Index exceeds " + budgetMegabytes + " MB; raise the budget argument");
+                return;
+            }
+            System.out.printf("%d messages, limit %s; index built in %.0f ms, ~%.1f MB, %d trigrams%n",
+                messages, limit == Integer.MAX_VALUE ? "none" : String.valueOf(limit),
+                (System.nanoTime() - start) / 1e6, index.getEstimatedBytes() / (1024.0 * 1024),
+                index.getTermCount());
+            
+            System.out.printf("%-12s %12s %12s %10s %10s%n", "Query", "Scan ms", "Index ms", "Speedup", "Results");
+            for (String query : QUERIES) {
+                channel.setSubstringIndexed(false);
+                double scan = time(channel, query, limit);
+                channel.setSubstringIndexed(true);
+                channel.getSubstringIndex();
+                double indexed = time(channel, query, limit);
+                int results = channel.searchMessages(query, SearchMode.SUBSTRING, limit, Long.MIN_VALUE).size();
+                System.out.printf("%-12s %12.2f %12.2f %9.1fx %10d%n", query, scan, indexed, scan / indexed, results);
+            }
+        } finally {
+            logs.close();
+            deleteRecursively(directory);
+        }
+    }
+    
+    private static double time(Channel channel, String query, int limit) {
+        channel.searchMessages(query, SearchMode.SUBSTRING, limit, Long.MIN_VALUE); // warm up
+        long start = System.nanoTime();
+        for (int round = 0; round < ROUNDS; round++) {
+            channel.searchMessages(query, SearchMode.SUBSTRING, limit, Long.MIN_VALUE);
+        }
+        return (System.nanoTime() - start) / 1e6 / ROUNDS;
+    }
+    
+    private static TextChannel populate(ChannelLogManager logs, int messages) {
+        TextChannel channel = new TextChannel("substring-bench", "bench");
+        channel.attachLog(logs.openLog(channel.getChannelId()));
+        Random random = new Random(42);
+        for (int m = 0; m < messages; m++) {
+            StringBuilder content = new StringBuilder();
+            for (int w = 0; w < 8; w++) {
+                content.append(WORDS[random.nextInt(WORDS.length)]).append(random.nextInt(4) == 0 ? ", " : " ");
+            }
+            channel.getLog().appendSend(new Message(content.append(m).toString(),
+                "bench-user", "bench", channel.getChannelId()));
+        }
+        return channel;
+    }
+    
+    private static void deleteRecursively(Path directory) throws IOException {
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+            
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
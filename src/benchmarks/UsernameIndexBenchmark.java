@@ -0,0 +1,91 @@
+package benchmarks;
+
+import search.PrefixIndex;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * UsernameIndexBenchmark measuring prefix and fuzzy lookups over a large set of usernames
+ * Loads random lowercase names into a PrefixIndex, then reports the index's own heap
+ * cost, the time of single adds, lookup latency for prefixes of growing length, and the
+ * latency of typo lookups one and two edits away
+ *
+ * Usage: java -cp bin benchmarks.UsernameIndexBenchmark [users] [limit]
+ */
+public class UsernameIndexBenchmark {
+    private static final int LOOKUPS = 100_000;
+    private static final int FUZZY_LOOKUPS = 200;
+    
+    public static void main(String[] args) {
+        int users = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        int limit = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        Random random = new Random(42);
+        
+        List<String> names = new ArrayList<>(users);
+        for (int i = 0; i < users; i++) {
+            names.add(randomName(random));
+        }
+        
+        long before = usedHeap();
+        long start = System.nanoTime();
+        PrefixIndex index = new PrefixIndex();
+        index.addAll(names);
+        double loadMillis = (System.nanoTime() - start) / 1e6;
+        long indexBytes = usedHeap() - before; // the names themselves were allocated earlier
+        System.out.printf("%d usernames loaded in %.0f ms, index ~%.1f MB (%.1f bytes per name)%n",
+            index.size(), loadMillis, indexBytes / (1024.0 * 1024), (double) indexBytes / index.size());
+        
+        start = System.nanoTime();
+        for (int i = 0; i < 1_000; i++) {
+            index.add(randomName(random) + "_new");
+        }
+        System.out.printf("Single add: %.1f us%n", (System.nanoTime() - start) / 1e3 / 1_000);
+        
+        System.out.printf("%-8s %12s %12s%n", "Prefix", "Lookup us", "Results");
+        for (int length = 1; length <= 5; length++) {
+            String[] prefixes = new String[LOOKUPS];
+            for (int i = 0; i < LOOKUPS; i++) {
+                String name = names.get(random.nextInt(names.size()));
+                prefixes[i] = name.substring(0, Math.min(length, name.length()));
+            }
+            long results = 0;
+            start = System.nanoTime();
+            for (String prefix : prefixes) {
+                results += index.withPrefix(prefix, limit).size();
+            }
+            double micros = (System.nanoTime() - start) / 1e3 / LOOKUPS;
+            System.out.printf("%-8d %12.2f %12.1f%n", length, micros, (double) results / LOOKUPS);
+        }
+        
+        System.out.printf("%-8s %12s %12s%n", "Edits", "Lookup ms", "Results");
+        for (int edits = 1; edits <= 2; edits++) {
+            long results = 0;
+            start = System.nanoTime();
+            for (int i = 0; i < FUZZY_LOOKUPS; i++) {
+                char[] typo = names.get(random.nextInt(names.size())).toCharArray();
+                typo[random.nextInt(typo.length)] = (char) ('a' + random.nextInt(26));
+                results += index.closest(new String(typo), edits, limit).size();
+            }
+            double millis = (System.nanoTime() - start) / 1e6 / FUZZY_LOOKUPS;
+            System.out.printf("%-8d %12.2f %12.1f%n", edits, millis, (double) results / FUZZY_LOOKUPS);
+        }
+    }
+    
+    private static String randomName(Random random) {
+        int length = 4 + random.nextInt(9);
+        StringBuilder name = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            name.append((char) ('a' + random.nextInt(26)));
+        }
+        return name.toString();
+    }
+    
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,58 @@
+package delivery;
+
+/**
+ * ChannelDeliveryStats class, a snapshot of push delivery for one channel
+ * Queues belong to subscribers rather than channels, so the queue figures cover
+ * everything waiting for the channel's subscribers, whatever channel it came from.
+ */
+public class ChannelDeliveryStats {
+    private final int subscriberCount;
+    private final long queuedEvents;
+    private final int deepestQueue;
+    private final long droppedCount;
+    private final long disconnectCount;
+    
+    public ChannelDeliveryStats(int subscriberCount, long queuedEvents, int deepestQueue, long droppedCount,
+                                long disconnectCount) {
+        this.subscriberCount = subscriberCount;
+        this.queuedEvents = queuedEvents;
+        this.deepestQueue = deepestQueue;
+        this.droppedCount = droppedCount;
+        this.disconnectCount = disconnectCount;
+    }
+    
+    public int getSubscriberCount() {
+        return subscriberCount;
+    }
+    
+    /**
+     * Events waiting in the subscribers' queues
+     */
+    public long getQueuedEvents() {
+        return queuedEvents;
+    }
+    
+    public int getDeepestQueue() {
+        return deepestQueue;
+    }
+    
+    /**
+     * Events of this channel discarded from full queues
+     */
+    public long getDroppedCount() {
+        return droppedCount;
+    }
+    
+    /**
+     * Subscribers given up on when an event of this channel found their queue full
+     */
+    public long getDisconnectCount() {
+        return disconnectCount;
+    }
+    
+    @Override
+    public String toString() {
+        return subscriberCount + " subscribers, " + queuedEvents + " events queued (deepest " + deepestQueue
+            + "), " + droppedCount + " dropped, " + disconnectCount + " disconnected";
+    }
+}
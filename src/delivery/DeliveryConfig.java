@@ -0,0 +1,31 @@
+package delivery;
+
+/**
+ * DeliveryConfig class holding push delivery settings
+ * Defaults can be overridden with -D system properties at startup
+ */
+public class DeliveryConfig {
+    private static int queueSize =
+        Integer.parseInt(System.getProperty("discord.delivery.queueSize", "1024"));
+    private static OverflowPolicy overflowPolicy =
+        OverflowPolicy.valueOf(System.getProperty("discord.delivery.overflow", "COALESCE").toUpperCase());
+    
+    /**
+     * Events a subscriber may have waiting before its overflow policy applies
+     */
+    public static int getQueueSize() {
+        return queueSize;
+    }
+    
+    public static void setQueueSize(int size) {
+        queueSize = size;
+    }
+    
+    public static OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+    
+    public static void setOverflowPolicy(OverflowPolicy policy) {
+        overflowPolicy = policy;
+    }
+}
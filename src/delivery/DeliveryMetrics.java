@@ -0,0 +1,62 @@
+package delivery;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * DeliveryMetrics class counting, per channel, what slow subscribers cost
+ * Events discarded from full queues are counted against the channel they belonged to, and
+ * a disconnect against the channel whose event found the queue full. Only the overflow
+ * path touches these counters.
+ */
+public class DeliveryMetrics {
+    private final ConcurrentHashMap<String, Counts> channels; // channelId or conversation key -> counts
+    private final LongAdder totalDropped;
+    private final LongAdder totalDisconnects;
+    
+    public DeliveryMetrics() {
+        this.channels = new ConcurrentHashMap<>();
+        this.totalDropped = new LongAdder();
+        this.totalDisconnects = new LongAdder();
+    }
+    
+    private static class Counts {
+        private final LongAdder dropped = new LongAdder();
+        private final LongAdder disconnects = new LongAdder();
+    }
+    
+    void recordDropped(String channelId) {
+        channels.computeIfAbsent(channelId, id -> new Counts()).dropped.increment();
+        totalDropped.increment();
+    }
+    
+    void recordDisconnect(String channelId) {
+        channels.computeIfAbsent(channelId, id -> new Counts()).disconnects.increment();
+        totalDisconnects.increment();
+    }
+    
+    /**
+     * Stop counting for a deleted channel
+     */
+    void forget(String channelId) {
+        channels.remove(channelId);
+    }
+    
+    public long getDroppedCount(String channelId) {
+        Counts counts = channels.get(channelId);
+        return counts != null ? counts.dropped.sum() : 0;
+    }
+    
+    public long getDisconnectCount(String channelId) {
+        Counts counts = channels.get(channelId);
+        return counts != null ? counts.disconnects.sum() : 0;
+    }
+    
+    public long getTotalDroppedCount() {
+        return totalDropped.sum();
+    }
+    
+    public long getTotalDisconnectCount() {
+        return totalDisconnects.sum();
+    }
+}
@@ -0,0 +1,225 @@
+package delivery;
+
+import models.Channel;
+import models.HistoryListener;
+import models.Message;
+import models.Session;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * FanoutDispatcher class pushing new, edited and deleted messages to their subscribers
+ * Follows a channel's history once someone subscribes to it. The thread that changed the
+ * channel only queues the event on the channel's topic and, if the topic is idle, hands
+ * it to the fan-out threads, so a send costs the same whatever the number of subscribers.
+ * A fan-out thread then delivers the topic's waiting events, up to MAX_BATCH at a time,
+ * with one call per subscriber. Topics are delivered one batch at a time each, so events
+ * keep their order, while different topics fan out in parallel. Subscribers that write to
+ * a client buffer events in an OutboundQueue, so a slow reader only ever fills its own.
+ */
+public class FanoutDispatcher implements HistoryListener {
+    private static final int MAX_BATCH = 256;
+    
+    private final ExecutorService workers;
+    private final ConcurrentHashMap<String, Topic> channelTopics; // channelId -> topic
+    private final ConcurrentHashMap<String, Topic> userTopics; // userId -> topic of their direct messages
+    private final ConcurrentHashMap<Subscriber, Set<Topic>> subscriptions;
+    private final LongAdder published;
+    private final LongAdder batches;
+    private final LongAdder deliveries;
+    private final DeliveryMetrics metrics;
+    
+    public FanoutDispatcher(int threads) {
+        AtomicInteger counter = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(Math.max(1, threads), task -> {
+            Thread thread = new Thread(task, "fanout-" + counter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.channelTopics = new ConcurrentHashMap<>();
+        this.userTopics = new ConcurrentHashMap<>();
+        this.subscriptions = new ConcurrentHashMap<>();
+        this.published = new LongAdder();
+        this.batches = new LongAdder();
+        this.deliveries = new LongAdder();
+        this.metrics = new DeliveryMetrics();
+    }
+    
+    /**
+     * The topic of a channel, following its history from the first call on
+     * The audience is fixed by the first caller
+     */
+    public Topic channelTopic(Channel channel, Predicate<Session> audience) {
+        return channelTopics.computeIfAbsent(channel.getChannelId(), channelId -> {
+            channel.addHistoryListener(this);
+            return new Topic("channel " + channelId, audience);
+        });
+    }
+    
+    /**
+     * The topic of a channel someone has subscribed to, or null
+     */
+    public Topic findChannelTopic(String channelId) {
+        return channelTopics.get(channelId);
+    }
+    
+    /**
+     * The topic of the direct messages a user sends and receives
+     */
+    public Topic userTopic(String userId, Predicate<Session> audience) {
+        return userTopics.computeIfAbsent(userId, id -> new Topic("direct messages of " + id, audience));
+    }
+    
+    /**
+     * Stop following a deleted channel
+     */
+    public void forget(Channel channel) {
+        Topic topic = channelTopics.remove(channel.getChannelId());
+        if (topic != null) {
+            channel.removeHistoryListener(this);
+        }
+        metrics.forget(channel.getChannelId());
+    }
+    
+    /**
+     * A queue for a new subscriber, sized and with the overflow policy of DeliveryConfig
+     */
+    public OutboundQueue newQueue() {
+        return new OutboundQueue(DeliveryConfig.getQueueSize(), DeliveryConfig.getOverflowPolicy(), metrics);
+    }
+    
+    public boolean subscribe(Topic topic, Subscriber subscriber, Session session) {
+        if (!topic.add(subscriber, session)) {
+            return false;
+        }
+        subscriptions.computeIfAbsent(subscriber, s -> ConcurrentHashMap.newKeySet()).add(topic);
+        return true;
+    }
+    
+    public boolean unsubscribe(Topic topic, Subscriber subscriber) {
+        Set<Topic> topics = subscriptions.get(subscriber);
+        if (topics != null) {
+            topics.remove(topic);
+        }
+        return topic.remove(subscriber);
+    }
+    
+    /**
+     * Remove a subscriber from every topic, as when its client goes away
+     */
+    public void unsubscribeAll(Subscriber subscriber) {
+        Set<Topic> topics = subscriptions.remove(subscriber);
+        if (topics != null) {
+            for (Topic topic : topics) {
+                topic.remove(subscriber);
+            }
+        }
+    }
+    
+    /**
+     * Publish an event to the topic of a user's direct messages, if anyone follows it
+     */
+    public void publishToUser(String userId, MessageEvent event) {
+        Topic topic = userTopics.get(userId);
+        if (topic != null) {
+            publish(topic, event);
+        }
+    }
+    
+    private void publish(Topic topic, MessageEvent event) {
+        if (topic.getSubscriberCount() == 0) {
+            return;
+        }
+        published.increment();
+        if (topic.offer(event)) {
+            workers.execute(() -> drain(topic));
+        }
+    }
+    
+    /**
+     * Deliver one batch, then queue the topic behind the others if it has more
+     * The topic is released even if the batch fails, or it would never be scheduled again
+     */
+    private void drain(Topic topic) {
+        try {
+            int delivered = topic.deliverBatch(MAX_BATCH);
+            batches.increment();
+            deliveries.add(delivered);
+        } catch (RuntimeException e) {
+            System.err.println("Error delivering events of " + topic.getKey() + ": " + e.getMessage());
+        } finally {
+            if (topic.finishBatch()) {
+                workers.execute(() -> drain(topic));
+            }
+        }
+    }
+    
+    @Override
+    public void messageSent(Channel channel, Message message) {
+        Topic topic = channelTopics.get(channel.getChannelId());
+        if (topic != null) {
+            publish(topic, MessageEvent.sent(channel.getServerId(), channel.getChannelId(), message));
+        }
+    }
+    
+    @Override
+    public void messageEdited(Channel channel, Message message) {
+        Topic topic = channelTopics.get(channel.getChannelId());
+        if (topic != null) {
+            publish(topic, MessageEvent.edited(channel.getServerId(), channel.getChannelId(), message));
+        }
+    }
+    
+    @Override
+    public void messageDeleted(Channel channel, String messageId) {
+        Topic topic = channelTopics.get(channel.getChannelId());
+        if (topic != null) {
+            publish(topic, MessageEvent.deleted(channel.getServerId(), channel.getChannelId(), messageId));
+        }
+    }
+    
+    /**
+     * Subscribers of a channel, 0 when nobody follows it
+     */
+    public int getSubscriberCount(String channelId) {
+        Topic topic = findChannelTopic(channelId);
+        return topic != null ? topic.getSubscriberCount() : 0;
+    }
+    
+    /**
+     * Subscribers, queued events and overflows of a channel
+     */
+    public ChannelDeliveryStats getStats(String channelId) {
+        Topic topic = findChannelTopic(channelId);
+        return new ChannelDeliveryStats(topic != null ? topic.getSubscriberCount() : 0,
+            topic != null ? topic.getQueuedEvents() : 0, topic != null ? topic.getDeepestQueue() : 0,
+            metrics.getDroppedCount(channelId), metrics.getDisconnectCount(channelId));
+    }
+    
+    public DeliveryMetrics getMetrics() {
+        return metrics;
+    }
+    
+    /**
+     * Events queued for at least one subscriber
+     */
+    public long getPublishedCount() {
+        return published.sum();
+    }
+    
+    public long getBatchCount() {
+        return batches.sum();
+    }
+    
+    /**
+     * Batches handed to subscribers, one per subscriber per batch
+     */
+    public long getDeliveryCount() {
+        return deliveries.sum();
+    }
+}
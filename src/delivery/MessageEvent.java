@@ -0,0 +1,89 @@
+package delivery;
+
+import models.Message;
+
+/**
+ * MessageEvent class, one change to a channel or a conversation, as pushed to subscribers
+ * The content is taken when the event is made, so a later edit does not change what an
+ * earlier event carries. A MISSED event stands in for events a slow subscriber's queue
+ * had to discard.
+ */
+public class MessageEvent {
+    public enum Type { SENT, EDITED, DELETED, MISSED }
+    
+    private final Type type;
+    private final String serverId; // null for direct messages
+    private final String channelId; // the conversation key for direct messages
+    private final String messageId;
+    private final Message message; // null for deletions
+    private final String content;
+    private final int missedCount; // events discarded, for MISSED
+    
+    private MessageEvent(Type type, String serverId, String channelId, String messageId, Message message,
+                         int missedCount) {
+        this.type = type;
+        this.serverId = serverId;
+        this.channelId = channelId;
+        this.messageId = messageId;
+        this.message = message;
+        this.content = message != null ? message.getContent() : null;
+        this.missedCount = missedCount;
+    }
+    
+    public static MessageEvent sent(String serverId, String channelId, Message message) {
+        return new MessageEvent(Type.SENT, serverId, channelId, message.getMessageId(), message, 0);
+    }
+    
+    public static MessageEvent edited(String serverId, String channelId, Message message) {
+        return new MessageEvent(Type.EDITED, serverId, channelId, message.getMessageId(), message, 0);
+    }
+    
+    public static MessageEvent deleted(String serverId, String channelId, String messageId) {
+        return new MessageEvent(Type.DELETED, serverId, channelId, messageId, null, 0);
+    }
+    
+    /**
+     * A marker for count events of a channel or conversation that were discarded
+     */
+    public static MessageEvent missed(String serverId, String channelId, int count) {
+        return new MessageEvent(Type.MISSED, serverId, channelId, null, null, count);
+    }
+    
+    public Type getType() {
+        return type;
+    }
+    
+    public String getServerId() {
+        return serverId;
+    }
+    
+    public String getChannelId() {
+        return channelId;
+    }
+    
+    public String getMessageId() {
+        return messageId;
+    }
+    
+    public Message getMessage() {
+        return message;
+    }
+    
+    public String getContent() {
+        return content;
+    }
+    
+    public int getMissedCount() {
+        return missedCount;
+    }
+    
+    public boolean isDirectMessage() {
+        return serverId == null;
+    }
+    
+    @Override
+    public String toString() {
+        String what = type == Type.MISSED ? missedCount + " events" : messageId;
+        return type + " " + what + (isDirectMessage() ? " in conversation " : " in channel ") + channelId;
+    }
+}
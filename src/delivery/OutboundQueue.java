@@ -0,0 +1,132 @@
+package delivery;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * OutboundQueue class, the bounded queue of events waiting to be written to one subscriber
+ * Filled by the fan-out threads and emptied by whatever writes to the client. Once it
+ * holds capacity events, the overflow policy decides: the oldest are discarded, possibly
+ * leaving a MISSED marker per channel, or the queue gives up and the subscriber should be
+ * disconnected. Markers come out before the events still waiting, which is where the
+ * discarded events were, and do not count against the capacity.
+ */
+public class OutboundQueue {
+    private final int capacity;
+    private final OverflowPolicy policy;
+    private final DeliveryMetrics metrics;
+    private final ArrayDeque<MessageEvent> events;
+    private final Map<String, Missed> missed; // channel -> events discarded since the last marker
+    private int highWaterMark;
+    private long droppedCount;
+    private boolean overflowed; // gave up, under DISCONNECT
+    
+    public OutboundQueue(int capacity, OverflowPolicy policy, DeliveryMetrics metrics) {
+        this.capacity = Math.max(1, capacity);
+        this.policy = policy;
+        this.metrics = metrics;
+        this.events = new ArrayDeque<>(Math.min(this.capacity, 64));
+        this.missed = new LinkedHashMap<>();
+    }
+    
+    /**
+     * Events of a channel discarded since the subscriber last heard of it
+     */
+    private static class Missed {
+        private final String serverId;
+        private int count;
+        
+        private Missed(String serverId) {
+            this.serverId = serverId;
+        }
+    }
+    
+    /**
+     * Queue a batch of events, returning false if the queue has given up on the subscriber
+     */
+    public synchronized boolean offer(List<MessageEvent> batch) {
+        if (overflowed) {
+            return false;
+        }
+        for (MessageEvent event : batch) {
+            if (events.size() == capacity) {
+                if (policy == OverflowPolicy.DISCONNECT) {
+                    overflowed = true;
+                    metrics.recordDisconnect(event.getChannelId());
+                    events.clear();
+                    return false;
+                }
+                discard(events.poll());
+            }
+            events.add(event);
+        }
+        highWaterMark = Math.max(highWaterMark, events.size());
+        return true;
+    }
+    
+    private void discard(MessageEvent event) {
+        droppedCount++;
+        metrics.recordDropped(event.getChannelId());
+        if (policy == OverflowPolicy.COALESCE) {
+            missed.computeIfAbsent(event.getChannelId(), id -> new Missed(event.getServerId())).count++;
+        }
+    }
+    
+    /**
+     * The next event to write, a MISSED marker first if any are waiting, or null
+     */
+    public synchronized MessageEvent poll() {
+        if (!missed.isEmpty()) {
+            Iterator<Map.Entry<String, Missed>> first = missed.entrySet().iterator();
+            Map.Entry<String, Missed> entry = first.next();
+            first.remove();
+            return MessageEvent.missed(entry.getValue().serverId, entry.getKey(), entry.getValue().count);
+        }
+        return events.poll();
+    }
+    
+    public synchronized boolean isEmpty() {
+        return events.isEmpty() && missed.isEmpty();
+    }
+    
+    public synchronized void clear() {
+        events.clear();
+        missed.clear();
+    }
+    
+    /**
+     * Events waiting, not counting markers
+     */
+    public synchronized int size() {
+        return events.size();
+    }
+    
+    public int getCapacity() {
+        return capacity;
+    }
+    
+    public OverflowPolicy getPolicy() {
+        return policy;
+    }
+    
+    /**
+     * The most events that have waited at once
+     */
+    public synchronized int getHighWaterMark() {
+        return highWaterMark;
+    }
+    
+    public synchronized long getDroppedCount() {
+        return droppedCount;
+    }
+    
+    /**
+     * True once the queue has given up, under DISCONNECT
+     */
+    public synchronized boolean isOverflowed() {
+        return overflowed;
+    }
+}
@@ -0,0 +1,10 @@
+package delivery;
+
+/**
+ * OverflowPolicy enum describing what a full outbound queue does with more events
+ */
+public enum OverflowPolicy {
+    DROP_OLDEST, // discard the oldest waiting events to make room
+    COALESCE,    // discard the oldest, leaving one "N messages missed" marker per channel
+    DISCONNECT   // give up on the subscriber; its client is disconnected
+}
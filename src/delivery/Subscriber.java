@@ -0,0 +1,21 @@
+package delivery;
+
+import java.util.List;
+
+/**
+ * Subscriber interface receiving the events of the topics it subscribed to
+ * Called on a fan-out thread with a batch of one topic's events, oldest first; a topic
+ * delivers one batch at a time, so the events of a topic arrive in order. Every
+ * subscriber of a topic waits for the others' calls, so implementations must hand the
+ * events off rather than block.
+ */
+public interface Subscriber {
+    void deliver(List<MessageEvent> events);
+    
+    /**
+     * Events handed to this subscriber that it has not passed on yet
+     */
+    default int getQueueDepth() {
+        return 0;
+    }
+}
@@ -0,0 +1,176 @@
+package delivery;
+
+import models.Session;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
+
+/**
+ * Topic class, the subscribers of one channel or of one user's direct messages, and the
+ * events waiting to reach them
+ * Subscribers sit in arrays that grow like an ArrayList, a removal moving the last one
+ * into the gap, so subscribing costs the same with 100k subscribers as with one. Delivery
+ * reads a copy of the arrays that is only taken again when they have changed, at most
+ * once per batch, and skips subscribers whose session is no longer in the audience.
+ */
+public class Topic {
+    private final String key;
+    private final Predicate<Session> audience;
+    private final Queue<MessageEvent> pending;
+    private final AtomicBoolean scheduled; // set while a fan-out thread owns the topic
+    private final Map<Subscriber, Integer> positions;
+    private Subscriber[] subscribers;
+    private Session[] sessions;
+    private volatile int size;
+    private boolean changed;
+    
+    // The copy delivery works from; only touched by the fan-out thread owning the topic
+    private Subscriber[] deliveringTo;
+    private Session[] deliveringFor;
+    
+    public Topic(String key, Predicate<Session> audience) {
+        this.key = key;
+        this.audience = audience;
+        this.pending = new ConcurrentLinkedQueue<>();
+        this.scheduled = new AtomicBoolean();
+        this.positions = new HashMap<>();
+        this.subscribers = new Subscriber[4];
+        this.sessions = new Session[4];
+        this.deliveringTo = new Subscriber[0];
+        this.deliveringFor = new Session[0];
+    }
+    
+    /**
+     * Add a subscriber acting for a session; false if it is already subscribed
+     */
+    public synchronized boolean add(Subscriber subscriber, Session session) {
+        if (positions.containsKey(subscriber)) {
+            return false;
+        }
+        if (size == subscribers.length) {
+            subscribers = Arrays.copyOf(subscribers, size * 2);
+            sessions = Arrays.copyOf(sessions, size * 2);
+        }
+        subscribers[size] = subscriber;
+        sessions[size] = session;
+        positions.put(subscriber, size);
+        size++;
+        changed = true;
+        return true;
+    }
+    
+    public synchronized boolean remove(Subscriber subscriber) {
+        Integer position = positions.remove(subscriber);
+        if (position == null) {
+            return false;
+        }
+        int last = size - 1;
+        if (position != last) {
+            subscribers[position] = subscribers[last];
+            sessions[position] = sessions[last];
+            positions.put(subscribers[position], position);
+        }
+        subscribers[last] = null;
+        sessions[last] = null;
+        size = last;
+        changed = true;
+        return true;
+    }
+    
+    /**
+     * Queue an event, returning true when the caller must schedule the topic for delivery
+     */
+    boolean offer(MessageEvent event) {
+        pending.add(event);
+        return scheduled.compareAndSet(false, true);
+    }
+    
+    /**
+     * Deliver up to maxBatch waiting events to every subscriber in the audience,
+     * returning how many subscribers received them
+     */
+    int deliverBatch(int maxBatch) {
+        List<MessageEvent> batch = new ArrayList<>(Math.min(maxBatch, 16));
+        MessageEvent event;
+        while (batch.size() < maxBatch && (event = pending.poll()) != null) {
+            batch.add(event);
+        }
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        refreshCopy();
+        List<MessageEvent> events = Collections.unmodifiableList(batch);
+        int delivered = 0;
+        for (int i = 0; i < deliveringTo.length; i++) {
+            try {
+                if (!audience.test(deliveringFor[i])) {
+                    continue;
+                }
+                deliveringTo[i].deliver(events);
+                delivered++;
+            } catch (RuntimeException e) {
+                System.err.println("Error delivering to a subscriber of " + key + ": " + e.getMessage());
+            }
+        }
+        return delivered;
+    }
+    
+    private synchronized void refreshCopy() {
+        if (changed) {
+            deliveringTo = Arrays.copyOf(subscribers, size);
+            deliveringFor = Arrays.copyOf(sessions, size);
+            changed = false;
+        }
+    }
+    
+    /**
+     * Called by the owning fan-out thread after a batch; true if it must schedule the topic
+     * again because events are still waiting
+     */
+    boolean finishBatch() {
+        if (!pending.isEmpty()) {
+            return true;
+        }
+        scheduled.set(false);
+        // An event queued after the check above may have seen the topic as still scheduled
+        return !pending.isEmpty() && scheduled.compareAndSet(false, true);
+    }
+    
+    public String getKey() {
+        return key;
+    }
+    
+    public int getSubscriberCount() {
+        return size;
+    }
+    
+    /**
+     * Events waiting at the subscribers, in total
+     * Walks every subscriber, so it is meant for occasional reporting
+     */
+    public synchronized long getQueuedEvents() {
+        long queued = 0;
+        for (int i = 0; i < size; i++) {
+            queued += subscribers[i].getQueueDepth();
+        }
+        return queued;
+    }
+    
+    /**
+     * Events waiting at the subscriber furthest behind
+     */
+    public synchronized int getDeepestQueue() {
+        int deepest = 0;
+        for (int i = 0; i < size; i++) {
+            deepest = Math.max(deepest, subscribers[i].getQueueDepth());
+        }
+        return deepest;
+    }
+}
@@ -1,5 +1,7 @@
 package models;
 
+import java.util.Date;
+
 /**
  * AdminUser class demonstrating Inheritance
  * Inherits from User and adds admin-specific permissions
@@ -10,6 +12,10 @@ public class AdminUser extends User {
         super(username, hashedPassword);
     }
     
+    public AdminUser(String userId, String username, String hashedPassword, Date lastSeen) {
+        super(userId, username, hashedPassword, lastSeen);
+    }
+    
     @Override
     public boolean hasPermission(String permission) {
         // Admins have all permissions
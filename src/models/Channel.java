@@ -1,6 +1,16 @@
 package models;
 
+import search.MessageIndex;
+import search.SearchHit;
+import search.SearchMode;
+import search.TrigramIndex;
+import storage.StorageConfig;
+import storage.TierMetrics;
+import storage.WriteAheadLog;
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 /**
  * Abstract Channel class demonstrating Abstraction
@@ -11,8 +21,21 @@ public abstract class Channel {
     protected String channelName;
     protected String serverId;
     protected Date createdDate;
-    protected List<Message> messageHistory;
+    // The hot tail changes under the channel's monitor, as searches on other threads read it
+    protected List<Message> messageHistory; // full history, or only the hot tail once a log is attached
+    private Map<String, Integer> hotSlots; // messageId -> slot in messageHistory, counted from hotBase
+    private int hotBase; // slots trimmed off the front of messageHistory so far
+    private BitSet hotDeleted; // slots of messageHistory whose message was deleted (tombstones)
+    private int hotTombstones;
     protected Set<String> mutedUsers;
+    protected WriteAheadLog log; // null when history is kept in memory only
+    private volatile Supplier<WriteAheadLog> logSource; // log attached on demand, until first use
+    private volatile MessageIndex index; // built by the first token search, then kept up to date
+    private volatile TrigramIndex substringIndex; // likewise for substring searches, when enabled
+    protected volatile boolean substringIndexed; // opt-in, as the index costs memory per character
+    private final List<HistoryListener> historyListeners = new CopyOnWriteArrayList<>();
+    protected int messageCount;
+    protected int hotTailSize = -1; // messages kept on the heap; negative uses the global setting
     
     public Channel(String channelName, String serverId) {
         this.channelId = UUID.randomUUID().toString();
@@ -20,6 +43,22 @@ public abstract class Channel {
         this.serverId = serverId;
         this.createdDate = new Date();
         this.messageHistory = new ArrayList<>();
+        this.hotSlots = new HashMap<>();
+        this.hotDeleted = new BitSet();
+        this.mutedUsers = new HashSet<>();
+    }
+    
+    /**
+     * Restore a channel from a persisted snapshot, keeping the original id
+     */
+    protected Channel(String channelId, String channelName, String serverId, Date createdDate) {
+        this.channelId = channelId;
+        this.channelName = channelName;
+        this.serverId = serverId;
+        this.createdDate = createdDate;
+        this.messageHistory = new ArrayList<>();
+        this.hotSlots = new HashMap<>();
+        this.hotDeleted = new BitSet();
         this.mutedUsers = new HashSet<>();
     }
     
@@ -45,7 +84,352 @@ public abstract class Channel {
     }
     
     public List<Message> getMessageHistory() {
-        return new ArrayList<>(messageHistory);
+        hydrate();
+        if (log != null) {
+            return log.readRecent(messageCount);
+        }
+        return liveHotMessages();
+    }
+    
+    public int getMessageCount() {
+        hydrate();
+        return messageCount;
+    }
+    
+    /**
+     * Get the newest messages, oldest first
+     */
+    public List<Message> getRecentMessages(int count) {
+        return getOlderMessages(0, count);
+    }
+    
+    /**
+     * Page backwards through history: skip the newest messages and return up to count
+     * older ones, oldest first. Served from the on-heap hot tail when it reaches back
+     * far enough, otherwise from the log (mapped or compressed segments).
+     */
+    public List<Message> getOlderMessages(int skip, int count) {
+        hydrate();
+        int hotSize = messageHistory.size() - hotTombstones;
+        if (log == null || skip + count <= hotSize || hotSize == messageCount) {
+            recordHotRead();
+            if (hotTombstones == 0) {
+                int to = Math.max(0, hotSize - skip);
+                return new ArrayList<>(messageHistory.subList(Math.max(0, to - count), to));
+            }
+            List<Message> page = new ArrayList<>();
+            for (int i = messageHistory.size() - 1; i >= 0 && page.size() < count; i--) {
+                if (!hotDeleted.get(i) && skip-- <= 0) {
+                    page.add(messageHistory.get(i));
+                }
+            }
+            Collections.reverse(page);
+            return page;
+        }
+        return log.readRecent(skip, count);
+    }
+    
+    /**
+     * A page of up to count messages next to the cursor's anchor, oldest first
+     * Only the page itself is read. Returns null when the anchor message does not exist.
+     */
+    public List<Message> getMessages(HistoryCursor cursor, int count) {
+        hydrate();
+        switch (cursor.getDirection()) {
+            case BEFORE:
+                return pageBefore(cursor, count);
+            case AFTER:
+                return pageAfter(cursor, count);
+            default:
+                // The anchor message, if any, sits in the middle of the page
+                Message anchor = cursor.isAnchoredAtMessage() ? findMessage(cursor.getMessageId()) : null;
+                if (cursor.isAnchoredAtMessage() && anchor == null) {
+                    return null;
+                }
+                int before = count / 2;
+                int after = count - before - (anchor != null ? 1 : 0);
+                List<Message> page = pageBefore(cursor, before);
+                if (anchor != null && count > 0) {
+                    page.add(anchor);
+                }
+                page.addAll(pageAfter(cursor, after));
+                return page;
+        }
+    }
+    
+    /**
+     * The first limit messages sent between two instants, inclusive, oldest first
+     */
+    public List<Message> getMessagesBetween(Date from, Date to, int limit) {
+        hydrate();
+        if (log != null) {
+            return log.readBetween(from.getTime(), to.getTime(), limit);
+        }
+        return readHotSlots(firstHotSlotAtOrAfter(from.getTime()), 1, limit, to.getTime());
+    }
+    
+    private List<Message> pageBefore(HistoryCursor cursor, int count) {
+        if (log != null) {
+            return cursor.isAnchoredAtMessage() ? log.readBefore(cursor.getMessageId(), count)
+                : log.readBefore(cursor.getInstant().getTime(), count);
+        }
+        int start = cursor.isAnchoredAtMessage() ? hotSlotOf(cursor.getMessageId())
+            : firstHotSlotAtOrAfter(cursor.getInstant().getTime());
+        return start >= 0 ? readHotSlots(start - 1, -1, count, Long.MAX_VALUE) : null;
+    }
+    
+    private List<Message> pageAfter(HistoryCursor cursor, int count) {
+        if (log != null) {
+            return cursor.isAnchoredAtMessage() ? log.readAfter(cursor.getMessageId(), count)
+                : log.readAfter(cursor.getInstant().getTime(), count);
+        }
+        if (cursor.isAnchoredAtMessage()) {
+            int slot = hotSlotOf(cursor.getMessageId());
+            return slot >= 0 ? readHotSlots(slot + 1, 1, count, Long.MAX_VALUE) : null;
+        }
+        return readHotSlots(firstHotSlotAtOrAfter(cursor.getInstant().getTime()), 1, count, Long.MAX_VALUE);
+    }
+    
+    private int hotSlotOf(String messageId) {
+        Integer slot = hotSlots.get(messageId);
+        return slot != null ? slot - hotBase : -1;
+    }
+    
+    /**
+     * First slot of the in-memory history sent at or after the given time, by binary
+     * search since messages are appended in timestamp order; tombstones keep their message
+     */
+    private int firstHotSlotAtOrAfter(long millis) {
+        int low = 0;
+        int high = messageHistory.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (messageHistory.get(middle).getTimestamp().getTime() < millis) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+    
+    private List<Message> readHotSlots(int start, int step, int count, long until) {
+        List<Message> page = new ArrayList<>();
+        for (int i = start; i >= 0 && i < messageHistory.size() && page.size() < count; i += step) {
+            Message message = messageHistory.get(i);
+            if (message.getTimestamp().getTime() > until) {
+                break;
+            }
+            if (!hotDeleted.get(i)) {
+                page.add(message);
+            }
+        }
+        if (step < 0) {
+            Collections.reverse(page);
+        }
+        return page;
+    }
+    
+    private List<Message> liveHotMessages() {
+        List<Message> live = new ArrayList<>(messageHistory.size() - hotTombstones);
+        for (int i = 0; i < messageHistory.size(); i++) {
+            if (!hotDeleted.get(i)) {
+                live.add(messageHistory.get(i));
+            }
+        }
+        return live;
+    }
+    
+    /**
+     * Replace the hot messages, indexing them by id
+     */
+    private void resetHotTail(List<Message> messages) {
+        messageHistory = new ArrayList<>(messages);
+        hotSlots = new HashMap<>();
+        hotBase = 0;
+        hotDeleted = new BitSet();
+        hotTombstones = 0;
+        for (int i = 0; i < messageHistory.size(); i++) {
+            hotSlots.put(messageHistory.get(i).getMessageId(), i);
+        }
+    }
+    
+    /**
+     * Drop the oldest slots of the hot tail
+     */
+    private void dropHotSlots(int slots) {
+        for (int i = 0; i < slots; i++) {
+            if (hotDeleted.get(i)) {
+                hotTombstones--;
+            } else {
+                hotSlots.remove(messageHistory.get(i).getMessageId());
+            }
+        }
+        hotDeleted = hotDeleted.get(slots, Math.max(slots, messageHistory.size()));
+        messageHistory.subList(0, slots).clear();
+        hotBase += slots;
+    }
+    
+    private Message findHotMessage(String messageId) {
+        Integer slot = hotSlots.get(messageId);
+        return slot != null ? messageHistory.get(slot - hotBase) : null;
+    }
+    
+    /**
+     * Leave a tombstone in a deleted message's slot; tombstones are swept out once
+     * they make up half the hot tail, so deleting never shifts the list
+     */
+    private boolean removeHotMessage(String messageId) {
+        Integer slot = hotSlots.remove(messageId);
+        if (slot == null) {
+            return false;
+        }
+        hotDeleted.set(slot - hotBase);
+        hotTombstones++;
+        if (hotTombstones > messageHistory.size() / 2) {
+            resetHotTail(liveHotMessages());
+        }
+        return true;
+    }
+    
+    private void recordHotRead() {
+        if (log != null) {
+            log.getTierMetrics().record(TierMetrics.Tier.HOT);
+        }
+    }
+    
+    /**
+     * Messages kept on the heap for this channel
+     */
+    public int getHotTailSize() {
+        return hotTailSize >= 0 ? hotTailSize : StorageConfig.getHotTailSize();
+    }
+    
+    /**
+     * The per-channel hot tail size, or a negative value when the global setting applies
+     */
+    public int getHotTailOverride() {
+        return hotTailSize;
+    }
+    
+    /**
+     * Override the hot tail size for this channel; a negative size restores the global setting
+     * Shrinking takes effect immediately, growing as new messages arrive
+     */
+    public synchronized void setHotTailSize(int size) {
+        this.hotTailSize = size < 0 ? -1 : size;
+        if (log != null && messageHistory.size() > getHotTailSize()) {
+            dropHotSlots(messageHistory.size() - getHotTailSize());
+        }
+    }
+    
+    /**
+     * Read counts per storage tier for this channel, or null without a log
+     */
+    public TierMetrics getTierMetrics() {
+        hydrate();
+        return log != null ? log.getTierMetrics() : null;
+    }
+    
+    /**
+     * Attach a durable log to this channel
+     * Only the live message count and the newest messages are loaded; the rest stays on disk
+     */
+    public synchronized void attachLog(WriteAheadLog log) {
+        this.log = log;
+        this.messageCount = log.countLiveMessages();
+        resetHotTail(log.readRecent(getHotTailSize()));
+    }
+    
+    /**
+     * Attach a durable log that is only opened and read the first time this channel's
+     * history is needed, so startup does not depend on how much history there is
+     */
+    public void attachLogOnDemand(Supplier<WriteAheadLog> source) {
+        this.logSource = source;
+    }
+    
+    /**
+     * Load a log attached on demand; does nothing once loaded or without one
+     */
+    protected void hydrate() {
+        if (logSource != null) {
+            synchronized (this) {
+                if (logSource != null) {
+                    attachLog(logSource.get());
+                    logSource = null;
+                }
+            }
+        }
+    }
+    
+    public boolean isHydrated() {
+        return logSource == null;
+    }
+    
+    public WriteAheadLog getLog() {
+        hydrate();
+        return log;
+    }
+    
+    /**
+     * Add a new message to the history, recording it in the log first
+     */
+    protected void appendMessage(Message message) {
+        hydrate();
+        long position = -1;
+        if (log != null) {
+            position = log.appendSend(message);
+        }
+        synchronized (this) {
+            // With the hot tail, so an index built from it cannot miss the message
+            if (index != null) {
+                index.add(message, position);
+            }
+            TrigramIndex trigrams = substringIndex;
+            if (trigrams != null) {
+                trigrams.add(message, position);
+            }
+            hotSlots.put(message.getMessageId(), hotBase + messageHistory.size());
+            messageHistory.add(message);
+            messageCount++;
+            trimHotTail();
+        }
+        for (HistoryListener listener : historyListeners) {
+            listener.messageSent(this, message);
+        }
+    }
+    
+    /**
+     * Drop the oldest hot messages once the tail grows past twice its size,
+     * so the ArrayList shift is amortised over many appends
+     */
+    private void trimHotTail() {
+        int tailSize = getHotTailSize();
+        if (log != null && messageHistory.size() > 2 * tailSize) {
+            dropHotSlots(messageHistory.size() - tailSize);
+        }
+    }
+    
+    /**
+     * Record that a message's content was changed in place
+     */
+    protected void recordEdit(Message message, String previousContent) {
+        hydrate();
+        long position = -1;
+        if (log != null) {
+            position = log.appendEdit(message);
+        }
+        if (index != null) {
+            index.update(message, previousContent, position);
+        }
+        TrigramIndex trigrams = substringIndex;
+        if (trigrams != null) {
+            trigrams.update(message, previousContent, position);
+        }
+        for (HistoryListener listener : historyListeners) {
+            listener.messageEdited(this, message);
+        }
     }
     
     // Abstract methods to be implemented by subclasses
@@ -66,30 +450,230 @@ public abstract class Channel {
         return mutedUsers.contains(userId);
     }
     
+    public Set<String> getMutedUsers() {
+        return new HashSet<>(mutedUsers);
+    }
+    
     public void deleteMessage(String messageId) {
-        messageHistory.removeIf(message -> message.getMessageId().equals(messageId));
+        hydrate();
+        Message deleted;
+        boolean removed;
+        synchronized (this) {
+            deleted = findHotMessage(messageId);
+            removed = removeHotMessage(messageId);
+        }
+        if (log != null) {
+            if (deleted == null && (index != null || substringIndex != null)) {
+                // The indexes need its text to drop its terms, and the log cannot give it once deleted
+                deleted = log.findMessage(messageId);
+            }
+            if (!removed && deleted == null && !log.containsMessage(messageId)) {
+                return;
+            }
+            log.appendDelete(messageId);
+            removed = true;
+        }
+        if (removed) {
+            messageCount--;
+            String content = deleted != null ? deleted.getContent() : null;
+            if (index != null) {
+                index.remove(messageId, content);
+            }
+            TrigramIndex trigrams = substringIndex;
+            if (trigrams != null) {
+                trigrams.remove(messageId, content);
+            }
+            for (HistoryListener listener : historyListeners) {
+                listener.messageDeleted(this, messageId);
+            }
+        }
+    }
+    
+    public void addHistoryListener(HistoryListener listener) {
+        historyListeners.add(listener);
+    }
+    
+    public void removeHistoryListener(HistoryListener listener) {
+        historyListeners.remove(listener);
+    }
+    
+    /**
+     * Visit every live message, newest first, without copying the history
+     */
+    public void forEachMessage(Consumer<Message> visitor) {
+        hydrate();
+        if (log != null) {
+            log.scanMessages(message -> {
+                visitor.accept(message);
+                return true;
+            });
+            return;
+        }
+        for (int i = messageHistory.size() - 1; i >= 0; i--) {
+            if (!hotDeleted.get(i)) {
+                visitor.accept(messageHistory.get(i));
+            }
+        }
     }
     
     public Message findMessage(String messageId) {
-        return messageHistory.stream()
-                .filter(message -> message.getMessageId().equals(messageId))
-                .findFirst()
-                .orElse(null);
+        hydrate();
+        Message message = findHotMessage(messageId);
+        if (message != null) {
+            recordHotRead();
+        } else if (log != null) {
+            message = log.findMessage(messageId);
+        }
+        return message;
     }
     
+    /**
+     * Find messages matching the keyword's words, oldest first
+     * Words are all required unless joined by OR, and quoted words must form a phrase
+     */
     public List<Message> searchMessages(String keyword) {
+        return searchMessages(keyword, SearchMode.TOKEN);
+    }
+    
+    public List<Message> searchMessages(String keyword, SearchMode mode) {
+        return searchMessages(keyword, mode, Integer.MAX_VALUE, Long.MIN_VALUE);
+    }
+    
+    /**
+     * The newest limit matches of the keyword sent at or after notBefore (epoch millis),
+     * oldest first; the search stops as soon as it has them or reaches older messages
+     */
+    public List<Message> searchMessages(String keyword, SearchMode mode, int limit, long notBefore) {
+        if (mode == SearchMode.TOKEN) {
+            List<Message> results = getIndex().search(keyword, limit, notBefore);
+            if (results != null) {
+                return results;
+            }
+            // A keyword without any letters or digits can only be matched as a substring
+        }
+        return searchSubstring(keyword, limit, notBefore);
+    }
+    
+    /**
+     * The k messages most relevant to the query, best first
+     * Returns null when the query has no words, which can only be matched as a substring
+     */
+    public List<SearchHit> rankMessages(String query, int k) {
+        return getIndex().rank(query, k, System.currentTimeMillis());
+    }
+    
+    /**
+     * The channel's token index, built from its history the first time it is needed
+     */
+    public MessageIndex getIndex() {
+        hydrate();
+        MessageIndex building = null;
+        if (index == null) {
+            synchronized (this) {
+                if (index == null) {
+                    // Published before it is filled, already marked as building, so sends during
+                    // the build reach it and are queued until it is done, and searches wait
+                    index = log != null ? new MessageIndex(log) : MessageIndex.build(liveHotMessages());
+                    building = log != null ? index : null;
+                }
+            }
+        }
+        if (building != null) {
+            building.buildFromLog(); // outside the channel's monitor, so sends are not held up
+        }
+        return index;
+    }
+    
+    public boolean isSubstringIndexed() {
+        return substringIndexed;
+    }
+    
+    /**
+     * Answer substring searches from a trigram index instead of scanning the history
+     * The index is built on the next substring search; turning it off frees it
+     */
+    public synchronized void setSubstringIndexed(boolean indexed) {
+        substringIndexed = indexed;
+        if (!indexed && substringIndex != null) {
+            substringIndex.close();
+            substringIndex = null;
+        }
+    }
+    
+    /**
+     * The channel's trigram index, built the first time it is needed, or null when the
+     * channel does not use one
+     */
+    public TrigramIndex getSubstringIndex() {
+        hydrate();
+        TrigramIndex building = null;
+        if (substringIndexed && substringIndex == null) {
+            synchronized (this) {
+                if (substringIndexed && substringIndex == null) {
+                    long budget = StorageConfig.getSubstringIndexBytes();
+                    // Published already marked as building, like the token index
+                    substringIndex = log != null ? new TrigramIndex(log, budget)
+                        : TrigramIndex.build(liveHotMessages(), budget);
+                    building = log != null ? substringIndex : null;
+                }
+            }
+        }
+        if (building != null) {
+            building.buildFromLog();
+        }
+        return substringIndex;
+    }
+    
+    private List<Message> searchSubstring(String keyword, int limit, long notBefore) {
+        TrigramIndex trigrams = getSubstringIndex();
+        if (trigrams != null) {
+            List<Message> results = trigrams.search(keyword, limit, notBefore);
+            if (results != null) {
+                return results;
+            }
+            // Too short to look up, or the index outgrew its budget
+        }
+        hydrate();
+        String lowerKeyword = keyword.toLowerCase(Locale.ROOT);
         List<Message> results = new ArrayList<>();
-        for (Message message : messageHistory) {
-            if (message.getContent().toLowerCase().contains(keyword.toLowerCase())) {
-                results.add(message);
+        if (log != null) {
+            // Every message is in the log, so scan the log only, newest first
+            log.scanMessages(message -> {
+                if (message.getTimestamp().getTime() < notBefore) {
+                    return false;
+                }
+                if (message.getContent().toLowerCase(Locale.ROOT).contains(lowerKeyword)) {
+                    results.add(message);
+                }
+                return results.size() < limit;
+            });
+        } else {
+            synchronized (this) {
+                for (int i = messageHistory.size() - 1; i >= 0 && results.size() < limit; i--) {
+                    if (hotDeleted.get(i)) {
+                        continue;
+                    }
+                    Message message = messageHistory.get(i);
+                    if (message.getTimestamp().getTime() < notBefore) {
+                        break;
+                    }
+                    if (message.getContent().toLowerCase(Locale.ROOT).contains(lowerKeyword)) {
+                        results.add(message);
+                    }
+                }
             }
         }
+        Collections.reverse(results);
         return results;
     }
     
     @Override
     public String toString() {
+        if (!isHydrated()) {
+            // Listing channels should not load their history
+            return String.format("%s: %s", getChannelType(), channelName);
+        }
         return String.format("%s: %s (%d messages)", 
-            getChannelType(), channelName, messageHistory.size());
+            getChannelType(), channelName, messageCount);
     }
 }
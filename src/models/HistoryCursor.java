@@ -0,0 +1,74 @@
+package models;
+
+import java.util.Date;
+
+/**
+ * HistoryCursor class naming a place in a channel's history to page from
+ * A cursor is anchored at a message or at an instant, and asks for the messages
+ * before it, after it, or around it. The first and last messages of a page give
+ * the cursors of the pages next to it.
+ */
+public class HistoryCursor {
+    public enum Direction { BEFORE, AFTER, AROUND }
+    
+    private final Direction direction;
+    private final String messageId; // null when anchored at an instant
+    private final Date instant;
+    
+    private HistoryCursor(Direction direction, String messageId, Date instant) {
+        this.direction = direction;
+        this.messageId = messageId;
+        this.instant = instant;
+    }
+    
+    public static HistoryCursor before(String messageId) {
+        return new HistoryCursor(Direction.BEFORE, messageId, null);
+    }
+    
+    public static HistoryCursor after(String messageId) {
+        return new HistoryCursor(Direction.AFTER, messageId, null);
+    }
+    
+    public static HistoryCursor around(String messageId) {
+        return new HistoryCursor(Direction.AROUND, messageId, null);
+    }
+    
+    /**
+     * Messages sent strictly before the instant
+     */
+    public static HistoryCursor before(Date instant) {
+        return new HistoryCursor(Direction.BEFORE, null, instant);
+    }
+    
+    /**
+     * Messages sent at or after the instant
+     */
+    public static HistoryCursor after(Date instant) {
+        return new HistoryCursor(Direction.AFTER, null, instant);
+    }
+    
+    public static HistoryCursor around(Date instant) {
+        return new HistoryCursor(Direction.AROUND, null, instant);
+    }
+    
+    public Direction getDirection() {
+        return direction;
+    }
+    
+    public String getMessageId() {
+        return messageId;
+    }
+    
+    public Date getInstant() {
+        return instant;
+    }
+    
+    public boolean isAnchoredAtMessage() {
+        return messageId != null;
+    }
+    
+    @Override
+    public String toString() {
+        return direction.name().toLowerCase() + " " + (messageId != null ? messageId : instant);
+    }
+}
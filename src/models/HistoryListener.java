@@ -0,0 +1,17 @@
+package models;
+
+/**
+ * HistoryListener interface notified as messages are added to or removed from a channel
+ * Called on the thread that changed the channel, after the change is in its history
+ */
+public interface HistoryListener {
+    void messageSent(Channel channel, Message message);
+    
+    /**
+     * The message's content has been changed in place; most listeners can ignore this
+     */
+    default void messageEdited(Channel channel, Message message) {
+    }
+
+    void messageDeleted(Channel channel, String messageId);
+}
@@ -28,6 +28,21 @@ public class Message {
         this.editedTimestamp = null;
     }
     
+    /**
+     * Restore a message from persisted storage, keeping its original id and timestamps
+     */
+    public Message(String messageId, String content, String senderId, String senderUsername, String channelId,
+                   Date timestamp, boolean isEdited, Date editedTimestamp) {
+        this.messageId = messageId;
+        this.content = content;
+        this.senderId = senderId;
+        this.senderUsername = senderUsername;
+        this.channelId = channelId;
+        this.timestamp = timestamp;
+        this.isEdited = isEdited;
+        this.editedTimestamp = editedTimestamp;
+    }
+    
     // Getters and Setters
     public String getMessageId() {
         return messageId;
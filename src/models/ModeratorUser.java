@@ -1,5 +1,7 @@
 package models;
 
+import java.util.Date;
+
 /**
  * ModeratorUser class demonstrating Inheritance
  * Inherits from User and adds moderator-specific permissions
@@ -10,6 +12,10 @@ public class ModeratorUser extends User {
         super(username, hashedPassword);
     }
     
+    public ModeratorUser(String userId, String username, String hashedPassword, Date lastSeen) {
+        super(userId, username, hashedPassword, lastSeen);
+    }
+    
     @Override
     public boolean hasPermission(String permission) {
         // Moderators have limited permissions
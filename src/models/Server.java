@@ -1,6 +1,8 @@
 package models;
 
+import search.SenderIndex;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Server class demonstrating Composition
@@ -13,11 +15,16 @@ public class Server {
     private String ownerUsername;
     private String inviteCode;
     private Date createdDate;
-    private List<Channel> channels;
-    private Map<String, String> members; // userId -> role (ADMIN, MODERATOR, MEMBER)
+    private List<Channel> channels; // in creation order
+    private Map<String, Channel> channelsById;
+    private Map<String, Channel> channelsByName; // lowercase name -> first channel with it; names are fixed once added
+    private List<TextChannel> textChannels;
+    private List<VoiceChannel> voiceChannels;
+    private Map<String, String> members; // userId -> role (ADMIN, MODERATOR, MEMBER); read by fan-out threads
     private Map<String, String> memberUsernames; // userId -> username
     private Set<String> bannedUsers;
     private String description;
+    private volatile SenderIndex senderIndex; // built on first use, then follows every channel
     
     public Server(String serverName, String ownerId, String ownerUsername) {
         this.serverId = UUID.randomUUID().toString();
@@ -27,7 +34,11 @@ public class Server {
         this.inviteCode = generateInviteCode();
         this.createdDate = new Date();
         this.channels = new ArrayList<>();
-        this.members = new HashMap<>();
+        this.channelsById = new HashMap<>();
+        this.channelsByName = new HashMap<>();
+        this.textChannels = new ArrayList<>();
+        this.voiceChannels = new ArrayList<>();
+        this.members = new ConcurrentHashMap<>();
         this.memberUsernames = new HashMap<>();
         this.bannedUsers = new HashSet<>();
         this.description = "";
@@ -40,14 +51,40 @@ public class Server {
         createDefaultChannels();
     }
     
+    /**
+     * Restore a server from a persisted snapshot
+     * Channels, members and bans are added back by the caller
+     */
+    public Server(String serverId, String serverName, String ownerId, String ownerUsername,
+                  String inviteCode, Date createdDate, String description) {
+        this.serverId = serverId;
+        this.serverName = serverName;
+        this.ownerId = ownerId;
+        this.ownerUsername = ownerUsername;
+        this.inviteCode = inviteCode;
+        this.createdDate = createdDate;
+        this.channels = new ArrayList<>();
+        this.channelsById = new HashMap<>();
+        this.channelsByName = new HashMap<>();
+        this.textChannels = new ArrayList<>();
+        this.voiceChannels = new ArrayList<>();
+        this.members = new ConcurrentHashMap<>();
+        this.memberUsernames = new HashMap<>();
+        this.bannedUsers = new HashSet<>();
+        this.description = description;
+        
+        members.put(ownerId, "ADMIN");
+        memberUsernames.put(ownerId, ownerUsername);
+    }
+    
     private void createDefaultChannels() {
         // Create default text channel
         TextChannel generalText = new TextChannel("general", serverId);
-        channels.add(generalText);
+        addChannel(generalText);
         
         // Create default voice channel
         VoiceChannel generalVoice = new VoiceChannel("General Voice", serverId);
-        channels.add(generalVoice);
+        addChannel(generalVoice);
     }
     
     private String generateInviteCode() {
@@ -66,42 +103,89 @@ public class Server {
     // Channel management
     public void addChannel(Channel channel) {
         channels.add(channel);
+        channelsById.put(channel.getChannelId(), channel);
+        channelsByName.putIfAbsent(nameKey(channel.getChannelName()), channel);
+        if (channel instanceof TextChannel) {
+            textChannels.add((TextChannel) channel);
+        } else if (channel instanceof VoiceChannel) {
+            voiceChannels.add((VoiceChannel) channel);
+        }
+        if (senderIndex != null) {
+            senderIndex.addChannels(Collections.singletonList(channel));
+        }
     }
     
     public boolean removeChannel(String channelId) {
-        return channels.removeIf(channel -> channel.getChannelId().equals(channelId));
+        Channel channel = findChannel(channelId);
+        if (channel == null) {
+            return false;
+        }
+        channels.remove(channel);
+        channelsById.remove(channelId);
+        textChannels.remove(channel);
+        voiceChannels.remove(channel);
+        String name = nameKey(channel.getChannelName());
+        if (channelsByName.get(name) == channel) {
+            // Another channel may share the name; the next one in order takes over
+            channelsByName.remove(name);
+            for (Channel other : channels) {
+                if (nameKey(other.getChannelName()).equals(name)) {
+                    channelsByName.put(name, other);
+                    break;
+                }
+            }
+        }
+        if (senderIndex != null) {
+            senderIndex.removeChannel(channel);
+        }
+        return true;
+    }
+    
+    private static String nameKey(String channelName) {
+        return channelName.toLowerCase(Locale.ROOT);
+    }
+    
+    /**
+     * The index of messages by sender across this server's channels
+     * Built from every channel's history the first time it is needed
+     */
+    public SenderIndex getSenderIndex() {
+        if (senderIndex == null) {
+            synchronized (this) {
+                if (senderIndex == null) {
+                    SenderIndex index = new SenderIndex();
+                    index.addChannels(channels);
+                    senderIndex = index;
+                }
+            }
+        }
+        return senderIndex;
     }
     
     public Channel findChannel(String channelId) {
-        return channels.stream()
-                .filter(channel -> channel.getChannelId().equals(channelId))
-                .findFirst()
-                .orElse(null);
+        return channelsById.get(channelId);
     }
     
     public Channel findChannelByName(String channelName) {
-        return channels.stream()
-                .filter(channel -> channel.getChannelName().equalsIgnoreCase(channelName))
-                .findFirst()
-                .orElse(null);
+        return channelName == null ? null : channelsByName.get(nameKey(channelName));
     }
     
     public List<Channel> getChannels() {
         return new ArrayList<>(channels);
     }
     
+    /**
+     * Read-only view of the text channels, in creation order
+     */
     public List<TextChannel> getTextChannels() {
-        return channels.stream()
-                .filter(channel -> channel instanceof TextChannel)
-                .map(channel -> (TextChannel) channel)
-                .collect(ArrayList::new, ArrayList::add, ArrayList::addAll);
+        return Collections.unmodifiableList(textChannels);
     }
     
+    /**
+     * Read-only view of the voice channels, in creation order
+     */
     public List<VoiceChannel> getVoiceChannels() {
-        return channels.stream()
-                .filter(channel -> channel instanceof VoiceChannel)
-                .map(channel -> (VoiceChannel) channel)
-                .collect(ArrayList::new, ArrayList::add, ArrayList::addAll);
+        return Collections.unmodifiableList(voiceChannels);
     }
     
     // Member management
@@ -164,6 +248,10 @@ public class Server {
         return bannedUsers.contains(userId);
     }
     
+    public Set<String> getBannedUsers() {
+        return new HashSet<>(bannedUsers);
+    }
+    
     // Getters and Setters
     public String getServerId() {
         return serverId;
@@ -0,0 +1,40 @@
+package models;
+
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Date;
+
+/**
+ * Session class, one login of a user
+ * Every login gets its own session, so one process can serve many users, and a user can
+ * be logged in from several places at once. Service methods act for the user of the
+ * session they are given; the token lets a client name its session without holding it.
+ */
+public class Session {
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final int TOKEN_BYTES = 24;
+    
+    private final String token;
+    private final User user;
+    private final Date loginTime;
+    
+    public Session(User user) {
+        byte[] bytes = new byte[TOKEN_BYTES];
+        RANDOM.nextBytes(bytes);
+        this.token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        this.user = user;
+        this.loginTime = new Date();
+    }
+    
+    public String getToken() {
+        return token;
+    }
+    
+    public User getUser() {
+        return user;
+    }
+    
+    public Date getLoginTime() {
+        return loginTime;
+    }
+}
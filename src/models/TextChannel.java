@@ -1,6 +1,7 @@
 package models;
 
 import utils.ConsoleUtil;
+import java.util.Date;
 
 /**
  * TextChannel class demonstrating Inheritance and Polymorphism
@@ -14,6 +15,11 @@ public class TextChannel extends Channel {
         this.maxMessageLength = 2000; // Discord-like message limit
     }
     
+    public TextChannel(String channelId, String channelName, String serverId, Date createdDate) {
+        super(channelId, channelName, serverId, createdDate);
+        this.maxMessageLength = 2000;
+    }
+    
     @Override
     public void sendMessage(String content, User sender) {
         // Check if user is muted
@@ -30,7 +36,7 @@ public class TextChannel extends Channel {
         
         // Create and add message
         Message message = new Message(content, sender.getUserId(), sender.getUsername(), channelId);
-        messageHistory.add(message);
+        appendMessage(message);
         
         ConsoleUtil.printSuccess("Message sent to #" + channelName);
     }
@@ -39,19 +45,18 @@ public class TextChannel extends Channel {
     public void displayMessages() {
         ConsoleUtil.printHeader("Messages in #" + channelName);
         
-        if (messageHistory.isEmpty()) {
+        if (getMessageCount() == 0) {
             ConsoleUtil.printInfo("No messages in this channel yet.");
             return;
         }
         
         // Display last 20 messages
-        int startIndex = Math.max(0, messageHistory.size() - 20);
-        for (int i = startIndex; i < messageHistory.size(); i++) {
-            System.out.println(messageHistory.get(i).getFormattedMessage());
+        for (Message message : getRecentMessages(20)) {
+            System.out.println(message.getFormattedMessage());
         }
         
-        if (messageHistory.size() > 20) {
-            ConsoleUtil.printInfo("Showing last 20 messages. Total: " + messageHistory.size());
+        if (getMessageCount() > 20) {
+            ConsoleUtil.printInfo("Showing last 20 messages. Total: " + getMessageCount());
         }
     }
     
@@ -78,7 +83,9 @@ public class TextChannel extends Channel {
             return;
         }
         
+        String previousContent = message.getContent();
         message.setContent(newContent);
+        recordEdit(message, previousContent);
         ConsoleUtil.printSuccess("Message edited successfully.");
     }
     
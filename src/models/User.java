@@ -1,6 +1,7 @@
 package models;
 
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Base User class demonstrating Encapsulation
@@ -10,10 +11,10 @@ public class User {
     private String userId;
     private String username;
     private String hashedPassword;
-    private boolean isOnline;
-    private Date lastSeen;
-    private List<String> friendList;
-    private List<String> joinedServers;
+    private volatile boolean isOnline;
+    private volatile Date lastSeen;
+    private CopyOnWriteArrayList<String> friendList; // several sessions may change a user at once
+    private CopyOnWriteArrayList<String> joinedServers;
     private String currentServer;
     
     public User(String username, String hashedPassword) {
@@ -22,8 +23,22 @@ public class User {
         this.hashedPassword = hashedPassword;
         this.isOnline = false;
         this.lastSeen = new Date();
-        this.friendList = new ArrayList<>();
-        this.joinedServers = new ArrayList<>();
+        this.friendList = new CopyOnWriteArrayList<>();
+        this.joinedServers = new CopyOnWriteArrayList<>();
+        this.currentServer = null;
+    }
+    
+    /**
+     * Restore a user from a persisted snapshot, keeping the original id
+     */
+    public User(String userId, String username, String hashedPassword, Date lastSeen) {
+        this.userId = userId;
+        this.username = username;
+        this.hashedPassword = hashedPassword;
+        this.isOnline = false;
+        this.lastSeen = lastSeen;
+        this.friendList = new CopyOnWriteArrayList<>();
+        this.joinedServers = new CopyOnWriteArrayList<>();
         this.currentServer = null;
     }
     
@@ -68,9 +83,7 @@ public class User {
     }
     
     public void addFriend(String friendId) {
-        if (!friendList.contains(friendId)) {
-            friendList.add(friendId);
-        }
+        friendList.addIfAbsent(friendId);
     }
     
     public void removeFriend(String friendId) {
@@ -82,9 +95,7 @@ public class User {
     }
     
     public void joinServer(String serverId) {
-        if (!joinedServers.contains(serverId)) {
-            joinedServers.add(serverId);
-        }
+        joinedServers.addIfAbsent(serverId);
     }
     
     public void leaveServer(String serverId) {
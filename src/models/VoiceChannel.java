@@ -19,6 +19,13 @@ public class VoiceChannel extends Channel {
         this.isLocked = false;
     }
     
+    public VoiceChannel(String channelId, String channelName, String serverId, Date createdDate) {
+        super(channelId, channelName, serverId, createdDate);
+        this.connectedUsers = new HashSet<>();
+        this.maxUsers = 99;
+        this.isLocked = false;
+    }
+    
     @Override
     public void sendMessage(String content, User sender) {
         // Voice channels can have text chat too
@@ -33,7 +40,7 @@ public class VoiceChannel extends Channel {
         }
         
         Message message = new Message("[VOICE] " + content, sender.getUserId(), sender.getUsername(), channelId);
-        messageHistory.add(message);
+        appendMessage(message);
         
         ConsoleUtil.printSuccess("Voice message sent to 🔊" + channelName);
     }
@@ -49,11 +56,10 @@ public class VoiceChannel extends Channel {
         }
         
         // Show voice chat messages
-        if (!messageHistory.isEmpty()) {
+        if (getMessageCount() > 0) {
             ConsoleUtil.printInfo("\nVoice Chat Messages:");
-            int startIndex = Math.max(0, messageHistory.size() - 10);
-            for (int i = startIndex; i < messageHistory.size(); i++) {
-                System.out.println(messageHistory.get(i).getFormattedMessage());
+            for (Message message : getRecentMessages(10)) {
+                System.out.println(message.getFormattedMessage());
             }
         }
     }
@@ -78,7 +84,7 @@ public class VoiceChannel extends Channel {
             // Simulate voice connection
             Message connectionMessage = new Message(username + " joined the voice channel", 
                 "SYSTEM", "System", channelId);
-            messageHistory.add(connectionMessage);
+            appendMessage(connectionMessage);
             
             ConsoleUtil.printSuccess(username + " connected to 🔊" + channelName);
             return true;
@@ -93,7 +99,7 @@ public class VoiceChannel extends Channel {
             // Simulate voice disconnection
             Message disconnectionMessage = new Message(username + " left the voice channel", 
                 "SYSTEM", "System", channelId);
-            messageHistory.add(disconnectionMessage);
+            appendMessage(disconnectionMessage);
             
             ConsoleUtil.printInfo(username + " disconnected from 🔊" + channelName);
             return true;
@@ -132,7 +138,7 @@ public class VoiceChannel extends Channel {
         
         Message voiceMessage = new Message("[VOICE ACTION] " + voiceAction, 
             "SYSTEM", "System", channelId);
-        messageHistory.add(voiceMessage);
+        appendMessage(voiceMessage);
         
         ConsoleUtil.printInfo("🔊 " + voiceAction);
     }
@@ -0,0 +1,53 @@
+package network;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * BufferPool class keeping direct buffers of one size for reuse
+ * Direct buffers are slow to allocate and their memory only goes back when they are
+ * garbage collected, so connections borrow one while they have bytes in flight and hand
+ * it back once it is drained. A pool belongs to one thread and is not synchronized.
+ */
+public class BufferPool {
+    private final int bufferBytes;
+    private final int capacity;
+    private final ArrayDeque<ByteBuffer> free;
+    private int allocated;
+    
+    public BufferPool(int bufferBytes, int capacity) {
+        this.bufferBytes = bufferBytes;
+        this.capacity = capacity;
+        this.free = new ArrayDeque<>(capacity);
+    }
+    
+    /**
+     * A cleared buffer, allocating one only when none is free
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = free.pollFirst();
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(bufferBytes);
+            allocated++;
+        }
+        return buffer;
+    }
+    
+    /**
+     * Return a buffer; beyond the pool's capacity it is left to the garbage collector
+     */
+    public void release(ByteBuffer buffer) {
+        buffer.clear();
+        if (free.size() < capacity) {
+            free.addFirst(buffer); // most recently used first, while it is still in cache
+        }
+    }
+    
+    public int getAllocatedCount() {
+        return allocated;
+    }
+    
+    public int getFreeCount() {
+        return free.size();
+    }
+}
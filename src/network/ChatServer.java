@@ -0,0 +1,210 @@
+package network;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ChatServer class, a TCP front-end speaking the CommandProcessor line protocol
+ * Each connection gets its own thread that blocks reading the next request, runs it and
+ * writes the reply. On a JVM with virtual threads (Java 21+) connection threads are
+ * virtual, so an idle client costs its socket, a small read buffer and a parked stack
+ * of a few hundred bytes; older JVMs fall back to platform threads with small stacks.
+ */
+public class ChatServer implements Closeable {
+    private static final int READ_BUFFER_BYTES = 512;
+    private static final int MAX_LINE_BYTES = 16 * 1024;
+    private static final long PLATFORM_STACK_BYTES = 256 * 1024;
+    private static final int BACKLOG = 1024;
+    
+    private final CommandProcessor processor;
+    private final InetSocketAddress address;
+    private final ThreadFactory connectionThreads;
+    private final Set<Socket> connections;
+    private final AtomicInteger connectionCount;
+    private ServerSocket serverSocket;
+    private Thread acceptThread;
+    
+    public ChatServer(CommandProcessor processor, InetSocketAddress address) {
+        this.processor = processor;
+        this.address = address;
+        this.connectionThreads = connectionThreadFactory();
+        this.connections = ConcurrentHashMap.newKeySet();
+        this.connectionCount = new AtomicInteger();
+    }
+    
+    /**
+     * Bind the port and start accepting clients in the background
+     */
+    public synchronized void start() throws IOException {
+        serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(address, BACKLOG);
+        acceptThread = new Thread(this::acceptLoop, "chat-accept");
+        acceptThread.start();
+    }
+    
+    private void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                connections.add(socket);
+                connectionCount.incrementAndGet();
+                connectionThreads.newThread(() -> serve(socket)).start();
+            } catch (SocketException e) {
+                break; // closed
+            } catch (IOException e) {
+                System.err.println("Error accepting connection: " + e.getMessage());
+            }
+        }
+    }
+    
+    /**
+     * Read requests from one client until it quits or disconnects
+     */
+    private void serve(Socket socket) {
+        ClientState client = new ClientState();
+        try (Socket s = socket) {
+            LineReader in = new LineReader(new BufferedInputStream(s.getInputStream(), READ_BUFFER_BYTES));
+            OutputStream out = s.getOutputStream();
+            String line;
+            while (!client.isClosing() && (line = in.readLine()) != null) {
+                String reply = in.wasTooLong()
+                    ? "ERR 1\nRequest longer than " + MAX_LINE_BYTES + " bytes.\n"
+                    : processor.execute(client, line);
+                out.write(reply.getBytes(StandardCharsets.UTF_8));
+                out.flush();
+            }
+        } catch (IOException e) {
+            // The client went away
+        } finally {
+            processor.disconnect(client);
+            connections.remove(socket);
+            connectionCount.decrementAndGet();
+        }
+    }
+    
+    /**
+     * Reads UTF-8 lines, allocating only while a line is being read
+     * A line over the limit is read to its end but not kept, and flagged as too long
+     */
+    private static class LineReader {
+        private final InputStream in;
+        private boolean tooLong;
+        
+        private LineReader(InputStream in) {
+            this.in = in;
+        }
+        
+        /**
+         * The next line without its terminator, or null at end of stream
+         */
+        private String readLine() throws IOException {
+            byte[] bytes = new byte[64];
+            int length = 0;
+            int b;
+            tooLong = false;
+            while ((b = in.read()) != -1 && b != '\n') {
+                if (length == MAX_LINE_BYTES) {
+                    tooLong = true;
+                    continue;
+                }
+                if (length == bytes.length) {
+                    bytes = Arrays.copyOf(bytes, Math.min(length * 2, MAX_LINE_BYTES));
+                }
+                bytes[length++] = (byte) b;
+            }
+            if (b == -1 && length == 0) {
+                return null;
+            }
+            if (length > 0 && bytes[length - 1] == '\r') {
+                length--;
+            }
+            return tooLong ? "" : new String(bytes, 0, length, StandardCharsets.UTF_8);
+        }
+        
+        private boolean wasTooLong() {
+            return tooLong;
+        }
+    }
+    
+    /**
+     * Virtual threads where the JVM has them, looked up reflectively so the code still
+     * builds and runs on older JVMs; platform threads with small stacks otherwise
+     */
+    private static ThreadFactory connectionThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            builder = builderType.getMethod("name", String.class, long.class).invoke(builder, "chat-client-", 0L);
+            Method factory = builderType.getMethod("factory");
+            return (ThreadFactory) factory.invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            AtomicInteger counter = new AtomicInteger();
+            return task -> {
+                Thread thread = new Thread(null, task, "chat-client-" + counter.getAndIncrement(), PLATFORM_STACK_BYTES);
+                thread.setDaemon(true);
+                return thread;
+            };
+        }
+    }
+    
+    public static boolean hasVirtualThreads() {
+        try {
+            Thread.class.getMethod("ofVirtual");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+    
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+    
+    public int getConnectionCount() {
+        return connectionCount.get();
+    }
+    
+    /**
+     * Wait until the server is closed
+     */
+    public void awaitTermination() throws InterruptedException {
+        acceptThread.join();
+    }
+    
+    /**
+     * Stop accepting and close every open connection
+     */
+    @Override
+    public synchronized void close() {
+        try {
+            if (serverSocket != null) {
+                serverSocket.close();
+            }
+        } catch (IOException e) {
+            System.err.println("Error closing server socket: " + e.getMessage());
+        }
+        for (Socket socket : connections) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Already closed by its client
+            }
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package network;
+
+import models.Session;
+
+/**
+ * ClientState class, what the server keeps for one connected client
+ * Kept small, as an idle connection should cost little more than its socket.
+ */
+public class ClientState {
+    private volatile Session session; // null until the client logs in
+    private volatile boolean closing; // set by QUIT; the connection closes after the reply
+    
+    public Session getSession() {
+        return session;
+    }
+    
+    public void setSession(Session session) {
+        this.session = session;
+    }
+    
+    public boolean isClosing() {
+        return closing;
+    }
+    
+    public void setClosing(boolean closing) {
+        this.closing = closing;
+    }
+}
@@ -0,0 +1,296 @@
+package network;
+
+import models.*;
+import services.AuthService;
+import services.ChannelService;
+import services.ServerService;
+import utils.ConsoleUtil;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.BiPredicate;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * CommandProcessor class mapping the line protocol onto the services
+ * A request is one line: a command word, then its arguments separated by spaces; the
+ * last argument of SEND, DM, SEARCH and CREATE runs to the end of the line. A reply is
+ * a status line, {@code OK <n>} or {@code ERR <n>}, followed by n lines of output: what
+ * the service printed for the command, without colours or blank lines.
+ *
+ * Server and Channel objects are not thread-safe, so commands touching a server run
+ * one at a time on it; commands on different servers run in parallel.
+ */
+public class CommandProcessor {
+    private static final Pattern ANSI_ESCAPE = Pattern.compile("\033\\[[0-9;]*[A-Za-z]");
+    private static final String[] HELP = {
+        "REGISTER <username> <password>",
+        "LOGIN <username> <password>",
+        "LOGOUT",
+        "SERVERS",
+        "CREATE <name>",
+        "JOIN <inviteCode>",
+        "INFO <serverId>",
+        "CHANNELS <serverId>",
+        "SEND <serverId> <channel> <text>",
+        "HISTORY <serverId> <channel>",
+        "SEARCH <serverId> <channel> <query>",
+        "DM <username> <text>",
+        "DMS <username>",
+        "FRIENDS",
+        "FRIEND <username>",
+        "ONLINE",
+        "PING",
+        "QUIT"
+    };
+    
+    private final AuthService authService;
+    private final ServerService serverService;
+    private final ChannelService channelService;
+    
+    public CommandProcessor(AuthService authService, ServerService serverService, ChannelService channelService) {
+        this.authService = authService;
+        this.serverService = serverService;
+        this.channelService = channelService;
+        OutputCapture.install();
+    }
+    
+    /**
+     * Run one request line for a client, returning the framed reply
+     */
+    public String execute(ClientState client, String line) {
+        boolean[] ok = {false};
+        String output = OutputCapture.capture(() -> {
+            try {
+                ok[0] = run(client, line.trim());
+            } catch (RuntimeException e) {
+                ConsoleUtil.printError("Error running command: " + e.getMessage());
+            }
+        });
+        return reply(ok[0], output);
+    }
+    
+    /**
+     * Close what a client left open when its connection ends
+     */
+    public void disconnect(ClientState client) {
+        Session session = client.getSession();
+        if (session != null) {
+            client.setSession(null);
+            OutputCapture.capture(() -> authService.logoutUser(session));
+        }
+    }
+    
+    private boolean run(ClientState client, String line) {
+        String[] words = line.split(" +", 2);
+        String command = words[0].toUpperCase(Locale.ROOT);
+        String rest = words.length > 1 ? words[1] : "";
+        Session session = client.getSession();
+        switch (command) {
+            case "PING":
+                System.out.println("PONG");
+                return true;
+            case "HELP":
+                for (String usage : HELP) {
+                    System.out.println(usage);
+                }
+                return true;
+            case "QUIT":
+                client.setClosing(true);
+                return true;
+            case "REGISTER": {
+                String[] args = arguments(rest, 2, "REGISTER <username> <password>");
+                return args != null && authService.registerUser(args[0], args[1], "user");
+            }
+            case "LOGIN": {
+                String[] args = arguments(rest, 2, "LOGIN <username> <password>");
+                if (args == null) {
+                    return false;
+                }
+                if (authService.isLoggedIn(session)) {
+                    ConsoleUtil.printError("Already logged in as " + session.getUser().getUsername() + ".");
+                    return false;
+                }
+                client.setSession(authService.loginUser(args[0], args[1]));
+                return client.getSession() != null;
+            }
+            case "LOGOUT":
+                client.setSession(null);
+                return authService.logoutUser(session);
+            case "SERVERS":
+                if (!loggedIn(session)) {
+                    return false;
+                }
+                for (Server server : serverService.getJoinedServers(session)) {
+                    System.out.println(server.getServerId() + " " + server.getServerName()
+                        + " (" + server.getMemberCount() + " members)");
+                }
+                return true;
+            case "CREATE":
+                if (rest.isEmpty()) {
+                    return usage("CREATE <name>");
+                }
+                return serverService.createServer(session, rest, null);
+            case "JOIN": {
+                String[] args = arguments(rest, 1, "JOIN <inviteCode>");
+                if (args == null) {
+                    return false;
+                }
+                Server server = serverService.getServerByInvite(args[0]);
+                if (server == null) {
+                    return serverService.joinServerByInvite(session, args[0]); // reports the bad code
+                }
+                synchronized (server) {
+                    return serverService.joinServerByInvite(session, args[0]);
+                }
+            }
+            case "INFO": {
+                String[] args = arguments(rest, 1, "INFO <serverId>");
+                return args != null && onServer(session, args[0], server -> {
+                    serverService.displayServerInfo(server.getServerId());
+                    return true;
+                });
+            }
+            case "CHANNELS": {
+                String[] args = arguments(rest, 1, "CHANNELS <serverId>");
+                return args != null && onServer(session, args[0], server -> {
+                    for (Channel channel : server.getChannels()) {
+                        System.out.println(channel.getChannelId() + " " + channel.getChannelType()
+                            + " #" + channel.getChannelName());
+                    }
+                    return true;
+                });
+            }
+            case "SEND": {
+                String[] args = arguments(rest, 3, "SEND <serverId> <channel> <text>");
+                return args != null && onChannel(session, args[0], args[1], (server, channel) ->
+                    channelService.sendMessageToChannel(session, server.getServerId(), channel.getChannelId(), args[2]));
+            }
+            case "HISTORY": {
+                String[] args = arguments(rest, 2, "HISTORY <serverId> <channel>");
+                return args != null && onChannel(session, args[0], args[1], (server, channel) -> {
+                    channelService.displayChannelMessages(session, server.getServerId(), channel.getChannelId());
+                    return true;
+                });
+            }
+            case "SEARCH": {
+                String[] args = arguments(rest, 3, "SEARCH <serverId> <channel> <query>");
+                return args != null && onChannel(session, args[0], args[1], (server, channel) -> {
+                    channelService.searchMessages(session, server.getServerId(), channel.getChannelId(), args[2]);
+                    return true;
+                });
+            }
+            case "DM": {
+                String[] args = arguments(rest, 2, "DM <username> <text>");
+                return args != null && channelService.sendDirectMessage(session, args[0], args[1]);
+            }
+            case "DMS": {
+                String[] args = arguments(rest, 1, "DMS <username>");
+                if (args == null) {
+                    return false;
+                }
+                channelService.displayDirectMessages(session, args[0]);
+                return authService.isLoggedIn(session);
+            }
+            case "FRIENDS":
+                if (!loggedIn(session)) {
+                    return false;
+                }
+                for (User friend : authService.getFriends(session)) {
+                    System.out.println(friend.getUsername() + (friend.isOnline() ? " online" : " offline"));
+                }
+                return true;
+            case "FRIEND": {
+                String[] args = arguments(rest, 1, "FRIEND <username>");
+                return args != null && authService.addFriend(session, args[0]);
+            }
+            case "ONLINE":
+                for (User user : authService.getOnlineUsers()) {
+                    System.out.println(user.getUsername());
+                }
+                return true;
+            default:
+                ConsoleUtil.printError("Unknown command '" + words[0] + "'. Send HELP for the list.");
+                return false;
+        }
+    }
+    
+    /**
+     * Run an action on a server the session's user belongs to, holding the server's lock
+     */
+    private boolean onServer(Session session, String serverId, Predicate<Server> action) {
+        if (!loggedIn(session)) {
+            return false;
+        }
+        User user = session.getUser();
+        Server server = serverService.getServer(serverId);
+        if (server == null || !server.isMember(user.getUserId())) {
+            ConsoleUtil.printError("Server not found.");
+            return false;
+        }
+        synchronized (server) {
+            return action.test(server);
+        }
+    }
+    
+    /**
+     * Like onServer, for a channel given by name (with or without #) or by id
+     */
+    private boolean onChannel(Session session, String serverId, String channelName,
+                              BiPredicate<Server, Channel> action) {
+        return onServer(session, serverId, server -> {
+            String name = channelName.startsWith("#") ? channelName.substring(1) : channelName;
+            Channel channel = server.findChannelByName(name);
+            if (channel == null) {
+                channel = server.findChannel(channelName);
+            }
+            if (channel == null) {
+                ConsoleUtil.printError("Channel not found.");
+                return false;
+            }
+            return action.test(server, channel);
+        });
+    }
+    
+    private boolean loggedIn(Session session) {
+        if (!authService.isLoggedIn(session)) {
+            ConsoleUtil.printError("You must be logged in.");
+            return false;
+        }
+        return true;
+    }
+    
+    /**
+     * Split the arguments of a command, the last one taking the rest of the line
+     * Returns null, after printing the usage, when there are too few
+     */
+    private static String[] arguments(String rest, int count, String usage) {
+        String[] args = rest.isEmpty() ? new String[0] : rest.split(" +", count);
+        if (args.length < count) {
+            usage(usage);
+            return null;
+        }
+        return args;
+    }
+    
+    private static boolean usage(String usage) {
+        ConsoleUtil.printError("Usage: " + usage);
+        return false;
+    }
+    
+    private static String reply(boolean ok, String output) {
+        List<String> lines = new ArrayList<>();
+        for (String line : ANSI_ESCAPE.matcher(output).replaceAll("").split("\r?\n")) {
+            line = line.stripTrailing();
+            if (!line.isEmpty()) {
+                lines.add(line);
+            }
+        }
+        StringBuilder reply = new StringBuilder(ok ? "OK " : "ERR ").append(lines.size()).append('\n');
+        for (String line : lines) {
+            reply.append(line).append('\n');
+        }
+        return reply.toString();
+    }
+}
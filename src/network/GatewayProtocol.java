@@ -0,0 +1,137 @@
+package network;
+
+import delivery.ChannelDeliveryStats;
+import delivery.MessageEvent;
+import models.Message;
+import storage.BinaryFormat;
+import java.nio.ByteBuffer;
+
+/**
+ * GatewayProtocol class, the binary frames NioGateway speaks
+ * Every frame is a 4-byte big-endian length followed by that many bytes. A request is an
+ * opcode and its arguments; the reply is a status, the request's opcode and a body.
+ * Ids, strings and numbers use the BinaryFormat encodings:
+ *
+ *   PING                                              -> nothing
+ *   LOGIN       username, password                    -> username
+ *   SEND        serverId, channelId, content          -> nothing
+ *   HISTORY     serverId, channelId, beforeId, count  -> count, messages
+ *   SEARCH      serverId, channelId, query, limit     -> count, (float score, message) pairs
+ *   VOICE_JOIN  serverId, channelId                   -> nothing
+ *   SUBSCRIBE   serverId, channelId                   -> nothing
+ *   UNSUBSCRIBE serverId, channelId                   -> nothing
+ *   SUBSCRIBE_DMS                                     -> nothing
+ *   STATS       serverId, channelId                   -> subscribers, queued, deepest queue,
+ *                                                        dropped, disconnected
+ *
+ * beforeId is an empty string for the newest messages. A message is its id, the sender's
+ * username, a varlong timestamp in milliseconds and its content. An ERR reply's body is
+ * the error text. Replies come back in request order, so requests may be pipelined.
+ *
+ * Once subscribed, a client also receives EVENT frames between replies: the status
+ * EVENT, then MESSAGE_SENT, MESSAGE_EDITED or MESSAGE_DELETED, the server id (an empty
+ * string for direct messages), the channel id (the conversation key for direct
+ * messages) and the message, or only its id when it was deleted. A client too slow to
+ * keep up may instead get MESSAGES_MISSED with the ids and the number of events it lost,
+ * or be disconnected, depending on DeliveryConfig. STATS figures are varlongs.
+ */
+public class GatewayProtocol {
+    public static final byte PING = 0;
+    public static final byte LOGIN = 1;
+    public static final byte SEND = 2;
+    public static final byte HISTORY = 3;
+    public static final byte SEARCH = 4;
+    public static final byte VOICE_JOIN = 5;
+    public static final byte SUBSCRIBE = 6;
+    public static final byte UNSUBSCRIBE = 7;
+    public static final byte SUBSCRIBE_DMS = 8;
+    public static final byte STATS = 9;
+    
+    public static final byte MESSAGE_SENT = 16;
+    public static final byte MESSAGE_EDITED = 17;
+    public static final byte MESSAGE_DELETED = 18;
+    public static final byte MESSAGES_MISSED = 19;
+    
+    public static final byte OK = 0;
+    public static final byte ERR = 1;
+    public static final byte EVENT = 2;
+    
+    public static final int HEADER_BYTES = 4;
+    public static final int MAX_FRAME_BYTES = 64 * 1024 - HEADER_BYTES;
+    
+    /**
+     * Start a frame at the buffer's position, returning where it starts for endFrame
+     */
+    public static int beginFrame(ByteBuffer out) {
+        int start = out.position();
+        out.putInt(0);
+        return start;
+    }
+    
+    /**
+     * Fill in the length of the frame begun at start
+     */
+    public static void endFrame(ByteBuffer out, int start) {
+        out.putInt(start, out.position() - start - HEADER_BYTES);
+    }
+    
+    public static void putMessage(ByteBuffer out, Message message) {
+        putMessage(out, message, message.getContent());
+    }
+    
+    private static void putMessage(ByteBuffer out, Message message, String content) {
+        BinaryFormat.putId(out, message.getMessageId());
+        BinaryFormat.putString(out, message.getSenderUsername());
+        BinaryFormat.putVarLong(out, message.getTimestamp().getTime());
+        BinaryFormat.putString(out, content);
+    }
+    
+    /**
+     * Put the status, opcode and body of an EVENT frame
+     */
+    public static void putEvent(ByteBuffer out, MessageEvent event) {
+        out.put(EVENT);
+        switch (event.getType()) {
+            case SENT:
+                out.put(MESSAGE_SENT);
+                break;
+            case EDITED:
+                out.put(MESSAGE_EDITED);
+                break;
+            case DELETED:
+                out.put(MESSAGE_DELETED);
+                break;
+            default:
+                out.put(MESSAGES_MISSED);
+                break;
+        }
+        BinaryFormat.putString(out, event.isDirectMessage() ? "" : event.getServerId());
+        BinaryFormat.putId(out, event.getChannelId());
+        switch (event.getType()) {
+            case DELETED:
+                BinaryFormat.putId(out, event.getMessageId());
+                break;
+            case MISSED:
+                BinaryFormat.putVarInt(out, event.getMissedCount());
+                break;
+            default:
+                putMessage(out, event.getMessage(), event.getContent());
+                break;
+        }
+    }
+    
+    public static void putStats(ByteBuffer out, ChannelDeliveryStats stats) {
+        BinaryFormat.putVarLong(out, stats.getSubscriberCount());
+        BinaryFormat.putVarLong(out, stats.getQueuedEvents());
+        BinaryFormat.putVarLong(out, stats.getDeepestQueue());
+        BinaryFormat.putVarLong(out, stats.getDroppedCount());
+        BinaryFormat.putVarLong(out, stats.getDisconnectCount());
+    }
+    
+    public static void skipMessage(ByteBuffer in) {
+        BinaryFormat.getId(in);
+        BinaryFormat.skipString(in);
+        BinaryFormat.getVarLong(in);
+        BinaryFormat.skipString(in);
+    }
+}
@@ -0,0 +1,648 @@
+package network;
+
+import delivery.ChannelDeliveryStats;
+import delivery.MessageEvent;
+import delivery.OutboundQueue;
+import delivery.Subscriber;
+import models.HistoryCursor;
+import models.Message;
+import models.Server;
+import models.Session;
+import models.User;
+import search.SearchHit;
+import services.AuthService;
+import services.ChannelService;
+import services.ServerService;
+import storage.BinaryFormat;
+import utils.ConsoleUtil;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Date;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * NioGateway class, a non-blocking front-end speaking the GatewayProtocol binary frames
+ * A small fixed set of event loops, each owning a Selector, serves every connection;
+ * the first loop also accepts and deals new connections out in turn. A connection only
+ * holds a pooled direct buffer while it has a partial request or an unsent reply, and
+ * framing, reading and writing allocate nothing once the pools are warm.
+ *
+ * Requests run on the event loop that read them, under the server's lock as in
+ * CommandProcessor, so a slow request delays the other connections of its loop.
+ * Subscribed events are handed to the connection's loop by the fan-out threads and
+ * written between replies. They wait in a bounded OutboundQueue while the client is not
+ * reading; once it is full, its overflow policy drops or coalesces them, or the loop
+ * disconnects the client.
+ */
+public class NioGateway implements Closeable {
+    private static final int BUFFER_BYTES = GatewayProtocol.HEADER_BYTES + GatewayProtocol.MAX_FRAME_BYTES;
+    private static final int POOLED_BUFFERS = 64; // kept per loop once released
+    private static final int MAX_RESULTS = 100; // messages in a HISTORY or SEARCH reply
+    private static final int MAX_ERROR_BYTES = 1024;
+    private static final int MAX_EVENT_BYTES = 16 * 1024; // room kept free for the next event in a write
+    private static final int BACKLOG = 1024;
+    private static final HistoryCursor NEWEST = HistoryCursor.before(new Date(Long.MAX_VALUE));
+    
+    private final AuthService authService;
+    private final ServerService serverService;
+    private final ChannelService channelService;
+    private final InetSocketAddress address;
+    private final EventLoop[] loops;
+    private final AtomicInteger connectionCount;
+    private ServerSocketChannel acceptor;
+    
+    public NioGateway(AuthService authService, ServerService serverService, ChannelService channelService,
+                      InetSocketAddress address, int threads) {
+        this.authService = authService;
+        this.serverService = serverService;
+        this.channelService = channelService;
+        this.address = address;
+        this.loops = new EventLoop[Math.max(1, threads)];
+        this.connectionCount = new AtomicInteger();
+        OutputCapture.install();
+    }
+    
+    /**
+     * Bind the port and start the event loops
+     */
+    public synchronized void start() throws IOException {
+        acceptor = ServerSocketChannel.open();
+        acceptor.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        acceptor.bind(address, BACKLOG);
+        acceptor.configureBlocking(false);
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new EventLoop(i);
+        }
+        acceptor.register(loops[0].selector, SelectionKey.OP_ACCEPT);
+        for (EventLoop loop : loops) {
+            loop.thread.start();
+        }
+    }
+    
+    /**
+     * One thread multiplexing its share of the connections
+     */
+    private class EventLoop implements Runnable {
+        private final Selector selector;
+        private final Thread thread;
+        private final Queue<SocketChannel> handedOver;
+        private final Queue<Connection> eventsWaiting; // connections with events to write
+        private final BufferPool pool;
+        private final ByteBuffer reply; // the reply being built, written out before the next request
+        private final CaptureBuffer output; // what the services print while running a request
+        private final Consumer<SelectionKey> readyAction;
+        private volatile boolean running;
+        private int nextLoop; // where the next accepted connection goes (first loop only)
+        
+        private EventLoop(int index) throws IOException {
+            this.selector = Selector.open();
+            this.thread = new Thread(this, "gateway-loop-" + index);
+            this.handedOver = new ConcurrentLinkedQueue<>();
+            this.eventsWaiting = new ConcurrentLinkedQueue<>();
+            this.pool = new BufferPool(BUFFER_BYTES, POOLED_BUFFERS);
+            this.reply = ByteBuffer.allocateDirect(BUFFER_BYTES);
+            this.output = new CaptureBuffer();
+            this.readyAction = this::ready;
+            this.running = true;
+        }
+        
+        @Override
+        public void run() {
+            OutputCapture.redirect(output);
+            try {
+                while (running) {
+                    registerHandedOver();
+                    writeWaitingEvents();
+                    selector.select(readyAction);
+                }
+            } catch (IOException | ClosedSelectorException e) {
+                System.err.println("Error in gateway event loop: " + e.getMessage());
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    if (key.attachment() != null) {
+                        close(key);
+                    }
+                }
+                try {
+                    selector.close();
+                } catch (IOException e) {
+                    System.err.println("Error closing selector: " + e.getMessage());
+                }
+                OutputCapture.redirect(null);
+            }
+        }
+        
+        private void ready(SelectionKey key) {
+            if (key.isAcceptable()) {
+                try {
+                    accept();
+                } catch (IOException e) {
+                    System.err.println("Error accepting connection: " + e.getMessage());
+                }
+                return;
+            }
+            try {
+                Connection connection = (Connection) key.attachment();
+                if (key.isWritable()) {
+                    flush(connection, key);
+                }
+                if (key.isValid() && key.isReadable()) {
+                    read(connection, key);
+                }
+            } catch (IOException e) {
+                close(key); // the client went away
+            }
+        }
+        
+        private void accept() throws IOException {
+            SocketChannel channel;
+            while ((channel = acceptor.accept()) != null) {
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                connectionCount.incrementAndGet();
+                EventLoop loop = loops[nextLoop];
+                nextLoop = (nextLoop + 1) % loops.length;
+                if (loop == this) {
+                    register(channel);
+                } else {
+                    loop.handedOver.add(channel);
+                    loop.selector.wakeup();
+                }
+            }
+        }
+        
+        private void registerHandedOver() throws IOException {
+            SocketChannel channel;
+            while ((channel = handedOver.poll()) != null) {
+                register(channel);
+            }
+        }
+        
+        private void register(SocketChannel channel) throws IOException {
+            Connection connection = new Connection(channel, this, channelService.getFanoutDispatcher().newQueue());
+            connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+        }
+        
+        /**
+         * Called from a fan-out thread when a connection has new events to write
+         */
+        private void eventsReady(Connection connection) {
+            eventsWaiting.add(connection);
+            selector.wakeup();
+        }
+        
+        private void writeWaitingEvents() {
+            Connection connection;
+            while ((connection = eventsWaiting.poll()) != null) {
+                connection.eventsQueued.set(false);
+                if (connection.events.isOverflowed() && connection.key.isValid()) {
+                    System.err.println("Disconnecting a client " + connection.events.getCapacity()
+                        + " events behind: " + connection.channel.socket().getRemoteSocketAddress());
+                    close(connection.key);
+                } else if (connection.key.isValid() && connection.out == null) {
+                    try {
+                        writeEvents(connection, connection.key);
+                    } catch (IOException e) {
+                        close(connection.key);
+                    }
+                }
+            }
+        }
+        
+        /**
+         * Write a connection's waiting events, as many to a write as fit
+         * Stops when the socket will not take more; flush carries on once it drains
+         */
+        private void writeEvents(Connection connection, SelectionKey key) throws IOException {
+            while (connection.out == null && !connection.events.isEmpty()) {
+                MessageEvent event;
+                while (reply.remaining() >= MAX_EVENT_BYTES && (event = connection.events.poll()) != null) {
+                    int start = GatewayProtocol.beginFrame(reply);
+                    try {
+                        GatewayProtocol.putEvent(reply, event);
+                        GatewayProtocol.endFrame(reply, start);
+                    } catch (BufferOverflowException e) {
+                        reply.position(start);
+                        System.err.println("Event too large to send: " + event);
+                    }
+                }
+                write(connection, key);
+            }
+        }
+        
+        private void read(Connection connection, SelectionKey key) throws IOException {
+            if (connection.in == null) {
+                connection.in = pool.acquire();
+            }
+            if (connection.channel.read(connection.in) < 0) {
+                close(key);
+                return;
+            }
+            process(connection, key);
+        }
+        
+        /**
+         * Run every complete request in the connection's buffer, replying to each in turn
+         * Stops early while a reply is still waiting to be written, so a client that does
+         * not read its replies stops being read from
+         */
+        private void process(Connection connection, SelectionKey key) throws IOException {
+            ByteBuffer in = connection.in;
+            in.flip();
+            while (connection.out == null && in.remaining() >= GatewayProtocol.HEADER_BYTES) {
+                int length = in.getInt(in.position());
+                if (length < 1 || length > GatewayProtocol.MAX_FRAME_BYTES) {
+                    close(key); // not speaking the protocol
+                    return;
+                }
+                if (in.remaining() < GatewayProtocol.HEADER_BYTES + length) {
+                    break;
+                }
+                int end = in.position() + GatewayProtocol.HEADER_BYTES + length;
+                int limit = in.limit();
+                in.position(in.position() + GatewayProtocol.HEADER_BYTES).limit(end);
+                execute(connection, in);
+                in.limit(limit).position(end);
+                write(connection, key);
+            }
+            in.compact();
+            if (in.position() == 0) {
+                pool.release(in);
+                connection.in = null;
+            }
+        }
+        
+        /**
+         * Write the reply just built, keeping what the socket would not take for later
+         */
+        private void write(Connection connection, SelectionKey key) throws IOException {
+            reply.flip();
+            connection.channel.write(reply);
+            if (reply.hasRemaining()) {
+                connection.out = pool.acquire();
+                connection.out.put(reply).flip();
+                key.interestOps(SelectionKey.OP_WRITE);
+            }
+            reply.clear();
+        }
+        
+        private void flush(Connection connection, SelectionKey key) throws IOException {
+            connection.channel.write(connection.out);
+            if (!connection.out.hasRemaining()) {
+                pool.release(connection.out);
+                connection.out = null;
+                key.interestOps(SelectionKey.OP_READ);
+                if (connection.in != null) {
+                    process(connection, key);
+                }
+                if (key.isValid()) {
+                    writeEvents(connection, key);
+                }
+            }
+        }
+        
+        /**
+         * Run one request, building its reply frame
+         */
+        private void execute(Connection connection, ByteBuffer request) {
+            int start = GatewayProtocol.beginFrame(reply);
+            byte opcode = request.get();
+            reply.put(GatewayProtocol.OK).put(opcode);
+            output.reset();
+            boolean ok;
+            try {
+                ok = dispatch(connection, opcode, request);
+            } catch (BufferUnderflowException | IllegalArgumentException e) {
+                ok = false;
+                ConsoleUtil.printError("Malformed request.");
+            } catch (BufferOverflowException e) {
+                ok = false;
+                ConsoleUtil.printError("Reply too large; ask for fewer messages.");
+            } catch (RuntimeException e) {
+                ok = false;
+                ConsoleUtil.printError("Error running request: " + e.getMessage());
+            }
+            if (!ok) {
+                reply.position(start + GatewayProtocol.HEADER_BYTES);
+                reply.put(GatewayProtocol.ERR).put(opcode);
+                putOutput();
+            }
+            GatewayProtocol.endFrame(reply, start);
+        }
+        
+        private boolean dispatch(Connection connection, byte opcode, ByteBuffer request) {
+            ClientState client = connection.client;
+            Session session = client.getSession();
+            switch (opcode) {
+                case GatewayProtocol.PING:
+                    return true;
+                case GatewayProtocol.LOGIN: {
+                    String username = BinaryFormat.getString(request);
+                    String password = BinaryFormat.getString(request);
+                    if (authService.isLoggedIn(session)) {
+                        ConsoleUtil.printError("Already logged in as " + session.getUser().getUsername() + ".");
+                        return false;
+                    }
+                    client.setSession(authService.loginUser(username, password));
+                    if (client.getSession() == null) {
+                        return false;
+                    }
+                    BinaryFormat.putString(reply, client.getSession().getUser().getUsername());
+                    return true;
+                }
+                case GatewayProtocol.SEND: {
+                    String serverId = BinaryFormat.getId(request);
+                    String channelId = BinaryFormat.getId(request);
+                    String content = BinaryFormat.getString(request);
+                    Server server = memberServer(session, serverId);
+                    if (server == null) {
+                        return false;
+                    }
+                    synchronized (server) {
+                        return channelService.sendMessageToChannel(session, serverId, channelId, content);
+                    }
+                }
+                case GatewayProtocol.HISTORY: {
+                    String serverId = BinaryFormat.getId(request);
+                    String channelId = BinaryFormat.getId(request);
+                    String beforeId = BinaryFormat.getString(request);
+                    int count = Math.min(BinaryFormat.getVarInt(request), MAX_RESULTS);
+                    Server server = memberServer(session, serverId);
+                    if (server == null) {
+                        return false;
+                    }
+                    HistoryCursor cursor = beforeId.isEmpty() ? NEWEST : HistoryCursor.before(beforeId);
+                    synchronized (server) {
+                        List<Message> page = channelService.getMessagePage(session, serverId, channelId, cursor, count);
+                        if (page.isEmpty() && output.size() > 0) {
+                            return false; // reported why
+                        }
+                        BinaryFormat.putVarInt(reply, page.size());
+                        for (Message message : page) {
+                            GatewayProtocol.putMessage(reply, message);
+                        }
+                    }
+                    return true;
+                }
+                case GatewayProtocol.SEARCH: {
+                    String serverId = BinaryFormat.getId(request);
+                    String channelId = BinaryFormat.getId(request);
+                    String query = BinaryFormat.getString(request);
+                    int limit = Math.min(BinaryFormat.getVarInt(request), MAX_RESULTS);
+                    Server server = memberServer(session, serverId);
+                    if (server == null) {
+                        return false;
+                    }
+                    synchronized (server) {
+                        List<SearchHit> hits = channelService.findMessages(session, serverId, channelId, query, limit);
+                        if (hits.isEmpty() && output.size() > 0) {
+                            return false;
+                        }
+                        BinaryFormat.putVarInt(reply, hits.size());
+                        for (SearchHit hit : hits) {
+                            reply.putFloat((float) hit.getScore());
+                            GatewayProtocol.putMessage(reply, hit.getMessage());
+                        }
+                    }
+                    return true;
+                }
+                case GatewayProtocol.VOICE_JOIN: {
+                    String serverId = BinaryFormat.getId(request);
+                    String channelId = BinaryFormat.getId(request);
+                    Server server = memberServer(session, serverId);
+                    if (server == null) {
+                        return false;
+                    }
+                    synchronized (server) {
+                        return channelService.joinVoiceChannel(session, serverId, channelId);
+                    }
+                }
+                case GatewayProtocol.SUBSCRIBE:
+                case GatewayProtocol.UNSUBSCRIBE: {
+                    String serverId = BinaryFormat.getId(request);
+                    String channelId = BinaryFormat.getId(request);
+                    Server server = memberServer(session, serverId);
+                    if (server == null) {
+                        return false;
+                    }
+                    synchronized (server) {
+                        return opcode == GatewayProtocol.SUBSCRIBE
+                            ? channelService.subscribeToChannel(session, serverId, channelId, connection)
+                            : channelService.unsubscribeFromChannel(session, serverId, channelId, connection);
+                    }
+                }
+                case GatewayProtocol.SUBSCRIBE_DMS:
+                    return channelService.subscribeToDirectMessages(session, connection);
+                case GatewayProtocol.STATS: {
+                    String serverId = BinaryFormat.getId(request);
+                    String channelId = BinaryFormat.getId(request);
+                    Server server = memberServer(session, serverId);
+                    if (server == null) {
+                        return false;
+                    }
+                    ChannelDeliveryStats stats;
+                    synchronized (server) {
+                        stats = channelService.getDeliveryStats(session, serverId, channelId);
+                    }
+                    if (stats == null) {
+                        return false;
+                    }
+                    GatewayProtocol.putStats(reply, stats);
+                    return true;
+                }
+                default:
+                    ConsoleUtil.printError("Unknown opcode " + opcode + ".");
+                    return false;
+            }
+        }
+        
+        /**
+         * The server if the session's user belongs to it, reporting why not otherwise
+         */
+        private Server memberServer(Session session, String serverId) {
+            User user = authService.userOf(session);
+            if (user == null) {
+                ConsoleUtil.printError("You must be logged in.");
+                return null;
+            }
+            Server server = serverService.getServer(serverId);
+            if (server == null || !server.isMember(user.getUserId())) {
+                ConsoleUtil.printError("Server not found.");
+                return null;
+            }
+            return server;
+        }
+        
+        /**
+         * Put what the request printed as the reply's error text, without colours or blank lines
+         */
+        private void putOutput() {
+            byte[] bytes = output.bytes();
+            int count = output.size();
+            int length = 0;
+            boolean lineStart = true;
+            for (int i = 0; i < count; i++) {
+                byte b = bytes[i];
+                if (b == 0x1B && i + 1 < count && bytes[i + 1] == '[') {
+                    // Skip an ANSI escape up to its final letter
+                    i += 2;
+                    while (i < count && !((bytes[i] | 0x20) >= 'a' && (bytes[i] | 0x20) <= 'z')) {
+                        i++;
+                    }
+                    continue;
+                }
+                if (b == '\r' || (b == '\n' && lineStart)) {
+                    continue;
+                }
+                bytes[length++] = b;
+                lineStart = b == '\n';
+            }
+            while (length > 0 && (bytes[length - 1] == '\n' || bytes[length - 1] == ' ')) {
+                length--;
+            }
+            if (length > MAX_ERROR_BYTES) {
+                length = MAX_ERROR_BYTES;
+                while ((bytes[length] & 0xC0) == 0x80) {
+                    length--; // not in the middle of a character
+                }
+            }
+            BinaryFormat.putVarInt(reply, length);
+            reply.put(bytes, 0, length);
+        }
+        
+        private void close(SelectionKey key) {
+            Connection connection = (Connection) key.attachment();
+            channelService.unsubscribeAll(connection);
+            connection.events.clear();
+            key.cancel();
+            try {
+                connection.channel.close();
+            } catch (IOException e) {
+                // Already closed
+            }
+            if (connection.in != null) {
+                pool.release(connection.in);
+                connection.in = null;
+            }
+            if (connection.out != null) {
+                pool.release(connection.out);
+                connection.out = null;
+            }
+            Session session = connection.client.getSession();
+            if (session != null) {
+                connection.client.setSession(null);
+                authService.logoutUser(session);
+            }
+            connectionCount.decrementAndGet();
+        }
+        
+        private void shutdown() {
+            running = false;
+            selector.wakeup();
+        }
+    }
+    
+    /**
+     * What a loop keeps for one connection; only its loop touches the buffers
+     */
+    private static class Connection implements Subscriber {
+        private final SocketChannel channel;
+        private final ClientState client;
+        private final EventLoop loop;
+        private final OutboundQueue events; // subscribed events not yet written
+        private final AtomicBoolean eventsQueued; // set while the connection waits in its loop's queue
+        private SelectionKey key;
+        private ByteBuffer in; // partial requests, null when there are none
+        private ByteBuffer out; // the unsent rest of a reply, null when there is none
+        
+        private Connection(SocketChannel channel, EventLoop loop, OutboundQueue events) {
+            this.channel = channel;
+            this.client = new ClientState();
+            this.loop = loop;
+            this.events = events;
+            this.eventsQueued = new AtomicBoolean();
+        }
+        
+        @Override
+        public void deliver(List<MessageEvent> batch) {
+            events.offer(batch); // on overflow the loop sees the queue has given up and disconnects
+            if (eventsQueued.compareAndSet(false, true)) {
+                loop.eventsReady(this);
+            }
+        }
+        
+        @Override
+        public int getQueueDepth() {
+            return events.size();
+        }
+    }
+    
+    /**
+     * Capture buffer whose bytes can be read in place
+     */
+    private static class CaptureBuffer extends ByteArrayOutputStream {
+        private CaptureBuffer() {
+            super(MAX_ERROR_BYTES);
+        }
+        
+        private byte[] bytes() {
+            return buf;
+        }
+    }
+    
+    public int getPort() {
+        return acceptor.socket().getLocalPort();
+    }
+    
+    public int getThreadCount() {
+        return loops.length;
+    }
+    
+    public int getConnectionCount() {
+        return connectionCount.get();
+    }
+    
+    /**
+     * Wait until every event loop has stopped
+     */
+    public void awaitTermination() throws InterruptedException {
+        for (EventLoop loop : loops) {
+            loop.thread.join();
+        }
+    }
+    
+    /**
+     * Stop accepting, close every connection and stop the event loops
+     */
+    @Override
+    public synchronized void close() {
+        try {
+            if (acceptor != null) {
+                acceptor.close();
+            }
+        } catch (IOException e) {
+            System.err.println("Error closing gateway socket: " + e.getMessage());
+        }
+        for (EventLoop loop : loops) {
+            if (loop != null) {
+                loop.shutdown();
+            }
+        }
+    }
+}
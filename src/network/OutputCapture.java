@@ -0,0 +1,87 @@
+package network;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+
+/**
+ * OutputCapture class routing console output per thread
+ * Services report to the user through System.out. Once installed, whatever a thread
+ * prints while it is capturing lands in that thread's buffer, so a network client gets
+ * the output of its own commands; all other output still reaches the real console.
+ */
+public class OutputCapture extends OutputStream {
+    private static final ThreadLocal<ByteArrayOutputStream> BUFFER = new ThreadLocal<>();
+    private static boolean installed;
+    
+    private final OutputStream console;
+    
+    private OutputCapture(OutputStream console) {
+        this.console = console;
+    }
+    
+    /**
+     * Replace System.out with the routing stream; later calls do nothing
+     */
+    public static synchronized void install() {
+        if (!installed) {
+            System.setOut(new PrintStream(new OutputCapture(System.out), true));
+            installed = true;
+        }
+    }
+    
+    /**
+     * Run the action, returning what it printed on this thread
+     */
+    public static String capture(Runnable action) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(256);
+        BUFFER.set(buffer);
+        try {
+            action.run();
+        } finally {
+            BUFFER.remove();
+        }
+        return buffer.toString(Charset.defaultCharset());
+    }
+    
+    /**
+     * Send what this thread prints to the buffer from now on, or to the console again
+     * when the buffer is null; for threads that reuse one buffer across many commands
+     */
+    public static void redirect(ByteArrayOutputStream buffer) {
+        if (buffer != null) {
+            BUFFER.set(buffer);
+        } else {
+            BUFFER.remove();
+        }
+    }
+    
+    @Override
+    public void write(int b) throws IOException {
+        ByteArrayOutputStream buffer = BUFFER.get();
+        if (buffer != null) {
+            buffer.write(b);
+        } else {
+            console.write(b);
+        }
+    }
+    
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        ByteArrayOutputStream buffer = BUFFER.get();
+        if (buffer != null) {
+            buffer.write(bytes, offset, length);
+        } else {
+            console.write(bytes, offset, length);
+        }
+    }
+    
+    @Override
+    public void flush() throws IOException {
+        if (BUFFER.get() == null) {
+            console.flush();
+        }
+    }
+}
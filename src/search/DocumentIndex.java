@@ -0,0 +1,397 @@
+package search;
+
+import models.Message;
+import storage.WriteAheadLog;
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * DocumentIndex class, the base of the inverted indexes over one channel's messages
+ * Every message gets a document number in send order; each term maps to the sorted
+ * list of documents containing it. A query intersects the lists of its terms, so it
+ * costs time in proportion to the shortest list rather than to the channel's history.
+ * Subclasses decide what the terms of a text are.
+ *
+ * With a log, documents hold the position of the message's latest record and matches
+ * are read back from the log; without one they hold the message itself. While the index
+ * is being built from its log, changes made by other threads are queued and applied
+ * after the replay, so document numbers follow send order, and searches wait for it.
+ * That state is set up by the constructor, so an index can be published to other
+ * threads before its constructing thread calls buildFromLog.
+ */
+public abstract class DocumentIndex implements WriteAheadLog.RelocationListener {
+    private final WriteAheadLog log; // null when history is kept in memory only
+    private final Map<String, PostingList> postings;
+    private final Map<String, Integer> docsById;
+    private String[] ids;
+    private long[] positions;
+    private long[] timestamps;
+    private int[] lengths; // terms per document, repeats included
+    private Message[] messages;
+    private int docCount;
+    private long totalLength; // of live documents
+    protected long postingCount; // documents summed over all lists
+    private Thread builder; // the thread replaying the log into the index, null once built
+    private List<Runnable> changesDuringBuild; // from other threads, applied when the replay ends
+    
+    protected DocumentIndex(WriteAheadLog log) {
+        this.log = log;
+        this.postings = new HashMap<>();
+        this.docsById = new HashMap<>();
+        this.ids = new String[64];
+        this.positions = new long[64];
+        this.timestamps = new long[64];
+        this.lengths = new int[64];
+        this.messages = log == null ? new Message[64] : null;
+        if (log != null) {
+            this.builder = Thread.currentThread();
+            this.changesDuringBuild = new ArrayList<>();
+        }
+    }
+    
+    /**
+     * Distinct terms of a message's text, with the number of times each occurs
+     */
+    protected abstract Map<String, Integer> terms(String text);
+    
+    /**
+     * Fill the index from its log, replaying edits and deletes in order; called once, by
+     * the thread that constructed the index
+     * Changes arriving meanwhile from other threads wait until the replay is done, and a
+     * message already replayed is skipped when its queued send is applied. It also starts
+     * following compaction so its positions stay valid.
+     */
+    public void buildFromLog() {
+        synchronized (this) {
+            if (builder != Thread.currentThread()) {
+                throw new IllegalStateException("Index is built by the thread that constructed it, once");
+            }
+        }
+        try {
+            log.addRelocationListener(this);
+            replayLog();
+        } finally {
+            synchronized (this) {
+                builder = null;
+                for (Runnable change : changesDuringBuild) {
+                    change.run();
+                }
+                changesDuringBuild = null;
+                notifyAll();
+            }
+        }
+    }
+    
+    private void replayLog() {
+        log.replay(new WriteAheadLog.HistoryVisitor() {
+            @Override
+            public void sent(Message message, long position) {
+                add(message, position);
+            }
+            
+            @Override
+            public void edited(Message message, long position) {
+                update(message, null, position);
+            }
+            
+            @Override
+            public void deleted(String messageId, long position) {
+                remove(messageId, null);
+            }
+        });
+    }
+    
+    /**
+     * Stop following the log once the index is no longer used
+     */
+    public void close() {
+        if (log != null) {
+            log.removeRelocationListener(this);
+        }
+    }
+    
+    /**
+     * Queue a change made by another thread while the index is being built; false if it
+     * should be applied now
+     */
+    private boolean deferred(Runnable change) {
+        if (builder == null || builder == Thread.currentThread()) {
+            return false;
+        }
+        changesDuringBuild.add(change);
+        return true;
+    }
+    
+    /**
+     * Wait for a build running on another thread to finish; callers hold the monitor
+     */
+    protected void awaitBuilt() {
+        boolean interrupted = false;
+        while (builder != null && builder != Thread.currentThread()) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    public synchronized void add(Message message, long position) {
+        if (deferred(() -> add(message, position))) {
+            return;
+        }
+        if (docsById.containsKey(message.getMessageId())) {
+            return; // already replayed from the log while the index was being built
+        }
+        if (docCount == ids.length) {
+            ids = Arrays.copyOf(ids, docCount * 2);
+            positions = Arrays.copyOf(positions, docCount * 2);
+            timestamps = Arrays.copyOf(timestamps, docCount * 2);
+            lengths = Arrays.copyOf(lengths, docCount * 2);
+            if (messages != null) {
+                messages = Arrays.copyOf(messages, docCount * 2);
+            }
+        }
+        int doc = docCount++;
+        ids[doc] = message.getMessageId();
+        positions[doc] = position;
+        timestamps[doc] = message.getTimestamp().getTime();
+        if (messages != null) {
+            messages[doc] = message;
+        }
+        docsById.put(message.getMessageId(), doc);
+        Map<String, Integer> terms = terms(message.getContent());
+        for (Map.Entry<String, Integer> term : terms.entrySet()) {
+            addPosting(term.getKey(), doc, term.getValue());
+        }
+        setLength(doc, terms);
+    }
+    
+    /**
+     * Re-index an edited message; previousContent may be null when it is not at hand,
+     * in which case the old text is read from the message's previous record
+     */
+    public synchronized void update(Message message, String previousContent, long position) {
+        if (deferred(() -> update(message, previousContent, position))) {
+            return;
+        }
+        Integer doc = docsById.get(message.getMessageId());
+        if (doc == null) {
+            return;
+        }
+        String oldContent = previousContent;
+        if (oldContent == null) {
+            Message previous = load(doc);
+            oldContent = previous != null ? previous.getContent() : "";
+        }
+        Set<String> oldTerms = terms(oldContent).keySet();
+        Map<String, Integer> newTerms = terms(message.getContent());
+        for (String term : oldTerms) {
+            if (!newTerms.containsKey(term)) {
+                removePosting(term, doc);
+            }
+        }
+        for (Map.Entry<String, Integer> term : newTerms.entrySet()) {
+            addPosting(term.getKey(), doc, term.getValue());
+        }
+        totalLength -= lengths[doc];
+        setLength(doc, newTerms);
+        positions[doc] = position;
+        if (messages != null) {
+            messages[doc] = message;
+        }
+    }
+    
+    /**
+     * Drop a deleted message; content is its text, read before the delete was logged
+     * It may be null only while replaying, when the message's record is still readable
+     */
+    public synchronized void remove(String messageId, String content) {
+        if (deferred(() -> remove(messageId, content))) {
+            return;
+        }
+        Integer doc = docsById.remove(messageId);
+        if (doc == null) {
+            return;
+        }
+        String text = content;
+        if (text == null) {
+            Message message = load(doc);
+            text = message != null ? message.getContent() : "";
+        }
+        for (String term : terms(text).keySet()) {
+            removePosting(term, doc);
+        }
+        totalLength -= lengths[doc];
+        ids[doc] = null;
+        if (messages != null) {
+            messages[doc] = null;
+        }
+    }
+    
+    private void setLength(int doc, Map<String, Integer> terms) {
+        int length = 0;
+        for (int count : terms.values()) {
+            length += count;
+        }
+        lengths[doc] = length;
+        totalLength += length;
+    }
+    
+    private void addPosting(String term, int doc, int count) {
+        if (postings.computeIfAbsent(term, t -> new PostingList()).add(doc, count)) {
+            postingCount++;
+        }
+    }
+    
+    private void removePosting(String term, int doc) {
+        PostingList list = postings.get(term);
+        if (list != null && list.remove(doc)) {
+            postingCount--;
+            if (list.size() == 0) {
+                postings.remove(term);
+            }
+        }
+    }
+    
+    /**
+     * The newest limit documents holding every term and accepted by matches, sent at or
+     * after notBefore (epoch millis), oldest first
+     * The shortest list is walked from its newest document, so this stops after limit hits
+     * or at the first hit that is too old. Callers hold the index's monitor.
+     */
+    protected List<Message> search(Set<String> terms, int limit, long notBefore, Predicate<Message> matches) {
+        List<PostingList> lists = new ArrayList<>(terms.size());
+        for (String term : terms) {
+            PostingList list = postings.get(term);
+            if (list == null) {
+                return new ArrayList<>();
+            }
+            lists.add(list);
+        }
+        lists.sort(Comparator.comparingInt(PostingList::size));
+        
+        PostingList shortest = lists.get(0);
+        List<Message> results = new ArrayList<>();
+        for (int i = shortest.size() - 1; i >= 0 && results.size() < limit; i--) {
+            int doc = shortest.get(i);
+            boolean all = true;
+            for (int j = 1; j < lists.size() && all; j++) {
+                all = lists.get(j).contains(doc);
+            }
+            if (all) {
+                if (timestamps[doc] < notBefore) {
+                    break;
+                }
+                Message message = load(doc);
+                if (message != null && matches.test(message)) {
+                    results.add(message);
+                }
+            }
+        }
+        Collections.reverse(results);
+        return results;
+    }
+    
+    /**
+     * Current state of a document's message
+     * A position read while compaction is moving records can land on another record;
+     * the id check catches that and the message is looked up by id instead
+     */
+    protected Message load(int doc) {
+        if (ids[doc] == null) {
+            return null;
+        }
+        if (messages != null) {
+            return messages[doc];
+        }
+        try {
+            Message message = log.readMessage(positions[doc]);
+            if (message.getMessageId().equals(ids[doc])) {
+                return message;
+            }
+        } catch (RuntimeException e) {
+            // Fall through to the lookup by id
+        }
+        return log.findMessage(ids[doc]);
+    }
+    
+    /**
+     * Follow moved records by id, touching only the documents that moved; a document whose
+     * newest record is elsewhere keeps its position
+     */
+    @Override
+    public synchronized void relocated(String[] messageIds, long[] from, long[] to) {
+        if (deferred(() -> relocated(messageIds, from, to))) {
+            return;
+        }
+        for (int i = 0; i < messageIds.length; i++) {
+            Integer doc = docsById.get(messageIds[i]);
+            if (doc != null && positions[doc] == from[i]) {
+                positions[doc] = to[i];
+            }
+        }
+    }
+    
+    /**
+     * Forget every document, keeping the index usable
+     */
+    protected void clear() {
+        postings.clear();
+        docsById.clear();
+        ids = new String[64];
+        positions = new long[64];
+        timestamps = new long[64];
+        lengths = new int[64];
+        messages = log == null ? new Message[64] : null;
+        docCount = 0;
+        totalLength = 0;
+        postingCount = 0;
+    }
+    
+    /**
+     * The list of a term, or null when no document has it
+     */
+    PostingList postings(String term) {
+        return postings.get(term);
+    }
+    
+    /**
+     * Send time of a document's message, in epoch millis
+     */
+    protected long timestampOf(int doc) {
+        return timestamps[doc];
+    }
+    
+    /**
+     * Terms in a document, repeats included
+     */
+    protected int lengthOf(int doc) {
+        return lengths[doc];
+    }
+    
+    /**
+     * Mean length of the live documents
+     */
+    protected double getAverageLength() {
+        return docsById.isEmpty() ? 0 : (double) totalLength / docsById.size();
+    }
+    
+    /**
+     * Documents ever added, deleted ones included
+     */
+    protected int getDocCount() {
+        return docCount;
+    }
+    
+    public synchronized int size() {
+        return docsById.size();
+    }
+    
+    public synchronized int getTermCount() {
+        return postings.size();
+    }
+}
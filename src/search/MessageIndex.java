@@ -0,0 +1,224 @@
+package search;
+
+import models.Message;
+import storage.WriteAheadLog;
+import java.util.*;
+
+/**
+ * MessageIndex class, an inverted token index over one channel's messages
+ * Terms are the lowercase words of a message, so queries match whole words.
+ * Queries follow SearchQuery: required words, OR, and quoted phrases.
+ *
+ * Besides newest-first matching, queries can be ranked by relevance with BM25: a word
+ * counts for more the rarer it is in the channel and the more often it occurs in a
+ * message, relative to the message's length. Scores get a boost that halves with
+ * every week of age, so of two equally relevant messages the recent one comes first.
+ */
+public class MessageIndex extends DocumentIndex {
+    private static final double K1 = 1.2; // how quickly repeats of a word stop adding to the score
+    private static final double B = 0.75; // how much long messages are penalised
+    private static final double RECENCY_WEIGHT = 0.5; // boost of a message sent just now
+    private static final double RECENCY_HALF_LIFE_MILLIS = 7 * 24 * 60 * 60 * 1000.0;
+    
+    public MessageIndex(WriteAheadLog log) {
+        super(log);
+    }
+    
+    /**
+     * Build the index of an in-memory channel
+     */
+    public static MessageIndex build(List<Message> history) {
+        MessageIndex index = new MessageIndex(null);
+        for (Message message : history) {
+            index.add(message, -1);
+        }
+        return index;
+    }
+    
+    @Override
+    protected Map<String, Integer> terms(String text) {
+        return Tokenizer.counts(text);
+    }
+    
+    /**
+     * Messages matching the query, oldest first
+     * Returns null when the query has no words to look up
+     */
+    public List<Message> search(String query) {
+        return search(query, Integer.MAX_VALUE, Long.MIN_VALUE);
+    }
+    
+    /**
+     * The newest limit matches of the query sent at or after notBefore (epoch millis), oldest first
+     */
+    public synchronized List<Message> search(String query, int limit, long notBefore) {
+        awaitBuilt();
+        SearchQuery parsed = SearchQuery.parse(query);
+        if (parsed.isEmpty()) {
+            return null;
+        }
+        if (parsed.isConjunction()) {
+            return search(parsed.getWords(), limit, notBefore, message -> true);
+        }
+        BitSet docs = candidates(parsed);
+        boolean verify = parsed.hasPhrases();
+        List<Message> results = new ArrayList<>();
+        for (int doc = docs.length() - 1; doc >= 0 && results.size() < limit; doc = docs.previousSetBit(doc - 1)) {
+            if (timestampOf(doc) < notBefore) {
+                break;
+            }
+            Message message = load(doc);
+            if (message != null && (!verify || parsed.matches(Tokenizer.words(message.getContent())))) {
+                results.add(message);
+            }
+        }
+        Collections.reverse(results);
+        return results;
+    }
+    
+    /**
+     * The k most relevant matches of the query, best first, scored as of now (epoch millis)
+     * Scores come from the posting lists alone and a bounded heap keeps the best k, so the
+     * matches are never all loaded or sorted. Messages are read only to check phrases of
+     * documents entering the heap, and at the end for the k kept. Documents are scored
+     * newest first: with the recency boost the heap fills with strong entries early.
+     * Returns null when the query has no words to look up
+     */
+    public synchronized List<SearchHit> rank(String query, int k, long now) {
+        awaitBuilt();
+        SearchQuery parsed = SearchQuery.parse(query);
+        if (parsed.isEmpty()) {
+            return null;
+        }
+        if (k <= 0) {
+            return new ArrayList<>();
+        }
+        List<PostingList> lists = new ArrayList<>();
+        List<Double> weights = new ArrayList<>();
+        int documents = size();
+        for (String word : parsed.getWords()) {
+            PostingList list = postings(word);
+            if (list != null) {
+                lists.add(list);
+                weights.add(Math.log(1 + (documents - list.size() + 0.5) / (list.size() + 0.5)));
+            }
+        }
+        double averageLength = getAverageLength();
+        boolean verify = parsed.hasPhrases();
+        
+        // Min-heap on score: the weakest of the best k so far is on top
+        PriorityQueue<Candidate> best = new PriorityQueue<>(k, Comparator.comparingDouble(c -> c.score));
+        BitSet docs = candidates(parsed);
+        int[] cursors = new int[lists.size()]; // walk down each list alongside the documents
+        for (int i = 0; i < cursors.length; i++) {
+            cursors[i] = lists.get(i).size() - 1;
+        }
+        for (int doc = docs.length() - 1; doc >= 0; doc = docs.previousSetBit(doc - 1)) {
+            double relevance = 0;
+            double lengthRatio = averageLength > 0 ? lengthOf(doc) / averageLength : 1;
+            for (int i = 0; i < cursors.length; i++) {
+                PostingList list = lists.get(i);
+                while (cursors[i] >= 0 && list.get(cursors[i]) > doc) {
+                    cursors[i]--;
+                }
+                if (cursors[i] >= 0 && list.get(cursors[i]) == doc) {
+                    int count = list.countAt(cursors[i]);
+                    relevance += weights.get(i) * count * (K1 + 1) / (count + K1 * (1 - B + B * lengthRatio));
+                }
+            }
+            double age = Math.max(0, now - timestampOf(doc));
+            double score = relevance * (1 + RECENCY_WEIGHT * Math.pow(0.5, age / RECENCY_HALF_LIFE_MILLIS));
+            if (best.size() == k && score <= best.peek().score) {
+                continue;
+            }
+            Message message = null;
+            if (verify) {
+                message = load(doc);
+                if (message == null || !parsed.matches(Tokenizer.words(message.getContent()))) {
+                    continue;
+                }
+            }
+            best.add(new Candidate(doc, score, message));
+            if (best.size() > k) {
+                best.poll();
+            }
+        }
+        
+        List<SearchHit> hits = new ArrayList<>(best.size());
+        for (Candidate candidate : best) {
+            Message message = candidate.message != null ? candidate.message : load(candidate.doc);
+            if (message != null) {
+                hits.add(new SearchHit(message, candidate.score));
+            }
+        }
+        hits.sort(Comparator.comparingDouble(SearchHit::getScore).reversed());
+        return hits;
+    }
+    
+    /**
+     * Documents having the words of every group of the query, through any of its clauses
+     * Phrase clauses only require their words, so their matches still need checking
+     */
+    private BitSet candidates(SearchQuery query) {
+        BitSet result = null;
+        for (List<SearchQuery.Clause> group : query.getGroups()) {
+            BitSet union = new BitSet();
+            for (SearchQuery.Clause clause : group) {
+                union.or(withAllWords(clause.getWords()));
+            }
+            if (result == null) {
+                result = union;
+            } else {
+                result.and(union);
+            }
+            if (result.isEmpty()) {
+                break;
+            }
+        }
+        return result;
+    }
+    
+    private BitSet withAllWords(List<String> words) {
+        BitSet docs = new BitSet();
+        List<PostingList> lists = new ArrayList<>(words.size());
+        for (String word : words) {
+            PostingList list = postings(word);
+            if (list == null) {
+                return docs;
+            }
+            lists.add(list);
+        }
+        lists.sort(Comparator.comparingInt(PostingList::size));
+        PostingList shortest = lists.get(0);
+        for (int i = 0; i < shortest.size(); i++) {
+            int doc = shortest.get(i);
+            boolean all = true;
+            for (int j = 1; j < lists.size() && all; j++) {
+                all = lists.get(j).contains(doc);
+            }
+            if (all) {
+                docs.set(doc);
+            }
+        }
+        return docs;
+    }
+    
+    public int getTokenCount() {
+        return getTermCount();
+    }
+    
+    /**
+     * A scored document in the ranking heap; message is set once it has been read
+     */
+    private static class Candidate {
+        private final int doc;
+        private final double score;
+        private final Message message;
+        
+        private Candidate(int doc, double score, Message message) {
+            this.doc = doc;
+            this.score = score;
+            this.message = message;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package search;
+
+import models.Channel;
+import models.Message;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ParallelSearch class searching many channels at once on a fork-join pool
+ * The channel list is split in halves until each task holds one channel; every channel
+ * returns only its newest limit matches, and the halves are merged by timestamp, keeping
+ * the newest limit overall. Results are oldest first, like a single channel's search.
+ *
+ * Once limit matches have been found anywhere, a channel searched later stops at its
+ * first message older than all of them, since nothing older can make the cut.
+ *
+ * Channels guard the state a search reads with their own monitors, so leaves take no
+ * shared lock and run side by side, and a caller holding its server's lock cannot stall
+ * the pool. Searches get a pool of their own rather than the common pool.
+ */
+public class ParallelSearch {
+    private final ForkJoinPool pool;
+    
+    public ParallelSearch() {
+        this(newPool(Runtime.getRuntime().availableProcessors()));
+    }
+    
+    public ParallelSearch(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+    
+    /**
+     * A fork-join pool of daemon "search-N" threads
+     */
+    public static ForkJoinPool newPool(int parallelism) {
+        AtomicInteger counter = new AtomicInteger();
+        return new ForkJoinPool(Math.max(1, parallelism), pool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("search-" + counter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }, null, false);
+    }
+    
+    /**
+     * The newest limit messages matching the keyword in any of the channels
+     */
+    public List<Message> search(List<? extends Channel> channels, String keyword, SearchMode mode, int limit) {
+        if (channels.isEmpty() || limit <= 0) {
+            return new ArrayList<>();
+        }
+        Cutoff cutoff = new Cutoff(limit);
+        return pool.invoke(new ChannelRangeSearch(channels, 0, channels.size(), keyword, mode, cutoff));
+    }
+    
+    /**
+     * Merge two oldest-first lists, keeping the newest limit messages
+     * Walks both from their newest end, so it stops after limit messages
+     */
+    static List<Message> mergeNewest(List<Message> left, List<Message> right, int limit) {
+        int size = Math.min(limit, left.size() + right.size());
+        Message[] merged = new Message[size];
+        int i = left.size() - 1;
+        int j = right.size() - 1;
+        for (int k = size - 1; k >= 0; k--) {
+            if (j < 0 || (i >= 0 && !right.get(j).getTimestamp().after(left.get(i).getTimestamp()))) {
+                merged[k] = left.get(i--);
+            } else {
+                merged[k] = right.get(j--);
+            }
+        }
+        List<Message> results = new ArrayList<>(size);
+        for (Message message : merged) {
+            results.add(message);
+        }
+        return results;
+    }
+    
+    /**
+     * Timestamps of the newest limit matches found so far, shared by all tasks of a search
+     */
+    private static class Cutoff {
+        private final int limit;
+        private final PriorityQueue<Long> newest; // min-heap, oldest of the newest on top
+        private volatile long notBefore = Long.MIN_VALUE;
+        
+        private Cutoff(int limit) {
+            this.limit = limit;
+            this.newest = new PriorityQueue<>();
+        }
+        
+        private synchronized void offer(List<Message> matches) {
+            // Newest first: once one is rejected, every older one would be too
+            for (int i = matches.size() - 1; i >= 0; i--) {
+                long timestamp = matches.get(i).getTimestamp().getTime();
+                if (newest.size() == limit) {
+                    if (timestamp <= newest.peek()) {
+                        break;
+                    }
+                    newest.poll();
+                }
+                newest.add(timestamp);
+            }
+            if (newest.size() == limit) {
+                notBefore = newest.peek();
+            }
+        }
+    }
+    
+    private static class ChannelRangeSearch extends RecursiveTask<List<Message>> {
+        private static final long serialVersionUID = 1L;
+        
+        private final List<? extends Channel> channels;
+        private final int from;
+        private final int to;
+        private final String keyword;
+        private final SearchMode mode;
+        private final Cutoff cutoff;
+        
+        private ChannelRangeSearch(List<? extends Channel> channels, int from, int to, String keyword,
+                                   SearchMode mode, Cutoff cutoff) {
+            this.channels = channels;
+            this.from = from;
+            this.to = to;
+            this.keyword = keyword;
+            this.mode = mode;
+            this.cutoff = cutoff;
+        }
+        
+        @Override
+        protected List<Message> compute() {
+            if (to - from == 1) {
+                Channel channel = channels.get(from);
+                List<Message> matches = channel.searchMessages(keyword, mode, cutoff.limit, cutoff.notBefore);
+                cutoff.offer(matches);
+                return matches;
+            }
+            int middle = (from + to) >>> 1;
+            ChannelRangeSearch left = new ChannelRangeSearch(channels, from, middle, keyword, mode, cutoff);
+            ChannelRangeSearch right = new ChannelRangeSearch(channels, middle, to, keyword, mode, cutoff);
+            left.fork();
+            List<Message> rightResults = right.compute();
+            return mergeNewest(left.join(), rightResults, cutoff.limit);
+        }
+    }
+}
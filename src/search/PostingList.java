@@ -0,0 +1,74 @@
+package search;
+
+import java.util.Arrays;
+
+/**
+ * PostingList class holding the sorted document ids that contain one token
+ * Ids are normally appended in increasing order, so adds are amortised O(1).
+ * Each document also keeps how many times the token occurs in it.
+ */
+class PostingList {
+    private int[] docs = new int[4];
+    private int[] counts = new int[4];
+    private int size;
+    
+    /**
+     * Add a document, or set its count if it is already listed
+     * Returns false in the latter case
+     */
+    boolean add(int doc, int count) {
+        if (size > 0 && docs[size - 1] >= doc) {
+            int at = Arrays.binarySearch(docs, 0, size, doc);
+            if (at >= 0) {
+                counts[at] = count;
+                return false;
+            }
+            insert(-at - 1, doc, count);
+            return true;
+        }
+        insert(size, doc, count);
+        return true;
+    }
+    
+    private void insert(int at, int doc, int count) {
+        if (size == docs.length) {
+            docs = Arrays.copyOf(docs, size * 2);
+            counts = Arrays.copyOf(counts, size * 2);
+        }
+        System.arraycopy(docs, at, docs, at + 1, size - at);
+        System.arraycopy(counts, at, counts, at + 1, size - at);
+        docs[at] = doc;
+        counts[at] = count;
+        size++;
+    }
+    
+    boolean remove(int doc) {
+        int at = Arrays.binarySearch(docs, 0, size, doc);
+        if (at < 0) {
+            return false;
+        }
+        System.arraycopy(docs, at + 1, docs, at, size - at - 1);
+        System.arraycopy(counts, at + 1, counts, at, size - at - 1);
+        size--;
+        return true;
+    }
+    
+    boolean contains(int doc) {
+        return Arrays.binarySearch(docs, 0, size, doc) >= 0;
+    }
+    
+    /**
+     * Occurrences of the token in the i-th document
+     */
+    int countAt(int i) {
+        return counts[i];
+    }
+    
+    int get(int i) {
+        return docs[i];
+    }
+    
+    int size() {
+        return size;
+    }
+}
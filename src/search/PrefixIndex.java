@@ -0,0 +1,182 @@
+package search;
+
+import java.util.*;
+
+/**
+ * PrefixIndex class keeping a set of keys sorted for prefix lookups
+ * Keys sharing a prefix are next to each other in sorted order, so a lookup is one
+ * binary search for the first of them followed by a walk that stops at the limit. The
+ * keys live in one array of references, which costs a few bytes per key on top of the
+ * strings themselves. Adding a key shifts the keys after it; loading many at once
+ * sorts them once instead.
+ *
+ * The sorted keys also form an implicit trie: the keys under a prefix are one range of
+ * the array. Fuzzy lookups walk that trie depth first, carrying a row of the Levenshtein
+ * table for the prefix so far, and skip a whole range as soon as no key in it can come
+ * within the allowed distance.
+ */
+public class PrefixIndex {
+    private String[] keys;
+    private int size;
+    
+    public PrefixIndex() {
+        this.keys = new String[16];
+    }
+    
+    /**
+     * Add many keys at once, with a single sort
+     */
+    public synchronized void addAll(Collection<String> added) {
+        if (size + added.size() > keys.length) {
+            keys = Arrays.copyOf(keys, Math.max(keys.length * 2, size + added.size()));
+        }
+        for (String key : added) {
+            keys[size++] = key;
+        }
+        Arrays.sort(keys, 0, size);
+        // Drop duplicates left by keys that were already present
+        int distinct = 0;
+        for (int i = 0; i < size; i++) {
+            if (distinct == 0 || !keys[i].equals(keys[distinct - 1])) {
+                keys[distinct++] = keys[i];
+            }
+        }
+        Arrays.fill(keys, distinct, size, null);
+        size = distinct;
+    }
+    
+    /**
+     * Add a key, returning false if it was already present
+     */
+    public synchronized boolean add(String key) {
+        int at = Arrays.binarySearch(keys, 0, size, key);
+        if (at >= 0) {
+            return false;
+        }
+        at = -at - 1;
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+        }
+        System.arraycopy(keys, at, keys, at + 1, size - at);
+        keys[at] = key;
+        size++;
+        return true;
+    }
+    
+    public synchronized boolean remove(String key) {
+        int at = Arrays.binarySearch(keys, 0, size, key);
+        if (at < 0) {
+            return false;
+        }
+        System.arraycopy(keys, at + 1, keys, at, size - at - 1);
+        keys[--size] = null;
+        return true;
+    }
+    
+    /**
+     * Up to limit keys starting with the prefix, in sorted order
+     */
+    public synchronized List<String> withPrefix(String prefix, int limit) {
+        int at = Arrays.binarySearch(keys, 0, size, prefix);
+        if (at < 0) {
+            at = -at - 1;
+        }
+        List<String> matches = new ArrayList<>();
+        for (int i = at; i < size && matches.size() < limit && keys[i].startsWith(prefix); i++) {
+            matches.add(keys[i]);
+        }
+        return matches;
+    }
+    
+    /**
+     * Up to limit keys within maxDistance edits (insertions, deletions, substitutions) of
+     * the query, nearest first, then in sorted order
+     */
+    public synchronized List<String> closest(String query, int maxDistance, int limit) {
+        List<List<String>> byDistance = new ArrayList<>();
+        for (int d = 0; d <= maxDistance; d++) {
+            byDistance.add(new ArrayList<>());
+        }
+        int[][] rows = new int[1][query.length() + 1]; // one row per depth, reused across branches
+        for (int j = 0; j < rows[0].length; j++) {
+            rows[0][j] = j;
+        }
+        collect(query, maxDistance, 0, size, 0, rows, byDistance);
+        
+        List<String> matches = new ArrayList<>();
+        for (List<String> keysAtDistance : byDistance) {
+            for (String key : keysAtDistance) {
+                if (matches.size() == limit) {
+                    return matches;
+                }
+                matches.add(key);
+            }
+        }
+        return matches;
+    }
+    
+    /**
+     * Visit the keys in [from, to), which share their first depth characters; rows[depth]
+     * holds the edit distances between that prefix and each prefix of the query
+     */
+    private int[][] collect(String query, int maxDistance, int from, int to, int depth, int[][] rows,
+                            List<List<String>> byDistance) {
+        if (rows.length == depth + 1) {
+            rows = Arrays.copyOf(rows, depth + 2);
+            rows[depth + 1] = new int[query.length() + 1];
+        }
+        int[] row = rows[depth];
+        int[] next = rows[depth + 1];
+        int i = from;
+        while (i < to && keys[i].length() == depth) {
+            // The prefix is a key itself; it sorts before the keys extending it
+            if (row[query.length()] <= maxDistance) {
+                byDistance.get(row[query.length()]).add(keys[i]);
+            }
+            i++;
+        }
+        while (i < to) {
+            char c = keys[i].charAt(depth);
+            int end = endOfRun(i, to, depth, c);
+            next[0] = row[0] + 1;
+            int best = next[0];
+            for (int j = 1; j < row.length; j++) {
+                int substitution = row[j - 1] + (query.charAt(j - 1) == c ? 0 : 1);
+                next[j] = Math.min(substitution, Math.min(row[j], next[j - 1]) + 1);
+                best = Math.min(best, next[j]);
+            }
+            if (best <= maxDistance) {
+                rows = collect(query, maxDistance, i, end, depth + 1, rows, byDistance);
+                next = rows[depth + 1];
+            }
+            i = end;
+        }
+        return rows;
+    }
+    
+    /**
+     * First index in [from, to) whose key has a character after c at depth
+     * Gallops from the start, since deep in the trie most runs are short
+     */
+    private int endOfRun(int from, int to, int depth, char c) {
+        int step = 1;
+        while (from + step < to && keys[from + step].charAt(depth) <= c) {
+            step *= 2;
+        }
+        int low = from + step / 2 + 1;
+        int high = Math.min(from + step, to);
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (keys[middle].charAt(depth) <= c) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+    
+    public synchronized int size() {
+        return size;
+    }
+}
@@ -0,0 +1,24 @@
+package search;
+
+import models.Message;
+
+/**
+ * SearchHit class pairing a matching message with its relevance score
+ */
+public class SearchHit {
+    private final Message message;
+    private final double score;
+    
+    public SearchHit(Message message, double score) {
+        this.message = message;
+        this.score = score;
+    }
+    
+    public Message getMessage() {
+        return message;
+    }
+    
+    public double getScore() {
+        return score;
+    }
+}
@@ -0,0 +1,9 @@
+package search;
+
+/**
+ * SearchMode enum choosing how a keyword is matched against message content
+ */
+public enum SearchMode {
+    TOKEN,     // whole words, answered from the channel's inverted index
+    SUBSTRING  // any part of the text, from a trigram index where enabled, else by scanning
+}
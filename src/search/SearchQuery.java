@@ -0,0 +1,165 @@
+package search;
+
+import java.util.*;
+
+/**
+ * SearchQuery class, a parsed keyword query
+ * Words are all required; OR between two clauses makes either one enough, and text in
+ * double quotes must appear as a phrase, its words next to each other and in order.
+ * A word the tokenizer splits in several ("e-mail") is a phrase too. AND may be written
+ * but is implied. So {@code deploy "build failed" OR rollback} means deploy and either
+ * the phrase or rollback.
+ */
+public class SearchQuery {
+    private final List<List<Clause>> groups; // every group must match, through any of its clauses
+    
+    private SearchQuery(List<List<Clause>> groups) {
+        this.groups = groups;
+    }
+    
+    public static SearchQuery parse(String text) {
+        List<List<Clause>> groups = new ArrayList<>();
+        boolean or = false;
+        int i = 0;
+        while (i < text.length()) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+                continue;
+            }
+            int end;
+            List<String> words;
+            if (c == '"') {
+                end = text.indexOf('"', i + 1);
+                if (end < 0) {
+                    end = text.length(); // an unclosed quote runs to the end
+                }
+                words = Tokenizer.words(text.substring(i + 1, end));
+                end++;
+            } else {
+                end = i;
+                while (end < text.length() && !Character.isWhitespace(text.charAt(end)) && text.charAt(end) != '"') {
+                    end++;
+                }
+                String word = text.substring(i, end);
+                if (word.equals("OR")) {
+                    or = !groups.isEmpty();
+                    i = end;
+                    continue;
+                }
+                if (word.equals("AND")) {
+                    i = end;
+                    continue;
+                }
+                words = Tokenizer.words(word);
+            }
+            i = end;
+            if (words.isEmpty()) {
+                continue;
+            }
+            Clause clause = new Clause(words);
+            if (or) {
+                groups.get(groups.size() - 1).add(clause);
+            } else {
+                groups.add(new ArrayList<>(Collections.singletonList(clause)));
+            }
+            or = false;
+        }
+        return new SearchQuery(groups);
+    }
+    
+    /**
+     * True when the query has no words to look up
+     */
+    public boolean isEmpty() {
+        return groups.isEmpty();
+    }
+    
+    /**
+     * True when the query is only required words, with no OR or phrase
+     */
+    public boolean isConjunction() {
+        for (List<Clause> group : groups) {
+            if (group.size() > 1 || group.get(0).isPhrase()) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    public boolean hasPhrases() {
+        for (List<Clause> group : groups) {
+            for (Clause clause : group) {
+                if (clause.isPhrase()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+    
+    List<List<Clause>> getGroups() {
+        return groups;
+    }
+    
+    /**
+     * Distinct words of the whole query
+     */
+    public Set<String> getWords() {
+        Set<String> words = new LinkedHashSet<>();
+        for (List<Clause> group : groups) {
+            for (Clause clause : group) {
+                words.addAll(clause.words);
+            }
+        }
+        return words;
+    }
+    
+    /**
+     * Whether a text, given as its tokens in order, satisfies the query
+     */
+    public boolean matches(List<String> textWords) {
+        for (List<Clause> group : groups) {
+            boolean any = false;
+            for (Clause clause : group) {
+                if (clause.matches(textWords)) {
+                    any = true;
+                    break;
+                }
+            }
+            if (!any) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * One word, or a phrase of several that must appear together in order
+     */
+    static class Clause {
+        private final List<String> words;
+        
+        private Clause(List<String> words) {
+            this.words = words;
+        }
+        
+        List<String> getWords() {
+            return words;
+        }
+        
+        boolean isPhrase() {
+            return words.size() > 1;
+        }
+        
+        boolean matches(List<String> textWords) {
+            int last = textWords.size() - words.size();
+            for (int start = 0; start <= last; start++) {
+                if (textWords.subList(start, start + words.size()).equals(words)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
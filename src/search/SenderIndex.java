@@ -0,0 +1,226 @@
+package search;
+
+import models.Channel;
+import models.HistoryListener;
+import models.Message;
+import java.util.*;
+
+/**
+ * SenderIndex class listing each user's messages across the channels of one server
+ * Every sender has their messages in timestamp order, so the newest ones, or the ones
+ * before a given message, are read off the end without touching any channel. It listens
+ * to the channels it indexes; deleted messages stay as tombstones until they make up
+ * half of a sender's list, and a page can still start from a tombstone, or from its
+ * timestamp once it is gone.
+ */
+public class SenderIndex implements HistoryListener {
+    private final Map<String, SenderMessages> bySender;
+    private final Map<String, Entry> byMessageId;
+    
+    public SenderIndex() {
+        this.bySender = new HashMap<>();
+        this.byMessageId = new HashMap<>();
+    }
+    
+    /**
+     * Start following channels and index the history they already have
+     * Each channel is listened to before it is scanned, so a message sent meanwhile is
+     * indexed once by whichever sees it first; lists are sorted once at the end
+     */
+    public void addChannels(Collection<? extends Channel> channels) {
+        for (Channel channel : channels) {
+            channel.addHistoryListener(this);
+            List<Entry> newestFirst = new ArrayList<>();
+            channel.forEachMessage(message -> newestFirst.add(new Entry(channel.getChannelId(), message)));
+            // Oldest first, so messages sent in the same millisecond keep their order
+            for (int i = newestFirst.size() - 1; i >= 0; i--) {
+                add(newestFirst.get(i), false);
+            }
+        }
+        synchronized (this) {
+            for (SenderMessages messages : bySender.values()) {
+                messages.entries.sort(Comparator.comparingLong(entry -> entry.timestamp));
+            }
+        }
+    }
+    
+    /**
+     * Stop following a removed channel and forget its messages
+     */
+    public synchronized void removeChannel(Channel channel) {
+        channel.removeHistoryListener(this);
+        List<Entry> removed = new ArrayList<>();
+        for (Entry entry : byMessageId.values()) {
+            if (entry.channelId.equals(channel.getChannelId())) {
+                removed.add(entry);
+            }
+        }
+        for (Entry entry : removed) {
+            byMessageId.remove(entry.messageId);
+            delete(entry);
+        }
+    }
+    
+    @Override
+    public void messageSent(Channel channel, Message message) {
+        add(new Entry(channel.getChannelId(), message), true);
+    }
+    
+    @Override
+    public synchronized void messageDeleted(Channel channel, String messageId) {
+        Entry entry = byMessageId.get(messageId);
+        if (entry != null) {
+            delete(entry);
+        }
+    }
+    
+    /**
+     * Mark an entry deleted, dropping a sender's tombstones once they are half the list
+     */
+    private void delete(Entry entry) {
+        if (entry.deleted) {
+            return;
+        }
+        entry.deleted = true;
+        SenderMessages messages = bySender.get(entry.senderId);
+        messages.deleted++;
+        if (messages.deleted > messages.entries.size() / 2) {
+            for (Entry candidate : messages.entries) {
+                if (candidate.deleted && byMessageId.get(candidate.messageId) == candidate) {
+                    byMessageId.remove(candidate.messageId);
+                }
+            }
+            messages.entries.removeIf(candidate -> candidate.deleted);
+            messages.deleted = 0;
+        }
+    }
+    
+    private synchronized void add(Entry entry, boolean ordered) {
+        if (byMessageId.containsKey(entry.messageId)) {
+            return;
+        }
+        byMessageId.put(entry.messageId, entry);
+        SenderMessages messages = bySender.computeIfAbsent(entry.senderId, id -> new SenderMessages());
+        if (ordered) {
+            messages.insert(entry);
+        } else {
+            messages.entries.add(entry);
+        }
+    }
+    
+    /**
+     * Up to count of a sender's messages, newest first, starting just before
+     * beforeMessageId, or at the newest message when it is null
+     * A deleted cursor message still marks its place; once its tombstone is gone the page
+     * starts before its timestamp, beforeMillis, instead. Returns null when beforeMessageId
+     * is another sender's message.
+     */
+    public synchronized List<Entry> page(String senderId, String beforeMessageId, long beforeMillis, int count) {
+        SenderMessages messages = bySender.get(senderId);
+        if (messages == null) {
+            return new ArrayList<>();
+        }
+        int start = messages.entries.size() - 1;
+        if (beforeMessageId != null) {
+            Entry before = byMessageId.get(beforeMessageId);
+            if (before != null && !before.senderId.equals(senderId)) {
+                return null;
+            }
+            start = (before != null ? messages.indexOf(before) : messages.firstAtOrAfter(beforeMillis)) - 1;
+        }
+        List<Entry> page = new ArrayList<>();
+        for (int i = start; i >= 0 && page.size() < count; i--) {
+            Entry entry = messages.entries.get(i);
+            if (!entry.deleted) {
+                page.add(entry);
+            }
+        }
+        return page;
+    }
+    
+    /**
+     * All of a sender's messages, newest first
+     */
+    public List<Entry> getAll(String senderId) {
+        return page(senderId, null, Long.MAX_VALUE, Integer.MAX_VALUE);
+    }
+    
+    public synchronized int getMessageCount(String senderId) {
+        SenderMessages messages = bySender.get(senderId);
+        return messages != null ? messages.entries.size() - messages.deleted : 0;
+    }
+    
+    /**
+     * Where one message lives; load it with Channel.findMessage
+     */
+    public static class Entry {
+        private final String channelId;
+        private final String messageId;
+        private final String senderId;
+        private final long timestamp;
+        private boolean deleted;
+        
+        private Entry(String channelId, Message message) {
+            this.channelId = channelId;
+            this.messageId = message.getMessageId();
+            this.senderId = message.getSenderId();
+            this.timestamp = message.getTimestamp().getTime();
+        }
+        
+        public String getChannelId() {
+            return channelId;
+        }
+        
+        public String getMessageId() {
+            return messageId;
+        }
+        
+        public long getTimestamp() {
+            return timestamp;
+        }
+    }
+    
+    /**
+     * One sender's entries in timestamp order, deleted ones included
+     */
+    private static class SenderMessages {
+        private final List<Entry> entries = new ArrayList<>();
+        private int deleted;
+        
+        /**
+         * Sends arrive in timestamp order, so this almost always appends
+         */
+        private void insert(Entry entry) {
+            int i = entries.size();
+            while (i > 0 && entries.get(i - 1).timestamp > entry.timestamp) {
+                i--;
+            }
+            entries.add(i, entry);
+        }
+        
+        private int indexOf(Entry entry) {
+            int index = firstAtOrAfter(entry.timestamp);
+            while (entries.get(index) != entry) {
+                index++; // past messages sent in the same millisecond
+            }
+            return index;
+        }
+        
+        /**
+         * Index of the first entry sent at or after a time, or the size if there is none
+         */
+        private int firstAtOrAfter(long millis) {
+            int low = 0;
+            int high = entries.size();
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (entries.get(middle).timestamp < millis) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package search;
+
+import java.util.*;
+
+/**
+ * Tokenizer class splitting text into lowercase words for indexing
+ * A token is a run of letters or digits; everything else separates tokens
+ */
+public class Tokenizer {
+    /**
+     * Distinct tokens of a text, in order of first appearance
+     */
+    public static Set<String> tokens(String text) {
+        return new LinkedHashSet<>(words(text));
+    }
+    
+    /**
+     * Distinct tokens of a text with the number of times each occurs
+     */
+    public static Map<String, Integer> counts(String text) {
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        for (String word : words(text)) {
+            counts.merge(word, 1, Integer::sum);
+        }
+        return counts;
+    }
+    
+    /**
+     * Every token of a text in order, repeats included
+     */
+    public static List<String> words(String text) {
+        List<String> words = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i < text.length(); ) {
+            int codePoint = text.codePointAt(i);
+            if (Character.isLetterOrDigit(codePoint)) {
+                if (start < 0) {
+                    start = i;
+                }
+            } else if (start >= 0) {
+                words.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+            i += Character.charCount(codePoint);
+        }
+        if (start >= 0) {
+            words.add(text.substring(start).toLowerCase(Locale.ROOT));
+        }
+        return words;
+    }
+}
@@ -0,0 +1,117 @@
+package search;
+
+import models.Message;
+import storage.WriteAheadLog;
+import java.util.*;
+
+/**
+ * TrigramIndex class answering substring searches of one channel without a full scan
+ * Terms are every run of three characters of the lowercased text, spaces and punctuation
+ * included. A query of three or more characters is looked up by its own trigrams, and
+ * each candidate is checked for the whole query, since sharing all trigrams does not
+ * make the query a substring.
+ *
+ * The index grows with the total length of the channel's messages, so it is limited to
+ * a memory budget: once its estimated size passes the budget it drops its postings and
+ * answers nothing, leaving searches to scan the history as before.
+ */
+public class TrigramIndex extends DocumentIndex {
+    private static final int TERM_BYTES = 96;  // key, map entry and list of one trigram
+    private static final int DOC_BYTES = 132;  // id, id map entry and per-document arrays
+    private static final int POSTING_BYTES = 10; // document and count, plus the spare capacity of growing lists
+    
+    private final long budgetBytes;
+    private boolean overBudget;
+    
+    public TrigramIndex(WriteAheadLog log, long budgetBytes) {
+        super(log);
+        this.budgetBytes = budgetBytes;
+    }
+    
+    /**
+     * Build the index of an in-memory channel
+     */
+    public static TrigramIndex build(List<Message> history, long budgetBytes) {
+        TrigramIndex index = new TrigramIndex(null, budgetBytes);
+        for (Message message : history) {
+            index.add(message, -1);
+        }
+        return index;
+    }
+    
+    @Override
+    protected Map<String, Integer> terms(String text) {
+        return trigrams(text.toLowerCase(Locale.ROOT));
+    }
+    
+    private static Map<String, Integer> trigrams(String lowerText) {
+        Map<String, Integer> trigrams = new HashMap<>();
+        for (int i = 0; i + 3 <= lowerText.length(); i++) {
+            trigrams.merge(lowerText.substring(i, i + 3), 1, Integer::sum);
+        }
+        return trigrams;
+    }
+    
+    @Override
+    public synchronized void add(Message message, long position) {
+        if (!overBudget) {
+            super.add(message, position);
+            checkBudget();
+        }
+    }
+    
+    @Override
+    public synchronized void update(Message message, String previousContent, long position) {
+        if (!overBudget) {
+            super.update(message, previousContent, position);
+            checkBudget();
+        }
+    }
+    
+    @Override
+    public synchronized void remove(String messageId, String content) {
+        if (!overBudget) {
+            super.remove(messageId, content);
+        }
+    }
+    
+    private void checkBudget() {
+        if (getEstimatedBytes() > budgetBytes) {
+            overBudget = true;
+            clear();
+            close();
+        }
+    }
+    
+    /**
+     * The newest limit messages containing the query, ignoring case, sent at or after
+     * notBefore (epoch millis), oldest first
+     * Returns null when the query is shorter than a trigram or the index is over budget,
+     * in which case the history has to be scanned
+     */
+    public synchronized List<Message> search(String query, int limit, long notBefore) {
+        awaitBuilt();
+        String lowerQuery = query.toLowerCase(Locale.ROOT);
+        if (overBudget || lowerQuery.length() < 3) {
+            return null;
+        }
+        return search(trigrams(lowerQuery).keySet(), limit, notBefore,
+            message -> message.getContent().toLowerCase(Locale.ROOT).contains(lowerQuery));
+    }
+    
+    /**
+     * Rough heap size of the index
+     */
+    public synchronized long getEstimatedBytes() {
+        return (long) getTermCount() * TERM_BYTES + (long) getDocCount() * DOC_BYTES
+            + postingCount * POSTING_BYTES;
+    }
+    
+    public long getBudgetBytes() {
+        return budgetBytes;
+    }
+    
+    public synchronized boolean isOverBudget() {
+        return overBudget;
+    }
+}
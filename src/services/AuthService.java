@@ -1,26 +1,54 @@
 package services;
 
 import models.*;
+import search.PrefixIndex;
+import storage.Checkpointer;
 import utils.HashUtil;
 import utils.ConsoleUtil;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * AuthService class for handling user authentication
  * Manages user registration, login, and session management
+ * Every login opens a Session, and the methods acting for a user take the caller's
+ * session; registries are concurrent maps, so many sessions can be served at once.
  */
 public class AuthService {
+    private static final int SIMILAR_USERS_SUGGESTED = 3;
+    
     private Map<String, User> users; // username -> User
-    private Map<String, User> userSessions; // userId -> User (logged in users)
-    private User currentUser;
+    private Map<String, User> usersById; // userId -> User, kept alongside users
+    private final PrefixIndex usernameIndex; // lowercase usernames, for prefix and fuzzy lookups
+    private Map<String, Session> sessions; // token -> Session
+    private Map<String, Integer> sessionCounts; // userId -> open sessions, for online status
+    private Checkpointer checkpointer; // null when persistence is disabled
     
     public AuthService() {
-        this.users = new HashMap<>();
-        this.userSessions = new HashMap<>();
-        this.currentUser = null;
+        this(null);
+    }
+    
+    public AuthService(Checkpointer checkpointer) {
+        this.users = new ConcurrentHashMap<>();
+        this.usersById = new ConcurrentHashMap<>();
+        this.usernameIndex = new PrefixIndex();
+        this.sessions = new ConcurrentHashMap<>();
+        this.sessionCounts = new ConcurrentHashMap<>();
+        this.checkpointer = checkpointer;
         
-        // Create some demo users for testing
-        createDemoUsers();
+        if (checkpointer != null && checkpointer.hasState()) {
+            // Restore users from the last checkpoint
+            for (User user : checkpointer.restoreUsers()) {
+                users.put(user.getUsername().toLowerCase(), user);
+            }
+        } else {
+            // Create some demo users for testing
+            createDemoUsers();
+        }
+        for (User user : users.values()) {
+            usersById.put(user.getUserId(), user);
+        }
+        usernameIndex.addAll(users.keySet());
     }
     
     private void createDemoUsers() {
@@ -35,6 +63,19 @@ public class AuthService {
         // Create demo regular user
         User user = new User("user", HashUtil.hashPassword("user123"));
         users.put(user.getUsername(), user);
+        
+        for (User demoUser : users.values()) {
+            userChanged(demoUser);
+        }
+    }
+    
+    /**
+     * Queue a changed user for the next checkpoint
+     */
+    public void userChanged(User user) {
+        if (checkpointer != null) {
+            checkpointer.userChanged(user);
+        }
     }
     
     /**
@@ -75,74 +116,101 @@ public class AuthService {
                 break;
         }
         
-        // Store user
-        users.put(username.toLowerCase(), newUser);
+        // Store user, unless another registration took the name meanwhile
+        String key = username.toLowerCase();
+        if (users.putIfAbsent(key, newUser) != null) {
+            ConsoleUtil.printError("Username already exists.");
+            return false;
+        }
+        usersById.put(newUser.getUserId(), newUser);
+        usernameIndex.add(key);
+        userChanged(newUser);
         
         ConsoleUtil.printSuccess("User '" + username + "' registered successfully!");
         return true;
     }
     
     /**
-     * Login user
+     * Login user, opening a new session
+     * Returns null when the username or password is wrong
      */
-    public boolean loginUser(String username, String password) {
-        if (currentUser != null) {
-            ConsoleUtil.printWarning("Already logged in as " + currentUser.getUsername());
-            return false;
-        }
-        
+    public Session loginUser(String username, String password) {
         // Find user
         User user = users.get(username.toLowerCase());
         if (user == null) {
             ConsoleUtil.printError("User not found.");
-            return false;
+            return null;
         }
         
         // Verify password
         if (!HashUtil.verifyPassword(password, user.getHashedPassword())) {
             ConsoleUtil.printError("Invalid password.");
-            return false;
+            return null;
         }
         
-        // Set user as online and current
-        user.setOnline(true);
-        currentUser = user;
-        userSessions.put(user.getUserId(), user);
+        // Open the session and set the user as online
+        Session session = new Session(user);
+        sessions.put(session.getToken(), session);
+        sessionCounts.compute(user.getUserId(), (userId, count) -> {
+            user.setOnline(true);
+            return count == null ? 1 : count + 1;
+        });
+        userChanged(user);
         
         ConsoleUtil.printSuccess("Welcome back, " + user.getUsername() + "!");
-        return true;
+        return session;
     }
     
     /**
-     * Logout current user
+     * Logout, closing the session
+     * The user goes offline when this was their last open session
      */
-    public boolean logoutUser() {
-        if (currentUser == null) {
+    public boolean logoutUser(Session session) {
+        if (session == null || !sessions.remove(session.getToken(), session)) {
             ConsoleUtil.printError("No user is currently logged in.");
             return false;
         }
         
-        // Set user as offline
-        currentUser.setOnline(false);
-        userSessions.remove(currentUser.getUserId());
+        User user = session.getUser();
+        sessionCounts.computeIfPresent(user.getUserId(), (userId, count) -> {
+            if (count > 1) {
+                return count - 1;
+            }
+            user.setOnline(false);
+            return null;
+        });
+        userChanged(user);
         
-        ConsoleUtil.printSuccess("Goodbye, " + currentUser.getUsername() + "!");
-        currentUser = null;
+        ConsoleUtil.printSuccess("Goodbye, " + user.getUsername() + "!");
         return true;
     }
     
     /**
-     * Get current logged-in user
+     * The open session with the given token, or null
      */
-    public User getCurrentUser() {
-        return currentUser;
+    public Session getSession(String token) {
+        return token == null ? null : sessions.get(token);
     }
     
     /**
-     * Check if user is logged in
+     * The user a session acts for, or null when the session is missing or closed
      */
-    public boolean isLoggedIn() {
-        return currentUser != null;
+    public User userOf(Session session) {
+        if (session == null || sessions.get(session.getToken()) != session) {
+            return null;
+        }
+        return session.getUser();
+    }
+    
+    /**
+     * Check if a session is open
+     */
+    public boolean isLoggedIn(Session session) {
+        return userOf(session) != null;
+    }
+    
+    public int getSessionCount() {
+        return sessions.size();
     }
     
     /**
@@ -152,14 +220,70 @@ public class AuthService {
         return users.get(username.toLowerCase());
     }
     
+    /**
+     * Up to limit users whose name starts with the prefix, ignoring case, in name order
+     */
+    public List<User> findUsersByPrefix(String prefix, int limit) {
+        List<User> matches = new ArrayList<>();
+        for (String key : usernameIndex.withPrefix(prefix.toLowerCase(), limit)) {
+            matches.add(users.get(key));
+        }
+        return matches;
+    }
+    
+    /**
+     * Up to limit users whose name is one edit (an inserted, deleted or changed letter)
+     * away from the given one, ignoring case; names longer than three letters get two
+     * edits when nothing is one edit away
+     */
+    public List<User> findSimilarUsers(String username, int limit) {
+        String key = username.toLowerCase();
+        List<String> keys = usernameIndex.closest(key, 1, limit);
+        if (keys.isEmpty() && key.length() > 3) {
+            keys = usernameIndex.closest(key, 2, limit);
+        }
+        List<User> similar = new ArrayList<>();
+        for (String similarKey : keys) {
+            similar.add(users.get(similarKey));
+        }
+        return similar;
+    }
+    
+    /**
+     * Report an unknown username, suggesting registered names close to it
+     */
+    public void printUserNotFound(String username) {
+        ConsoleUtil.printError("User '" + username + "' not found.");
+        List<User> similar = findSimilarUsers(username, SIMILAR_USERS_SUGGESTED);
+        if (!similar.isEmpty()) {
+            StringJoiner names = new StringJoiner(", ");
+            for (User user : similar) {
+                names.add(user.getUsername());
+            }
+            ConsoleUtil.printInfo("Did you mean: " + names + "?");
+        }
+    }
+    
     /**
      * Find user by ID
      */
     public User findUserById(String userId) {
-        return users.values().stream()
-                .filter(user -> user.getUserId().equals(userId))
-                .findFirst()
-                .orElse(null);
+        return usersById.get(userId);
+    }
+    
+    /**
+     * Find many users by ID at once, in the order given
+     * IDs with no matching user are skipped
+     */
+    public List<User> findUsersByIds(Collection<String> userIds) {
+        List<User> found = new ArrayList<>(userIds.size());
+        for (String userId : userIds) {
+            User user = usersById.get(userId);
+            if (user != null) {
+                found.add(user);
+            }
+        }
+        return found;
     }
     
     /**
@@ -173,13 +297,14 @@ public class AuthService {
      * Get all online users
      */
     public Collection<User> getOnlineUsers() {
-        return userSessions.values();
+        return findUsersByIds(sessionCounts.keySet());
     }
     
     /**
-     * Add friend to current user
+     * Add friend to the session's user
      */
-    public boolean addFriend(String friendUsername) {
+    public boolean addFriend(Session session, String friendUsername) {
+        User currentUser = userOf(session);
         if (currentUser == null) {
             ConsoleUtil.printError("You must be logged in to add friends.");
             return false;
@@ -187,7 +312,7 @@ public class AuthService {
         
         User friend = findUserByUsername(friendUsername);
         if (friend == null) {
-            ConsoleUtil.printError("User '" + friendUsername + "' not found.");
+            printUserNotFound(friendUsername);
             return false;
         }
         
@@ -199,15 +324,18 @@ public class AuthService {
         // Add friend to both users
         currentUser.addFriend(friend.getUserId());
         friend.addFriend(currentUser.getUserId());
+        userChanged(currentUser);
+        userChanged(friend);
         
         ConsoleUtil.printSuccess("Added " + friendUsername + " as a friend!");
         return true;
     }
     
     /**
-     * Remove friend from current user
+     * Remove friend from the session's user
      */
-    public boolean removeFriend(String friendUsername) {
+    public boolean removeFriend(Session session, String friendUsername) {
+        User currentUser = userOf(session);
         if (currentUser == null) {
             ConsoleUtil.printError("You must be logged in to remove friends.");
             return false;
@@ -222,33 +350,30 @@ public class AuthService {
         // Remove friend from both users
         currentUser.removeFriend(friend.getUserId());
         friend.removeFriend(currentUser.getUserId());
+        userChanged(currentUser);
+        userChanged(friend);
         
         ConsoleUtil.printSuccess("Removed " + friendUsername + " from friends.");
         return true;
     }
     
     /**
-     * Get friends of current user
+     * Get friends of the session's user
      */
-    public List<User> getCurrentUserFriends() {
+    public List<User> getFriends(Session session) {
+        User currentUser = userOf(session);
         if (currentUser == null) {
             return new ArrayList<>();
         }
         
-        List<User> friends = new ArrayList<>();
-        for (String friendId : currentUser.getFriendList()) {
-            User friend = findUserById(friendId);
-            if (friend != null) {
-                friends.add(friend);
-            }
-        }
-        return friends;
+        return findUsersByIds(currentUser.getFriendList());
     }
     
     /**
      * Display user statistics
      */
-    public void displayUserStats() {
+    public void displayUserStats(Session session) {
+        User currentUser = userOf(session);
         if (currentUser == null) {
             ConsoleUtil.printError("No user logged in.");
             return;
@@ -264,7 +389,7 @@ public class AuthService {
         
         if (!currentUser.getFriendList().isEmpty()) {
             System.out.println("\nFriends List:");
-            List<User> friends = getCurrentUserFriends();
+            List<User> friends = getFriends(session);
             for (User friend : friends) {
                 String status = friend.isOnline() ? "🟢 Online" : "🔴 Offline";
                 System.out.println("  - " + friend.getUsername() + " " + status);
@@ -1,6 +1,20 @@
 package services;
 
+import delivery.ChannelDeliveryStats;
+import delivery.FanoutDispatcher;
+import delivery.MessageEvent;
+import delivery.Subscriber;
+import delivery.Topic;
 import models.*;
+import search.ParallelSearch;
+import search.SearchHit;
+import search.SearchMode;
+import search.TrigramIndex;
+import storage.BlockCache;
+import storage.CompactionResult;
+import storage.ConversationKey;
+import storage.DirectMessageStore;
+import storage.TierMetrics;
 import utils.ConsoleUtil;
 import java.util.*;
 
@@ -9,21 +23,35 @@ import java.util.*;
  * Manages channel creation, messaging, and user interactions
  */
 public class ChannelService {
+    private static final int MESSAGES_PER_PAGE = 20;
+    private static final int DIRECT_MESSAGES_SHOWN = 50;
+    private static final int SEARCH_RESULT_LIMIT = 100;
+    private static final int RANKED_RESULT_LIMIT = 20;
+    
     private AuthService authService;
     private ServerService serverService;
-    private Map<String, List<Message>> directMessages; // userId1:userId2 -> messages
+    private DirectMessageStore directMessages;
+    private ParallelSearch parallelSearch;
+    private FanoutDispatcher fanout;
     
     public ChannelService(AuthService authService, ServerService serverService) {
+        this(authService, serverService, new DirectMessageStore());
+    }
+    
+    public ChannelService(AuthService authService, ServerService serverService,
+                          DirectMessageStore directMessages) {
         this.authService = authService;
         this.serverService = serverService;
-        this.directMessages = new HashMap<>();
+        this.directMessages = directMessages;
+        this.parallelSearch = new ParallelSearch();
+        this.fanout = new FanoutDispatcher(Runtime.getRuntime().availableProcessors());
     }
     
     /**
      * Create a new text channel
      */
-    public boolean createTextChannel(String serverId, String channelName) {
-        User currentUser = authService.getCurrentUser();
+    public boolean createTextChannel(Session session, String serverId, String channelName) {
+        User currentUser = authService.userOf(session);
         if (currentUser == null) {
             ConsoleUtil.printError("You must be logged in to create channels.");
             return false;
@@ -50,7 +78,9 @@ public class ChannelService {
         
         // Create channel
         TextChannel textChannel = new TextChannel(channelName, serverId);
+        serverService.attachStorage(textChannel);
         server.addChannel(textChannel);
+        serverService.serverChanged(server);
         
         ConsoleUtil.printSuccess("Text channel '#" + channelName + "' created successfully!");
         return true;
@@ -59,8 +89,8 @@ public class ChannelService {
     /**
      * Create a new voice channel
      */
-    public boolean createVoiceChannel(String serverId, String channelName) {
-        User currentUser = authService.getCurrentUser();
+    public boolean createVoiceChannel(Session session, String serverId, String channelName) {
+        User currentUser = authService.userOf(session);
         if (currentUser == null) {
             ConsoleUtil.printError("You must be logged in to create channels.");
             return false;
@@ -87,7 +117,9 @@ public class ChannelService {
         
         // Create channel
         VoiceChannel voiceChannel = new VoiceChannel(channelName, serverId);
+        serverService.attachStorage(voiceChannel);
         server.addChannel(voiceChannel);
+        serverService.serverChanged(server);
         
         ConsoleUtil.printSuccess("Voice channel '🔊" + channelName + "' created successfully!");
         return true;
@@ -96,8 +128,8 @@ public class ChannelService {
     /**
      * Delete a channel
      */
-    public boolean deleteChannel(String serverId, String channelId) {
-        User currentUser = authService.getCurrentUser();
+    public boolean deleteChannel(Session session, String serverId, String channelId) {
+        User currentUser = authService.userOf(session);
         if (currentUser == null) {
             ConsoleUtil.printError("You must be logged in to delete channels.");
             return false;
@@ -124,6 +156,9 @@ public class ChannelService {
         
         // Remove channel
         if (server.removeChannel(channelId)) {
+            fanout.forget(channel);
+            serverService.releaseStorage(channelId);
+            serverService.serverChanged(server);
             ConsoleUtil.printSuccess("Channel '" + channel.getChannelName() + "' has been deleted.");
             return true;
         } else {
@@ -135,8 +170,8 @@ public class ChannelService {
     /**
      * Send message to a text channel
      */
-    public boolean sendMessageToChannel(String serverId, String channelId, String content) {
-        User currentUser = authService.getCurrentUser();
+    public boolean sendMessageToChannel(Session session, String serverId, String channelId, String content) {
+        User currentUser = authService.userOf(session);
         if (currentUser == null) {
             ConsoleUtil.printError("You must be logged in to send messages.");
             return false;
@@ -167,8 +202,9 @@ public class ChannelService {
     /**
      * Edit a message
      */
-    public boolean editMessage(String serverId, String channelId, String messageId, String newContent) {
-        User currentUser = authService.getCurrentUser();
+    public boolean editMessage(Session session, String serverId, String channelId, String messageId,
+                               String newContent) {
+        User currentUser = authService.userOf(session);
         if (currentUser == null) {
             ConsoleUtil.printError("You must be logged in to edit messages.");
             return false;
@@ -198,8 +234,8 @@ public class ChannelService {
     /**
      * Delete a message
      */
-    public boolean deleteMessage(String serverId, String channelId, String messageId) {
-        User currentUser = authService.getCurrentUser();
+    public boolean deleteMessage(Session session, String serverId, String channelId, String messageId) {
+        User currentUser = authService.userOf(session);
         if (currentUser == null) {
             ConsoleUtil.printError("You must be logged in to delete messages.");
             return false;
@@ -237,8 +273,8 @@ public class ChannelService {
     /**
      * Display channel messages
      */
-    public void displayChannelMessages(String serverId, String channelId) {
-        User currentUser = authService.getCurrentUser();
+    public void displayChannelMessages(Session session, String serverId, String channelId) {
+        User currentUser = authService.userOf(session);
         if (currentUser == null) {
             ConsoleUtil.printError("You must be logged in to view messages.");
             return;
@@ -264,11 +300,278 @@ public class ChannelService {
         channel.displayMessages();
     }
     
+    /**
+     * Display an older page of channel messages, page 1 being the newest
+     * Pages beyond the on-heap tail are loaded from disk on demand
+     */
+    public void displayMessagePage(Session session, String serverId, String channelId, int page) {
+        User currentUser = authService.userOf(session);
+        if (currentUser == null) {
+            ConsoleUtil.printError("You must be logged in to view messages.");
+            return;
+        }
+        
+        Server server = serverService.getServer(serverId);
+        if (server == null) {
+            ConsoleUtil.printError("Server not found.");
+            return;
+        }
+        
+        if (!server.isMember(currentUser.getUserId())) {
+            ConsoleUtil.printError("You are not a member of this server.");
+            return;
+        }
+        
+        Channel channel = server.findChannel(channelId);
+        if (channel == null) {
+            ConsoleUtil.printError("Channel not found.");
+            return;
+        }
+        
+        int pageCount = Math.max(1, (channel.getMessageCount() + MESSAGES_PER_PAGE - 1) / MESSAGES_PER_PAGE);
+        if (page < 1 || page > pageCount) {
+            ConsoleUtil.printError("Page must be between 1 and " + pageCount + ".");
+            return;
+        }
+        
+        ConsoleUtil.printHeader("Messages in #" + channel.getChannelName() + " - page " + page + " of " + pageCount);
+        List<Message> messages = channel.getOlderMessages((page - 1) * MESSAGES_PER_PAGE, MESSAGES_PER_PAGE);
+        if (messages.isEmpty()) {
+            ConsoleUtil.printInfo("No messages in this channel yet.");
+        }
+        for (Message message : messages) {
+            System.out.println(message.getFormattedMessage());
+        }
+    }
+    
+    /**
+     * A page of channel history next to a cursor, oldest first, without reading the rest
+     * Returns an empty list when the channel cannot be read or the cursor's message is gone
+     */
+    public List<Message> getMessagePage(Session session, String serverId, String channelId, HistoryCursor cursor,
+                                        int count) {
+        Channel channel = findReadableChannel(session, serverId, channelId);
+        if (channel == null) {
+            return new ArrayList<>();
+        }
+        List<Message> messages = channel.getMessages(cursor, count);
+        if (messages == null) {
+            ConsoleUtil.printError("Message not found.");
+            return new ArrayList<>();
+        }
+        return messages;
+    }
+    
+    /**
+     * Display the page of channel history next to a cursor and return it,
+     * so its first and last messages can be used to page further
+     */
+    public List<Message> displayMessagePage(Session session, String serverId, String channelId, HistoryCursor cursor) {
+        Channel channel = findReadableChannel(session, serverId, channelId);
+        if (channel == null) {
+            return new ArrayList<>();
+        }
+        List<Message> messages = channel.getMessages(cursor, MESSAGES_PER_PAGE);
+        if (messages == null) {
+            ConsoleUtil.printError("Message not found.");
+            return new ArrayList<>();
+        }
+        
+        ConsoleUtil.printHeader("Messages in #" + channel.getChannelName() + " - " + cursor);
+        if (messages.isEmpty()) {
+            ConsoleUtil.printInfo("No messages there.");
+        }
+        for (Message message : messages) {
+            System.out.println(message.getFormattedMessage());
+        }
+        return messages;
+    }
+    
+    /**
+     * Display the messages of a channel sent between two instants
+     */
+    public void displayMessagesBetween(Session session, String serverId, String channelId, Date from, Date to) {
+        Channel channel = findReadableChannel(session, serverId, channelId);
+        if (channel == null) {
+            return;
+        }
+        if (to.before(from)) {
+            ConsoleUtil.printError("The end of the range is before its start.");
+            return;
+        }
+        
+        List<Message> messages = channel.getMessagesBetween(from, to, MESSAGES_PER_PAGE + 1);
+        ConsoleUtil.printHeader("Messages in #" + channel.getChannelName() + " from " + from + " to " + to);
+        if (messages.isEmpty()) {
+            ConsoleUtil.printInfo("No messages were sent in that range.");
+        }
+        for (Message message : messages.subList(0, Math.min(MESSAGES_PER_PAGE, messages.size()))) {
+            System.out.println(message.getFormattedMessage());
+        }
+        if (messages.size() > MESSAGES_PER_PAGE) {
+            ConsoleUtil.printInfo("Showing the first " + MESSAGES_PER_PAGE + " messages of the range.");
+        }
+    }
+    
+    /**
+     * The channel, if the session's user may read it; prints why not otherwise
+     */
+    private Channel findReadableChannel(Session session, String serverId, String channelId) {
+        User currentUser = authService.userOf(session);
+        if (currentUser == null) {
+            ConsoleUtil.printError("You must be logged in to view messages.");
+            return null;
+        }
+        
+        Server server = serverService.getServer(serverId);
+        if (server == null) {
+            ConsoleUtil.printError("Server not found.");
+            return null;
+        }
+        
+        if (!server.isMember(currentUser.getUserId())) {
+            ConsoleUtil.printError("You are not a member of this server.");
+            return null;
+        }
+        
+        Channel channel = server.findChannel(channelId);
+        if (channel == null) {
+            ConsoleUtil.printError("Channel not found.");
+        }
+        return channel;
+    }
+    
+    /**
+     * Set how many recent messages of a channel stay in memory; a negative size uses the default
+     */
+    public boolean setHistoryCacheSize(Session session, String serverId, String channelId, int size) {
+        User currentUser = authService.userOf(session);
+        if (currentUser == null) {
+            ConsoleUtil.printError("You must be logged in to change channel settings.");
+            return false;
+        }
+        
+        Server server = serverService.getServer(serverId);
+        if (server == null) {
+            ConsoleUtil.printError("Server not found.");
+            return false;
+        }
+        
+        Channel channel = server.findChannel(channelId);
+        if (channel == null) {
+            ConsoleUtil.printError("Channel not found.");
+            return false;
+        }
+        
+        // Check permissions
+        String userRole = server.getMemberRole(currentUser.getUserId());
+        if (!currentUser.hasPermission("manage_channels") && !"ADMIN".equals(userRole)) {
+            ConsoleUtil.printError("You don't have permission to change channel settings.");
+            return false;
+        }
+        
+        channel.setHotTailSize(size);
+        serverService.serverChanged(server);
+        ConsoleUtil.printSuccess("#" + channel.getChannelName() + " now keeps " + channel.getHotTailSize()
+            + " recent messages in memory" + (size < 0 ? " (default)." : "."));
+        return true;
+    }
+    
+    /**
+     * Turn a channel's substring search index on or off
+     */
+    public boolean setSubstringIndexed(Session session, String serverId, String channelId, boolean indexed) {
+        User currentUser = authService.userOf(session);
+        if (currentUser == null) {
+            ConsoleUtil.printError("You must be logged in to change channel settings.");
+            return false;
+        }
+        
+        Server server = serverService.getServer(serverId);
+        if (server == null) {
+            ConsoleUtil.printError("Server not found.");
+            return false;
+        }
+        
+        Channel channel = server.findChannel(channelId);
+        if (channel == null) {
+            ConsoleUtil.printError("Channel not found.");
+            return false;
+        }
+        
+        // Check permissions
+        String userRole = server.getMemberRole(currentUser.getUserId());
+        if (!currentUser.hasPermission("manage_channels") && !"ADMIN".equals(userRole)) {
+            ConsoleUtil.printError("You don't have permission to change channel settings.");
+            return false;
+        }
+        
+        channel.setSubstringIndexed(indexed);
+        serverService.serverChanged(server);
+        ConsoleUtil.printSuccess("Partial-word searches in #" + channel.getChannelName()
+            + (indexed ? " will use an index." : " will scan the history."));
+        return true;
+    }
+    
+    /**
+     * Display where a channel's history reads were served from
+     */
+    public void displayStorageStats(String serverId, String channelId) {
+        Server server = serverService.getServer(serverId);
+        if (server == null) {
+            ConsoleUtil.printError("Server not found.");
+            return;
+        }
+        
+        Channel channel = server.findChannel(channelId);
+        if (channel == null) {
+            ConsoleUtil.printError("Channel not found.");
+            return;
+        }
+        
+        ConsoleUtil.printHeader("History Storage - #" + channel.getChannelName());
+        System.out.println("Messages: " + channel.getMessageCount());
+        System.out.println("Kept in memory: " + channel.getHotTailSize()
+            + (channel.getHotTailOverride() < 0 ? " (default)" : ""));
+        System.out.println("Substring index: " + describeSubstringIndex(channel));
+        TierMetrics metrics = channel.getTierMetrics();
+        if (metrics == null) {
+            ConsoleUtil.printInfo("Persistence is disabled; all history is in memory.");
+            return;
+        }
+        System.out.println("Channel reads: " + metrics);
+        System.out.println("All channels:  " + TierMetrics.global());
+        System.out.println("Cold block cache: " + BlockCache.shared());
+        CompactionResult compaction = channel.getLog().getLastCompaction();
+        System.out.println("Last compaction: " + (compaction != null ? compaction : "not run yet"));
+    }
+    
+    private String describeSubstringIndex(Channel channel) {
+        if (!channel.isSubstringIndexed()) {
+            return "off";
+        }
+        TrigramIndex index = channel.getSubstringIndex();
+        if (index.isOverBudget()) {
+            return "off, history outgrew the " + index.getBudgetBytes() / (1024 * 1024) + " MB budget";
+        }
+        return String.format("on, about %.1f of %d MB", index.getEstimatedBytes() / (1024.0 * 1024),
+            index.getBudgetBytes() / (1024 * 1024));
+    }
+    
+    /**
+     * Search messages in a channel
+     */
+    public void searchMessages(Session session, String serverId, String channelId, String keyword) {
+        searchMessages(session, serverId, channelId, keyword, SearchMode.TOKEN);
+    }
+    
     /**
      * Search messages in a channel
+     * Whole-word searches show the most relevant matches first; substring searches,
+     * and queries without any words, show the newest matches
      */
-    public void searchMessages(String serverId, String channelId, String keyword) {
-        User currentUser = authService.getCurrentUser();
+    public void searchMessages(Session session, String serverId, String channelId, String keyword, SearchMode mode) {
+        User currentUser = authService.userOf(session);
         if (currentUser == null) {
             ConsoleUtil.printError("You must be logged in to search messages.");
             return;
@@ -286,15 +589,120 @@ public class ChannelService {
             return;
         }
         
-        List<Message> results = channel.searchMessages(keyword);
+        List<SearchHit> hits = mode == SearchMode.TOKEN ? channel.rankMessages(keyword, RANKED_RESULT_LIMIT) : null;
+        if (hits != null) {
+            ConsoleUtil.printHeader("Search Results for '" + keyword + "' in #" + channel.getChannelName());
+            if (hits.isEmpty()) {
+                ConsoleUtil.printInfo("No messages found containing '" + keyword + "'.");
+                return;
+            }
+            for (SearchHit hit : hits) {
+                System.out.printf("%5.2f %s%n", hit.getScore(), hit.getMessage().getFormattedMessage());
+            }
+            if (hits.size() == RANKED_RESULT_LIMIT) {
+                ConsoleUtil.printInfo("Showing the " + RANKED_RESULT_LIMIT + " most relevant matches.");
+            } else {
+                ConsoleUtil.printInfo("Found " + hits.size() + " message(s), most relevant first.");
+            }
+            return;
+        }
         
-        ConsoleUtil.printHeader("Search Results for '" + keyword + "' in #" + channel.getChannelName());
+        List<Message> results = channel.searchMessages(keyword, SearchMode.SUBSTRING, SEARCH_RESULT_LIMIT, Long.MIN_VALUE);
+        printSearchResults("Search Results for '" + keyword + "' in #" + channel.getChannelName(),
+            keyword, results, null);
+    }
+    
+    /**
+     * Up to limit matches for a query in a channel, most relevant first
+     * Queries without any words are matched as substrings instead, newest first, scoring 0.
+     * Returns an empty list when the channel cannot be read.
+     */
+    public List<SearchHit> findMessages(Session session, String serverId, String channelId, String query, int limit) {
+        Channel channel = findReadableChannel(session, serverId, channelId);
+        if (channel == null) {
+            return new ArrayList<>();
+        }
+        List<SearchHit> hits = channel.rankMessages(query, limit);
+        if (hits == null) {
+            hits = new ArrayList<>();
+            for (Message message : channel.searchMessages(query, SearchMode.SUBSTRING, limit, Long.MIN_VALUE)) {
+                hits.add(new SearchHit(message, 0));
+            }
+        }
+        return hits;
+    }
+    
+    /**
+     * Search every channel of a server at once, showing the newest matches
+     */
+    public void searchServer(Session session, String serverId, String keyword, SearchMode mode) {
+        User currentUser = authService.userOf(session);
+        if (currentUser == null) {
+            ConsoleUtil.printError("You must be logged in to search messages.");
+            return;
+        }
+        
+        Server server = serverService.getServer(serverId);
+        if (server == null) {
+            ConsoleUtil.printError("Server not found.");
+            return;
+        }
+        
+        if (!server.isMember(currentUser.getUserId())) {
+            ConsoleUtil.printError("You are not a member of this server.");
+            return;
+        }
+        
+        Map<String, String> channelLabels = new HashMap<>();
+        for (Channel channel : server.getChannels()) {
+            channelLabels.put(channel.getChannelId(), "#" + channel.getChannelName());
+        }
+        List<Message> results = parallelSearch.search(server.getChannels(), keyword, mode, SEARCH_RESULT_LIMIT);
+        printSearchResults("Search Results for '" + keyword + "' in " + server.getServerName(),
+            keyword, results, channelLabels);
+    }
+    
+    /**
+     * Search every channel of every server the session's user has joined
+     */
+    public void searchAllServers(Session session, String keyword, SearchMode mode) {
+        User currentUser = authService.userOf(session);
+        if (currentUser == null) {
+            ConsoleUtil.printError("You must be logged in to search messages.");
+            return;
+        }
+        
+        Map<String, String> channelLabels = new HashMap<>();
+        List<Channel> channels = new ArrayList<>();
+        for (Server server : serverService.getJoinedServers(session)) {
+            for (Channel channel : server.getChannels()) {
+                channelLabels.put(channel.getChannelId(), server.getServerName() + " #" + channel.getChannelName());
+                channels.add(channel);
+            }
+        }
+        List<Message> results = parallelSearch.search(channels, keyword, mode, SEARCH_RESULT_LIMIT);
+        printSearchResults("Search Results for '" + keyword + "' in all your servers",
+            keyword, results, channelLabels);
+    }
+    
+    /**
+     * Print newest-first search results; channelLabels names each message's channel,
+     * or is null when they all come from the channel in the title
+     */
+    private void printSearchResults(String title, String keyword, List<Message> results,
+                                    Map<String, String> channelLabels) {
+        ConsoleUtil.printHeader(title);
         if (results.isEmpty()) {
             ConsoleUtil.printInfo("No messages found containing '" + keyword + "'.");
+            return;
+        }
+        for (Message message : results) {
+            String label = channelLabels != null ? channelLabels.get(message.getChannelId()) + " " : "";
+            System.out.println(label + message.getFormattedMessage());
+        }
+        if (results.size() == SEARCH_RESULT_LIMIT) {
+            ConsoleUtil.printInfo("Showing the newest " + SEARCH_RESULT_LIMIT + " matches.");
         } else {
-            for (Message message : results) {
-                System.out.println(message.getFormattedMessage());
-            }
             ConsoleUtil.printInfo("Found " + results.size() + " message(s).");
         }
     }
@@ -302,8 +710,8 @@ public class ChannelService {
     /**
      * Join voice channel
      */
-    public boolean joinVoiceChannel(String serverId, String channelId) {
-        User currentUser = authService.getCurrentUser();
+    public boolean joinVoiceChannel(Session session, String serverId, String channelId) {
+        User currentUser = authService.userOf(session);
         if (currentUser == null) {
             ConsoleUtil.printError("You must be logged in to join voice channels.");
             return false;
@@ -333,8 +741,8 @@ public class ChannelService {
     /**
      * Leave voice channel
      */
-    public boolean leaveVoiceChannel(String serverId, String channelId) {
-        User currentUser = authService.getCurrentUser();
+    public boolean leaveVoiceChannel(Session session, String serverId, String channelId) {
+        User currentUser = authService.userOf(session);
         if (currentUser == null) {
             ConsoleUtil.printError("You must be logged in to leave voice channels.");
             return false;
@@ -364,8 +772,8 @@ public class ChannelService {
     /**
      * Simulate voice action
      */
-    public void simulateVoiceAction(String serverId, String channelId, String action) {
-        User currentUser = authService.getCurrentUser();
+    public void simulateVoiceAction(Session session, String serverId, String channelId, String action) {
+        User currentUser = authService.userOf(session);
         if (currentUser == null) {
             ConsoleUtil.printError("You must be logged in to perform voice actions.");
             return;
@@ -395,8 +803,8 @@ public class ChannelService {
     /**
      * Send direct message to another user
      */
-    public boolean sendDirectMessage(String recipientUsername, String content) {
-        User currentUser = authService.getCurrentUser();
+    public boolean sendDirectMessage(Session session, String recipientUsername, String content) {
+        User currentUser = authService.userOf(session);
         if (currentUser == null) {
             ConsoleUtil.printError("You must be logged in to send direct messages.");
             return false;
@@ -404,7 +812,7 @@ public class ChannelService {
         
         User recipient = authService.findUserByUsername(recipientUsername);
         if (recipient == null) {
-            ConsoleUtil.printError("User '" + recipientUsername + "' not found.");
+            authService.printUserNotFound(recipientUsername);
             return false;
         }
         
@@ -413,17 +821,11 @@ public class ChannelService {
             return false;
         }
         
-        // Create DM key (always use smaller userId first for consistency)
-        String dmKey = currentUser.getUserId().compareTo(recipient.getUserId()) < 0 
-            ? currentUser.getUserId() + ":" + recipient.getUserId()
-            : recipient.getUserId() + ":" + currentUser.getUserId();
-        
-        // Get or create DM history
-        List<Message> dmHistory = directMessages.computeIfAbsent(dmKey, k -> new ArrayList<>());
-        
-        // Create message
-        Message message = new Message(content, currentUser.getUserId(), currentUser.getUsername(), "DM");
-        dmHistory.add(message);
+        ConversationKey key = ConversationKey.of(currentUser.getUserId(), recipient.getUserId());
+        Message message = directMessages.send(key, currentUser.getUserId(), currentUser.getUsername(), content);
+        MessageEvent event = MessageEvent.sent(null, message.getChannelId(), message);
+        fanout.publishToUser(currentUser.getUserId(), event);
+        fanout.publishToUser(recipient.getUserId(), event);
         
         ConsoleUtil.printSuccess("Direct message sent to " + recipientUsername + ".");
         return true;
@@ -432,8 +834,8 @@ public class ChannelService {
     /**
      * Display direct message history with another user
      */
-    public void displayDirectMessages(String otherUsername) {
-        User currentUser = authService.getCurrentUser();
+    public void displayDirectMessages(Session session, String otherUsername) {
+        User currentUser = authService.userOf(session);
         if (currentUser == null) {
             ConsoleUtil.printError("You must be logged in to view direct messages.");
             return;
@@ -441,32 +843,104 @@ public class ChannelService {
         
         User otherUser = authService.findUserByUsername(otherUsername);
         if (otherUser == null) {
-            ConsoleUtil.printError("User '" + otherUsername + "' not found.");
+            authService.printUserNotFound(otherUsername);
             return;
         }
         
-        // Create DM key
-        String dmKey = currentUser.getUserId().compareTo(otherUser.getUserId()) < 0 
-            ? currentUser.getUserId() + ":" + otherUser.getUserId()
-            : otherUser.getUserId() + ":" + currentUser.getUserId();
-        
-        List<Message> dmHistory = directMessages.get(dmKey);
+        ConversationKey key = ConversationKey.of(currentUser.getUserId(), otherUser.getUserId());
+        List<Message> dmHistory = directMessages.readRecent(key, DIRECT_MESSAGES_SHOWN);
         
         ConsoleUtil.printHeader("Direct Messages with " + otherUsername);
-        if (dmHistory == null || dmHistory.isEmpty()) {
+        if (dmHistory.isEmpty()) {
             ConsoleUtil.printInfo("No messages yet. Start the conversation!");
         } else {
+            int total = directMessages.getMessageCount(key);
+            if (total > dmHistory.size()) {
+                ConsoleUtil.printInfo("Showing the last " + dmHistory.size() + " of " + total + " messages.");
+            }
             for (Message message : dmHistory) {
                 System.out.println(message.getFormattedMessage());
             }
         }
     }
     
+    /**
+     * Push a channel's new, edited and deleted messages to the subscriber from now on
+     * Delivery runs on the fan-out threads, for as long as the session stays logged in
+     * and its user a member of the server
+     */
+    public boolean subscribeToChannel(Session session, String serverId, String channelId, Subscriber subscriber) {
+        Channel channel = findReadableChannel(session, serverId, channelId);
+        if (channel == null) {
+            return false;
+        }
+        Server server = serverService.getServer(serverId);
+        Topic topic = fanout.channelTopic(channel,
+            member -> authService.isLoggedIn(member) && server.isMember(member.getUser().getUserId()));
+        if (!fanout.subscribe(topic, subscriber, session)) {
+            ConsoleUtil.printWarning("Already subscribed to #" + channel.getChannelName() + ".");
+            return false;
+        }
+        ConsoleUtil.printSuccess("Subscribed to #" + channel.getChannelName() + ".");
+        return true;
+    }
+    
+    public boolean unsubscribeFromChannel(Session session, String serverId, String channelId, Subscriber subscriber) {
+        Channel channel = findReadableChannel(session, serverId, channelId);
+        if (channel == null) {
+            return false;
+        }
+        Topic topic = fanout.findChannelTopic(channelId);
+        if (topic == null || !fanout.unsubscribe(topic, subscriber)) {
+            ConsoleUtil.printError("Not subscribed to #" + channel.getChannelName() + ".");
+            return false;
+        }
+        ConsoleUtil.printSuccess("Unsubscribed from #" + channel.getChannelName() + ".");
+        return true;
+    }
+    
+    /**
+     * Push the direct messages the session's user sends and receives to the subscriber
+     */
+    public boolean subscribeToDirectMessages(Session session, Subscriber subscriber) {
+        User currentUser = authService.userOf(session);
+        if (currentUser == null) {
+            ConsoleUtil.printError("You must be logged in to subscribe to direct messages.");
+            return false;
+        }
+        Topic topic = fanout.userTopic(currentUser.getUserId(), authService::isLoggedIn);
+        if (!fanout.subscribe(topic, subscriber, session)) {
+            ConsoleUtil.printWarning("Already subscribed to your direct messages.");
+            return false;
+        }
+        ConsoleUtil.printSuccess("Subscribed to your direct messages.");
+        return true;
+    }
+    
+    /**
+     * Push delivery figures of a channel, or null if the session may not read it
+     */
+    public ChannelDeliveryStats getDeliveryStats(Session session, String serverId, String channelId) {
+        Channel channel = findReadableChannel(session, serverId, channelId);
+        return channel != null ? fanout.getStats(channelId) : null;
+    }
+    
+    /**
+     * End every subscription of a subscriber, as when its client goes away
+     */
+    public void unsubscribeAll(Subscriber subscriber) {
+        fanout.unsubscribeAll(subscriber);
+    }
+    
+    public FanoutDispatcher getFanoutDispatcher() {
+        return fanout;
+    }
+    
     /**
      * Mute user in channel
      */
-    public boolean muteUser(String serverId, String channelId, String targetUsername) {
-        User currentUser = authService.getCurrentUser();
+    public boolean muteUser(Session session, String serverId, String channelId, String targetUsername) {
+        User currentUser = authService.userOf(session);
         if (currentUser == null) {
             ConsoleUtil.printError("You must be logged in to mute users.");
             return false;
@@ -498,6 +972,7 @@ public class ChannelService {
         }
         
         channel.muteUser(targetUser.getUserId());
+        serverService.serverChanged(server);
         ConsoleUtil.printSuccess("Muted " + targetUsername + " in " + channel.getChannelName() + ".");
         return true;
     }
@@ -505,8 +980,8 @@ public class ChannelService {
     /**
      * Unmute user in channel
      */
-    public boolean unmuteUser(String serverId, String channelId, String targetUsername) {
-        User currentUser = authService.getCurrentUser();
+    public boolean unmuteUser(Session session, String serverId, String channelId, String targetUsername) {
+        User currentUser = authService.userOf(session);
         if (currentUser == null) {
             ConsoleUtil.printError("You must be logged in to unmute users.");
             return false;
@@ -538,6 +1013,7 @@ public class ChannelService {
         }
         
         channel.unmuteUser(targetUser.getUserId());
+        serverService.serverChanged(server);
         ConsoleUtil.printSuccess("Unmuted " + targetUsername + " in " + channel.getChannelName() + ".");
         return true;
     }
@@ -1,47 +1,73 @@
 package services;
 
 import models.*;
+import search.SenderIndex;
+import storage.ChannelLogManager;
+import storage.Checkpointer;
+import storage.ServerArchive;
 import utils.ConsoleUtil;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * ServerService class for handling server operations
  * Manages server creation, deletion, member management, and invites
  */
 public class ServerService {
+    private static final int ACTIVITY_PAGE_SIZE = 20;
+    
     private Map<String, Server> servers; // serverId -> Server
     private Map<String, String> inviteCodes; // inviteCode -> serverId
     private AuthService authService;
+    private ChannelLogManager logManager; // null when persistence is disabled
+    private Checkpointer checkpointer;    // null when persistence is disabled
     
     public ServerService(AuthService authService) {
-        this.servers = new HashMap<>();
-        this.inviteCodes = new HashMap<>();
+        this(authService, null, null);
+    }
+    
+    public ServerService(AuthService authService, ChannelLogManager logManager, Checkpointer checkpointer) {
+        this.servers = new ConcurrentHashMap<>();
+        this.inviteCodes = new ConcurrentHashMap<>();
         this.authService = authService;
-        
-        // Create a demo server for testing
-        createDemoServer();
+        this.logManager = logManager;
+        this.checkpointer = checkpointer;
+        
+        if (checkpointer != null && checkpointer.hasState()) {
+            // Restore servers from the last checkpoint; invite codes are derived from them
+            for (Server server : checkpointer.restoreServers()) {
+                attachStorage(server);
+                servers.put(server.getServerId(), server);
+                inviteCodes.put(server.getInviteCode(), server.getServerId());
+            }
+        } else {
+            // Create a demo server for testing
+            createDemoServer();
+        }
     }
     
     private void createDemoServer() {
-        User currentUser = authService.getCurrentUser();
-        if (currentUser == null) {
-            // Create with admin user
-            User admin = authService.findUserByUsername("admin");
-            if (admin != null) {
-                Server demoServer = new Server("Demo Server", admin.getUserId(), admin.getUsername());
-                demoServer.setDescription("A demo server for testing the Discord clone");
-                servers.put(demoServer.getServerId(), demoServer);
-                inviteCodes.put(demoServer.getInviteCode(), demoServer.getServerId());
-                admin.joinServer(demoServer.getServerId());
-            }
+        // Create with admin user
+        User admin = authService.findUserByUsername("admin");
+        if (admin != null) {
+            Server demoServer = new Server("Demo Server", admin.getUserId(), admin.getUsername());
+            demoServer.setDescription("A demo server for testing the Discord clone");
+            attachStorage(demoServer);
+            servers.put(demoServer.getServerId(), demoServer);
+            inviteCodes.put(demoServer.getInviteCode(), demoServer.getServerId());
+            admin.joinServer(demoServer.getServerId());
+            serverChanged(demoServer);
+            authService.userChanged(admin);
         }
     }
     
     /**
      * Create a new server
      */
-    public boolean createServer(String serverName, String description) {
-        User currentUser = authService.getCurrentUser();
+    public boolean createServer(Session session, String serverName, String description) {
+        User currentUser = authService.userOf(session);
         if (currentUser == null) {
             ConsoleUtil.printError("You must be logged in to create a server.");
             return false;
@@ -59,11 +85,14 @@ public class ServerService {
         }
         
         // Store server and invite code
+        attachStorage(server);
         servers.put(server.getServerId(), server);
         inviteCodes.put(server.getInviteCode(), server.getServerId());
         
         // Add user to server
         currentUser.joinServer(server.getServerId());
+        serverChanged(server);
+        authService.userChanged(currentUser);
         
         ConsoleUtil.printSuccess("Server '" + serverName + "' created successfully!");
         ConsoleUtil.printInfo("Invite code: " + server.getInviteCode());
@@ -74,8 +103,8 @@ public class ServerService {
     /**
      * Delete a server
      */
-    public boolean deleteServer(String serverId) {
-        User currentUser = authService.getCurrentUser();
+    public boolean deleteServer(Session session, String serverId) {
+        User currentUser = authService.userOf(session);
         if (currentUser == null) {
             ConsoleUtil.printError("You must be logged in to delete a server.");
             return false;
@@ -94,26 +123,190 @@ public class ServerService {
         }
         
         // Remove server from all members
-        for (String memberId : server.getMembers().keySet()) {
-            User member = authService.findUserById(memberId);
-            if (member != null) {
-                member.leaveServer(serverId);
-            }
+        for (User member : authService.findUsersByIds(server.getMembers().keySet())) {
+            member.leaveServer(serverId);
+            authService.userChanged(member);
+        }
+        
+        // Drop the history of every channel in the server
+        for (Channel channel : server.getChannels()) {
+            releaseStorage(channel.getChannelId());
         }
         
         // Remove server and invite code
         inviteCodes.remove(server.getInviteCode());
         servers.remove(serverId);
+        if (checkpointer != null) {
+            checkpointer.serverDeleted(serverId);
+        }
         
         ConsoleUtil.printSuccess("Server '" + server.getServerName() + "' has been deleted.");
         return true;
     }
     
+    /**
+     * Export a server with the full history of its channels to an archive file
+     */
+    public boolean exportServer(Session session, String serverId, Path path) {
+        User currentUser = authService.userOf(session);
+        if (currentUser == null) {
+            ConsoleUtil.printError("You must be logged in to export a server.");
+            return false;
+        }
+        
+        Server server = servers.get(serverId);
+        if (server == null) {
+            ConsoleUtil.printError("Server not found.");
+            return false;
+        }
+        
+        if (!server.getOwnerId().equals(currentUser.getUserId())) {
+            ConsoleUtil.printError("Only the server owner can export the server.");
+            return false;
+        }
+        
+        if (logManager == null) {
+            ConsoleUtil.printError("Server export needs persistence to be enabled.");
+            return false;
+        }
+        
+        try {
+            ServerArchive.exportServer(server, logManager, path);
+        } catch (IOException e) {
+            ConsoleUtil.printError("Error exporting server: " + e.getMessage());
+            return false;
+        }
+        ConsoleUtil.printSuccess("Server '" + server.getServerName() + "' exported to " + path + ".");
+        return true;
+    }
+    
+    /**
+     * Import a server from an archive file
+     * The server is registered as soon as its metadata is read and each channel's history
+     * is attached as it arrives; members who exist here get the server linked back to them
+     */
+    public boolean importServer(Session session, Path path) {
+        User currentUser = authService.userOf(session);
+        if (currentUser == null) {
+            ConsoleUtil.printError("You must be logged in to import a server.");
+            return false;
+        }
+        
+        if (logManager == null) {
+            ConsoleUtil.printError("Server import needs persistence to be enabled.");
+            return false;
+        }
+        
+        List<Channel> imported = new ArrayList<>();
+        Server[] registered = new Server[1];
+        Server server;
+        try {
+            server = ServerArchive.importServer(path, logManager, candidate -> {
+                if (servers.containsKey(candidate.getServerId())) {
+                    ConsoleUtil.printError("Server '" + candidate.getServerName() + "' already exists here.");
+                    return false;
+                }
+                if (inviteCodes.containsKey(candidate.getInviteCode())) {
+                    candidate.regenerateInviteCode();
+                }
+                servers.put(candidate.getServerId(), candidate);
+                inviteCodes.put(candidate.getInviteCode(), candidate.getServerId());
+                registered[0] = candidate;
+                return true;
+            }, channel -> {
+                attachStorage(channel);
+                imported.add(channel);
+            });
+        } catch (IOException | RuntimeException e) {
+            // Undo a partial import: only logs created by this import are removed
+            for (Channel channel : imported) {
+                releaseStorage(channel.getChannelId());
+            }
+            if (registered[0] != null) {
+                servers.remove(registered[0].getServerId());
+                inviteCodes.remove(registered[0].getInviteCode());
+            }
+            ConsoleUtil.printError("Error importing server: " + e.getMessage());
+            return false;
+        }
+        if (server == null) {
+            return false;
+        }
+        
+        List<User> localMembers = authService.findUsersByIds(server.getMembers().keySet());
+        for (User member : localMembers) {
+            member.joinServer(server.getServerId());
+            authService.userChanged(member);
+        }
+        int linked = localMembers.size();
+        serverChanged(server);
+        
+        ConsoleUtil.printSuccess("Server '" + server.getServerName() + "' imported with "
+            + imported.size() + " channels.");
+        ConsoleUtil.printInfo(linked + " of " + server.getMemberCount() + " members matched local users. Invite code: "
+            + server.getInviteCode());
+        return true;
+    }
+    
+    /**
+     * Queue a changed server for the next checkpoint
+     */
+    public void serverChanged(Server server) {
+        if (checkpointer != null) {
+            checkpointer.serverChanged(server);
+        }
+    }
+    
+    /**
+     * Regenerate a server's invite code, retiring the old one
+     */
+    public String regenerateInviteCode(String serverId) {
+        Server server = servers.get(serverId);
+        if (server == null) {
+            ConsoleUtil.printError("Server not found.");
+            return null;
+        }
+        
+        inviteCodes.remove(server.getInviteCode());
+        server.regenerateInviteCode();
+        inviteCodes.put(server.getInviteCode(), serverId);
+        serverChanged(server);
+        return server.getInviteCode();
+    }
+    
+    /**
+     * Attach durable logs to every channel of a server
+     */
+    private void attachStorage(Server server) {
+        for (Channel channel : server.getChannels()) {
+            attachStorage(channel);
+        }
+    }
+    
+    /**
+     * Attach a durable log to a channel; it is opened and its history loaded on first use
+     */
+    public void attachStorage(Channel channel) {
+        if (logManager != null) {
+            String channelId = channel.getChannelId();
+            channel.attachLogOnDemand(() -> logManager.openLog(channelId));
+        }
+    }
+    
+    /**
+     * Delete the durable log of a removed channel
+     */
+    public void releaseStorage(String channelId) {
+        if (logManager != null) {
+            logManager.deleteLog(channelId);
+        }
+    }
+    
     /**
      * Join a server using invite code
      */
-    public boolean joinServerByInvite(String inviteCode) {
-        User currentUser = authService.getCurrentUser();
+    public boolean joinServerByInvite(Session session, String inviteCode) {
+        User currentUser = authService.userOf(session);
         if (currentUser == null) {
             ConsoleUtil.printError("You must be logged in to join a server.");
             return false;
@@ -140,6 +333,8 @@ public class ServerService {
         // Add user to server
         if (server.addMember(currentUser.getUserId(), currentUser.getUsername())) {
             currentUser.joinServer(serverId);
+            serverChanged(server);
+            authService.userChanged(currentUser);
             ConsoleUtil.printSuccess("Successfully joined '" + server.getServerName() + "'!");
             return true;
         } else {
@@ -151,8 +346,8 @@ public class ServerService {
     /**
      * Leave a server
      */
-    public boolean leaveServer(String serverId) {
-        User currentUser = authService.getCurrentUser();
+    public boolean leaveServer(Session session, String serverId) {
+        User currentUser = authService.userOf(session);
         if (currentUser == null) {
             ConsoleUtil.printError("You must be logged in to leave a server.");
             return false;
@@ -173,6 +368,8 @@ public class ServerService {
         // Remove user from server
         if (server.removeMember(currentUser.getUserId())) {
             currentUser.leaveServer(serverId);
+            serverChanged(server);
+            authService.userChanged(currentUser);
             ConsoleUtil.printSuccess("Left '" + server.getServerName() + "'.");
             return true;
         } else {
@@ -182,10 +379,10 @@ public class ServerService {
     }
     
     /**
-     * Get servers that current user has joined
+     * Get servers that the session's user has joined
      */
-    public List<Server> getCurrentUserServers() {
-        User currentUser = authService.getCurrentUser();
+    public List<Server> getJoinedServers(Session session) {
+        User currentUser = authService.userOf(session);
         if (currentUser == null) {
             return new ArrayList<>();
         }
@@ -207,6 +404,14 @@ public class ServerService {
         return servers.get(serverId);
     }
     
+    /**
+     * Get the server an invite code leads to, or null
+     */
+    public Server getServerByInvite(String inviteCode) {
+        String serverId = inviteCodes.get(inviteCode.toUpperCase());
+        return serverId == null ? null : servers.get(serverId);
+    }
+    
     /**
      * Get all servers
      */
@@ -217,8 +422,8 @@ public class ServerService {
     /**
      * Kick a user from server
      */
-    public boolean kickUser(String serverId, String targetUsername) {
-        User currentUser = authService.getCurrentUser();
+    public boolean kickUser(Session session, String serverId, String targetUsername) {
+        User currentUser = authService.userOf(session);
         if (currentUser == null) {
             ConsoleUtil.printError("You must be logged in to kick users.");
             return false;
@@ -256,6 +461,8 @@ public class ServerService {
         // Remove user from server
         server.removeMember(targetUser.getUserId());
         targetUser.leaveServer(serverId);
+        serverChanged(server);
+        authService.userChanged(targetUser);
         
         ConsoleUtil.printSuccess("Kicked " + targetUsername + " from the server.");
         return true;
@@ -264,8 +471,15 @@ public class ServerService {
     /**
      * Ban a user from server
      */
-    public boolean banUser(String serverId, String targetUsername) {
-        User currentUser = authService.getCurrentUser();
+    public boolean banUser(Session session, String serverId, String targetUsername) {
+        return banUser(session, serverId, targetUsername, false);
+    }
+    
+    /**
+     * Ban a user from server, optionally deleting every message they sent in it
+     */
+    public boolean banUser(Session session, String serverId, String targetUsername, boolean deleteMessages) {
+        User currentUser = authService.userOf(session);
         if (currentUser == null) {
             ConsoleUtil.printError("You must be logged in to ban users.");
             return false;
@@ -297,16 +511,127 @@ public class ServerService {
         // Ban user
         server.banUser(targetUser.getUserId());
         targetUser.leaveServer(serverId);
+        serverChanged(server);
+        authService.userChanged(targetUser);
         
         ConsoleUtil.printSuccess("Banned " + targetUsername + " from the server.");
+        if (deleteMessages) {
+            int deleted = deleteMessagesBy(server, targetUser.getUserId());
+            ConsoleUtil.printSuccess("Deleted " + deleted + " message(s) sent by " + targetUsername + ".");
+        }
         return true;
     }
     
+    /**
+     * Delete every message a user sent in a server, e.g. after kicking them
+     */
+    public boolean deleteUserMessages(Session session, String serverId, String targetUsername) {
+        Server server = findModeratedServer(session, serverId);
+        if (server == null) {
+            return false;
+        }
+        
+        User targetUser = authService.findUserByUsername(targetUsername);
+        if (targetUser == null) {
+            ConsoleUtil.printError("User '" + targetUsername + "' not found.");
+            return false;
+        }
+        
+        int deleted = deleteMessagesBy(server, targetUser.getUserId());
+        ConsoleUtil.printSuccess("Deleted " + deleted + " message(s) sent by " + targetUsername + ".");
+        return true;
+    }
+    
+    /**
+     * Delete a sender's messages found through the server's sender index, without scanning channels
+     */
+    private int deleteMessagesBy(Server server, String senderId) {
+        int deleted = 0;
+        for (SenderIndex.Entry entry : server.getSenderIndex().getAll(senderId)) {
+            Channel channel = server.findChannel(entry.getChannelId());
+            if (channel != null) {
+                channel.deleteMessage(entry.getMessageId());
+                deleted++;
+            }
+        }
+        return deleted;
+    }
+    
+    /**
+     * Display a page of a user's messages across the server, newest first
+     * Pass null to start at their newest message, or the last message shown to continue,
+     * even if it has been deleted since; returns the page so the caller can do that
+     */
+    public List<Message> displayUserActivity(Session session, String serverId, String targetUsername,
+                                             Message before) {
+        Server server = findModeratedServer(session, serverId);
+        if (server == null) {
+            return new ArrayList<>();
+        }
+        
+        User targetUser = authService.findUserByUsername(targetUsername);
+        if (targetUser == null) {
+            ConsoleUtil.printError("User '" + targetUsername + "' not found.");
+            return new ArrayList<>();
+        }
+        
+        SenderIndex index = server.getSenderIndex();
+        List<SenderIndex.Entry> entries = before == null
+            ? index.page(targetUser.getUserId(), null, Long.MAX_VALUE, ACTIVITY_PAGE_SIZE)
+            : index.page(targetUser.getUserId(), before.getMessageId(), before.getTimestamp().getTime(),
+                ACTIVITY_PAGE_SIZE);
+        if (entries == null) {
+            ConsoleUtil.printError("Message not found.");
+            return new ArrayList<>();
+        }
+        
+        ConsoleUtil.printHeader("Messages by " + targetUsername + " in " + server.getServerName()
+            + " (" + index.getMessageCount(targetUser.getUserId()) + " total)");
+        List<Message> messages = new ArrayList<>();
+        for (SenderIndex.Entry entry : entries) {
+            Channel channel = server.findChannel(entry.getChannelId());
+            Message message = channel != null ? channel.findMessage(entry.getMessageId()) : null;
+            if (message != null) {
+                messages.add(message);
+                System.out.println("#" + channel.getChannelName() + " " + message.getFormattedMessage());
+            }
+        }
+        if (messages.isEmpty()) {
+            ConsoleUtil.printInfo("No more messages.");
+        }
+        return messages;
+    }
+    
+    /**
+     * The server, if the session's user may moderate its messages; prints why not otherwise
+     */
+    private Server findModeratedServer(Session session, String serverId) {
+        User currentUser = authService.userOf(session);
+        if (currentUser == null) {
+            ConsoleUtil.printError("You must be logged in to moderate messages.");
+            return null;
+        }
+        
+        Server server = servers.get(serverId);
+        if (server == null) {
+            ConsoleUtil.printError("Server not found.");
+            return null;
+        }
+        
+        String userRole = server.getMemberRole(currentUser.getUserId());
+        if (!currentUser.hasPermission("delete_messages") && !"ADMIN".equals(userRole)
+                && !"MODERATOR".equals(userRole)) {
+            ConsoleUtil.printError("You don't have permission to moderate messages.");
+            return null;
+        }
+        return server;
+    }
+    
     /**
      * Set user role in server
      */
-    public boolean setUserRole(String serverId, String targetUsername, String role) {
-        User currentUser = authService.getCurrentUser();
+    public boolean setUserRole(Session session, String serverId, String targetUsername, String role) {
+        User currentUser = authService.userOf(session);
         if (currentUser == null) {
             ConsoleUtil.printError("You must be logged in to manage roles.");
             return false;
@@ -343,6 +668,7 @@ public class ServerService {
         }
         
         server.setMemberRole(targetUser.getUserId(), upperRole);
+        serverChanged(server);
         ConsoleUtil.printSuccess("Set " + targetUsername + "'s role to " + upperRole + ".");
         return true;
     }
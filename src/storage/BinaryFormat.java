@@ -0,0 +1,320 @@
+package storage;
+
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * BinaryFormat class with the primitives shared by every on-disk and wire encoding
+ * Integers are unsigned LEB128 varints; strings are a varint byte length plus UTF-8,
+ * written and read straight from the ByteBuffer without temporary byte arrays
+ */
+public class BinaryFormat {
+    private static final ThreadLocal<byte[]> SCRATCH = ThreadLocal.withInitial(() -> new byte[256]);
+    
+    // Lowercase hex digit values (-1 for anything else) and the digit positions in a UUID string
+    private static final byte[] HEX_VALUES = new byte[128];
+    private static final int[] UUID_DIGITS = new int[32];
+    
+    static {
+        Arrays.fill(HEX_VALUES, (byte) -1);
+        for (int i = 0; i < 16; i++) {
+            HEX_VALUES["0123456789abcdef".charAt(i)] = (byte) i;
+        }
+        for (int i = 0, digit = 0; i < 36; i++) {
+            if (i != 8 && i != 13 && i != 18 && i != 23) {
+                UUID_DIGITS[digit++] = i;
+            }
+        }
+    }
+    
+    public static void putVarInt(ByteBuffer out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+    
+    public static int getVarInt(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+    
+    public static void putVarLong(ByteBuffer out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+    
+    public static long getVarLong(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varlong");
+    }
+    
+    public static int varIntSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+    
+    /**
+     * Number of bytes the string takes in UTF-8, computed without encoding it
+     */
+    public static int utf8Length(String value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                        && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    length += 4;
+                    i++;
+                } else {
+                    length += 1; // written as '?'
+                }
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+    
+    public static int stringSize(String value) {
+        int length = utf8Length(value);
+        return varIntSize(length) + length;
+    }
+    
+    public static void putString(ByteBuffer out, String value) {
+        int length = utf8Length(value);
+        putVarInt(out, length);
+        putUtf8(out, value, length);
+    }
+    
+    /**
+     * Write the UTF-8 bytes of a string whose utf8Length is already known
+     * Heap buffers are written through their backing array, others via a scratch array
+     */
+    static void putUtf8(ByteBuffer out, String value, int length) {
+        if (out.remaining() < length) {
+            throw new BufferOverflowException();
+        }
+        if (out.hasArray()) {
+            writeUtf8(out.array(), out.arrayOffset() + out.position(), value, length);
+            out.position(out.position() + length);
+        } else {
+            byte[] scratch = scratch(length);
+            writeUtf8(scratch, 0, value, length);
+            out.put(scratch, 0, length);
+        }
+    }
+    
+    /**
+     * Unpaired surrogates become '?' like String.getBytes
+     */
+    private static void writeUtf8(byte[] array, int position, String value, int length) {
+        if (length == value.length()) {
+            // One byte per char: ASCII, or an unpaired surrogate
+            for (int i = 0; i < length; i++) {
+                char c = value.charAt(i);
+                array[position++] = c < 0x80 ? (byte) c : (byte) '?';
+            }
+            return;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                array[position++] = (byte) c;
+            } else if (c < 0x800) {
+                array[position++] = (byte) (0xC0 | (c >> 6));
+                array[position++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                        && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                    array[position++] = (byte) (0xF0 | (codePoint >> 18));
+                    array[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                    array[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                    array[position++] = (byte) (0x80 | (codePoint & 0x3F));
+                } else {
+                    array[position++] = (byte) '?';
+                }
+            } else {
+                array[position++] = (byte) (0xE0 | (c >> 12));
+                array[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                array[position++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+    }
+    
+    public static String getString(ByteBuffer in) {
+        return getUtf8(in, getVarInt(in));
+    }
+    
+    static String getUtf8(ByteBuffer in, int length) {
+        if (length < 0 || length > in.remaining()) {
+            throw new BufferUnderflowException(); // a corrupt or hostile length, not a reason to allocate
+        }
+        if (in.hasArray()) {
+            String value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+            in.position(in.position() + length);
+            return value;
+        }
+        // Mapped and direct buffers are copied through a reused per-thread scratch array
+        byte[] scratch = scratch(length);
+        in.get(scratch, 0, length);
+        return new String(scratch, 0, length, StandardCharsets.UTF_8);
+    }
+    
+    private static byte[] scratch(int length) {
+        byte[] scratch = SCRATCH.get();
+        if (scratch.length < length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+            SCRATCH.set(scratch);
+        }
+        return scratch;
+    }
+    
+    /**
+     * Skip over a string without decoding it
+     */
+    public static void skipString(ByteBuffer in) {
+        int length = getVarInt(in);
+        in.position(in.position() + length);
+    }
+    
+    // Ids: [varint 0][16 bytes] for a canonical lowercase UUID, else [varint length + 1][utf8]
+    
+    public static void putId(ByteBuffer out, String id) {
+        if (!putUuid(out, id)) {
+            int length = utf8Length(id);
+            putVarInt(out, length + 1);
+            putUtf8(out, id, length);
+        }
+    }
+    
+    public static String getId(ByteBuffer in) {
+        int length = getVarInt(in);
+        if (length == 0) {
+            return new UUID(in.getLong(), in.getLong()).toString();
+        }
+        return getUtf8(in, length - 1);
+    }
+    
+    public static int idSize(String id) {
+        if (isCanonicalUuid(id)) {
+            return 17;
+        }
+        int length = utf8Length(id);
+        return varIntSize(length + 1) + length;
+    }
+    
+    /**
+     * Encode an id on its own, for comparing against records in place with idMatches
+     */
+    public static byte[] encodeId(String id) {
+        ByteBuffer out = ByteBuffer.allocate(idSize(id));
+        putId(out, id);
+        return out.array();
+    }
+    
+    /**
+     * Check whether the id written at the given offset equals an id from encodeId
+     */
+    public static boolean idMatches(ByteBuffer in, int offset, byte[] encodedId) {
+        if (offset + encodedId.length > in.limit()) {
+            return false;
+        }
+        for (int i = 0; i < encodedId.length; i++) {
+            if (in.get(offset + i) != encodedId[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Write the id as raw UUID bits if it is a canonical lowercase UUID
+     * Validation and parsing share one pass over the hex digits
+     */
+    private static boolean putUuid(ByteBuffer out, String id) {
+        if (id.length() != 36 || id.charAt(8) != '-' || id.charAt(13) != '-'
+                || id.charAt(18) != '-' || id.charAt(23) != '-') {
+            return false;
+        }
+        long mostSignificant = 0;
+        long leastSignificant = 0;
+        int invalid = 0;
+        for (int i = 0; i < 16; i++) {
+            int digit = hexValue(id.charAt(UUID_DIGITS[i]));
+            invalid |= digit;
+            mostSignificant = (mostSignificant << 4) | (digit & 0xF);
+        }
+        for (int i = 16; i < 32; i++) {
+            int digit = hexValue(id.charAt(UUID_DIGITS[i]));
+            invalid |= digit;
+            leastSignificant = (leastSignificant << 4) | (digit & 0xF);
+        }
+        if (invalid < 0) {
+            return false;
+        }
+        out.put((byte) 0);
+        out.putLong(mostSignificant);
+        out.putLong(leastSignificant);
+        return true;
+    }
+    
+    /**
+     * Sixteen hex digits of a canonical UUID as bits; half 0 is the most significant
+     */
+    static long uuidBits(String id, int half) {
+        long bits = 0;
+        for (int i = half * 16; i < half * 16 + 16; i++) {
+            bits = (bits << 4) | hexValue(id.charAt(UUID_DIGITS[i]));
+        }
+        return bits;
+    }
+    
+    static boolean isCanonicalUuid(String id) {
+        if (id.length() != 36 || id.charAt(8) != '-' || id.charAt(13) != '-'
+                || id.charAt(18) != '-' || id.charAt(23) != '-') {
+            return false;
+        }
+        for (int position : UUID_DIGITS) {
+            if (hexValue(id.charAt(position)) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private static int hexValue(char c) {
+        return c < HEX_VALUES.length ? HEX_VALUES[c] : -1;
+    }
+}
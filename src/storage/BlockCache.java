@@ -0,0 +1,108 @@
+package storage;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * BlockCache class keeping recently used decompressed cold blocks on the heap
+ * Least recently used blocks are evicted once the cache grows past its byte budget
+ */
+public class BlockCache {
+    private static BlockCache shared;
+    
+    /**
+     * Loads a block on a cache miss
+     */
+    public interface Loader {
+        byte[] load() throws IOException;
+    }
+    
+    private final long capacityBytes;
+    private final LinkedHashMap<String, byte[]> blocks; // access order, eldest first
+    private long sizeBytes;
+    private long hits;
+    private long misses;
+    
+    public BlockCache(long capacityBytes) {
+        this.capacityBytes = capacityBytes;
+        this.blocks = new LinkedHashMap<>(64, 0.75f, true);
+    }
+    
+    /**
+     * The cache shared by all cold segments, sized from StorageConfig on first use
+     */
+    public static synchronized BlockCache shared() {
+        if (shared == null) {
+            shared = new BlockCache(StorageConfig.getColdCacheBytes());
+        }
+        return shared;
+    }
+    
+    /**
+     * Return a cached block, loading it outside the cache lock on a miss
+     */
+    public byte[] get(String key, Loader loader) throws IOException {
+        synchronized (this) {
+            byte[] block = blocks.get(key);
+            if (block != null) {
+                hits++;
+                return block;
+            }
+            misses++;
+        }
+        byte[] block = loader.load();
+        synchronized (this) {
+            byte[] previous = blocks.put(key, block);
+            if (previous != null) {
+                sizeBytes -= previous.length;
+            }
+            sizeBytes += block.length;
+            evict();
+        }
+        return block;
+    }
+    
+    private void evict() {
+        Iterator<Map.Entry<String, byte[]>> eldest = blocks.entrySet().iterator();
+        // Always keep the newest block, even if it alone is over budget
+        while (sizeBytes > capacityBytes && blocks.size() > 1) {
+            sizeBytes -= eldest.next().getValue().length;
+            eldest.remove();
+        }
+    }
+    
+    /**
+     * Drop every block whose key starts with the prefix (all blocks of one file)
+     */
+    public synchronized void invalidate(String prefix) {
+        Iterator<Map.Entry<String, byte[]>> entries = blocks.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<String, byte[]> entry = entries.next();
+            if (entry.getKey().startsWith(prefix)) {
+                sizeBytes -= entry.getValue().length;
+                entries.remove();
+            }
+        }
+    }
+    
+    public synchronized long getHits() {
+        return hits;
+    }
+    
+    public synchronized long getMisses() {
+        return misses;
+    }
+    
+    public synchronized long getSizeBytes() {
+        return sizeBytes;
+    }
+    
+    @Override
+    public synchronized String toString() {
+        long total = hits + misses;
+        return String.format("%d blocks, %d KB cached, hit ratio %.1f%% (%d/%d)", blocks.size(),
+            sizeBytes / 1024, total == 0 ? 0.0 : 100.0 * hits / total, hits, total);
+    }
+}
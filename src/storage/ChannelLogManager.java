@@ -0,0 +1,215 @@
+package storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * ChannelLogManager class owning the write-ahead logs of all channels
+ * Runs the background thread that applies the GROUP and INTERVAL fsync policies,
+ * and a low-priority maintenance thread that compresses old sealed segments into
+ * cold storage and compacts away the records of deleted and re-edited messages
+ */
+public class ChannelLogManager implements Closeable {
+    private static final long ARCHIVE_INTERVAL_SECONDS = 10;
+    private static final long COMPACTION_INTERVAL_SECONDS = 60;
+    
+    private final Path directory;
+    private final FsyncPolicy fsyncPolicy;
+    private final int segmentSize;
+    private final int warmSegments;
+    private final Map<String, WriteAheadLog> logs; // channelId -> log
+    private final ScheduledExecutorService syncExecutor;
+    private final AtomicBoolean syncPending;
+    private final ScheduledExecutorService maintenanceExecutor;
+    private final IoRateLimiter compactionLimiter;
+    private volatile CompactionResult lastCompaction;
+    
+    public ChannelLogManager(Path directory, FsyncPolicy fsyncPolicy, long fsyncIntervalMillis,
+                             int segmentSize, int warmSegments, long compactionBytesPerSecond) {
+        this.directory = directory;
+        this.fsyncPolicy = fsyncPolicy;
+        this.segmentSize = segmentSize;
+        this.warmSegments = warmSegments;
+        this.logs = new ConcurrentHashMap<>();
+        this.syncPending = new AtomicBoolean(false);
+        this.compactionLimiter = new IoRateLimiter(compactionBytesPerSecond);
+        this.syncExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "wal-sync");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.maintenanceExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "log-maintenance");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new RuntimeException("Error creating log directory " + directory, e);
+        }
+        
+        if (fsyncPolicy == FsyncPolicy.INTERVAL) {
+            syncExecutor.scheduleAtFixedRate(this::syncAll, fsyncIntervalMillis,
+                fsyncIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+        maintenanceExecutor.scheduleWithFixedDelay(this::archiveSealedSegments, ARCHIVE_INTERVAL_SECONDS,
+            ARCHIVE_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        maintenanceExecutor.scheduleWithFixedDelay(this::compactLogs, COMPACTION_INTERVAL_SECONDS,
+            COMPACTION_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+    
+    /**
+     * Create a manager from the global StorageConfig settings
+     */
+    public static ChannelLogManager fromConfig() {
+        return new ChannelLogManager(StorageConfig.getChannelLogDirectory(),
+            StorageConfig.getFsyncPolicy(), StorageConfig.getFsyncIntervalMillis(),
+            StorageConfig.getSegmentSize(), StorageConfig.getWarmSegments(),
+            StorageConfig.getCompactionBytesPerSecond());
+    }
+    
+    /**
+     * Open (or create) the log of a channel, recovering it if the last run crashed
+     */
+    public WriteAheadLog openLog(String channelId) {
+        return logs.computeIfAbsent(channelId, id -> {
+            try {
+                return new WriteAheadLog(id, directory.resolve(id), segmentSize, fsyncPolicy, this::requestSync);
+            } catch (IOException e) {
+                throw new RuntimeException("Error opening log for channel " + id, e);
+            }
+        });
+    }
+    
+    /**
+     * Close and remove the log of a deleted channel
+     */
+    public void deleteLog(String channelId) {
+        WriteAheadLog log = logs.remove(channelId);
+        if (log != null) {
+            log.close();
+        }
+        try {
+            deleteRecursively(directory.resolve(channelId));
+        } catch (IOException e) {
+            throw new RuntimeException("Error deleting log for channel " + channelId, e);
+        }
+    }
+    
+    /**
+     * Write the files of a channel's log into an export archive
+     */
+    public void exportLog(String channelId, FileChannel out) throws IOException {
+        openLog(channelId).exportFiles(out);
+    }
+    
+    /**
+     * Recreate a channel's log from an export archive and open it
+     */
+    public WriteAheadLog importLog(String channelId, FileChannel in) throws IOException {
+        Path logDirectory = directory.resolve(channelId);
+        if (logs.containsKey(channelId) || Files.exists(logDirectory)) {
+            throw new IOException("A log already exists for channel " + channelId);
+        }
+        WriteAheadLog.importFiles(in, logDirectory);
+        return openLog(channelId);
+    }
+    
+    static void deleteRecursively(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        if (Files.isDirectory(path)) {
+            try (DirectoryStream<Path> children = Files.newDirectoryStream(path)) {
+                for (Path child : children) {
+                    deleteRecursively(child);
+                }
+            }
+        }
+        Files.delete(path);
+    }
+    
+    /**
+     * Group commit: appends arriving while a sync is queued share that sync
+     */
+    private void requestSync() {
+        if (syncPending.compareAndSet(false, true)) {
+            syncExecutor.execute(() -> {
+                syncPending.set(false);
+                syncAll();
+            });
+        }
+    }
+    
+    private void syncAll() {
+        for (WriteAheadLog log : logs.values()) {
+            log.sync();
+        }
+    }
+    
+    /**
+     * Move sealed segments past the warm limit of every log into cold storage
+     * Returns the number of segments archived
+     */
+    public int archiveSealedSegments() {
+        int archived = 0;
+        for (WriteAheadLog log : logs.values()) {
+            archived += log.archiveSealedSegments(warmSegments);
+        }
+        return archived;
+    }
+    
+    /**
+     * Compact the sealed segments of every log, paced by the compaction rate limit
+     */
+    public CompactionResult compactLogs() {
+        long start = System.currentTimeMillis();
+        CompactionResult result = new CompactionResult();
+        for (WriteAheadLog log : logs.values()) {
+            result.add(log.compactSealedSegments(compactionLimiter));
+        }
+        result.setDurationMillis(System.currentTimeMillis() - start);
+        lastCompaction = result;
+        return result;
+    }
+    
+    /**
+     * Totals of the most recent compaction run, or null before the first one
+     */
+    public CompactionResult getLastCompaction() {
+        return lastCompaction;
+    }
+    
+    public FsyncPolicy getFsyncPolicy() {
+        return fsyncPolicy;
+    }
+    
+    @Override
+    public void close() {
+        maintenanceExecutor.shutdown();
+        syncExecutor.shutdown();
+        try {
+            maintenanceExecutor.awaitTermination(5, TimeUnit.SECONDS);
+            syncExecutor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (WriteAheadLog log : logs.values()) {
+            log.close();
+        }
+        logs.clear();
+    }
+}
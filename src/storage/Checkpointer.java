@@ -0,0 +1,351 @@
+package storage;
+
+import models.Server;
+import models.User;
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checkpointer class persisting users and servers as snapshots plus incremental deltas
+ *
+ * Services report each changed entity as it changes. A user is encoded right away (a
+ * point-in-time copy of just that object); a server is only queued, and the background
+ * thread encodes it under the server's lock when it writes the queued changes as a delta
+ * file, so neither the encoding nor the I/O lands on the request thread and both follow
+ * change volume. Every few deltas the last snapshot and the deltas after it are merged
+ * into a new snapshot.
+ */
+public class Checkpointer implements Closeable {
+    private static final int MAGIC = 0x44435350; // "DCSP"
+    private static final int VERSION = 2;
+    private static final byte USER = 1;
+    private static final byte SERVER = 2;
+    private static final byte[] TOMBSTONE = new byte[0];
+    
+    private final Path directory;
+    private final int deltasPerSnapshot;
+    private final ScheduledExecutorService executor;
+    private final Object pendingLock = new Object();
+    private Map<String, byte[]> pendingUsers;   // userId -> encoded user
+    private Map<String, Server> pendingServers; // serverId -> changed server, null once deleted
+    
+    // Restored state, handed to the services once at startup
+    private Map<String, byte[]> restoredUsers;
+    private Map<String, byte[]> restoredServers;
+    
+    private long sequence;            // last checkpoint written
+    private long snapshotSequence;    // sequence of the newest full snapshot
+    private int deltasSinceSnapshot;
+    private long deltaBytesSinceSnapshot;
+    private long snapshotBytes;
+    
+    public Checkpointer(Path directory, long intervalMillis, int deltasPerSnapshot) {
+        this.directory = directory;
+        this.deltasPerSnapshot = deltasPerSnapshot;
+        this.pendingUsers = new HashMap<>();
+        this.pendingServers = new HashMap<>();
+        this.restoredUsers = new LinkedHashMap<>();
+        this.restoredServers = new LinkedHashMap<>();
+        
+        try {
+            Files.createDirectories(directory);
+            load();
+        } catch (IOException e) {
+            throw new RuntimeException("Error loading checkpoints from " + directory, e);
+        }
+        
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "checkpoint");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::scheduledCheckpoint, intervalMillis, intervalMillis,
+            TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * Create a checkpointer from the global StorageConfig settings
+     */
+    public static Checkpointer fromConfig() {
+        return new Checkpointer(StorageConfig.getStateDirectory(),
+            StorageConfig.getCheckpointIntervalMillis(), StorageConfig.getDeltasPerSnapshot());
+    }
+    
+    // Change capture (called on the request thread)
+    
+    public void userChanged(User user) {
+        byte[] encoded = SnapshotCodec.encodeUser(user);
+        synchronized (pendingLock) {
+            pendingUsers.put(user.getUserId(), encoded);
+        }
+    }
+    
+    public void serverChanged(Server server) {
+        synchronized (pendingLock) {
+            pendingServers.put(server.getServerId(), server);
+        }
+    }
+    
+    public void serverDeleted(String serverId) {
+        synchronized (pendingLock) {
+            pendingServers.put(serverId, null);
+        }
+    }
+    
+    // Restore
+    
+    public boolean hasState() {
+        return sequence > 0;
+    }
+    
+    public List<User> restoreUsers() {
+        List<User> users = new ArrayList<>();
+        for (byte[] data : restoredUsers.values()) {
+            users.add(SnapshotCodec.decodeUser(data));
+        }
+        restoredUsers = new LinkedHashMap<>();
+        return users;
+    }
+    
+    public List<Server> restoreServers() {
+        List<Server> servers = new ArrayList<>();
+        for (byte[] data : restoredServers.values()) {
+            servers.add(SnapshotCodec.decodeServer(data));
+        }
+        restoredServers = new LinkedHashMap<>();
+        return servers;
+    }
+    
+    /**
+     * Load the newest snapshot and apply the deltas written after it
+     */
+    private void load() throws IOException {
+        TreeMap<Long, Path> snapshots = listFiles("snapshot-");
+        TreeMap<Long, Path> deltas = listFiles("delta-");
+        
+        if (!snapshots.isEmpty()) {
+            snapshotSequence = snapshots.lastKey();
+            sequence = snapshotSequence;
+            Path snapshot = snapshots.lastEntry().getValue();
+            snapshotBytes = Files.size(snapshot);
+            readInto(snapshot, restoredUsers, restoredServers);
+        }
+        for (Map.Entry<Long, Path> delta : deltas.tailMap(snapshotSequence, false).entrySet()) {
+            readInto(delta.getValue(), restoredUsers, restoredServers);
+            sequence = delta.getKey();
+            deltasSinceSnapshot++;
+            deltaBytesSinceSnapshot += Files.size(delta.getValue());
+        }
+    }
+    
+    // Background checkpoint
+    
+    /**
+     * Run a checkpoint from the schedule; an exception escaping here would cancel every
+     * later run, so failures are logged and the changes retried on the next interval
+     */
+    private void scheduledCheckpoint() {
+        try {
+            checkpoint();
+        } catch (RuntimeException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            System.err.println(e.getMessage() + ", retrying next interval: " + cause);
+        }
+    }
+    
+    /**
+     * Write queued changes as a delta, merging into a new snapshot when enough have piled up
+     * Changes that fail to be written are queued again, behind any newer ones
+     */
+    public synchronized void checkpoint() {
+        Map<String, byte[]> users;
+        Map<String, Server> changedServers;
+        synchronized (pendingLock) {
+            if (pendingUsers.isEmpty() && pendingServers.isEmpty()) {
+                return;
+            }
+            users = pendingUsers;
+            changedServers = pendingServers;
+            pendingUsers = new HashMap<>();
+            pendingServers = new HashMap<>();
+        }
+        
+        long next = sequence + 1;
+        try {
+            Map<String, byte[]> servers = encodeServers(changedServers);
+            Path delta = writeAtomically("delta-", next, users, servers);
+            sequence = next;
+            deltasSinceSnapshot++;
+            deltaBytesSinceSnapshot += Files.size(delta);
+        } catch (IOException | RuntimeException e) {
+            requeue(users, changedServers);
+            throw new RuntimeException("Error writing checkpoint " + next, e);
+        }
+        
+        if (deltasSinceSnapshot >= deltasPerSnapshot || deltaBytesSinceSnapshot > snapshotBytes) {
+            try {
+                writeSnapshot();
+            } catch (IOException e) {
+                // The delta is written, so nothing is lost; the merge is tried again after the next one
+                throw new RuntimeException("Error merging checkpoint " + sequence + " into a snapshot", e);
+            }
+        }
+    }
+    
+    /**
+     * Put back changes whose write failed, unless a newer change to the same entity is queued
+     * A queued deletion is a null value, so servers are checked with containsKey
+     */
+    private void requeue(Map<String, byte[]> users, Map<String, Server> servers) {
+        synchronized (pendingLock) {
+            for (Map.Entry<String, byte[]> user : users.entrySet()) {
+                pendingUsers.putIfAbsent(user.getKey(), user.getValue());
+            }
+            for (Map.Entry<String, Server> server : servers.entrySet()) {
+                if (!pendingServers.containsKey(server.getKey())) {
+                    pendingServers.put(server.getKey(), server.getValue());
+                }
+            }
+        }
+    }
+    
+    /**
+     * Encode each changed server under its lock, which the front-ends hold while changing it
+     * The console thread changes servers without the lock but reports every change after
+     * making it, so a copy torn by a concurrent change is queued again and rewritten
+     */
+    private Map<String, byte[]> encodeServers(Map<String, Server> changed) {
+        Map<String, byte[]> servers = new HashMap<>();
+        for (Map.Entry<String, Server> entry : changed.entrySet()) {
+            Server server = entry.getValue();
+            if (server == null) {
+                servers.put(entry.getKey(), TOMBSTONE);
+                continue;
+            }
+            try {
+                synchronized (server) {
+                    servers.put(entry.getKey(), SnapshotCodec.encodeServer(server));
+                }
+            } catch (ConcurrentModificationException e) {
+                requeue(Collections.emptyMap(), Collections.singletonMap(entry.getKey(), server));
+            }
+        }
+        return servers;
+    }
+    
+    /**
+     * Merge the previous snapshot with the deltas after it, then drop the merged files
+     */
+    private void writeSnapshot() throws IOException {
+        TreeMap<Long, Path> snapshots = listFiles("snapshot-");
+        TreeMap<Long, Path> deltas = listFiles("delta-");
+        Map<String, byte[]> users = new LinkedHashMap<>();
+        Map<String, byte[]> servers = new LinkedHashMap<>();
+        
+        if (!snapshots.isEmpty()) {
+            readInto(snapshots.lastEntry().getValue(), users, servers);
+        }
+        for (Path delta : deltas.subMap(snapshotSequence, false, sequence, true).values()) {
+            readInto(delta, users, servers);
+        }
+        
+        Path snapshot = writeAtomically("snapshot-", sequence, users, servers);
+        snapshotSequence = sequence;
+        snapshotBytes = Files.size(snapshot);
+        deltasSinceSnapshot = 0;
+        deltaBytesSinceSnapshot = 0;
+        
+        for (Path old : snapshots.headMap(sequence, false).values()) {
+            Files.deleteIfExists(old);
+        }
+        for (Path old : deltas.headMap(sequence, true).values()) {
+            Files.deleteIfExists(old);
+        }
+    }
+    
+    // File format: [int magic][int version] then records [byte kind][UTF key][int length][bytes]
+    // A zero length marks a deleted entity
+    
+    private Path writeAtomically(String prefix, long seq, Map<String, byte[]> users,
+                                 Map<String, byte[]> servers) throws IOException {
+        Path target = directory.resolve(String.format("%s%012d.bin", prefix, seq));
+        Path temp = directory.resolve(target.getFileName() + ".tmp");
+        try (FileOutputStream file = new FileOutputStream(temp.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeRecords(out, USER, users);
+            writeRecords(out, SERVER, servers);
+            out.flush();
+            file.getFD().sync();
+        }
+        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        return target;
+    }
+    
+    private static void writeRecords(DataOutputStream out, byte kind, Map<String, byte[]> records) throws IOException {
+        for (Map.Entry<String, byte[]> record : records.entrySet()) {
+            out.writeByte(kind);
+            out.writeUTF(record.getKey());
+            out.writeInt(record.getValue().length);
+            out.write(record.getValue());
+        }
+    }
+    
+    private static void readInto(Path file, Map<String, byte[]> users, Map<String, byte[]> servers) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a checkpoint file: " + file);
+            }
+            while (true) {
+                int kind = in.read();
+                if (kind < 0) {
+                    break;
+                }
+                String key = in.readUTF();
+                byte[] data = new byte[in.readInt()];
+                in.readFully(data);
+                
+                Map<String, byte[]> target = kind == USER ? users : servers;
+                if (data.length == 0) {
+                    target.remove(key);
+                } else {
+                    target.put(key, data);
+                }
+            }
+        }
+    }
+    
+    private TreeMap<Long, Path> listFiles(String prefix) throws IOException {
+        TreeMap<Long, Path> files = new TreeMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, prefix + "*.bin")) {
+            for (Path file : stream) {
+                String name = file.getFileName().toString();
+                files.put(Long.parseLong(name.substring(prefix.length(), name.length() - 4)), file);
+            }
+        }
+        return files;
+    }
+    
+    public synchronized long getSequence() {
+        return sequence;
+    }
+    
+    /**
+     * Stop the background thread and write any changes still queued
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        checkpoint();
+    }
+}
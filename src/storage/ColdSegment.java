@@ -0,0 +1,295 @@
+package storage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * ColdSegment class holding a sealed log segment as Deflate-compressed blocks
+ * Each block is a run of whole records with their original framing, so a block
+ * is walked exactly like a mapped segment once it has been inflated. Blocks are
+ * inflated on demand and kept in the shared BlockCache.
+ *
+ *   [int magic][int version][int index][int end][int blockCount]
+ *   blockCount x [int rawOffset][int rawLength][long fileOffset][int compressedLength][int crc32]
+ *   compressed blocks
+ */
+public class ColdSegment implements Segment, Closeable {
+    private static final int MAGIC = 0x44434342; // "DCCB"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 20;
+    private static final int INDEX_ENTRY_SIZE = 24;
+    static final int BLOCK_SIZE = 64 * 1024;
+    private static final AtomicLong OPENED = new AtomicLong();
+    
+    private final int index;
+    private final Path path;
+    private final FileChannel file;
+    private final int end;
+    private final int[] rawOffsets;
+    private final int[] rawLengths;
+    private final long[] fileOffsets;
+    private final int[] compressedLengths;
+    private final int[] checksums;
+    private final String cacheKey;
+    
+    private ColdSegment(int index, Path path, FileChannel file, int end, int blockCount) {
+        this.index = index;
+        this.path = path;
+        this.file = file;
+        this.end = end;
+        this.rawOffsets = new int[blockCount];
+        this.rawLengths = new int[blockCount];
+        this.fileOffsets = new long[blockCount];
+        this.compressedLengths = new int[blockCount];
+        this.checksums = new int[blockCount];
+        // Unique per instance: compaction replaces a cold file under the same path
+        this.cacheKey = path.toAbsolutePath() + "@" + OPENED.incrementAndGet() + "#";
+    }
+    
+    /**
+     * Compress a sealed segment into a cold file, written atomically
+     */
+    public static ColdSegment archive(LogSegment segment, Path path) throws IOException {
+        ByteBuffer records = segment.records();
+        List<int[]> blocks = new ArrayList<>(); // [rawOffset, rawLength] within records
+        int blockStart = 0;
+        int position = 0;
+        while (position < records.limit()) {
+            position += LogSegment.RECORD_OVERHEAD + records.getInt(position);
+            if (position - blockStart >= BLOCK_SIZE || position == records.limit()) {
+                blocks.add(new int[] { blockStart, position - blockStart });
+                blockStart = position;
+            }
+        }
+        
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + blocks.size() * INDEX_ENTRY_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putInt(segment.getIndex()).putInt(segment.getEnd()).putInt(blocks.size());
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(records.limit() / 3);
+        Deflater deflater = new Deflater();
+        byte[] raw = new byte[BLOCK_SIZE];
+        byte[] chunk = new byte[16 * 1024];
+        try {
+            for (int[] block : blocks) {
+                if (raw.length < block[1]) {
+                    raw = new byte[block[1]];
+                }
+                ByteBuffer view = records.duplicate();
+                view.position(block[0]);
+                view.get(raw, 0, block[1]);
+                CRC32 crc = new CRC32();
+                crc.update(raw, 0, block[1]);
+                
+                int start = compressed.size();
+                deflater.reset();
+                deflater.setInput(raw, 0, block[1]);
+                deflater.finish();
+                while (!deflater.finished()) {
+                    compressed.write(chunk, 0, deflater.deflate(chunk));
+                }
+                header.putInt(LogSegment.FILE_HEADER_SIZE + block[0]).putInt(block[1]);
+                header.putLong(header.capacity() + start).putInt(compressed.size() - start);
+                header.putInt((int) crc.getValue());
+            }
+        } finally {
+            deflater.end();
+        }
+        header.flip();
+        
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            writeFully(out, header);
+            writeFully(out, ByteBuffer.wrap(compressed.toByteArray()));
+            out.force(true);
+        }
+        Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        return open(path);
+    }
+    
+    private static void writeFully(FileChannel out, ByteBuffer data) throws IOException {
+        while (data.hasRemaining()) {
+            out.write(data);
+        }
+    }
+    
+    /**
+     * Open a cold file and read its block index; blocks are loaded lazily
+     */
+    public static ColdSegment open(Path path) throws IOException {
+        FileChannel file = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            ByteBuffer header = readAt(file, 0, HEADER_SIZE);
+            if (header.getInt() != MAGIC) {
+                throw new IOException("Not a cold segment: " + path);
+            }
+            if (header.getInt() != VERSION) {
+                throw new IOException("Unsupported cold segment version: " + path);
+            }
+            int index = header.getInt();
+            int end = header.getInt();
+            int blockCount = header.getInt();
+            
+            ColdSegment segment = new ColdSegment(index, path, file, end, blockCount);
+            ByteBuffer entries = readAt(file, HEADER_SIZE, blockCount * INDEX_ENTRY_SIZE);
+            for (int i = 0; i < blockCount; i++) {
+                segment.rawOffsets[i] = entries.getInt();
+                segment.rawLengths[i] = entries.getInt();
+                segment.fileOffsets[i] = entries.getLong();
+                segment.compressedLengths[i] = entries.getInt();
+                segment.checksums[i] = entries.getInt();
+            }
+            return segment;
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
+    }
+    
+    private static ByteBuffer readAt(FileChannel file, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (file.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of cold segment");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+    
+    /**
+     * Inflated records of one block, from the shared cache when possible
+     */
+    private ByteBuffer block(int block) {
+        try {
+            byte[] raw = BlockCache.shared().get(cacheKey + block, () -> inflate(block));
+            return ByteBuffer.wrap(raw);
+        } catch (IOException e) {
+            throw new RuntimeException("Error reading block " + block + " of " + path, e);
+        }
+    }
+    
+    private byte[] inflate(int block) throws IOException {
+        ByteBuffer compressed = readAt(file, fileOffsets[block], compressedLengths[block]);
+        byte[] raw = new byte[rawLengths[block]];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed.array(), 0, compressedLengths[block]);
+            if (inflater.inflate(raw) != raw.length || !inflater.finished()) {
+                throw new IOException("Truncated block " + block + " in " + path);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt block " + block + " in " + path, e);
+        } finally {
+            inflater.end();
+        }
+        CRC32 crc = new CRC32();
+        crc.update(raw, 0, raw.length);
+        if ((int) crc.getValue() != checksums[block]) {
+            throw new IOException("Checksum mismatch in block " + block + " of " + path);
+        }
+        return raw;
+    }
+    
+    @Override
+    public boolean scanForward(RecordVisitor visitor) {
+        for (int block = 0; block < rawOffsets.length; block++) {
+            ByteBuffer records = block(block);
+            int position = 0;
+            while (position < records.limit()) {
+                int length = records.getInt(position);
+                if (!visitor.visit(slice(records, position + 8, length),
+                        LogSegment.toPosition(index, rawOffsets[block] + position))) {
+                    return false;
+                }
+                position += LogSegment.RECORD_OVERHEAD + length;
+            }
+        }
+        return true;
+    }
+    
+    @Override
+    public boolean scanBackward(RecordVisitor visitor) {
+        for (int block = rawOffsets.length - 1; block >= 0; block--) {
+            ByteBuffer records = block(block);
+            int position = records.limit();
+            while (position > 0) {
+                int length = records.getInt(position - 4);
+                position -= LogSegment.RECORD_OVERHEAD + length;
+                if (!visitor.visit(slice(records, position + 8, length),
+                        LogSegment.toPosition(index, rawOffsets[block] + position))) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+    
+    @Override
+    public ByteBuffer read(int offset) {
+        // Last block starting at or before the offset
+        int low = 0;
+        int high = rawOffsets.length - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (rawOffsets[middle] <= offset) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        ByteBuffer records = block(low);
+        int position = offset - rawOffsets[low];
+        return slice(records, position + 8, records.getInt(position));
+    }
+    
+    private static ByteBuffer slice(ByteBuffer records, int offset, int length) {
+        ByteBuffer view = records.duplicate();
+        view.position(offset);
+        view.limit(offset + length);
+        return view.slice();
+    }
+    
+    @Override
+    public int getIndex() {
+        return index;
+    }
+    
+    @Override
+    public Path getPath() {
+        return path;
+    }
+    
+    @Override
+    public int getEnd() {
+        return end;
+    }
+    
+    @Override
+    public boolean isCold() {
+        return true;
+    }
+    
+    public int getBlockCount() {
+        return rawOffsets.length;
+    }
+    
+    @Override
+    public void close() throws IOException {
+        BlockCache.shared().invalidate(cacheKey);
+        file.close();
+    }
+}
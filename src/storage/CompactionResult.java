@@ -0,0 +1,59 @@
+package storage;
+
+/**
+ * CompactionResult class reporting what one compaction run reclaimed
+ */
+public class CompactionResult {
+    private int segmentsRewritten;
+    private int segmentsRemoved;
+    private long recordsDropped;
+    private long bytesReclaimed;
+    private long durationMillis;
+    
+    void addSegment(boolean removed, long records, long bytes) {
+        if (removed) {
+            segmentsRemoved++;
+        } else {
+            segmentsRewritten++;
+        }
+        recordsDropped += records;
+        bytesReclaimed += bytes;
+    }
+    
+    void add(CompactionResult other) {
+        segmentsRewritten += other.segmentsRewritten;
+        segmentsRemoved += other.segmentsRemoved;
+        recordsDropped += other.recordsDropped;
+        bytesReclaimed += other.bytesReclaimed;
+    }
+    
+    void setDurationMillis(long durationMillis) {
+        this.durationMillis = durationMillis;
+    }
+    
+    public int getSegmentsRewritten() {
+        return segmentsRewritten;
+    }
+    
+    public int getSegmentsRemoved() {
+        return segmentsRemoved;
+    }
+    
+    public long getRecordsDropped() {
+        return recordsDropped;
+    }
+    
+    public long getBytesReclaimed() {
+        return bytesReclaimed;
+    }
+    
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("%d bytes reclaimed (%d records dropped, %d segments rewritten, %d removed) in %d ms",
+            bytesReclaimed, recordsDropped, segmentsRewritten, segmentsRemoved, durationMillis);
+    }
+}
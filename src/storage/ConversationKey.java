@@ -0,0 +1,99 @@
+package storage;
+
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+/**
+ * ConversationKey class identifying a direct-message conversation between two users
+ * A fixed-width 256-bit value: the two user ids as 128-bit UUIDs, smaller one first,
+ * so both participants map to the same key without building any strings
+ */
+public final class ConversationKey {
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    
+    private final long firstHigh;
+    private final long firstLow;
+    private final long secondHigh;
+    private final long secondLow;
+    private String text; // cached record tag, built on first use
+    
+    private ConversationKey(long firstHigh, long firstLow, long secondHigh, long secondLow) {
+        this.firstHigh = firstHigh;
+        this.firstLow = firstLow;
+        this.secondHigh = secondHigh;
+        this.secondLow = secondLow;
+    }
+    
+    public static ConversationKey of(String userId, String otherUserId) {
+        long[] a = toBits(userId);
+        long[] b = toBits(otherUserId);
+        boolean ordered = a[0] != b[0] ? Long.compareUnsigned(a[0], b[0]) < 0 : Long.compareUnsigned(a[1], b[1]) <= 0;
+        return ordered ? new ConversationKey(a[0], a[1], b[0], b[1]) : new ConversationKey(b[0], b[1], a[0], a[1]);
+    }
+    
+    /**
+     * User ids are UUIDs; any other id is mapped to a name-based UUID
+     */
+    private static long[] toBits(String userId) {
+        if (BinaryFormat.isCanonicalUuid(userId)) {
+            return new long[] { BinaryFormat.uuidBits(userId, 0), BinaryFormat.uuidBits(userId, 1) };
+        }
+        UUID uuid = UUID.nameUUIDFromBytes(userId.getBytes(StandardCharsets.UTF_8));
+        return new long[] { uuid.getMostSignificantBits(), uuid.getLeastSignificantBits() };
+    }
+    
+    /**
+     * Parse the 64 hex digit form produced by toString
+     */
+    public static ConversationKey parse(String text) {
+        if (text.length() != 64) {
+            throw new IllegalArgumentException("Not a conversation key: " + text);
+        }
+        ConversationKey key = new ConversationKey(Long.parseUnsignedLong(text.substring(0, 16), 16),
+            Long.parseUnsignedLong(text.substring(16, 32), 16), Long.parseUnsignedLong(text.substring(32, 48), 16),
+            Long.parseUnsignedLong(text.substring(48, 64), 16));
+        key.text = text;
+        return key;
+    }
+    
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof ConversationKey)) {
+            return false;
+        }
+        ConversationKey key = (ConversationKey) other;
+        return firstHigh == key.firstHigh && firstLow == key.firstLow
+            && secondHigh == key.secondHigh && secondLow == key.secondLow;
+    }
+    
+    @Override
+    public int hashCode() {
+        long hash = firstHigh * 31 + firstLow;
+        hash = hash * 31 + secondHigh;
+        hash = hash * 31 + secondLow;
+        return (int) (hash ^ (hash >>> 32));
+    }
+    
+    @Override
+    public String toString() {
+        if (text == null) {
+            char[] digits = new char[64];
+            putHex(digits, 0, firstHigh);
+            putHex(digits, 16, firstLow);
+            putHex(digits, 32, secondHigh);
+            putHex(digits, 48, secondLow);
+            text = new String(digits);
+        }
+        return text;
+    }
+    
+    private static void putHex(char[] digits, int offset, long bits) {
+        for (int i = 15; i >= 0; i--) {
+            digits[offset + i] = HEX_DIGITS[(int) bits & 0xF];
+            bits >>>= 4;
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package storage;
+
+import models.Message;
+import java.io.Closeable;
+import java.util.*;
+
+/**
+ * DirectMessageStore class holding direct-message conversations
+ * Conversations are spread over shards by ConversationKey hash; each shard has its own
+ * lock and its own log, so messages between different pairs of users never contend.
+ *
+ * A conversation keeps the log positions of its messages and a small hot tail, so
+ * reading the last N messages costs at most N random reads. The conversation key is
+ * stored as the message's channel id (interned in the shard's symbol table), which
+ * lets the positions be rebuilt from a shard's log the first time the shard is used.
+ * Each conversation keeps its first key, so that text is only built once.
+ */
+public class DirectMessageStore implements Closeable {
+    private final Shard[] shards;
+    private final ChannelLogManager logManager; // null when conversations are kept in memory only
+    private final int hotTailSize;
+    
+    /**
+     * Create an in-memory store
+     */
+    public DirectMessageStore() {
+        this(null, 1, 0);
+    }
+    
+    public DirectMessageStore(ChannelLogManager logManager, int shardCount, int hotTailSize) {
+        this.logManager = logManager;
+        this.hotTailSize = hotTailSize;
+        this.shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard(logManager != null ? String.format("shard-%02d", i) : null);
+        }
+    }
+    
+    /**
+     * Create a durable store from the global StorageConfig settings
+     */
+    public static DirectMessageStore fromConfig() {
+        ChannelLogManager logManager = new ChannelLogManager(StorageConfig.getDirectMessageDirectory(),
+            StorageConfig.getFsyncPolicy(), StorageConfig.getFsyncIntervalMillis(),
+            StorageConfig.getSegmentSize(), StorageConfig.getWarmSegments(),
+            StorageConfig.getCompactionBytesPerSecond());
+        return new DirectMessageStore(logManager, StorageConfig.getDirectMessageShards(),
+            StorageConfig.getHotTailSize());
+    }
+    
+    /**
+     * Record a new message in a conversation
+     */
+    public Message send(ConversationKey key, String senderId, String senderUsername, String content) {
+        return shardOf(key).send(key, senderId, senderUsername, content);
+    }
+    
+    /**
+     * The newest messages of a conversation, oldest first
+     */
+    public List<Message> readRecent(ConversationKey key, int count) {
+        return shardOf(key).readRecent(key, count);
+    }
+    
+    public int getMessageCount(ConversationKey key) {
+        return shardOf(key).getMessageCount(key);
+    }
+    
+    public int getShardCount() {
+        return shards.length;
+    }
+    
+    private Shard shardOf(ConversationKey key) {
+        return shards[(key.hashCode() & Integer.MAX_VALUE) % shards.length];
+    }
+    
+    @Override
+    public void close() {
+        if (logManager != null) {
+            logManager.close();
+        }
+    }
+    
+    /**
+     * Messages of one conversation: log positions of all of them, plus the newest few decoded
+     */
+    private static class Conversation {
+        private final ConversationKey key; // its text is the channel id of every message
+        private long[] positions = new long[8];
+        private int count;
+        private final List<Message> tail = new ArrayList<>();
+        
+        private Conversation(ConversationKey key) {
+            this.key = key;
+        }
+        
+        private void addPosition(long position) {
+            if (count == positions.length) {
+                positions = Arrays.copyOf(positions, count * 2);
+            }
+            positions[count] = position;
+        }
+    }
+    
+    /**
+     * One lock, one log, and the conversations hashed to it
+     */
+    private class Shard {
+        private final String logName; // null without persistence
+        private final Map<ConversationKey, Conversation> conversations;
+        private WriteAheadLog log;
+        private boolean loaded;
+        
+        private Shard(String logName) {
+            this.logName = logName;
+            this.conversations = new HashMap<>();
+            this.loaded = logName == null;
+        }
+        
+        /**
+         * Open the shard's log and rebuild positions on first use; message bodies stay on disk
+         */
+        private void load() {
+            if (loaded) {
+                return;
+            }
+            log = logManager.openLog(logName);
+            log.forEachSent((message, position) -> {
+                Conversation conversation = conversations.computeIfAbsent(
+                    ConversationKey.parse(message.getChannelId()), Conversation::new);
+                conversation.addPosition(position);
+                conversation.count++;
+            });
+            loaded = true;
+        }
+        
+        private synchronized Message send(ConversationKey key, String senderId, String senderUsername,
+                                          String content) {
+            load();
+            Conversation conversation = conversations.computeIfAbsent(key, Conversation::new);
+            Message message = new Message(content, senderId, senderUsername, conversation.key.toString());
+            if (log != null) {
+                conversation.addPosition(log.appendSend(message));
+            }
+            conversation.count++;
+            conversation.tail.add(message);
+            // Without a log the tail is the whole conversation; with one it is trimmed
+            // once it doubles, so the shift is amortised over many sends
+            if (log != null && conversation.tail.size() > 2 * hotTailSize) {
+                conversation.tail.subList(0, conversation.tail.size() - hotTailSize).clear();
+            }
+            return message;
+        }
+        
+        private synchronized List<Message> readRecent(ConversationKey key, int count) {
+            load();
+            Conversation conversation = conversations.get(key);
+            if (conversation == null || count <= 0) {
+                return new ArrayList<>();
+            }
+            int from = Math.max(0, conversation.count - count);
+            int tailStart = conversation.count - conversation.tail.size();
+            List<Message> recent = new ArrayList<>(conversation.count - from);
+            for (int i = from; i < conversation.count; i++) {
+                recent.add(i >= tailStart ? conversation.tail.get(i - tailStart)
+                    : log.readMessage(conversation.positions[i]));
+            }
+            return recent;
+        }
+        
+        private synchronized int getMessageCount(ConversationKey key) {
+            load();
+            Conversation conversation = conversations.get(key);
+            return conversation != null ? conversation.count : 0;
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package storage;
+
+/**
+ * FsyncPolicy enum describing when appended log records are forced to disk
+ */
+public enum FsyncPolicy {
+    PER_WRITE,  // force after every append, on the caller's thread
+    GROUP,      // background thread forces once per batch of appends
+    INTERVAL    // background thread forces dirty logs on a fixed interval
+}
@@ -0,0 +1,41 @@
+package storage;
+
+/**
+ * IoRateLimiter class pacing background disk work to a byte rate
+ * Callers acquire the bytes they are about to read or write and are put to sleep
+ * when they get ahead of the rate, leaving the disk to foreground appends
+ */
+public class IoRateLimiter {
+    private final long bytesPerSecond; // 0 or less means unlimited
+    private long nextFreeNanos;
+    
+    public IoRateLimiter(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+        this.nextFreeNanos = System.nanoTime();
+    }
+    
+    public void acquire(long bytes) {
+        if (bytesPerSecond <= 0) {
+            return;
+        }
+        long waitNanos;
+        synchronized (this) {
+            long now = System.nanoTime();
+            // Idle time does not build up credit beyond the current instant
+            nextFreeNanos = Math.max(nextFreeNanos, now);
+            waitNanos = nextFreeNanos - now;
+            nextFreeNanos += bytes * 1_000_000_000L / bytesPerSecond;
+        }
+        if (waitNanos > 0) {
+            try {
+                Thread.sleep(waitNanos / 1_000_000, (int) (waitNanos % 1_000_000));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+    
+    public long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+}
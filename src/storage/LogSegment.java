@@ -0,0 +1,219 @@
+package storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * LogSegment class representing one fixed-size, memory-mapped log file
+ * Records are framed so the segment can be walked in both directions:
+ *
+ *   [int length][int crc32][payload][int length]
+ *
+ * A zero length marks the end of written data in the preallocated file.
+ */
+public class LogSegment implements Segment {
+    private static final int MAGIC = 0x44434c47; // "DCLG"
+    private static final int VERSION = 2;
+    static final int FILE_HEADER_SIZE = 8;
+    static final int RECORD_OVERHEAD = 12;
+    
+    private final int index;
+    private final Path path;
+    private final MappedByteBuffer buffer;
+    private volatile int end; // offset of the first unwritten byte
+    
+    private LogSegment(int index, Path path, MappedByteBuffer buffer, int end) {
+        this.index = index;
+        this.path = path;
+        this.buffer = buffer;
+        this.end = end;
+    }
+    
+    /**
+     * Create and preallocate a new segment file
+     */
+    public static LogSegment create(Path path, int index, int capacity) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            return new LogSegment(index, path, buffer, FILE_HEADER_SIZE);
+        }
+    }
+    
+    /**
+     * Map an existing segment file and find the end of its valid records
+     * A torn or corrupt tail left by a crash is zeroed so appends can resume after it
+     */
+    public static LogSegment open(Path path, int index, boolean writable) throws IOException {
+        StandardOpenOption[] options = writable
+            ? new StandardOpenOption[] { StandardOpenOption.READ, StandardOpenOption.WRITE }
+            : new StandardOpenOption[] { StandardOpenOption.READ };
+        try (FileChannel channel = FileChannel.open(path, options)) {
+            FileChannel.MapMode mode = writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY;
+            MappedByteBuffer buffer = channel.map(mode, 0, channel.size());
+            if (buffer.capacity() < FILE_HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+                throw new IOException("Not a log segment: " + path);
+            }
+            if (buffer.getInt(4) != VERSION) {
+                throw new IOException("Unsupported log segment version " + buffer.getInt(4) + ": " + path);
+            }
+            
+            int end = recover(buffer);
+            if (writable && end + 4 <= buffer.capacity() && buffer.getInt(end) != 0) {
+                buffer.putInt(end, 0);
+                buffer.force();
+            }
+            return new LogSegment(index, path, buffer, end);
+        }
+    }
+    
+    private static int recover(ByteBuffer buffer) {
+        int position = FILE_HEADER_SIZE;
+        int capacity = buffer.capacity();
+        while (position + RECORD_OVERHEAD <= capacity) {
+            int length = buffer.getInt(position);
+            if (length <= 0 || position + RECORD_OVERHEAD + length > capacity) {
+                break;
+            }
+            if (buffer.getInt(position + 8 + length) != length
+                    || checksum(buffer, position + 8, length) != buffer.getInt(position + 4)) {
+                break;
+            }
+            position += RECORD_OVERHEAD + length;
+        }
+        return position;
+    }
+    
+    /**
+     * Append a record; returns its position, or -1 if the segment is full
+     */
+    public long append(ByteBuffer payload) {
+        int length = payload.remaining();
+        int position = end;
+        if (position + RECORD_OVERHEAD + length > buffer.capacity()) {
+            return -1;
+        }
+        
+        ByteBuffer target = buffer.duplicate();
+        target.position(position + 8);
+        target.put(payload.duplicate());
+        target.putInt(length);
+        buffer.putInt(position + 4, checksum(buffer, position + 8, length));
+        if (target.position() + 4 <= buffer.capacity()) {
+            buffer.putInt(target.position(), 0);
+        }
+        // Publish the length last so a reader never sees a half-written record
+        buffer.putInt(position, length);
+        end = target.position();
+        return toPosition(index, position);
+    }
+    
+    @Override
+    public boolean scanForward(RecordVisitor visitor) {
+        int limit = end;
+        int position = FILE_HEADER_SIZE;
+        while (position < limit) {
+            int length = buffer.getInt(position);
+            if (!visitor.visit(slice(position + 8, length), toPosition(index, position))) {
+                return false;
+            }
+            position += RECORD_OVERHEAD + length;
+        }
+        return true;
+    }
+    
+    /**
+     * Walk newest first using the trailing length of each record
+     */
+    @Override
+    public boolean scanBackward(RecordVisitor visitor) {
+        int position = end;
+        while (position > FILE_HEADER_SIZE) {
+            int length = buffer.getInt(position - 4);
+            position -= RECORD_OVERHEAD + length;
+            if (!visitor.visit(slice(position + 8, length), toPosition(index, position))) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    @Override
+    public ByteBuffer read(int offset) {
+        return slice(offset + 8, buffer.getInt(offset));
+    }
+    
+    /**
+     * View of all written records, starting at FILE_HEADER_SIZE
+     */
+    ByteBuffer records() {
+        return slice(FILE_HEADER_SIZE, end - FILE_HEADER_SIZE);
+    }
+    
+    private ByteBuffer slice(int offset, int length) {
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        view.limit(offset + length);
+        return view.slice();
+    }
+    
+    public void force() {
+        buffer.force();
+    }
+    
+    public static long toPosition(int segmentIndex, int offset) {
+        return ((long) segmentIndex << 32) | offset;
+    }
+    
+    public static int segmentOf(long position) {
+        return (int) (position >>> 32);
+    }
+    
+    public static int offsetOf(long position) {
+        return (int) position;
+    }
+    
+    private static int checksum(ByteBuffer buffer, int offset, int length) {
+        CRC32 crc = new CRC32();
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        view.limit(offset + length);
+        crc.update(view);
+        return (int) crc.getValue();
+    }
+    
+    @Override
+    public int getIndex() {
+        return index;
+    }
+    
+    @Override
+    public Path getPath() {
+        return path;
+    }
+    
+    @Override
+    public int getEnd() {
+        return end;
+    }
+    
+    @Override
+    public boolean isCold() {
+        return false;
+    }
+    
+    public int getCapacity() {
+        return buffer.capacity();
+    }
+    
+    public boolean isEmpty() {
+        return end == FILE_HEADER_SIZE;
+    }
+}
@@ -0,0 +1,133 @@
+package storage;
+
+import models.Message;
+import java.nio.ByteBuffer;
+import java.util.Date;
+
+/**
+ * MessageCodec class defining the binary encoding of a Message
+ * Used for channel log records and for sending messages over the network
+ *
+ *   [byte version][byte flags][messageId][senderId ref][senderUsername ref][channelId ref]
+ *   [varlong timestamp][varlong edit delay, if edited][string content]
+ *
+ * Ids are written as 16 raw bytes when they are UUIDs. The sender and channel fields
+ * repeat on every message, so with a SymbolTable they become small symbol numbers;
+ * without one (e.g. a single message on the wire) they are written inline.
+ */
+public class MessageCodec {
+    public static final byte VERSION = 1;
+    private static final int FLAG_EDITED = 1;
+    
+    /**
+     * Offset of the message id within an encoded message
+     */
+    public static final int ID_OFFSET = 2;
+    
+    /**
+     * Upper bound on the encoded size, cheap enough to size buffers with
+     */
+    public static int maxEncodedSize(Message message) {
+        return 2 + 10 + 10
+            + maxStringSize(message.getMessageId())
+            + maxStringSize(message.getSenderId())
+            + maxStringSize(message.getSenderUsername())
+            + maxStringSize(message.getChannelId())
+            + maxStringSize(message.getContent());
+    }
+    
+    private static int maxStringSize(String value) {
+        return 5 + value.length() * 3;
+    }
+    
+    public static void encode(ByteBuffer out, Message message, SymbolTable symbols) {
+        out.put(VERSION);
+        out.put((byte) (message.isEdited() ? FLAG_EDITED : 0));
+        BinaryFormat.putId(out, message.getMessageId());
+        putRef(out, message.getSenderId(), symbols);
+        putRef(out, message.getSenderUsername(), symbols);
+        putRef(out, message.getChannelId(), symbols);
+        
+        long timestamp = message.getTimestamp().getTime();
+        BinaryFormat.putVarLong(out, timestamp);
+        if (message.isEdited()) {
+            long delay = message.getEditedTimestamp().getTime() - timestamp;
+            BinaryFormat.putVarLong(out, (delay << 1) ^ (delay >> 63)); // zigzag, clocks can step back
+        }
+        BinaryFormat.putString(out, message.getContent());
+    }
+    
+    public static Message decode(ByteBuffer in, SymbolTable symbols) {
+        byte version = in.get();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported message encoding version " + version);
+        }
+        boolean edited = (in.get() & FLAG_EDITED) != 0;
+        String messageId = BinaryFormat.getId(in);
+        String senderId = getRef(in, symbols);
+        String senderUsername = getRef(in, symbols);
+        String channelId = getRef(in, symbols);
+        
+        long timestamp = BinaryFormat.getVarLong(in);
+        Date editedTimestamp = null;
+        if (edited) {
+            long zigzag = BinaryFormat.getVarLong(in);
+            editedTimestamp = new Date(timestamp + ((zigzag >>> 1) ^ -(zigzag & 1)));
+        }
+        String content = BinaryFormat.getString(in);
+        return new Message(messageId, content, senderId, senderUsername, channelId,
+            new Date(timestamp), edited, editedTimestamp);
+    }
+    
+    /**
+     * Read only the message id of an encoded message
+     */
+    public static String decodeId(ByteBuffer in) {
+        ByteBuffer view = in.duplicate();
+        view.position(view.position() + ID_OFFSET);
+        return BinaryFormat.getId(view);
+    }
+    
+    /**
+     * Read only the send timestamp of the message encoded at the given offset
+     * Skips the id and references in place; the buffer's position is left unchanged
+     */
+    public static long readTimestamp(ByteBuffer in, int offset) {
+        int start = in.position();
+        in.position(offset + ID_OFFSET);
+        int idLength = BinaryFormat.getVarInt(in);
+        in.position(in.position() + (idLength == 0 ? 16 : idLength - 1));
+        for (int i = 0; i < 3; i++) {
+            int ref = BinaryFormat.getVarInt(in);
+            if ((ref & 1) != 0) {
+                in.position(in.position() + (ref >>> 1));
+            }
+        }
+        long timestamp = BinaryFormat.getVarLong(in);
+        in.position(start);
+        return timestamp;
+    }
+    
+    // References: [varint symbol << 1] when interned, [varint length << 1 | 1][utf8] inline
+    
+    private static void putRef(ByteBuffer out, String value, SymbolTable symbols) {
+        if (symbols != null) {
+            BinaryFormat.putVarInt(out, symbols.intern(value) << 1);
+        } else {
+            int length = BinaryFormat.utf8Length(value);
+            BinaryFormat.putVarInt(out, (length << 1) | 1);
+            BinaryFormat.putUtf8(out, value, length);
+        }
+    }
+    
+    private static String getRef(ByteBuffer in, SymbolTable symbols) {
+        int ref = BinaryFormat.getVarInt(in);
+        if ((ref & 1) != 0) {
+            return BinaryFormat.getUtf8(in, ref >>> 1);
+        }
+        if (symbols == null) {
+            throw new IllegalArgumentException("Message refers to symbol " + (ref >>> 1) + " without a symbol table");
+        }
+        return symbols.lookup(ref >>> 1);
+    }
+}
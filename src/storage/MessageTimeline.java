@@ -0,0 +1,283 @@
+package storage;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * MessageTimeline class listing the messages of a log in send order
+ * Slot i is the i-th message sent: it keeps the send timestamp and the position of the
+ * message's newest record, or DELETED. Messages are sent in timestamp order, so a time
+ * is found by binary search, and slots are stable cursors for paging either way.
+ * A send stamped earlier than the one before it (a clock stepping back, or sends logged
+ * out of order) is kept at the previous timestamp, so the search stays correct; time
+ * cursors treat it as sent at that instant.
+ *
+ * Slots of deleted messages stay until compact() drops them, which the log does after
+ * compacting its segments once they make up a large enough share of the timeline.
+ *
+ * Live messages are found through an open-addressing table keyed by the 128 bits of the
+ * id (UUID ids as written in the records, other ids hashed), so no String or boxed
+ * entry is kept per message. Not thread-safe; the owning log guards it.
+ */
+class MessageTimeline {
+    static final long DELETED = -1;
+    private static final long SEED_HIGH = 0x9e3779b97f4a7c15L;
+    private static final long SEED_LOW = 0xc2b2ae3d27d4eb4fL;
+    
+    private long[] keyHigh;
+    private long[] keyLow;
+    private int[] keySlots; // slot + 1 of the live message in each bucket; 0 is empty
+    private int live;
+    private long[] timestamps;
+    private long[] positions;
+    private int size;
+    private int deletedSlots;
+    
+    MessageTimeline() {
+        this.keyHigh = new long[64];
+        this.keyLow = new long[64];
+        this.keySlots = new int[64];
+        this.timestamps = new long[64];
+        this.positions = new long[64];
+    }
+    
+    void add(long high, long low, long timestamp, long position) {
+        if (size == positions.length) {
+            timestamps = Arrays.copyOf(timestamps, size * 2);
+            positions = Arrays.copyOf(positions, size * 2);
+        }
+        timestamps[size] = size > 0 ? Math.max(timestamp, timestamps[size - 1]) : timestamp;
+        positions[size] = position;
+        int bucket = bucketOf(high, low);
+        if (keySlots[bucket] == 0) {
+            put(high, low, size + 1, bucket);
+        } else {
+            keySlots[bucket] = size + 1; // the id was reused; the newer send wins
+        }
+        size++;
+    }
+    
+    /**
+     * Point a message at its newest record after an edit
+     */
+    void update(long high, long low, long position) {
+        int slot = slotOf(high, low);
+        if (slot >= 0) {
+            positions[slot] = position;
+        }
+    }
+    
+    void remove(long high, long low) {
+        int bucket = bucketOf(high, low);
+        if (keySlots[bucket] == 0) {
+            return;
+        }
+        positions[keySlots[bucket] - 1] = DELETED;
+        deletedSlots++;
+        removeBucket(bucket);
+    }
+    
+    /**
+     * Drop the slots of deleted messages once they are at least a quarter of all slots,
+     * renumbering the rest; slots held by a caller are invalid afterwards
+     */
+    void compact() {
+        if (deletedSlots * 4 < size) {
+            return;
+        }
+        int[] renumbered = new int[size];
+        int kept = 0;
+        for (int slot = 0; slot < size; slot++) {
+            if (positions[slot] != DELETED) {
+                timestamps[kept] = timestamps[slot];
+                positions[kept] = positions[slot];
+                renumbered[slot] = kept++;
+            }
+        }
+        for (int bucket = 0; bucket < keySlots.length; bucket++) {
+            if (keySlots[bucket] != 0) {
+                keySlots[bucket] = renumbered[keySlots[bucket] - 1] + 1;
+            }
+        }
+        size = kept;
+        deletedSlots = 0;
+        if (size < positions.length / 4) {
+            int capacity = Math.max(64, size * 2);
+            timestamps = Arrays.copyOf(timestamps, capacity);
+            positions = Arrays.copyOf(positions, capacity);
+        }
+    }
+    
+    /**
+     * Follow a record moved by compaction, unless a newer record has replaced it
+     */
+    void relocate(String messageId, long from, long to) {
+        int slot = slotOf(messageId);
+        if (slot >= 0 && positions[slot] == from) {
+            positions[slot] = to;
+        }
+    }
+    
+    /**
+     * Slot of a live message, or -1
+     */
+    int slotOf(String messageId) {
+        return slotOf(keyHigh(messageId), keyLow(messageId));
+    }
+    
+    private int slotOf(long high, long low) {
+        return keySlots[bucketOf(high, low)] - 1;
+    }
+    
+    /**
+     * First slot whose message was sent at or after the given time; size() if none
+     */
+    int firstSlotAtOrAfter(long millis) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (timestamps[middle] < millis) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+    
+    long positionAt(int slot) {
+        return positions[slot];
+    }
+    
+    long timestampAt(int slot) {
+        return timestamps[slot];
+    }
+    
+    int size() {
+        return size;
+    }
+    
+    // Open addressing with linear probing; removal shifts later entries back into the gap
+    
+    /**
+     * Bucket holding the key, or the empty bucket where it would go
+     */
+    private int bucketOf(long high, long low) {
+        int mask = keySlots.length - 1;
+        int bucket = (int) mix(high ^ low) & mask;
+        while (keySlots[bucket] != 0 && (keyHigh[bucket] != high || keyLow[bucket] != low)) {
+            bucket = (bucket + 1) & mask;
+        }
+        return bucket;
+    }
+    
+    private void put(long high, long low, int slotPlusOne, int bucket) {
+        keyHigh[bucket] = high;
+        keyLow[bucket] = low;
+        keySlots[bucket] = slotPlusOne;
+        if (++live * 3 > keySlots.length * 2) {
+            rehash(keySlots.length * 2);
+        }
+    }
+    
+    private void removeBucket(int bucket) {
+        int mask = keySlots.length - 1;
+        int gap = bucket;
+        int next = (gap + 1) & mask;
+        while (keySlots[next] != 0) {
+            int home = (int) mix(keyHigh[next] ^ keyLow[next]) & mask;
+            // Move the entry back if the gap lies on its probe path from home
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                keyHigh[gap] = keyHigh[next];
+                keyLow[gap] = keyLow[next];
+                keySlots[gap] = keySlots[next];
+                gap = next;
+            }
+            next = (next + 1) & mask;
+        }
+        keySlots[gap] = 0;
+        live--;
+    }
+    
+    private void rehash(int capacity) {
+        long[] oldHigh = keyHigh;
+        long[] oldLow = keyLow;
+        int[] oldSlots = keySlots;
+        keyHigh = new long[capacity];
+        keyLow = new long[capacity];
+        keySlots = new int[capacity];
+        for (int i = 0; i < oldSlots.length; i++) {
+            if (oldSlots[i] != 0) {
+                int bucket = bucketOf(oldHigh[i], oldLow[i]);
+                keyHigh[bucket] = oldHigh[i];
+                keyLow[bucket] = oldLow[i];
+                keySlots[bucket] = oldSlots[i];
+            }
+        }
+    }
+    
+    // Keys: the two halves of a UUID id, or two differently seeded hashes of the id's encoding
+    
+    static long keyHigh(String messageId) {
+        if (BinaryFormat.isCanonicalUuid(messageId)) {
+            return BinaryFormat.uuidBits(messageId, 0);
+        }
+        byte[] id = BinaryFormat.encodeId(messageId);
+        return hash(ByteBuffer.wrap(id), 0, id.length, SEED_HIGH);
+    }
+    
+    static long keyLow(String messageId) {
+        if (BinaryFormat.isCanonicalUuid(messageId)) {
+            return BinaryFormat.uuidBits(messageId, 1);
+        }
+        byte[] id = BinaryFormat.encodeId(messageId);
+        return hash(ByteBuffer.wrap(id), 0, id.length, SEED_LOW);
+    }
+    
+    /**
+     * Key of an id written with BinaryFormat.putId at the given offset, read in place
+     */
+    static long keyHigh(ByteBuffer record, int offset) {
+        if (record.get(offset) == 0) {
+            return record.getLong(offset + 1);
+        }
+        return hash(record, offset, encodedIdLength(record, offset), SEED_HIGH);
+    }
+    
+    static long keyLow(ByteBuffer record, int offset) {
+        if (record.get(offset) == 0) {
+            return record.getLong(offset + 9);
+        }
+        return hash(record, offset, encodedIdLength(record, offset), SEED_LOW);
+    }
+    
+    private static int encodedIdLength(ByteBuffer record, int offset) {
+        int value = 0;
+        int shift = 0;
+        int position = offset;
+        byte b;
+        do {
+            b = record.get(position++);
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return position - offset + value - 1; // the varint holds the UTF-8 length + 1
+    }
+    
+    private static long hash(ByteBuffer bytes, int offset, int length, long seed) {
+        long h = seed;
+        for (int i = offset; i < offset + length; i++) {
+            h = (h ^ (bytes.get(i) & 0xFF)) * 0x100000001b3L;
+        }
+        return mix(h);
+    }
+    
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        return h ^ (h >>> 33);
+    }
+}
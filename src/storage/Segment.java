@@ -0,0 +1,46 @@
+package storage;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
+/**
+ * Segment interface for one file of a channel log, readable record by record
+ * A log is a run of segments: cold compressed ones, then warm mapped ones, then
+ * the active segment being appended to. Record positions stay the same when a
+ * segment moves from one tier to the next.
+ */
+public interface Segment {
+    /**
+     * Visitor over the raw records of a segment
+     * The payload buffer is a view of the segment's pages and is only valid during the call
+     */
+    interface RecordVisitor {
+        boolean visit(ByteBuffer payload, long position); // return false to stop
+    }
+    
+    int getIndex();
+    
+    Path getPath();
+    
+    /**
+     * Offset of the first byte after the last record
+     */
+    int getEnd();
+    
+    boolean isCold();
+    
+    /**
+     * Visit records oldest first; returns false if the visitor stopped the scan
+     */
+    boolean scanForward(RecordVisitor visitor);
+    
+    /**
+     * Visit records newest first; returns false if the visitor stopped the scan
+     */
+    boolean scanBackward(RecordVisitor visitor);
+    
+    /**
+     * Read the single record starting at the given offset
+     */
+    ByteBuffer read(int offset);
+}
@@ -0,0 +1,99 @@
+package storage;
+
+import models.Channel;
+import models.Server;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * ServerArchive class moving a whole server between environments as one file
+ * The server snapshot is followed by the log files of each channel, copied with
+ * transferTo/transferFrom so histories of any size never pass through the heap:
+ *
+ *   [int magic][int version][int length][server snapshot]
+ *   [int channelCount] channelCount x [int idLength][channelId][log files]
+ *
+ * See WriteAheadLog.exportFiles for the layout of the log files.
+ */
+public class ServerArchive {
+    private static final int MAGIC = 0x44435341; // "DCSA"
+    private static final int VERSION = 1;
+    
+    /**
+     * Write a server and the history of all its channels to an archive, atomically
+     */
+    public static void exportServer(Server server, ChannelLogManager logManager, Path path) throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            WriteAheadLog.writeInt(out, MAGIC);
+            WriteAheadLog.writeInt(out, VERSION);
+            writeBytes(out, SnapshotCodec.encodeServer(server));
+            WriteAheadLog.writeInt(out, server.getChannels().size());
+            for (Channel channel : server.getChannels()) {
+                writeBytes(out, channel.getChannelId().getBytes(StandardCharsets.UTF_8));
+                logManager.exportLog(channel.getChannelId(), out);
+            }
+            out.force(true);
+        }
+        Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+    
+    /**
+     * Stream a server out of an archive
+     * The decoded server is offered to accept before any log is written; returning false
+     * stops the import. Each channel is then handed to channelImported as soon as its
+     * log has been recreated, so callers can register it without waiting for the rest.
+     * Returns the server, or null when it was not accepted.
+     */
+    public static Server importServer(Path path, ChannelLogManager logManager, Predicate<Server> accept,
+                                      Consumer<Channel> channelImported) throws IOException {
+        try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (WriteAheadLog.readInt(in) != MAGIC) {
+                throw new IOException("Not a server archive: " + path);
+            }
+            int version = WriteAheadLog.readInt(in);
+            if (version != VERSION) {
+                throw new IOException("Unsupported server archive version " + version + ": " + path);
+            }
+            Server server = SnapshotCodec.decodeServer(readBytes(in));
+            if (!accept.test(server)) {
+                return null;
+            }
+            
+            int channelCount = WriteAheadLog.readInt(in);
+            for (int i = 0; i < channelCount; i++) {
+                String channelId = new String(readBytes(in), StandardCharsets.UTF_8);
+                Channel channel = server.findChannel(channelId);
+                if (channel == null) {
+                    throw new IOException("Archive holds history for unknown channel " + channelId);
+                }
+                logManager.importLog(channelId, in);
+                channelImported.accept(channel);
+            }
+            return server;
+        }
+    }
+    
+    private static void writeBytes(FileChannel out, byte[] data) throws IOException {
+        WriteAheadLog.writeInt(out, data.length);
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+    
+    private static byte[] readBytes(FileChannel in) throws IOException {
+        byte[] data = new byte[WriteAheadLog.readInt(in)];
+        WriteAheadLog.readFully(in, ByteBuffer.wrap(data));
+        return data;
+    }
+}
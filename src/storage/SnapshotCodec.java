@@ -0,0 +1,205 @@
+package storage;
+
+import models.*;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * SnapshotCodec class encoding users and servers for checkpoint files
+ * Channel history is not included; it lives in the channel logs
+ *
+ * Entities use the shared BinaryFormat primitives: ids as raw UUID bytes,
+ * varint counts and lengths, and epoch-millis varlong timestamps.
+ */
+public class SnapshotCodec {
+    private static final byte VERSION = 3; // 2: per-channel hot tail size, 3: substring index opt-in
+    
+    private static final byte MEMBER = 0;
+    private static final byte MODERATOR = 1;
+    private static final byte ADMIN = 2;
+    
+    private static final byte TEXT_CHANNEL = 1;
+    private static final byte VOICE_CHANNEL = 2;
+    
+    public static byte[] encodeUser(User user) {
+        return encode(256, out -> {
+            out.put(VERSION);
+            BinaryFormat.putId(out, user.getUserId());
+            BinaryFormat.putString(out, user.getUsername());
+            BinaryFormat.putString(out, user.getHashedPassword());
+            out.put(user instanceof AdminUser ? ADMIN : user instanceof ModeratorUser ? MODERATOR : MEMBER);
+            BinaryFormat.putVarLong(out, user.getLastSeen().getTime());
+            putIds(out, user.getFriendList());
+            putIds(out, user.getJoinedServers());
+        });
+    }
+    
+    public static User decodeUser(byte[] data) {
+        ByteBuffer in = ByteBuffer.wrap(data);
+        checkVersion(in);
+        String userId = BinaryFormat.getId(in);
+        String username = BinaryFormat.getString(in);
+        String hashedPassword = BinaryFormat.getString(in);
+        byte role = in.get();
+        Date lastSeen = new Date(BinaryFormat.getVarLong(in));
+        
+        User user;
+        switch (role) {
+            case ADMIN:
+                user = new AdminUser(userId, username, hashedPassword, lastSeen);
+                break;
+            case MODERATOR:
+                user = new ModeratorUser(userId, username, hashedPassword, lastSeen);
+                break;
+            default:
+                user = new User(userId, username, hashedPassword, lastSeen);
+                break;
+        }
+        for (String friendId : getIds(in)) {
+            user.addFriend(friendId);
+        }
+        for (String serverId : getIds(in)) {
+            user.joinServer(serverId);
+        }
+        return user;
+    }
+    
+    public static byte[] encodeServer(Server server) {
+        return encode(512, out -> {
+            out.put(VERSION);
+            BinaryFormat.putId(out, server.getServerId());
+            BinaryFormat.putString(out, server.getServerName());
+            BinaryFormat.putId(out, server.getOwnerId());
+            BinaryFormat.putString(out, server.getOwnerUsername());
+            BinaryFormat.putString(out, server.getInviteCode());
+            BinaryFormat.putVarLong(out, server.getCreatedDate().getTime());
+            BinaryFormat.putString(out, server.getDescription());
+            
+            Map<String, String> members = server.getMembers();
+            Map<String, String> usernames = server.getMemberUsernames();
+            BinaryFormat.putVarInt(out, members.size());
+            for (Map.Entry<String, String> member : members.entrySet()) {
+                BinaryFormat.putId(out, member.getKey());
+                BinaryFormat.putString(out, usernames.get(member.getKey()));
+                BinaryFormat.putString(out, member.getValue());
+            }
+            putIds(out, server.getBannedUsers());
+            
+            List<Channel> channels = server.getChannels();
+            BinaryFormat.putVarInt(out, channels.size());
+            for (Channel channel : channels) {
+                out.put(channel instanceof VoiceChannel ? VOICE_CHANNEL : TEXT_CHANNEL);
+                BinaryFormat.putId(out, channel.getChannelId());
+                BinaryFormat.putString(out, channel.getChannelName());
+                BinaryFormat.putVarLong(out, channel.getCreatedDate().getTime());
+                putIds(out, channel.getMutedUsers());
+                BinaryFormat.putVarInt(out, channel.getHotTailOverride() + 1); // 0 = global setting
+                out.put((byte) (channel.isSubstringIndexed() ? 1 : 0));
+                if (channel instanceof VoiceChannel) {
+                    VoiceChannel voiceChannel = (VoiceChannel) channel;
+                    BinaryFormat.putVarInt(out, voiceChannel.getMaxUsers());
+                    out.put((byte) (voiceChannel.isLocked() ? 1 : 0));
+                } else {
+                    BinaryFormat.putVarInt(out, ((TextChannel) channel).getMaxMessageLength());
+                }
+            }
+        });
+    }
+    
+    public static Server decodeServer(byte[] data) {
+        ByteBuffer in = ByteBuffer.wrap(data);
+        byte version = checkVersion(in);
+        String serverId = BinaryFormat.getId(in);
+        String serverName = BinaryFormat.getString(in);
+        String ownerId = BinaryFormat.getId(in);
+        String ownerUsername = BinaryFormat.getString(in);
+        String inviteCode = BinaryFormat.getString(in);
+        Date createdDate = new Date(BinaryFormat.getVarLong(in));
+        String description = BinaryFormat.getString(in);
+        Server server = new Server(serverId, serverName, ownerId, ownerUsername,
+            inviteCode, createdDate, description);
+        
+        int memberCount = BinaryFormat.getVarInt(in);
+        for (int i = 0; i < memberCount; i++) {
+            String userId = BinaryFormat.getId(in);
+            String username = BinaryFormat.getString(in);
+            String role = BinaryFormat.getString(in);
+            server.addMember(userId, username);
+            server.setMemberRole(userId, role);
+        }
+        for (String bannedId : getIds(in)) {
+            server.banUser(bannedId);
+        }
+        
+        int channelCount = BinaryFormat.getVarInt(in);
+        for (int i = 0; i < channelCount; i++) {
+            byte type = in.get();
+            String channelId = BinaryFormat.getId(in);
+            String channelName = BinaryFormat.getString(in);
+            Date channelCreated = new Date(BinaryFormat.getVarLong(in));
+            List<String> muted = getIds(in);
+            int hotTailSize = version >= 2 ? BinaryFormat.getVarInt(in) - 1 : -1;
+            boolean substringIndexed = version >= 3 && in.get() != 0;
+            
+            Channel channel;
+            if (type == VOICE_CHANNEL) {
+                VoiceChannel voiceChannel = new VoiceChannel(channelId, channelName, serverId, channelCreated);
+                voiceChannel.setMaxUsers(BinaryFormat.getVarInt(in));
+                voiceChannel.setLocked(in.get() != 0);
+                channel = voiceChannel;
+            } else {
+                TextChannel textChannel = new TextChannel(channelId, channelName, serverId, channelCreated);
+                textChannel.setMaxMessageLength(BinaryFormat.getVarInt(in));
+                channel = textChannel;
+            }
+            for (String userId : muted) {
+                channel.muteUser(userId);
+            }
+            channel.setHotTailSize(hotTailSize);
+            channel.setSubstringIndexed(substringIndexed);
+            server.addChannel(channel);
+        }
+        return server;
+    }
+    
+    /**
+     * Encode into a heap buffer, doubling it until the entity fits
+     */
+    private static byte[] encode(int initialSize, Consumer<ByteBuffer> encoder) {
+        for (int size = initialSize; ; size *= 2) {
+            ByteBuffer out = ByteBuffer.allocate(size);
+            try {
+                encoder.accept(out);
+                return Arrays.copyOf(out.array(), out.position());
+            } catch (BufferOverflowException e) {
+                // Retry with a larger buffer
+            }
+        }
+    }
+    
+    private static byte checkVersion(ByteBuffer in) {
+        byte version = in.get();
+        if (version < 1 || version > VERSION) {
+            throw new IllegalArgumentException("Unsupported snapshot encoding version " + version);
+        }
+        return version;
+    }
+    
+    private static void putIds(ByteBuffer out, Collection<String> ids) {
+        BinaryFormat.putVarInt(out, ids.size());
+        for (String id : ids) {
+            BinaryFormat.putId(out, id);
+        }
+    }
+    
+    private static List<String> getIds(ByteBuffer in) {
+        int count = BinaryFormat.getVarInt(in);
+        List<String> ids = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ids.add(BinaryFormat.getId(in));
+        }
+        return ids;
+    }
+}
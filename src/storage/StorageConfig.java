@@ -0,0 +1,164 @@
+package storage;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * StorageConfig class holding persistence settings
+ * Defaults can be overridden with -D system properties at startup
+ */
+public class StorageConfig {
+    private static boolean persistenceEnabled =
+        Boolean.parseBoolean(System.getProperty("discord.persistence", "true"));
+    private static Path dataDirectory = Paths.get(System.getProperty("discord.dataDir", "data"));
+    private static FsyncPolicy fsyncPolicy =
+        FsyncPolicy.valueOf(System.getProperty("discord.wal.fsync", "GROUP").toUpperCase());
+    private static long fsyncIntervalMillis =
+        Long.parseLong(System.getProperty("discord.wal.fsyncIntervalMs", "1000"));
+    private static int segmentSize =
+        Integer.parseInt(System.getProperty("discord.segmentBytes", String.valueOf(8 * 1024 * 1024)));
+    private static int hotTailSize =
+        Integer.parseInt(System.getProperty("discord.hotTailSize", "100"));
+    private static int warmSegments =
+        Integer.parseInt(System.getProperty("discord.warmSegments", "2"));
+    private static long coldCacheBytes =
+        Long.parseLong(System.getProperty("discord.coldCacheBytes", String.valueOf(16 * 1024 * 1024)));
+    private static long compactionBytesPerSecond =
+        Long.parseLong(System.getProperty("discord.compactionBytesPerSec", String.valueOf(4 * 1024 * 1024)));
+    private static int directMessageShards =
+        Integer.parseInt(System.getProperty("discord.dmShards", "16"));
+    private static long checkpointIntervalMillis =
+        Long.parseLong(System.getProperty("discord.checkpointIntervalMs", "5000"));
+    private static int deltasPerSnapshot =
+        Integer.parseInt(System.getProperty("discord.deltasPerSnapshot", "20"));
+    private static long substringIndexBytes =
+        Long.parseLong(System.getProperty("discord.substringIndexBytes", String.valueOf(32 * 1024 * 1024)));
+    
+    public static boolean isPersistenceEnabled() {
+        return persistenceEnabled;
+    }
+    
+    public static void setPersistenceEnabled(boolean enabled) {
+        persistenceEnabled = enabled;
+    }
+    
+    public static Path getDataDirectory() {
+        return dataDirectory;
+    }
+    
+    public static void setDataDirectory(Path directory) {
+        dataDirectory = directory;
+    }
+    
+    public static Path getChannelLogDirectory() {
+        return dataDirectory.resolve("channels");
+    }
+    
+    public static Path getDirectMessageDirectory() {
+        return dataDirectory.resolve("dms");
+    }
+    
+    public static Path getStateDirectory() {
+        return dataDirectory.resolve("state");
+    }
+    
+    public static FsyncPolicy getFsyncPolicy() {
+        return fsyncPolicy;
+    }
+    
+    public static void setFsyncPolicy(FsyncPolicy policy) {
+        fsyncPolicy = policy;
+    }
+    
+    public static long getFsyncIntervalMillis() {
+        return fsyncIntervalMillis;
+    }
+    
+    public static void setFsyncIntervalMillis(long intervalMillis) {
+        fsyncIntervalMillis = intervalMillis;
+    }
+    
+    public static int getSegmentSize() {
+        return segmentSize;
+    }
+    
+    public static void setSegmentSize(int size) {
+        segmentSize = size;
+    }
+    
+    public static int getHotTailSize() {
+        return hotTailSize;
+    }
+    
+    public static void setHotTailSize(int size) {
+        hotTailSize = size;
+    }
+    
+    /**
+     * Sealed segments per channel kept memory-mapped; older ones are compressed to cold blocks
+     */
+    public static int getWarmSegments() {
+        return warmSegments;
+    }
+    
+    public static void setWarmSegments(int segments) {
+        warmSegments = segments;
+    }
+    
+    public static long getColdCacheBytes() {
+        return coldCacheBytes;
+    }
+    
+    public static void setColdCacheBytes(long bytes) {
+        coldCacheBytes = bytes;
+    }
+    
+    /**
+     * I/O budget of background log compaction; 0 removes the limit
+     */
+    public static long getCompactionBytesPerSecond() {
+        return compactionBytesPerSecond;
+    }
+    
+    public static void setCompactionBytesPerSecond(long bytesPerSecond) {
+        compactionBytesPerSecond = bytesPerSecond;
+    }
+    
+    /**
+     * Direct-message conversations are spread over this many independently locked log files
+     */
+    public static int getDirectMessageShards() {
+        return directMessageShards;
+    }
+    
+    public static void setDirectMessageShards(int shards) {
+        directMessageShards = shards;
+    }
+    
+    public static long getCheckpointIntervalMillis() {
+        return checkpointIntervalMillis;
+    }
+    
+    public static void setCheckpointIntervalMillis(long intervalMillis) {
+        checkpointIntervalMillis = intervalMillis;
+    }
+    
+    public static int getDeltasPerSnapshot() {
+        return deltasPerSnapshot;
+    }
+    
+    public static void setDeltasPerSnapshot(int deltas) {
+        deltasPerSnapshot = deltas;
+    }
+    
+    /**
+     * Heap budget of each channel's substring index; past it the channel falls back to scanning
+     */
+    public static long getSubstringIndexBytes() {
+        return substringIndexBytes;
+    }
+    
+    public static void setSubstringIndexBytes(long bytes) {
+        substringIndexBytes = bytes;
+    }
+}
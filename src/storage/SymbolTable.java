@@ -0,0 +1,134 @@
+package storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * SymbolTable class interning repeated strings (sender ids, usernames, channel ids)
+ * Encoded messages refer to a symbol by its small integer id instead of repeating it
+ *
+ * A table can be backed by a file of [varint length][utf8] entries; the id of a symbol
+ * is its position in the file. New symbols are forced to disk before they are used,
+ * so a record on disk never refers to a symbol that was lost.
+ */
+public class SymbolTable implements Closeable {
+    private final Map<String, Integer> ids;
+    private volatile String[] symbols;
+    private int count;
+    private final FileChannel file; // null for an in-memory table
+    
+    public SymbolTable() {
+        this.ids = new ConcurrentHashMap<>();
+        this.symbols = new String[16];
+        this.file = null;
+    }
+    
+    private SymbolTable(FileChannel file) {
+        this.ids = new ConcurrentHashMap<>();
+        this.symbols = new String[16];
+        this.file = file;
+    }
+    
+    /**
+     * Open a file-backed table, dropping a torn last entry left by a crash
+     */
+    public static SymbolTable open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+            StandardOpenOption.READ, StandardOpenOption.WRITE);
+        SymbolTable table = new SymbolTable(channel);
+        
+        ByteBuffer data = ByteBuffer.allocate((int) channel.size());
+        while (data.hasRemaining() && channel.read(data, data.position()) >= 0) {
+            // read the whole file
+        }
+        data.flip();
+        
+        int valid = 0;
+        try {
+            while (data.hasRemaining()) {
+                String symbol = BinaryFormat.getString(data);
+                table.add(symbol);
+                valid = data.position();
+            }
+        } catch (RuntimeException e) {
+            // Torn entry at the end of the file
+        }
+        if (valid < channel.size()) {
+            channel.truncate(valid);
+        }
+        channel.position(valid);
+        return table;
+    }
+    
+    /**
+     * Return the id of a symbol, assigning (and persisting) a new one if needed
+     */
+    public int intern(String value) {
+        Integer id = ids.get(value);
+        if (id != null) {
+            return id;
+        }
+        synchronized (this) {
+            id = ids.get(value);
+            if (id != null) {
+                return id;
+            }
+            if (file != null) {
+                persist(value);
+            }
+            return add(value);
+        }
+    }
+    
+    private int add(String value) {
+        String[] current = symbols;
+        if (count == current.length) {
+            current = Arrays.copyOf(current, count * 2);
+        }
+        current[count] = value;
+        int id = count++;
+        ids.put(value, id);
+        symbols = current; // volatile write publishes the new entry to lock-free readers
+        return id;
+    }
+    
+    private void persist(String value) {
+        try {
+            ByteBuffer entry = ByteBuffer.allocate(BinaryFormat.stringSize(value));
+            BinaryFormat.putString(entry, value);
+            entry.flip();
+            while (entry.hasRemaining()) {
+                file.write(entry);
+            }
+            file.force(false);
+        } catch (IOException e) {
+            throw new RuntimeException("Error persisting symbol", e);
+        }
+    }
+    
+    public String lookup(int id) {
+        String[] current = symbols;
+        if (id < 0 || id >= current.length || current[id] == null) {
+            throw new IllegalArgumentException("Unknown symbol " + id);
+        }
+        return current[id];
+    }
+    
+    public synchronized int size() {
+        return count;
+    }
+    
+    @Override
+    public void close() throws IOException {
+        if (file != null && file.isOpen()) {
+            file.close();
+        }
+    }
+}
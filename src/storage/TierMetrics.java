@@ -0,0 +1,73 @@
+package storage;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * TierMetrics class counting which storage tier served each history read
+ * HOT reads come from the on-heap tail, WARM from mapped segments, and COLD
+ * reads had to touch at least one compressed segment
+ */
+public class TierMetrics {
+    public enum Tier { HOT, WARM, COLD }
+    
+    private static final TierMetrics GLOBAL = new TierMetrics(null);
+    
+    private final TierMetrics parent; // totals across all channels, null for the global instance
+    private final LongAdder[] reads;
+    
+    public TierMetrics() {
+        this(GLOBAL);
+    }
+    
+    private TierMetrics(TierMetrics parent) {
+        this.parent = parent;
+        this.reads = new LongAdder[Tier.values().length];
+        for (int i = 0; i < reads.length; i++) {
+            reads[i] = new LongAdder();
+        }
+    }
+    
+    public static TierMetrics global() {
+        return GLOBAL;
+    }
+    
+    public void record(Tier tier) {
+        reads[tier.ordinal()].increment();
+        if (parent != null) {
+            parent.record(tier);
+        }
+    }
+    
+    public long getReads(Tier tier) {
+        return reads[tier.ordinal()].sum();
+    }
+    
+    public long getTotalReads() {
+        long total = 0;
+        for (LongAdder count : reads) {
+            total += count.sum();
+        }
+        return total;
+    }
+    
+    /**
+     * Fraction of reads served by the given tier, 0 when nothing was read yet
+     */
+    public double getHitRatio(Tier tier) {
+        long total = getTotalReads();
+        return total == 0 ? 0.0 : (double) getReads(tier) / total;
+    }
+    
+    @Override
+    public String toString() {
+        StringBuilder summary = new StringBuilder();
+        for (Tier tier : Tier.values()) {
+            if (summary.length() > 0) {
+                summary.append(", ");
+            }
+            summary.append(String.format("%s %.1f%% (%d)", tier.name().toLowerCase(),
+                getHitRatio(tier) * 100, getReads(tier)));
+        }
+        return summary.toString();
+    }
+}
@@ -0,0 +1,1028 @@
+package storage;
+
+import models.Message;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.function.ObjLongConsumer;
+import java.util.function.Predicate;
+
+/**
+ * WriteAheadLog class for durable, append-only channel history
+ * Records send, edit and delete events sequentially into fixed-size memory-mapped
+ * segment files, and serves history reads directly from the mapped pages
+ *
+ * Record payload: [byte type] then, for SEND and EDIT, the full message state in
+ * MessageCodec form; DELETE records carry only [messageId][varlong time].
+ * Sender and channel names are interned in a per-channel symbols file.
+ * Sealed segments are later compressed into cold block files (see ColdSegment),
+ * and compaction rewrites them without the records of deleted messages and
+ * superseded edits. Positions of surviving records may change when compacted.
+ */
+public class WriteAheadLog implements Closeable {
+    public static final byte SEND = 1;
+    public static final byte EDIT = 2;
+    public static final byte DELETE = 3;
+    
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String COLD_SUFFIX = ".cold";
+    private static final String COMPACT_SUFFIX = ".compact";
+    private static final String SYMBOLS_FILE = "symbols.dat";
+    private static final double MIN_RECLAIM_RATIO = 0.1;
+    
+    private final String channelId;
+    private final Path directory;
+    private final int segmentSize;
+    private final FsyncPolicy fsyncPolicy;
+    private final Runnable syncRequest;
+    private final List<Segment> segments; // oldest first: cold, then warm, then the active one
+    private final SymbolTable symbols;
+    private ByteBuffer scratch; // record encoding buffer, guarded by the append lock
+    private final TierMetrics metrics;
+    private final List<RelocationListener> relocationListeners;
+    private final Object maintenanceLock; // serialises archiving and compaction
+    private final List<ColdSegment> retired; // replaced cold segments, closed on the next pass
+    private volatile CompactionResult lastCompaction;
+    private MessageTimeline timeline; // messages in send order, built on first lookup; guarded by this
+    private boolean activeHasDeadRecords; // an edit or delete went into the active segment
+    private volatile boolean compactionPending; // a sealed segment may hold dead records
+    private volatile boolean dirty;
+    private volatile boolean closed;
+    
+    /**
+     * Visitor over every event in the log, oldest first, for rebuilding derived state
+     */
+    public interface HistoryVisitor {
+        void sent(Message message, long position);
+        
+        void edited(Message message, long position);
+        
+        void deleted(String messageId, long position);
+    }
+    
+    /**
+     * Told when compaction moves records; the record of messageIds[i] at from[i] is now at
+     * to[i], positions in ascending order. Positions of the compacted segment that are not
+     * listed were dropped
+     */
+    public interface RelocationListener {
+        void relocated(String[] messageIds, long[] from, long[] to);
+    }
+    
+    public WriteAheadLog(String channelId, Path directory, int segmentSize,
+                         FsyncPolicy fsyncPolicy, Runnable syncRequest) throws IOException {
+        this.channelId = channelId;
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.fsyncPolicy = fsyncPolicy;
+        this.syncRequest = syncRequest;
+        this.segments = new ArrayList<>();
+        this.scratch = ByteBuffer.allocate(4096);
+        this.metrics = new TierMetrics();
+        this.relocationListeners = new CopyOnWriteArrayList<>();
+        this.maintenanceLock = new Object();
+        this.retired = new ArrayList<>();
+        openSegments();
+        this.compactionPending = segments.size() > 1;
+        this.activeHasDeadRecords = true;
+        this.symbols = SymbolTable.open(directory.resolve(SYMBOLS_FILE));
+    }
+    
+    /**
+     * Open existing segments; only the newest one is reopened for writing
+     * A segment left both warm and cold by a crash during archiving is used cold
+     */
+    private void openSegments() throws IOException {
+        Files.createDirectories(directory);
+        TreeMap<Integer, Path> warm = listSegmentFiles(SEGMENT_SUFFIX);
+        TreeMap<Integer, Path> cold = listSegmentFiles(COLD_SUFFIX);
+        for (Integer index : cold.keySet()) {
+            Path duplicate = warm.remove(index);
+            if (duplicate != null) {
+                Files.delete(duplicate);
+            }
+        }
+        
+        TreeSet<Integer> indexes = new TreeSet<>(warm.keySet());
+        indexes.addAll(cold.keySet());
+        for (Integer index : indexes) {
+            if (cold.containsKey(index)) {
+                segments.add(ColdSegment.open(cold.get(index)));
+            } else {
+                segments.add(LogSegment.open(warm.get(index), index, index.equals(indexes.last())));
+            }
+        }
+        if (segments.isEmpty() || segments.get(segments.size() - 1).isCold()) {
+            int next = indexes.isEmpty() ? 0 : indexes.last() + 1;
+            segments.add(LogSegment.create(segmentPath(next), next, segmentSize));
+        }
+    }
+    
+    private TreeMap<Integer, Path> listSegmentFiles(String suffix) throws IOException {
+        TreeMap<Integer, Path> files = new TreeMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + suffix)) {
+            for (Path file : stream) {
+                String name = file.getFileName().toString();
+                files.put(Integer.parseInt(name.substring(0, name.length() - suffix.length())), file);
+            }
+        }
+        return files;
+    }
+    
+    private Path segmentPath(int index) {
+        return directory.resolve(String.format("%08d%s", index, SEGMENT_SUFFIX));
+    }
+    
+    private Path coldPath(int index) {
+        return directory.resolve(String.format("%08d%s", index, COLD_SUFFIX));
+    }
+    
+    public long appendSend(Message message) {
+        return appendMessage(SEND, message);
+    }
+    
+    public long appendEdit(Message message) {
+        return appendMessage(EDIT, message);
+    }
+    
+    public long appendDelete(String messageId) {
+        return append(1 + BinaryFormat.idSize(messageId) + 10, out -> {
+            out.put(DELETE);
+            BinaryFormat.putId(out, messageId);
+            BinaryFormat.putVarLong(out, System.currentTimeMillis());
+        });
+    }
+    
+    private long appendMessage(byte type, Message message) {
+        int maxSize = 1 + MessageCodec.maxEncodedSize(message);
+        return append(maxSize, out -> {
+            out.put(type);
+            MessageCodec.encode(out, message, symbols);
+        });
+    }
+    
+    /**
+     * Encode a record into the reused scratch buffer and append it to the active segment
+     */
+    private long append(int maxSize, Consumer<ByteBuffer> encoder) {
+        long position;
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("Log for channel " + channelId + " is closed");
+            }
+            if (scratch.capacity() < maxSize) {
+                scratch = ByteBuffer.allocate(Math.max(maxSize, scratch.capacity() * 2));
+            }
+            scratch.clear();
+            encoder.accept(scratch);
+            scratch.flip();
+            ByteBuffer payload = scratch;
+            activeHasDeadRecords |= payload.get(0) != SEND;
+            
+            LogSegment active = activeSegment();
+            position = active.append(payload);
+            if (position < 0) {
+                active = rollSegment(active);
+                position = active.append(payload);
+                if (position < 0) {
+                    throw new IllegalArgumentException("Record of " + payload.remaining()
+                        + " bytes does not fit in a log segment");
+                }
+            }
+            if (timeline != null) {
+                track(timeline, payload, position);
+            }
+            if (fsyncPolicy == FsyncPolicy.PER_WRITE) {
+                active.force();
+                return position;
+            }
+            dirty = true;
+        }
+        if (fsyncPolicy == FsyncPolicy.GROUP) {
+            syncRequest.run();
+        }
+        return position;
+    }
+    
+    /**
+     * Seal the full active segment and start the next one
+     */
+    private LogSegment rollSegment(LogSegment active) {
+        active.force();
+        if (activeHasDeadRecords) {
+            compactionPending = true;
+            activeHasDeadRecords = false;
+        }
+        try {
+            LogSegment next = LogSegment.create(segmentPath(active.getIndex() + 1),
+                active.getIndex() + 1, segmentSize);
+            segments.add(next);
+            return next;
+        } catch (IOException e) {
+            throw new RuntimeException("Error creating log segment for channel " + channelId, e);
+        }
+    }
+    
+    /**
+     * Force written records to disk if anything was appended since the last sync
+     * Runs without the append lock so senders never wait on the disk
+     */
+    public void sync() {
+        if (!dirty) {
+            return;
+        }
+        dirty = false;
+        activeSegment().force();
+    }
+    
+    private synchronized LogSegment activeSegment() {
+        return (LogSegment) segments.get(segments.size() - 1);
+    }
+    
+    private synchronized List<Segment> snapshotSegments() {
+        return new ArrayList<>(segments);
+    }
+    
+    /**
+     * Compress the oldest sealed segments beyond the warm limit into cold block files
+     * Readers keep using a mapped segment until it is swapped for its cold copy
+     */
+    public int archiveSealedSegments(int warmSegments) {
+        synchronized (maintenanceLock) {
+            closeRetiredSegments();
+            return archiveOldest(warmSegments);
+        }
+    }
+    
+    private int archiveOldest(int warmSegments) {
+        int archived = 0;
+        while (true) {
+            LogSegment candidate = null;
+            synchronized (this) {
+                if (closed) {
+                    return archived;
+                }
+                int warm = 0;
+                for (int i = segments.size() - 2; i >= 0; i--) {
+                    Segment segment = segments.get(i);
+                    if (!segment.isCold() && ++warm > warmSegments) {
+                        candidate = (LogSegment) segment; // keeps the oldest one past the limit
+                    }
+                }
+            }
+            if (candidate == null) {
+                return archived;
+            }
+            
+            try {
+                ColdSegment cold = ColdSegment.archive(candidate, coldPath(candidate.getIndex()));
+                boolean swapped;
+                synchronized (this) {
+                    int i = segments.indexOf(candidate);
+                    swapped = i >= 0 && !closed;
+                    if (swapped) {
+                        segments.set(i, cold);
+                    }
+                }
+                if (!swapped) {
+                    cold.close();
+                    return archived;
+                }
+                Files.deleteIfExists(candidate.getPath());
+                archived++;
+            } catch (IOException e) {
+                throw new RuntimeException("Error archiving segment " + candidate.getIndex()
+                    + " of channel " + channelId, e);
+            }
+        }
+    }
+    
+    /**
+     * Rewrite sealed segments without their dead records: edits of deleted messages,
+     * edits superseded by a newer one, and deleted messages whose send and delete
+     * records sit in the same segment. A send is only dropped together with its
+     * delete, so a crash between two segment rewrites never changes live counts.
+     * The active segment is never touched, so appends carry on during compaction.
+     * Segments that would reclaim less than MIN_RECLAIM_RATIO are left alone, and
+     * nothing is scanned until an edit or delete has reached a sealed segment.
+     */
+    public CompactionResult compactSealedSegments(IoRateLimiter limiter) {
+        long start = System.currentTimeMillis();
+        CompactionResult result = new CompactionResult();
+        if (!compactionPending) {
+            return result;
+        }
+        synchronized (maintenanceLock) {
+            compactionPending = false;
+            closeRetiredSegments();
+            List<Segment> snapshot = snapshotSegments();
+            Map<String, RecordState> states = collectRecordStates(snapshot, limiter);
+            for (int i = 0; i < snapshot.size() - 1; i++) {
+                if (closed) {
+                    break;
+                }
+                compactSegment(snapshot.get(i), states, limiter, result);
+            }
+            synchronized (this) {
+                if (timeline != null) {
+                    timeline.compact(); // deleted messages' slots go with their records
+                }
+            }
+        }
+        result.setDurationMillis(System.currentTimeMillis() - start);
+        lastCompaction = result;
+        return result;
+    }
+    
+    /**
+     * What the whole log says about each message id, as of the snapshot
+     */
+    private static class RecordState {
+        private int sendSegment = -1;
+        private int deleteSegment = -1;
+        private long lastEdit = -1;
+    }
+    
+    private Map<String, RecordState> collectRecordStates(List<Segment> snapshot, IoRateLimiter limiter) {
+        Map<String, RecordState> states = new HashMap<>();
+        for (Segment segment : snapshot) {
+            segment.scanForward((payload, position) -> {
+                if (closed) {
+                    return false;
+                }
+                limiter.acquire(LogSegment.RECORD_OVERHEAD + payload.remaining());
+                RecordState state = states.computeIfAbsent(readMessageId(payload), id -> new RecordState());
+                byte type = payload.get(0);
+                if (type == SEND) {
+                    state.sendSegment = segment.getIndex();
+                } else if (type == EDIT) {
+                    state.lastEdit = position;
+                } else if (type == DELETE) {
+                    state.deleteSegment = segment.getIndex();
+                }
+                return true;
+            });
+        }
+        return states;
+    }
+    
+    private static boolean isDead(ByteBuffer payload, long position, Map<String, RecordState> states) {
+        RecordState state = states.get(readMessageId(payload));
+        if (state == null) {
+            return false; // appended after the snapshot
+        }
+        boolean deleted = state.deleteSegment >= 0;
+        if (payload.get(0) == EDIT) {
+            return deleted || position != state.lastEdit;
+        }
+        return deleted && state.sendSegment == state.deleteSegment;
+    }
+    
+    /**
+     * Copy the live records of one sealed segment into a replacement file, keeping its tier
+     * A segment with no live records left is removed instead
+     */
+    private void compactSegment(Segment segment, Map<String, RecordState> states,
+                                IoRateLimiter limiter, CompactionResult result) {
+        long[] dead = new long[2]; // records, bytes
+        segment.scanForward((payload, position) -> {
+            if (isDead(payload, position, states)) {
+                dead[0]++;
+                dead[1] += LogSegment.RECORD_OVERHEAD + payload.remaining();
+            }
+            return true;
+        });
+        long used = segment.getEnd() - LogSegment.FILE_HEADER_SIZE;
+        if (dead[0] == 0 || dead[1] < used * MIN_RECLAIM_RATIO) {
+            return;
+        }
+        
+        int index = segment.getIndex();
+        List<Long> from = new ArrayList<>();
+        List<Long> to = new ArrayList<>();
+        List<String> movedIds = new ArrayList<>();
+        try {
+            long oldSize = Files.size(segment.getPath());
+            Segment replacement = null;
+            if (dead[1] < used) {
+                Path temp = directory.resolve(String.format("%08d%s", index, COMPACT_SUFFIX));
+                Files.deleteIfExists(temp);
+                LogSegment compacted = LogSegment.create(temp, index,
+                    (int) (LogSegment.FILE_HEADER_SIZE + used - dead[1]));
+                segment.scanForward((payload, position) -> {
+                    if (!isDead(payload, position, states)) {
+                        limiter.acquire(LogSegment.RECORD_OVERHEAD + payload.remaining());
+                        long moved = compacted.append(payload);
+                        if (moved != position) {
+                            from.add(position);
+                            to.add(moved);
+                            movedIds.add(readMessageId(payload));
+                        }
+                    }
+                    return true;
+                });
+                compacted.force();
+                if (segment.isCold()) {
+                    replacement = ColdSegment.archive(compacted, coldPath(index));
+                    Files.delete(temp);
+                } else {
+                    Files.move(temp, segmentPath(index), StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+                    replacement = LogSegment.open(segmentPath(index), index, false);
+                }
+            }
+            
+            synchronized (this) {
+                if (closed) {
+                    if (replacement instanceof ColdSegment) {
+                        ((ColdSegment) replacement).close();
+                    }
+                    return; // the file is already replaced; the next open picks it up
+                }
+                int i = segments.indexOf(segment);
+                if (replacement != null) {
+                    segments.set(i, replacement);
+                } else {
+                    segments.remove(i);
+                }
+                if (timeline != null) {
+                    for (int k = 0; k < movedIds.size(); k++) {
+                        timeline.relocate(movedIds.get(k), from.get(k), to.get(k));
+                    }
+                }
+            }
+            if (!from.isEmpty()) {
+                notifyRelocated(movedIds, from, to);
+            }
+            if (segment.isCold()) {
+                synchronized (retired) {
+                    retired.add((ColdSegment) segment); // readers may still hold it in a snapshot
+                }
+            }
+            long newSize = 0;
+            if (replacement != null) {
+                newSize = Files.size(replacement.getPath());
+            } else {
+                Files.delete(segment.getPath());
+            }
+            result.addSegment(replacement == null, dead[0], oldSize - newSize);
+        } catch (IOException e) {
+            throw new RuntimeException("Error compacting segment " + index + " of channel " + channelId, e);
+        }
+    }
+    
+    private void notifyRelocated(List<String> movedIds, List<Long> from, List<Long> to) {
+        String[] messageIds = movedIds.toArray(new String[0]);
+        long[] fromPositions = new long[from.size()];
+        long[] toPositions = new long[to.size()];
+        for (int i = 0; i < fromPositions.length; i++) {
+            fromPositions[i] = from.get(i);
+            toPositions[i] = to.get(i);
+        }
+        for (RelocationListener listener : relocationListeners) {
+            listener.relocated(messageIds, fromPositions, toPositions);
+        }
+    }
+    
+    public void addRelocationListener(RelocationListener listener) {
+        relocationListeners.add(listener);
+    }
+    
+    public void removeRelocationListener(RelocationListener listener) {
+        relocationListeners.remove(listener);
+    }
+    
+    private void closeRetiredSegments() {
+        synchronized (retired) {
+            try {
+                for (ColdSegment segment : retired) {
+                    segment.close();
+                }
+                retired.clear();
+            } catch (IOException e) {
+                throw new RuntimeException("Error closing replaced segment of channel " + channelId, e);
+            }
+        }
+    }
+    
+    public CompactionResult getLastCompaction() {
+        return lastCompaction;
+    }
+    
+    /**
+     * Copy the files of this log into an archive at the channel's current position,
+     * file to file with transferTo so history never passes through the heap:
+     *
+     *   [int fileCount] fileCount x [int nameLength][name][long length][bytes]
+     *
+     * Segments are copied up to their end as of the call, then the symbol table, which
+     * already holds every symbol those records refer to. Archiving and compaction wait
+     * meanwhile so no file is swapped out mid-copy; appends carry on.
+     */
+    public void exportFiles(FileChannel out) throws IOException {
+        synchronized (maintenanceLock) {
+            List<Segment> snapshot = snapshotSegments();
+            Path symbolsPath = directory.resolve(SYMBOLS_FILE);
+            writeInt(out, snapshot.size() + 1);
+            for (Segment segment : snapshot) {
+                long length = segment.isCold() ? Files.size(segment.getPath()) : segment.getEnd();
+                exportFile(out, segment.getPath(), length);
+            }
+            exportFile(out, symbolsPath, Files.size(symbolsPath));
+        }
+    }
+    
+    private static void exportFile(FileChannel out, Path file, long length) throws IOException {
+        byte[] name = file.getFileName().toString().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer header = ByteBuffer.allocate(4 + name.length + 8);
+        header.putInt(name.length).put(name).putLong(length);
+        header.flip();
+        while (header.hasRemaining()) {
+            out.write(header);
+        }
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            long copied = 0;
+            while (copied < length) {
+                copied += in.transferTo(copied, length - copied, out);
+            }
+        }
+    }
+    
+    /**
+     * Recreate log files written by exportFiles into an empty log directory,
+     * reading from the archive's current position with transferFrom
+     */
+    public static void importFiles(FileChannel in, Path directory) throws IOException {
+        Files.createDirectories(directory);
+        int fileCount = readInt(in);
+        for (int i = 0; i < fileCount; i++) {
+            byte[] name = new byte[readInt(in)];
+            readFully(in, ByteBuffer.wrap(name));
+            ByteBuffer lengthBuffer = ByteBuffer.allocate(8);
+            readFully(in, lengthBuffer);
+            long length = lengthBuffer.getLong(0);
+            
+            Path file = directory.resolve(new String(name, StandardCharsets.UTF_8)).normalize();
+            if (!directory.equals(file.getParent())) {
+                throw new IOException("Invalid file name in archive: " + file.getFileName());
+            }
+            try (FileChannel target = FileChannel.open(file, StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.WRITE)) {
+                long copied = 0;
+                while (copied < length) {
+                    long transferred = target.transferFrom(in, copied, length - copied);
+                    if (transferred <= 0) {
+                        throw new IOException("Unexpected end of archive in " + file.getFileName());
+                    }
+                    copied += transferred;
+                }
+                target.force(true);
+            }
+        }
+    }
+    
+    static void writeInt(FileChannel out, int value) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4);
+        buffer.putInt(0, value);
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+    
+    static int readInt(FileChannel in) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4);
+        readFully(in, buffer);
+        return buffer.getInt(0);
+    }
+    
+    static void readFully(FileChannel in, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (in.read(buffer) < 0) {
+                throw new IOException("Unexpected end of archive");
+            }
+        }
+    }
+    
+    /**
+     * Count messages that were sent and not deleted, without decoding them
+     */
+    public int countLiveMessages() {
+        int[] count = new int[1];
+        for (Segment segment : snapshotSegments()) {
+            segment.scanForward((payload, position) -> {
+                byte type = payload.get(0);
+                if (type == SEND) {
+                    count[0]++;
+                } else if (type == DELETE) {
+                    count[0]--;
+                }
+                return true;
+            });
+        }
+        return count[0];
+    }
+    
+    /**
+     * Visit live messages newest first, in send order, with their latest edit applied
+     * The visitor returns false to stop the scan early
+     */
+    public void scanMessages(Predicate<Message> visitor) {
+        Set<String> deleted = new HashSet<>();
+        Map<String, Message> edited = new HashMap<>();
+        List<Segment> snapshot = snapshotSegments();
+        boolean cold = false;
+        
+        for (int i = snapshot.size() - 1; i >= 0; i--) {
+            cold |= snapshot.get(i).isCold();
+            boolean more = snapshot.get(i).scanBackward((payload, position) -> {
+                byte type = payload.get(0);
+                String messageId = readMessageId(payload);
+                if (type == DELETE) {
+                    deleted.add(messageId);
+                    return true;
+                }
+                if (type == EDIT) {
+                    // Scanning backwards, the first edit seen is the latest one
+                    if (!deleted.contains(messageId) && !edited.containsKey(messageId)) {
+                        edited.put(messageId, decodeMessage(payload));
+                    }
+                    return true;
+                }
+                if (deleted.remove(messageId)) {
+                    edited.remove(messageId);
+                    return true;
+                }
+                Message latest = edited.remove(messageId);
+                return visitor.test(latest != null ? latest : decodeMessage(payload));
+            });
+            if (!more) {
+                break;
+            }
+        }
+        metrics.record(cold ? TierMetrics.Tier.COLD : TierMetrics.Tier.WARM);
+    }
+    
+    /**
+     * Read the newest live messages, returned oldest first
+     */
+    public List<Message> readRecent(int count) {
+        return readRecent(0, count);
+    }
+    
+    /**
+     * Page backwards: skip the newest messages, then read up to count older ones, oldest first
+     */
+    public List<Message> readRecent(int skip, int count) {
+        List<Message> recent = new ArrayList<>(Math.max(count, 0));
+        if (count <= 0) {
+            return recent;
+        }
+        int[] skipped = new int[1];
+        scanMessages(message -> {
+            if (skipped[0] < skip) {
+                skipped[0]++;
+                return true;
+            }
+            recent.add(message);
+            return recent.size() < count;
+        });
+        Collections.reverse(recent);
+        return recent;
+    }
+    
+    /**
+     * Read the message recorded at a position returned by appendSend or appendEdit
+     */
+    public Message readMessage(long position) {
+        Segment segment = findSegment(LogSegment.segmentOf(position));
+        if (segment == null) {
+            throw new IllegalArgumentException("No segment holds position " + Long.toHexString(position)
+                + " in log for channel " + channelId);
+        }
+        metrics.record(segment.isCold() ? TierMetrics.Tier.COLD : TierMetrics.Tier.WARM);
+        return decodeMessage(segment.read(LogSegment.offsetOf(position)));
+    }
+    
+    private synchronized Segment findSegment(int index) {
+        int low = 0;
+        int high = segments.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int midIndex = segments.get(mid).getIndex();
+            if (midIndex == index) {
+                return segments.get(mid);
+            }
+            if (midIndex < index) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Visit every SEND record oldest first, with its position; edits and deletes are skipped
+     */
+    public void forEachSent(ObjLongConsumer<Message> visitor) {
+        for (Segment segment : snapshotSegments()) {
+            segment.scanForward((payload, position) -> {
+                if (payload.get(0) == SEND) {
+                    visitor.accept(decodeMessage(payload), position);
+                }
+                return true;
+            });
+        }
+    }
+    
+    /**
+     * Replay every send, edit and delete, oldest first
+     */
+    public void replay(HistoryVisitor visitor) {
+        for (Segment segment : snapshotSegments()) {
+            segment.scanForward((payload, position) -> {
+                byte type = payload.get(0);
+                if (type == SEND) {
+                    visitor.sent(decodeMessage(payload), position);
+                } else if (type == EDIT) {
+                    visitor.edited(decodeMessage(payload), position);
+                } else if (type == DELETE) {
+                    visitor.deleted(readMessageId(payload), position);
+                }
+                return true;
+            });
+        }
+    }
+    
+    /**
+     * Find the current state of a message, or null if it never existed or was deleted
+     * Costs one table lookup and one record read once the timeline is built
+     */
+    public Message findMessage(String messageId) {
+        long position = positionOf(messageId);
+        if (position == MessageTimeline.DELETED) {
+            return null;
+        }
+        try {
+            Message message = readMessage(position);
+            if (message.getMessageId().equals(messageId)) {
+                return message;
+            }
+        } catch (RuntimeException e) {
+            // Fall through to the scan
+        }
+        // Compaction moved the record between the lookup and the read
+        return scanForMessage(messageId);
+    }
+    
+    /**
+     * Whether a message exists and has not been deleted, without reading it
+     */
+    public boolean containsMessage(String messageId) {
+        return positionOf(messageId) != MessageTimeline.DELETED;
+    }
+    
+    private long positionOf(String messageId) {
+        MessageTimeline timeline = timeline();
+        synchronized (this) {
+            int slot = timeline.slotOf(messageId);
+            return slot >= 0 ? timeline.positionAt(slot) : MessageTimeline.DELETED;
+        }
+    }
+    
+    /**
+     * The log's messages in send order, built with one pass over the log the first time;
+     * appends and compaction keep it current afterwards
+     *
+     * The pass reads ids and timestamps in place and runs without the append lock, holding
+     * off only compaction and archiving so positions stay valid. Records appended during
+     * the pass are caught up under the lock before the timeline is published.
+     * Callers must not hold the log lock.
+     */
+    private MessageTimeline timeline() {
+        synchronized (this) {
+            if (timeline != null) {
+                return timeline;
+            }
+        }
+        synchronized (maintenanceLock) {
+            List<Segment> snapshot;
+            synchronized (this) {
+                if (timeline != null) {
+                    return timeline;
+                }
+                snapshot = new ArrayList<>(segments);
+            }
+            MessageTimeline built = new MessageTimeline();
+            long[] resume = { 0 }; // position just past the last record tracked
+            for (Segment segment : snapshot) {
+                segment.scanForward((payload, position) -> {
+                    track(built, payload, position);
+                    resume[0] = position + LogSegment.RECORD_OVERHEAD + payload.remaining();
+                    return true;
+                });
+            }
+            synchronized (this) {
+                int first = LogSegment.segmentOf(resume[0]);
+                for (Segment segment : segments) {
+                    if (segment.getIndex() >= first) {
+                        segment.scanForward((payload, position) -> {
+                            if (position >= resume[0]) {
+                                track(built, payload, position);
+                            }
+                            return true;
+                        });
+                    }
+                }
+                timeline = built;
+                return timeline;
+            }
+        }
+    }
+    
+    private static void track(MessageTimeline timeline, ByteBuffer payload, long position) {
+        byte type = payload.get(0);
+        int offset = idOffset(payload);
+        long high = MessageTimeline.keyHigh(payload, offset);
+        long low = MessageTimeline.keyLow(payload, offset);
+        if (type == SEND) {
+            timeline.add(high, low, MessageCodec.readTimestamp(payload, 1), position);
+        } else if (type == EDIT) {
+            timeline.update(high, low, position);
+        } else {
+            timeline.remove(high, low);
+        }
+    }
+    
+    /**
+     * Up to count live messages sent just before a message, oldest first
+     * Returns null when the message does not exist or was deleted
+     */
+    public List<Message> readBefore(String messageId, int count) {
+        MessageTimeline timeline = timeline();
+        synchronized (this) {
+            int slot = timeline.slotOf(messageId);
+            return slot >= 0 ? readSlots(timeline, slot - 1, -1, count, Long.MAX_VALUE) : null;
+        }
+    }
+    
+    /**
+     * Up to count live messages sent just after a message, oldest first
+     * Returns null when the message does not exist or was deleted
+     */
+    public List<Message> readAfter(String messageId, int count) {
+        MessageTimeline timeline = timeline();
+        synchronized (this) {
+            int slot = timeline.slotOf(messageId);
+            return slot >= 0 ? readSlots(timeline, slot + 1, 1, count, Long.MAX_VALUE) : null;
+        }
+    }
+    
+    /**
+     * Up to count live messages sent before a time (epoch millis), oldest first
+     */
+    public List<Message> readBefore(long millis, int count) {
+        MessageTimeline timeline = timeline();
+        synchronized (this) {
+            return readSlots(timeline, timeline.firstSlotAtOrAfter(millis) - 1, -1, count, Long.MAX_VALUE);
+        }
+    }
+    
+    /**
+     * Up to count live messages sent at or after a time, oldest first
+     */
+    public List<Message> readAfter(long millis, int count) {
+        MessageTimeline timeline = timeline();
+        synchronized (this) {
+            return readSlots(timeline, timeline.firstSlotAtOrAfter(millis), 1, count, Long.MAX_VALUE);
+        }
+    }
+    
+    /**
+     * The first limit live messages sent from one time to another (epoch millis, inclusive)
+     */
+    public List<Message> readBetween(long from, long to, int limit) {
+        MessageTimeline timeline = timeline();
+        synchronized (this) {
+            return readSlots(timeline, timeline.firstSlotAtOrAfter(from), 1, limit, to);
+        }
+    }
+    
+    /**
+     * Walk slots from start in one direction and read the live messages met
+     * Runs under the log lock so compaction cannot move records mid-page
+     */
+    private List<Message> readSlots(MessageTimeline timeline, int start, int step, int count, long until) {
+        List<Message> page = new ArrayList<>();
+        for (int slot = start; slot >= 0 && slot < timeline.size() && page.size() < count; slot += step) {
+            if (timeline.timestampAt(slot) > until) {
+                break;
+            }
+            long position = timeline.positionAt(slot);
+            if (position != MessageTimeline.DELETED) {
+                page.add(readMessage(position));
+            }
+        }
+        if (step < 0) {
+            Collections.reverse(page);
+        }
+        return page;
+    }
+    
+    private Message scanForMessage(String messageId) {
+        byte[] id = BinaryFormat.encodeId(messageId);
+        Message[] found = new Message[1];
+        List<Segment> snapshot = snapshotSegments();
+        boolean cold = false;
+        
+        for (int i = snapshot.size() - 1; i >= 0; i--) {
+            cold |= snapshot.get(i).isCold();
+            boolean more = snapshot.get(i).scanBackward((payload, position) -> {
+                if (!BinaryFormat.idMatches(payload, idOffset(payload), id)) {
+                    return true;
+                }
+                // The newest record for an id decides its state
+                if (payload.get(0) != DELETE) {
+                    found[0] = decodeMessage(payload);
+                }
+                return false;
+            });
+            if (!more) {
+                break;
+            }
+        }
+        metrics.record(cold ? TierMetrics.Tier.COLD : TierMetrics.Tier.WARM);
+        return found[0];
+    }
+    
+    @Override
+    public synchronized void close() {
+        if (!closed) {
+            closed = true;
+            activeSegment().force();
+            try {
+                for (Segment segment : segments) {
+                    if (segment instanceof ColdSegment) {
+                        ((ColdSegment) segment).close();
+                    }
+                }
+                symbols.close();
+            } catch (IOException e) {
+                throw new RuntimeException("Error closing log for channel " + channelId, e);
+            }
+            closeRetiredSegments();
+        }
+    }
+    
+    // Record decoding; SEND and EDIT hold a MessageCodec message after the type byte
+    
+    private Message decodeMessage(ByteBuffer payload) {
+        ByteBuffer in = payload.duplicate();
+        in.position(1);
+        return MessageCodec.decode(in, symbols);
+    }
+    
+    private static int idOffset(ByteBuffer payload) {
+        return payload.get(0) == DELETE ? 1 : 1 + MessageCodec.ID_OFFSET;
+    }
+    
+    private static String readMessageId(ByteBuffer payload) {
+        ByteBuffer in = payload.duplicate();
+        in.position(idOffset(payload));
+        return BinaryFormat.getId(in);
+    }
+    
+    public String getChannelId() {
+        return channelId;
+    }
+    
+    public Path getDirectory() {
+        return directory;
+    }
+    
+    public List<Segment> getSegments() {
+        return snapshotSegments();
+    }
+    
+    public TierMetrics getTierMetrics() {
+        return metrics;
+    }
+    
+    public long getSize() {
+        long size = 0;
+        for (Segment segment : snapshotSegments()) {
+            size += segment.getEnd();
+        }
+        return size;
+    }
+}
@@ -1,5 +1,8 @@
 package utils;
 
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.Date;
 import java.util.Scanner;
 
 /**
@@ -114,6 +117,36 @@ public class ConsoleUtil {
         }
     }
     
+    /**
+     * Get a date and time as yyyy-MM-dd HH:mm, or a bare date meaning its midnight
+     */
+    public static Date getDateInput(String prompt) {
+        while (true) {
+            String input = getInput(prompt + " (yyyy-MM-dd HH:mm)");
+            Date date = parseDate(input);
+            if (date != null) {
+                return date;
+            }
+            printError("Please enter a date like 2024-01-31 or 2024-01-31 18:30.");
+        }
+    }
+    
+    /**
+     * Parse yyyy-MM-dd HH:mm or yyyy-MM-dd in local time; null when the text is neither
+     */
+    public static Date parseDate(String text) {
+        for (String pattern : new String[] {"yyyy-MM-dd HH:mm", "yyyy-MM-dd"}) {
+            SimpleDateFormat format = new SimpleDateFormat(pattern);
+            format.setLenient(false);
+            ParsePosition position = new ParsePosition(0);
+            Date date = format.parse(text, position);
+            if (date != null && position.getIndex() == text.length()) {
+                return date;
+            }
+        }
+        return null;
+    }
+    
     /**
      * Wait for user to press Enter
      */